@@ -0,0 +1,56 @@
+package orgs.bench;
+
+import org.openjdk.jmh.annotations.*;
+import orgs.clintGUI.ChatEventBus;
+import orgs.clintGUI.OnNewMessageListener;
+import orgs.model.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of publishing one event through ChatEventBus
+ * with 1, 10 and 100 subscribers, unfiltered and filtered by chat id.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatEventBusBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int subscribers;
+
+    private ChatEventBus allChatsBus;
+    private ChatEventBus perChatBus;
+    private Message message;
+    private int received; // Written by the listeners so dispatch cannot be optimised away
+
+    @Setup
+    public void setUp() {
+        allChatsBus = new ChatEventBus();
+        perChatBus = new ChatEventBus();
+        for (int i = 0; i < subscribers; i++) {
+            OnNewMessageListener listener = m -> received++;
+            allChatsBus.subscribe(OnNewMessageListener.class, listener);
+            // Every subscriber watches its own chat, as open chat views would
+            perChatBus.subscribe(OnNewMessageListener.class, i, listener);
+        }
+        message = new Message();
+        message.setChatId(0);
+        message.setContent("hello");
+    }
+
+    @Benchmark
+    public int publishToAll() {
+        allChatsBus.publish(OnNewMessageListener.class, message.getChatId(), l -> l.onNewMessageReceived(message));
+        return received;
+    }
+
+    @Benchmark
+    public int publishFilteredByChat() {
+        perChatBus.publish(OnNewMessageListener.class, message.getChatId(), l -> l.onNewMessageReceived(message));
+        return received;
+    }
+}
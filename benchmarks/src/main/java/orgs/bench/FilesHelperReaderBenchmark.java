@@ -0,0 +1,53 @@
+package orgs.bench;
+
+import org.openjdk.jmh.annotations.*;
+import orgs.utils.FilesHelperReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FilesHelperReader.readUntilChar on large files of ';'-delimited records.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilesHelperReaderBenchmark {
+
+    @Param({"1", "16", "64"})
+    private int sizeMb;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("files-helper-reader", ".txt");
+        long target = sizeMb * 1024L * 1024L;
+        long written = 0;
+        int record = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            while (written < target) {
+                String line = "record-" + record++ + ",some field value,another field,1234567890;";
+                writer.write(line);
+                written += line.length();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<String> readUntilChar() throws IOException {
+        return FilesHelperReader.readUntilChar(file.toString(), ';');
+    }
+}
@@ -0,0 +1,46 @@
+package orgs.bench;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.*;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a timestamp through LocalDateTimeAdapter, which runs for every
+ * date field of every model object on the wire.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalDateTimeAdapterBenchmark {
+
+    private final LocalDateTimeAdapter adapter = new LocalDateTimeAdapter();
+    private LocalDateTime value;
+    private JsonElement serialized;
+
+    @Setup
+    public void setUp() {
+        value = LocalDateTime.of(2024, 5, 1, 12, 34, 56, 789_000_000);
+        serialized = adapter.serialize(value, LocalDateTime.class, null);
+    }
+
+    @Benchmark
+    public JsonElement serialize() {
+        return adapter.serialize(value, LocalDateTime.class, null);
+    }
+
+    @Benchmark
+    public LocalDateTime deserialize() {
+        return adapter.deserialize(serialized, LocalDateTime.class, null);
+    }
+
+    @Benchmark
+    public LocalDateTime roundTrip() {
+        return adapter.deserialize(adapter.serialize(value, LocalDateTime.class, null), LocalDateTime.class, null);
+    }
+}
@@ -0,0 +1,57 @@
+package orgs.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.*;
+import orgs.model.Message;
+import orgs.protocol.Response;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a GET_CHAT_MESSAGES page into List&lt;Message&gt;, the way ChatClient.getChatMessages
+ * does it: the envelope is parsed first, then its data string is parsed a second time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageDecodingBenchmark {
+
+    private static final Type MESSAGE_LIST_TYPE = new TypeToken<List<Message>>() {}.getType();
+
+    @Param({"20", "50", "500"})
+    private int messages;
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .serializeNulls()
+            .create();
+
+    private String payloadJson;
+    private String envelopeJson;
+
+    @Setup
+    public void setUp() {
+        payloadJson = gson.toJson(SampleData.messages(messages));
+        envelopeJson = new Response(true, "Messages retrieved.", payloadJson).toJson();
+    }
+
+    @Benchmark
+    public List<Message> decodePayload() {
+        return gson.fromJson(payloadJson, MESSAGE_LIST_TYPE);
+    }
+
+    @Benchmark
+    public List<Message> decodeEnvelopeAndPayload() {
+        Response response = gson.fromJson(envelopeJson, Response.class);
+        return gson.fromJson(response.getData(), MESSAGE_LIST_TYPE);
+    }
+}
@@ -0,0 +1,81 @@
+package orgs.bench;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import orgs.model.Media;
+import orgs.protocol.Command;
+import orgs.protocol.Request;
+import orgs.protocol.Response;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization cost of the control protocol envelopes with realistic payloads:
+ * a media SEND_MESSAGE request and a GET_CHAT_MESSAGES response carrying a page of messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtocolBenchmark {
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .serializeNulls()
+            .create();
+
+    private Map<String, Object> sendMediaData;
+    private Request sendMediaRequest;
+    private Response messagesResponse;
+    private String messagesResponseJson;
+
+    @Setup
+    public void setUp() {
+        Media media = new Media();
+        media.setFileName("holiday_video_2024.mp4");
+        media.setFileSize(48_213_771L);
+        media.setMediaType("video");
+        media.setUploadedByUserId(42);
+        media.setUploadedAt(LocalDateTime.now());
+
+        sendMediaData = new HashMap<>();
+        sendMediaData.put("chat_id", 1234);
+        sendMediaData.put("content", "Look at this, recorded yesterday at the beach!");
+        sendMediaData.put("media", media);
+        sendMediaRequest = new Request(Command.SEND_MESSAGE, sendMediaData);
+
+        List<orgs.model.Message> page = SampleData.messages(50);
+        messagesResponse = new Response(true, "Messages retrieved.", gson.toJson(page));
+        messagesResponseJson = messagesResponse.toJson();
+    }
+
+    @Benchmark
+    public String serializeSendMediaRequest() {
+        // What ChatClient.sendMediaMessage does: payload to JSON, then the envelope to JSON
+        return gson.toJson(new Request(Command.SEND_MESSAGE, sendMediaData));
+    }
+
+    @Benchmark
+    public String serializeExistingRequest() {
+        return gson.toJson(sendMediaRequest);
+    }
+
+    @Benchmark
+    public String serializeMessagesResponse() {
+        return messagesResponse.toJson();
+    }
+
+    @Benchmark
+    public Response parseMessagesResponseEnvelope() {
+        // What listenForServerMessages does for every line
+        return gson.fromJson(messagesResponseJson, Response.class);
+    }
+}
@@ -0,0 +1,39 @@
+package orgs.bench;
+
+import orgs.model.Media;
+import orgs.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic model objects shared by the benchmarks.
+ */
+final class SampleData {
+
+    private SampleData() {
+    }
+
+    /**
+     * @param count The number of messages.
+     * @return A chat page where every fifth message carries an image.
+     */
+    static List<Message> messages(int count) {
+        List<Message> messages = new ArrayList<>(count);
+        LocalDateTime sentAt = LocalDateTime.of(2024, 5, 1, 12, 0);
+        for (int i = 0; i < count; i++) {
+            Message message = new Message(10_000 + i, 1234, 40 + i % 5,
+                    "Message number " + i + " with some ordinary chat text in it, like people write.",
+                    i % 5 == 0 ? "image" : "text", sentAt.plusSeconds(i * 37L),
+                    i % 5 == 0 ? 500 + i : null, i % 7 == 0 ? 9_999 + i : null, null, null,
+                    i % 11 == 0 ? sentAt.plusMinutes(i) : null, false, i % 3);
+            if (i % 5 == 0) {
+                message.setMedia(new Media(500 + i, "uploads/images/" + i + ".jpg", null, 183_000L + i,
+                        "image", 40 + i % 5, sentAt.plusSeconds(i * 37L), "IMG_" + i + ".jpg"));
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+}
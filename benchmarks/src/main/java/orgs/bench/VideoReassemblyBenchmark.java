@@ -0,0 +1,61 @@
+package orgs.bench;
+
+import org.openjdk.jmh.annotations.*;
+import orgs.utils.VideoReceiverThread;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fragment reassembly in VideoReceiverThread: feeds every packet of one frame,
+ * built the same way VideoCaptureThread fragments a JPEG (1400 byte payloads).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VideoReassemblyBenchmark {
+
+    private static final int MAX_PACKET_SIZE = 1400;
+
+    /** Encoded frame size in bytes (a quality 20 webcam JPEG is typically 10-40 KB). */
+    @Param({"12000", "40000", "120000"})
+    private int frameSize;
+
+    private byte[][] fragments;
+    private VideoReceiverThread receiver;
+    private int frameId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        byte[] frame = new byte[frameSize];
+        ThreadLocalRandom.current().nextBytes(frame);
+        int totalFragments = (int) Math.ceil((double) frame.length / MAX_PACKET_SIZE);
+        fragments = new byte[totalFragments][];
+        for (int i = 0; i < totalFragments; i++) {
+            int offset = i * MAX_PACKET_SIZE;
+            int length = Math.min(MAX_PACKET_SIZE, frame.length - offset);
+            fragments[i] = ByteBuffer.allocate(12 + length).putInt(0).putInt(i).putInt(totalFragments)
+                    .put(frame, offset, length).array();
+        }
+        receiver = new VideoReceiverThread(null);
+        frameId = 0;
+    }
+
+    @Benchmark
+    public byte[] reassembleFrame() {
+        int id = frameId++;
+        byte[] result = null;
+        for (byte[] fragment : fragments) {
+            ByteBuffer.wrap(fragment).putInt(0, id); // Next frame id, like a live stream
+            byte[] frame = receiver.acceptPacket(fragment, fragment.length);
+            if (frame != null) {
+                result = frame;
+            }
+        }
+        return result;
+    }
+}
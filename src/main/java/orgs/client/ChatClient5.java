@@ -4,6 +4,8 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import org.opencv.core.Core;
+import orgs.logging.Log;
+import orgs.logging.LogSite;
 import orgs.model.Chat;
 import orgs.model.Media;
 import orgs.model.Message;
@@ -11,6 +13,8 @@ import orgs.model.User;
 import orgs.protocol.Command;
 import orgs.protocol.Request;
 import orgs.protocol.Response;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
 import orgs.utils.*;
 
 import javax.swing.*;
@@ -31,10 +35,14 @@ import static orgs.utils.StunClient.getPublicAddress;
 
 
 public class ChatClient5 implements AutoCloseable {
-    private static final String SERVER_IP = "192.168.1.99";
+    // Download progress is redrawn at most 10 times per second
+    private static final LogSite PROGRESS_LOG = Log.site(1, 100);
+
+    // Defaults point at the staging server; override with -Dtusal.server.host=... (e.g. to use StubChatServer)
+    private static final String SERVER_IP = System.getProperty("tusal.server.host", "192.168.1.99");
     //private static final String SERVER_IP ="3.83.141.156" ;
-    private static final int SERVER_PORT = 6373;
-    private static final int FILE_TRANSFER_PORT = 6374;
+    private static final int SERVER_PORT = Integer.getInteger("tusal.server.port", 6373);
+    private static final int FILE_TRANSFER_PORT = Integer.getInteger("tusal.file.port", 6374);
 
     private String currentFilePathToSend;
     private String pendingFileTransferId;
@@ -51,6 +59,7 @@ public class ChatClient5 implements AutoCloseable {
     private User currentUser;
 
     private final BlockingQueue<Response> responseQueue = new LinkedBlockingQueue<>();
+    private final Tracer tracer = Tracer.get();
 
     // Separate UDP Sockets for Video and Audio
     private DatagramSocket udpVideoSocket; // UDP socket for video stream
@@ -80,12 +89,12 @@ public class ChatClient5 implements AutoCloseable {
             socket = new Socket(SERVER_IP, SERVER_PORT);
             out = new PrintWriter(socket.getOutputStream(), true);
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            System.out.println("Connected to chat server on main port.");
+            Log.info("Connected to chat server on main port.");
 
             new Thread(this::listenForServerMessages, "ServerListener").start();
 
         } catch (IOException e) {
-            System.err.println("Error connecting to server: " + e.getMessage());
+            Log.error("Error connecting to server: " + e.getMessage());
             System.exit(1);
         }
     }
@@ -96,24 +105,24 @@ public class ChatClient5 implements AutoCloseable {
             while ((serverResponseJson = in.readLine()) != null) {
 
                 Response response = gson.fromJson(serverResponseJson, Response.class);
-                System.out.println("[DEBUG - Raw Server Response]: " + serverResponseJson);
+                Log.debug("Raw server response: %s", serverResponseJson);
 
                 if ("READY_TO_RECEIVE_FILE".equals(response.getMessage())) {
-                    System.out.println("Server is ready for file transfer. Initiating file send...");
+                    Log.info("Server is ready for file transfer. Initiating file send...");
                     Type type = new TypeToken<Map<String, String>>() {}.getType();
                     Map<String, String> data = gson.fromJson(response.getData(), type);
 
-                    System.out.println(data.get("transfer_id"));
+                    Log.debug("Transfer id: %s", data.get("transfer_id"));
                     pendingFileTransferId = data.get("transfer_id");
 
                     if (pendingFileTransferId != null) {
                         sendFileBytes(currentFilePathToSend, pendingFileTransferId);
                     } else {
-                        System.err.println("Error: Server responded READY_TO_RECEIVE_FILE but no transfer_id found in data.");
+                        Log.error("Error: Server responded READY_TO_RECEIVE_FILE but no transfer_id found in data.");
                     }
                     continue;
                 }
-                System.out.println(" ---------- new message ");
+                Log.debug("Dispatching server response: %s", response.getMessage());
 
                 String commandcall = response.getMessage();
                 switch (commandcall) {
@@ -127,7 +136,7 @@ public class ChatClient5 implements AutoCloseable {
                         String callerPublicAudioIp = (String) offerData.get("caller_public_audio_ip"); // NEW
                         int callerUdpAudioPort = ((Double) offerData.get("caller_udp_audio_port")).intValue(); // NEW
 
-                        System.out.println("Incoming video call from " + callerUsername + " (Video: " + callerPublicVideoIp + ":" + callerUdpVideoPort + ", Audio: " + callerPublicAudioIp + ":" + callerUdpAudioPort + ")");
+                        Log.println("Incoming video call from " + callerUsername + " (Video: " + callerPublicVideoIp + ":" + callerUdpVideoPort + ", Audio: " + callerPublicAudioIp + ":" + callerUdpAudioPort + ")");
 
                         final int finalCallerId = callerId;
                         final String finalCallerPublicVideoIp = callerPublicVideoIp;
@@ -148,7 +157,7 @@ public class ChatClient5 implements AutoCloseable {
                             );
                             boolean acceptCall = (choice == JOptionPane.YES_OPTION);
 
-                            try {
+                            try (Span callSpan = tracer.start("call answer", "call").arg("callerId", finalCallerId)) {
                                 // Get own public video and audio addresses via STUN
                                 InetSocketAddress publicVideoAddress = getPublicAddress(udpVideoSocket);
                                 InetSocketAddress publicAudioAddress = getPublicAddress(udpAudioSocket);
@@ -159,7 +168,7 @@ public class ChatClient5 implements AutoCloseable {
                                 int myPublicAudioPort = publicAudioAddress != null ? publicAudioAddress.getPort() : -1;
 
                                 if (myPublicVideoIp == null || myPublicVideoPort == -1 || myPublicAudioIp == null || myPublicAudioPort == -1) {
-                                    System.err.println("Could not determine own public video/audio IP/port via STUN. Cannot answer call.");
+                                    Log.error("Could not determine own public video/audio IP/port via STUN. Cannot answer call.");
                                     acceptCall = false; // Force reject if STUN fails
                                 }
 
@@ -185,16 +194,14 @@ public class ChatClient5 implements AutoCloseable {
 
                                     sendUdpPunchingPackets(); // Punch holes for both streams
                                     startMediaCallThreads();
-                                    System.out.println("Accepted call from " + finalCallerUsername + ". Initiating media stream...");
+                                    Log.println("Accepted call from " + finalCallerUsername + ". Initiating media stream...");
                                 } else {
-                                    System.out.println("Rejected call from " + finalCallerUsername + ".");
+                                    Log.println("Rejected call from " + finalCallerUsername + ".");
                                 }
                             } catch (IOException e) {
-                                System.err.println("Error responding to video call offer: " + e.getMessage());
-                                e.printStackTrace();
+                                Log.error("Error responding to video call offer: " + e.getMessage(), e);
                             } catch (Exception e) {
-                                System.err.println("STUN discovery error during call answer: " + e.getMessage());
-                                e.printStackTrace();
+                                Log.error("STUN discovery error during call answer: " + e.getMessage(), e);
                             }
                         });
                         break;
@@ -211,7 +218,7 @@ public class ChatClient5 implements AutoCloseable {
                             remoteVideoIp = InetAddress.getByName(calleePublicVideoIp);
                             remoteAudioIp = InetAddress.getByName(calleePublicAudioIp); // NEW
                         } catch (UnknownHostException e) {
-                            System.err.println("Invalid callee IP address: " + calleePublicVideoIp + " or " + calleePublicAudioIp + " - " + e.getMessage());
+                            Log.error("Invalid callee IP address: " + calleePublicVideoIp + " or " + calleePublicAudioIp + " - " + e.getMessage());
                             break;
                         }
                         remoteVideoUdpPort = calleeUdpVideoPort;
@@ -219,18 +226,18 @@ public class ChatClient5 implements AutoCloseable {
 
                         sendUdpPunchingPackets(); // Punch holes for both streams
                         startMediaCallThreads();
-                        System.out.println("Call accepted by " + (String)acceptedData.get("callee_username") + ". Starting media stream.");
+                        Log.println("Call accepted by " + (String)acceptedData.get("callee_username") + ". Starting media stream.");
                         break;
 
                     case "VIDEO_CALL_REJECTED":
                         Map<String, Object> rejectedData = gson.fromJson(response.getData(), new TypeToken<Map<String, Object>>(){}.getType());
-                        System.out.println("Video call rejected by " + (String)rejectedData.get("callee_username"));
+                        Log.println("Video call rejected by " + (String)rejectedData.get("callee_username"));
                         stopMediaCallThreads();
                         break;
 
                     case "VIDEO_CALL_ENDED":
                         Map<String, Object> endedData = gson.fromJson(response.getData(), new TypeToken<Map<String, Object>>(){}.getType());
-                        System.out.println("Video call ended by " + (String)endedData.get("ender_id"));
+                        Log.println("Video call ended by " + (String)endedData.get("ender_id"));
                         stopMediaCallThreads();
                         break;
 
@@ -246,19 +253,19 @@ public class ChatClient5 implements AutoCloseable {
                         mediaInfo = String.format(" [Media Type: %s, File: %s]",
                                 newMessage.getMedia().getMediaType(), newMessage.getMedia().getFileName());
                     }
-                    System.out.println(String.format("\n[NEW MESSAGE from %s in Chat ID %d]: %s%s",
+                    Log.println(String.format("\n[NEW MESSAGE from %s in Chat ID %d]: %s%s",
                             senderInfo, contentToDisplay, mediaInfo));
-                    System.out.print("> ");
+                    Log.print("> ");
                 } else {
                     responseQueue.put(response);
                 }
             }
         } catch (SocketException e) {
-            System.out.println("Server connection lost: " + e.getMessage());
+            Log.warn("Server connection lost: " + e.getMessage());
         } catch (IOException e) {
-            System.err.println("Error reading from server: " + e.getMessage());
+            Log.error("Error reading from server: " + e.getMessage());
         } catch (InterruptedException e) {
-            System.err.println("Listener thread interrupted: " + e.getMessage());
+            Log.error("Listener thread interrupted: " + e.getMessage());
             Thread.currentThread().interrupt();
         } finally {
             closeConnection();
@@ -267,22 +274,22 @@ public class ChatClient5 implements AutoCloseable {
 
 
     public void startClient() {
-        System.out.println("Welcome to the Tuasil Messaging Client!");
+        Log.println("Welcome to the Tuasil Messaging Client!");
 
         while (currentUser == null) {
-            System.out.println("\n--- Auth Options ---");
-            System.out.println("1. Login");
-            System.out.println("2. Register");
-            System.out.print("Choose an option: ");
+            Log.println("\n--- Auth Options ---");
+            Log.println("1. Login");
+            Log.println("2. Register");
+            Log.print("Choose an option: ");
             String authChoice = scanner.nextLine();
 
             Map<String, Object> authData = new HashMap<>();
             String phoneNumber, password, firstName, lastName;
 
             if ("1".equals(authChoice)) {
-                System.out.print("Enter phone number: ");
+                Log.print("Enter phone number: ");
                 phoneNumber = scanner.nextLine();
-                System.out.print("Enter password: ");
+                Log.print("Enter password: ");
                 password = scanner.nextLine();
                 authData.put("phone_number", phoneNumber);
                 authData.put("password", password);
@@ -292,32 +299,32 @@ public class ChatClient5 implements AutoCloseable {
 
                 if (loginResponse != null && loginResponse.isSuccess()) {
                     this.currentUser = gson.fromJson(loginResponse.getData(), User.class);
-                    System.out.println("Logged in as: " + currentUser.getPhoneNumber() + " (" + currentUser.getFirstName() + " " + currentUser.getLastName() + ")");
+                    Log.println("Logged in as: " + currentUser.getPhoneNumber() + " (" + currentUser.getFirstName() + " " + currentUser.getLastName() + ")");
                     try {
                         // Initialize separate UDP sockets for video and audio
                         udpVideoSocket = new DatagramSocket();
                         localVideoUdpPort = udpVideoSocket.getLocalPort();
-                        System.out.println("Client UDP video socket opened on port: " + localVideoUdpPort);
+                        Log.info("Client UDP video socket opened on port: " + localVideoUdpPort);
 
                         udpAudioSocket = new DatagramSocket();
                         localAudioUdpPort = udpAudioSocket.getLocalPort();
-                        System.out.println("Client UDP audio socket opened on port: " + localAudioUdpPort);
+                        Log.info("Client UDP audio socket opened on port: " + localAudioUdpPort);
 
                     } catch (SocketException e) {
-                        System.err.println("Error opening UDP sockets: " + e.getMessage());
+                        Log.error("Error opening UDP sockets: " + e.getMessage());
                     }
                     break;
                 } else if (loginResponse != null) {
-                    System.out.println("Login failed: " + loginResponse.getMessage());
+                    Log.println("Login failed: " + loginResponse.getMessage());
                 }
             } else if ("2".equals(authChoice)) {
-                System.out.print("Enter phone number: ");
+                Log.print("Enter phone number: ");
                 phoneNumber = scanner.nextLine();
-                System.out.print("Enter password: ");
+                Log.print("Enter password: ");
                 password = scanner.nextLine();
-                System.out.print("Enter first name: ");
+                Log.print("Enter first name: ");
                 firstName = scanner.nextLine();
-                System.out.print("Enter last name: ");
+                Log.print("Enter last name: ");
                 lastName = scanner.nextLine();
 
                 authData.put("phone_number", phoneNumber);
@@ -329,45 +336,45 @@ public class ChatClient5 implements AutoCloseable {
                 Response registerResponse = sendRequestAndAwaitResponse(registerRequest);
 
                 if (registerResponse != null && registerResponse.isSuccess()) {
-                    System.out.println("Registration successful! You can now log in.");
+                    Log.println("Registration successful! You can now log in.");
                 } else if (registerResponse != null) {
-                    System.out.println("Registration failed: " + registerResponse.getMessage());
+                    Log.println("Registration failed: " + registerResponse.getMessage());
                 }
             } else {
-                System.out.println("Invalid option.");
+                Log.println("Invalid option.");
             }
         }
 
         while (currentUser != null) {
             displayCommands();
-            System.out.print("Enter command number: ");
+            Log.print("Enter command number: ");
             String commandInput = scanner.nextLine();
             handleUserInput(commandInput);
         }
     }
 
     private void displayCommands() {
-        System.out.println("\n--- Commands ---");
-        System.out.println("1. Send Message (Text/Media)");
-        System.out.println("2. Get Chat Messages");
-        System.out.println("3. Create Chat");
-        System.out.println("4. Manage Profile (View/Update/Delete)");
-        System.out.println("5. Get All Users");
-        System.out.println("6. My Chats");
-        System.out.println("7. Manage Chat Participants");
-        System.out.println("8. My Contacts (View/Manage)");
-        System.out.println("9. Block/Unblock User");
-        System.out.println("10. My Notifications");
-        System.out.println("11. Update/Delete Message");
-        System.out.println("12. Delete Chat");
-        System.out.println("13. Logout");
-        System.out.println("14. Get Media File");
-        System.out.println("15. get messages after id ");
-        System.out.println("16. Get User by id");
-        System.out.println("17. Get User by phone number");
-        System.out.println("18. Get chat by id");
-        System.out.println("19. Initiate Video Call");
-        System.out.println("20. End Video Call");
+        Log.println("\n--- Commands ---");
+        Log.println("1. Send Message (Text/Media)");
+        Log.println("2. Get Chat Messages");
+        Log.println("3. Create Chat");
+        Log.println("4. Manage Profile (View/Update/Delete)");
+        Log.println("5. Get All Users");
+        Log.println("6. My Chats");
+        Log.println("7. Manage Chat Participants");
+        Log.println("8. My Contacts (View/Manage)");
+        Log.println("9. Block/Unblock User");
+        Log.println("10. My Notifications");
+        Log.println("11. Update/Delete Message");
+        Log.println("12. Delete Chat");
+        Log.println("13. Logout");
+        Log.println("14. Get Media File");
+        Log.println("15. get messages after id ");
+        Log.println("16. Get User by id");
+        Log.println("17. Get User by phone number");
+        Log.println("18. Get chat by id");
+        Log.println("19. Initiate Video Call");
+        Log.println("20. End Video Call");
     }
 
     private void handleUserInput(String commandInput) {
@@ -377,48 +384,48 @@ public class ChatClient5 implements AutoCloseable {
         try {
             switch (commandInput) {
                 case "1": // Send Message (Unified)
-                    System.out.print("Enter Chat ID: ");
+                    Log.print("Enter Chat ID: ");
                     int messageChatId = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Is this a media message? (yes/no): ");
+                    Log.print("Is this a media message? (yes/no): ");
                     String isMedia = scanner.nextLine().toLowerCase();
 
                     data.put("chat_id", messageChatId);
 
                     if ("yes".equals(isMedia)) {
-                        System.out.print("Enter local file path (e.g., C:/images/photo.jpg or /home/user/video.mp4): ");
+                        Log.print("Enter local file path (e.g., C:/images/photo.jpg or /home/user/video.mp4): ");
                         String filePath = scanner.nextLine();
 
                         filePath = filePath.trim();
                         filePath = filePath.replace('\\', '/').replace("\u202A", "").replace("\u202B", "");
 
-                        System.out.println("Processed Path: '" + filePath + "'");
-                        System.out.println("Processed Path Length: " + filePath.length());
+                        Log.println("Processed Path: '" + filePath + "'");
+                        Log.println("Processed Path Length: " + filePath.length());
 
 
                         File file = new File(filePath);
 
 
                         if (!file.exists()) {
-                            System.out.println("Error: File does not exist at " + filePath);
-                            System.out.println("Current working directory: " + System.getProperty("user.dir"));
+                            Log.println("Error: File does not exist at " + filePath);
+                            Log.println("Current working directory: " + System.getProperty("user.dir"));
                             return;
                         }
 
                         if (!file.isFile()) {
-                            System.out.println("Error: Path is not a regular file (it might be a directory or special file) at " + filePath);
+                            Log.println("Error: Path is not a regular file (it might be a directory or special file) at " + filePath);
                             return;
                         }
 
 
                         if (!file.exists() || !file.isFile()) {
-                            System.out.println("Error: File not found or is not a regular file at " + filePath);
+                            Log.println("Error: File not found or is not a regular file at " + filePath);
                             return;
                         }
                         currentFilePathToSend = filePath;
                         long fileSize = file.length();
                         String fileName = file.getName();
 
-                        System.out.print("Enter caption (optional, press Enter to skip): ");
+                        Log.print("Enter caption (optional, press Enter to skip): ");
                         String caption = scanner.nextLine();
 
                         String mediaType;
@@ -429,7 +436,7 @@ public class ChatClient5 implements AutoCloseable {
                         } else if (fileName.matches(".*\\.(mp3|wav|ogg)$")) {
                             mediaType = "voiceNote";
                         } else {
-                            System.out.print("Enter media type (image, video, voiceNote, file): ");
+                            Log.print("Enter media type (image, video, voiceNote, file): ");
                             mediaType = scanner.nextLine();
                         }
 
@@ -445,24 +452,24 @@ public class ChatClient5 implements AutoCloseable {
                         request = new Request(Command.SEND_MESSAGE, data);
 
                     } else {
-                        System.out.print("Enter message content: ");
+                        Log.print("Enter message content: ");
                         String textContent = scanner.nextLine();
                         if (textContent.trim().isEmpty()) {
-                            System.out.println("Text message content cannot be empty.");
+                            Log.println("Text message content cannot be empty.");
                             return;
                         }
-                        System.out.println("hello "+ textContent);
+                        Log.debug("hello "+ textContent);
                         data.put("content", textContent);
                         request = new Request(Command.SEND_MESSAGE, data);
                     }
                     break;
 
                 case "2": // Get Chat Messages
-                    System.out.print("Enter Chat ID: ");
+                    Log.print("Enter Chat ID: ");
                     int getChatId = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Enter limit (number of messages to fetch): ");
+                    Log.print("Enter limit (number of messages to fetch): ");
                     int limit = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Enter offset (starting point): ");
+                    Log.print("Enter offset (starting point): ");
                     int offset = Integer.parseInt(scanner.nextLine());
                     data.put("chat_id", getChatId);
                     data.put("limit", limit);
@@ -473,9 +480,9 @@ public class ChatClient5 implements AutoCloseable {
                     if (messagesResponse != null && messagesResponse.isSuccess() && "Messages retrieved.".equals(messagesResponse.getMessage())) {
                         Type messageListType = new TypeToken<List<Message>>() {}.getType();
                         List<Message> messages = gson.fromJson(messagesResponse.getData(), messageListType);
-                        System.out.println("\n--- Messages in Chat ID: " + getChatId + " ---");
+                        Log.println("\n--- Messages in Chat ID: " + getChatId + " ---");
                         if (messages == null || messages.isEmpty()) {
-                            System.out.println("No messages found in this chat.");
+                            Log.println("No messages found in this chat.");
                         } else {
                             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
                             for (Message msg : messages) {
@@ -486,23 +493,23 @@ public class ChatClient5 implements AutoCloseable {
                                     mediaInfo = String.format(" [Media Type: %s, File: %s, ID: %s]",
                                             msg.getMedia().getMediaType(), msg.getMedia().getFileName(), msg.getMedia().getTransferId());
                                 }
-                                System.out.printf("[%s] %s: %s%s (Views: %d)\n",
+                                Log.printf("[%s] %s: %s%s (Views: %d)\n",
                                         msg.getSentAt().format(formatter), senderInfo, contentToDisplay, mediaInfo, msg.getViewCount());
                             }
                         }
                     } else if (messagesResponse != null) {
-                        System.out.println("Failed to get messages: " + messagesResponse.getMessage());
+                        Log.println("Failed to get messages: " + messagesResponse.getMessage());
                     }
                     return;
 
                 case "3": // Create Chat
-                    System.out.print("Enter chat type (private, group, channel): ");
+                    Log.print("Enter chat type (private, group, channel): ");
                     String chatType = scanner.nextLine();
-                    System.out.print("Enter chat name (optional for private, required for group/channel): ");
+                    Log.print("Enter chat name (optional for private, required for group/channel): ");
                     String chatName = scanner.nextLine();
-                    System.out.print("Enter chat description (optional): ");
+                    Log.print("Enter chat description (optional): ");
                     String chatDescription = scanner.nextLine();
-                    System.out.print("Enter public link (optional, for public channels only): ");
+                    Log.print("Enter public link (optional, for public channels only): ");
                     String publicLink = scanner.nextLine();
 
                     data.put("chat_type", chatType);
@@ -521,17 +528,17 @@ public class ChatClient5 implements AutoCloseable {
                     if (allUsersResponse != null && allUsersResponse.isSuccess() && "All users retrieved.".equals(allUsersResponse.getMessage())) {
                         Type userListType = new TypeToken<List<User>>() {}.getType();
                         List<User> users = gson.fromJson(allUsersResponse.getData(), userListType);
-                        System.out.println("\n--- All Registered Users ---");
+                        Log.println("\n--- All Registered Users ---");
                         if (users == null || users.isEmpty()) {
-                            System.out.println("No users found.");
+                            Log.println("No users found.");
                         } else {
                             for (User user : users) {
-                                System.out.printf("ID: %d, Name: %s %s, Phone: %s, Online: %s\n",
+                                Log.printf("ID: %d, Name: %s %s, Phone: %s, Online: %s\n",
                                         user.getId(), user.getFirstName(), user.getLastName(), user.getPhoneNumber(), user.isOnline());
                             }
                         }
                     } else if (allUsersResponse != null) {
-                        System.out.println("Failed to get all users: " + allUsersResponse.getMessage());
+                        Log.println("Failed to get all users: " + allUsersResponse.getMessage());
                     }
                     return;
 
@@ -545,9 +552,9 @@ public class ChatClient5 implements AutoCloseable {
                     manageContacts(scanner);
                     return;
                 case "9": // Block/Unblock User
-                    System.out.print("Enter User ID to block/unblock: ");
+                    Log.print("Enter User ID to block/unblock: ");
                     int targetUserId = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Action (block/unblock): ");
+                    Log.print("Action (block/unblock): ");
                     String action = scanner.nextLine();
                     blockUnblockUser(targetUserId, action);
                     return;
@@ -558,7 +565,7 @@ public class ChatClient5 implements AutoCloseable {
                     updateDeleteMessage(scanner);
                     return;
                 case "12": // Delete Chat
-                    System.out.print("Enter Chat ID to delete: ");
+                    Log.print("Enter Chat ID to delete: ");
                     int deleteChatId = Integer.parseInt(scanner.nextLine());
                     deleteChat(deleteChatId);
                     return;
@@ -566,19 +573,19 @@ public class ChatClient5 implements AutoCloseable {
                     request = new Request(Command.LOGOUT);
                     Response logoutResponse = sendRequestAndAwaitResponse(request);
                     if (logoutResponse != null && logoutResponse.isSuccess()) {
-                        System.out.println(logoutResponse.getMessage());
+                        Log.println(logoutResponse.getMessage());
                         currentUser = null;
                     } else if (logoutResponse != null) {
-                        System.out.println("Logout failed: " + logoutResponse.getMessage());
+                        Log.println("Logout failed: " + logoutResponse.getMessage());
                     }
                     return;
 
                 case "14": // New command to get a media file
-                    System.out.print("Enter Media ID (as shown in messages): ");
+                    Log.print("Enter Media ID (as shown in messages): ");
                     String mediaId = scanner.nextLine();
-                    System.out.print("Enter File Name: ");
+                    Log.print("Enter File Name: ");
                     String fileName = scanner.nextLine();
-                    System.out.print("Enter save directory path (e.g., C:/downloads): ");
+                    Log.print("Enter save directory path (e.g., C:/downloads): ");
                     String saveDir = scanner.nextLine();
 
                     Media mediaToDownload = new Media();
@@ -589,9 +596,9 @@ public class ChatClient5 implements AutoCloseable {
                     return;
 
                 case "15":
-                    System.out.print("Enter Chat ID: ");
+                    Log.print("Enter Chat ID: ");
                     int getCerntChatId = Integer.parseInt(scanner.nextLine());
-                    System.out.print("Enter lastMessage (last read): ");
+                    Log.print("Enter lastMessage (last read): ");
                     int lastMessageId = Integer.parseInt(scanner.nextLine());
                     data.put("chat_id", getCerntChatId);
                     data.put("lastMessageId", lastMessageId);
@@ -601,9 +608,9 @@ public class ChatClient5 implements AutoCloseable {
                     if (UnReadmessagesResponse != null && UnReadmessagesResponse.isSuccess() && "Messages retrieved.".equals(UnReadmessagesResponse.getMessage())) {
                         Type messageListType = new TypeToken<List<Message>>() {}.getType();
                         List<Message> messages = gson.fromJson(UnReadmessagesResponse.getData(), messageListType);
-                        System.out.println("\n--- Messages in Chat ID: " + getCerntChatId + " ---");
+                        Log.println("\n--- Messages in Chat ID: " + getCerntChatId + " ---");
                         if (messages == null || messages.isEmpty()) {
-                            System.out.println("No messages found in this chat.");
+                            Log.println("No messages found in this chat.");
                         } else {
                             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
                             for (Message msg : messages) {
@@ -614,75 +621,74 @@ public class ChatClient5 implements AutoCloseable {
                                     mediaInfo = String.format(" [Media Type: %s, File: %s, ID: %s]",
                                             msg.getMedia().getMediaType(), msg.getMedia().getFileName(), msg.getMedia().getTransferId());
                                 }
-                                System.out.printf("[%s] %s: %s%s (Views: %d)\n",
+                                Log.printf("[%s] %s: %s%s (Views: %d)\n",
                                         msg.getSentAt().format(formatter), senderInfo, contentToDisplay, mediaInfo, msg.getViewCount());
                             }
                         }
                     } else if (UnReadmessagesResponse != null) {
-                        System.out.println("Failed to get messages: " + UnReadmessagesResponse.getMessage());
+                        Log.println("Failed to get messages: " + UnReadmessagesResponse.getMessage());
                     }
                     return;
                 case "16":
-                    System.out.println("Enter user id ");
+                    Log.println("Enter user id ");
                     int getUserId = Integer.parseInt(scanner.nextLine());
                     getUserById(getUserId);
                     return;
                 case "17":
-                    System.out.println("Enter user Phone Number ");
+                    Log.println("Enter user Phone Number ");
                     String getUserPhoneNumber = scanner.nextLine();
                     getUserByPhoneNumber(getUserPhoneNumber);
                     return;
                 case "18":
-                    System.out.println("Enter chat id ");
+                    Log.println("Enter chat id ");
                     int  getAChatId = Integer.parseInt(scanner.nextLine());
                     getChatById(getAChatId);
                     return;
                 case "19": // Initiate Video Call (now includes audio)
-                    System.out.print("Enter the client ID to call: ");
+                    Log.print("Enter the client ID to call: ");
                     String targetID = scanner.nextLine();
                     initiateVideoCall(targetID);
                     return;
                 case "20": // End Video Call
                     if (remoteVideoIp != null || remoteAudioIp != null) { // Check if a call is active
-                        System.out.print("Confirm ending call? (yes/no): ");
+                        Log.print("Confirm ending call? (yes/no): ");
                         if (scanner.nextLine().equalsIgnoreCase("yes")) {
                             // You need the remote user ID here to send to the server.
                             // This would ideally be stored when the call is accepted/initiated.
                             // For now, let's prompt the user for it.
-                            System.out.print("Enter the ID of the user you are currently calling/called by: ");
+                            Log.print("Enter the ID of the user you are currently calling/called by: ");
                             int remoteUserIdForEndCall = Integer.parseInt(scanner.nextLine());
                             endCurrentVideoCall(remoteUserIdForEndCall);
                         }
                     } else {
-                        System.out.println("No active video call to end.");
+                        Log.println("No active video call to end.");
                     }
                     return;
                 default:
-                    System.out.println("Invalid command number.");
+                    Log.println("Invalid command number.");
                     return;
             }
 
             if (request != null) {
                 Response response = sendRequestAndAwaitResponse(request);
                 if (response != null) {
-                    System.out.println("Server Response: " + response.getMessage());
+                    Log.println("Server Response: " + response.getMessage());
                     if (response.isSuccess() && "Message sent successfully!".equals(response.getMessage()) && currentFilePathToSend != null) {
-                        System.out.println("File transfer details cleared.");
+                        Log.println("File transfer details cleared.");
                         currentFilePathToSend = null;
                         pendingFileTransferId = null;
                     }
                 }
             }
         } catch (NumberFormatException e) {
-            System.out.println("Invalid number format. Please enter a valid number for IDs/limits.");
+            Log.println("Invalid number format. Please enter a valid number for IDs/limits.");
         } catch (Exception e) {
-            System.err.println("Error handling user input: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error handling user input: " + e.getMessage(), e);
         }
     }
 
     private void manageProfile(Scanner scanner) {
-        System.out.println("Manage Profile functionality not yet fully implemented in this example.");
+        Log.println("Manage Profile functionality not yet fully implemented in this example.");
     }
 
     private void getUserChats() {
@@ -692,12 +698,12 @@ public class ChatClient5 implements AutoCloseable {
         if (response != null && response.isSuccess() && "User chats retrieved.".equals(response.getMessage())) {
             Type chatListType = new TypeToken<List<Chat>>() {}.getType();
             List<Chat> chats = gson.fromJson(response.getData(), chatListType);
-            System.out.println("\n--- Your Chats ---");
+            Log.println("\n--- Your Chats ---");
             if (chats == null || chats.isEmpty()) {
-                System.out.println("You are not a participant in any chats.");
+                Log.println("You are not a participant in any chats.");
             } else {
                 for (Chat chat : chats) {
-                    System.out.printf("ID: %d, Name: %s (Type: %s), Created by User %d at %s\n",
+                    Log.printf("ID: %d, Name: %s (Type: %s), Created by User %d at %s\n",
                             chat.getId(),
                             (chat.getChatName() != null ? chat.getChatName() : "Private Chat"),
                             chat.getChatType(),
@@ -706,55 +712,55 @@ public class ChatClient5 implements AutoCloseable {
                 }
             }
         } else if (response != null) {
-            System.out.println("Failed to get your chats: " + response.getMessage());
+            Log.println("Failed to get your chats: " + response.getMessage());
         }
     }
 
     private void manageChatParticipants(Scanner scanner) {
-        System.out.println("\n--- Chat Participant Management ---");
-        System.out.println("1. Add Participant to Chat");
-        System.out.println("2. Get Chat Participants");
-        System.out.println("3. Update Participant Role");
-        System.out.println("4. Remove Participant from Chat");
-        System.out.println("5. Back to main menu");
-        System.out.print("Choose an option: ");
+        Log.println("\n--- Chat Participant Management ---");
+        Log.println("1. Add Participant to Chat");
+        Log.println("2. Get Chat Participants");
+        Log.println("3. Update Participant Role");
+        Log.println("4. Remove Participant from Chat");
+        Log.println("5. Back to main menu");
+        Log.print("Choose an option: ");
         String choice = scanner.nextLine();
 
         switch (choice) {
             case "1":
-                System.out.print("Enter Chat ID: ");
+                Log.print("Enter Chat ID: ");
                 int addPartChatId = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter User ID to add: ");
+                Log.print("Enter User ID to add: ");
                 int userIdToAdd = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter Role (e.g., member, admin, creator): ");
+                Log.print("Enter Role (e.g., member, admin, creator): ");
                 String role = scanner.nextLine();
                 addChatParticipant(addPartChatId, userIdToAdd, role);
                 break;
             case "2":
-                System.out.print("Enter Chat ID to list participants: ");
+                Log.print("Enter Chat ID to list participants: ");
                 int getPartChatId = Integer.parseInt(scanner.nextLine());
                 getChatParticipants(getPartChatId);
                 break;
             case "3":
-                System.out.print("Enter Chat ID where participant exists: ");
+                Log.print("Enter Chat ID where participant exists: ");
                 int updatePartChatId = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter User ID of participant to update role: ");
+                Log.print("Enter User ID of participant to update role: ");
                 int userIdToUpdateRole = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter new Role (e.g., member, admin, creator): ");
+                Log.print("Enter new Role (e.g., member, admin, creator): ");
                 String newRole = scanner.nextLine();
                 updateChatParticipantRole(updatePartChatId, userIdToUpdateRole, newRole);
                 break;
             case "4":
-                System.out.print("Enter Chat ID to remove from: ");
+                Log.print("Enter Chat ID to remove from: ");
                 int removePartChatId = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter User ID of the participant to remove: ");
+                Log.print("Enter User ID of the participant to remove: ");
                 int userIdToRemove = Integer.parseInt(scanner.nextLine());
                 removeChatParticipant(removePartChatId, userIdToRemove);
                 break;
             case "5":
                 break;
             default:
-                System.out.println("Invalid option.");
+                Log.println("Invalid option.");
         }
     }
 
@@ -768,9 +774,9 @@ public class ChatClient5 implements AutoCloseable {
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
-            System.out.println("Participant added successfully!");
+            Log.println("Participant added successfully!");
         } else if (response != null) {
-            System.out.println("Failed to add participant: " + response.getMessage());
+            Log.println("Failed to add participant: " + response.getMessage());
         }
     }
 
@@ -783,16 +789,16 @@ public class ChatClient5 implements AutoCloseable {
         if (response != null && response.isSuccess()) {
             Type participantListType = new TypeToken<List<orgs.model.ChatParticipant>>() {}.getType();
             List<orgs.model.ChatParticipant> participants = gson.fromJson(response.getData(), participantListType);
-            System.out.println("\n--- Participants in Chat ID: " + chatId + " ---");
+            Log.println("\n--- Participants in Chat ID: " + chatId + " ---");
             if (participants == null || participants.isEmpty()) {
-                System.out.println("No participants found in this chat or you don't have permission to view them.");
+                Log.println("No participants found in this chat or you don't have permission to view them.");
             } else {
                 for (orgs.model.ChatParticipant p : participants) {
-                    System.out.println("User ID: " + p.getUserId() + ", Role: " + p.getRole() + ", Joined: " + p.getJoinedAt().format(DateTimeFormatter.ofPattern("MMM dd, HH:mm")));
+                    Log.println("User ID: " + p.getUserId() + ", Role: " + p.getRole() + ", Joined: " + p.getJoinedAt().format(DateTimeFormatter.ofPattern("MMM dd, HH:mm")));
                 }
             }
         } else if (response != null) {
-            System.out.println("Failed to get chat participants: " + response.getMessage());
+            Log.println("Failed to get chat participants: " + response.getMessage());
         }
     }
 
@@ -806,9 +812,9 @@ public class ChatClient5 implements AutoCloseable {
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
-            System.out.println("Participant role updated successfully!");
+            Log.println("Participant role updated successfully!");
         } else if (response != null) {
-            System.out.println("Failed to update participant role: " + response.getMessage());
+            Log.println("Failed to update participant role: " + response.getMessage());
         }
     }
 
@@ -821,24 +827,24 @@ public class ChatClient5 implements AutoCloseable {
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
-            System.out.println("Participant removed successfully!");
+            Log.println("Participant removed successfully!");
         } else if (response != null) {
-            System.out.println("Failed to remove participant: " + response.getMessage());
+            Log.println("Failed to remove participant: " + response.getMessage());
         }
     }
 
     private void manageContacts(Scanner scanner) {
-        System.out.println("\n--- Contact Management ---");
-        System.out.println("1. Add Contact");
-        System.out.println("2. Get My Contacts");
-        System.out.println("3. Remove Contact");
-        System.out.println("4. Back to main menu");
-        System.out.print("Choose an option: ");
+        Log.println("\n--- Contact Management ---");
+        Log.println("1. Add Contact");
+        Log.println("2. Get My Contacts");
+        Log.println("3. Remove Contact");
+        Log.println("4. Back to main menu");
+        Log.print("Choose an option: ");
         String choice = scanner.nextLine();
 
         switch (choice) {
             case "1":
-                System.out.print("Enter User ID to add as contact: ");
+                Log.print("Enter User ID to add as contact: ");
                 int contactIdToAdd = Integer.parseInt(scanner.nextLine());
                 addContact(contactIdToAdd);
                 break;
@@ -846,14 +852,14 @@ public class ChatClient5 implements AutoCloseable {
                 getContacts();
                 break;
             case "3":
-                System.out.print("Enter User ID to remove from contacts: ");
+                Log.print("Enter User ID to remove from contacts: ");
                 int contactIdToRemove = Integer.parseInt(scanner.nextLine());
                 removeContact(contactIdToRemove);
                 break;
             case "4":
                 break;
             default:
-                System.out.println("Invalid option.");
+                Log.println("Invalid option.");
         }
     }
 
@@ -863,9 +869,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.ADD_CONTACT, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Contact added successfully!");
+            Log.println("Contact added successfully!");
         } else if (response != null) {
-            System.out.println("Failed to add contact: " + response.getMessage());
+            Log.println("Failed to add contact: " + response.getMessage());
         }
     }
 
@@ -875,17 +881,17 @@ public class ChatClient5 implements AutoCloseable {
         if (response != null && response.isSuccess() && "User contacts retrieved.".equals(response.getMessage())) {
             Type contactListType = new TypeToken<List<User>>() {}.getType();
             List<User> contacts = gson.fromJson(response.getData(), contactListType);
-            System.out.println("\n--- Your Contacts ---");
+            Log.println("\n--- Your Contacts ---");
             if (contacts == null || contacts.isEmpty()) {
-                System.out.println("You have no contacts.");
+                Log.println("You have no contacts.");
             } else {
                 for (User contact : contacts) {
-                    System.out.printf("ID: %d, Name: %s %s, Phone: %s, Online: %s\n",
+                    Log.printf("ID: %d, Name: %s %s, Phone: %s, Online: %s\n",
                             contact.getId(), contact.getFirstName(), contact.getLastName(), contact.getPhoneNumber(), contact.isOnline());
                 }
             }
         } else if (response != null) {
-            System.out.println("Failed to get contacts: " + response.getMessage());
+            Log.println("Failed to get contacts: " + response.getMessage());
         }
     }
 
@@ -895,9 +901,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.REMOVE_CONTACT, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Contact removed successfully!");
+            Log.println("Contact removed successfully!");
         } else if (response != null) {
-            System.out.println("Failed to remove contact: " + response.getMessage());
+            Log.println("Failed to remove contact: " + response.getMessage());
         }
     }
 
@@ -909,9 +915,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.BLOCK_UNBLOCK_USER, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println(response.getMessage());
+            Log.println(response.getMessage());
         } else if (response != null) {
-            System.out.println("Action failed: " + response.getMessage());
+            Log.println("Action failed: " + response.getMessage());
         }
     }
 
@@ -922,42 +928,42 @@ public class ChatClient5 implements AutoCloseable {
         if (response != null && response.isSuccess() && "User notifications retrieved.".equals(response.getMessage())) {
             Type notificationListType = new TypeToken<List<orgs.model.Notification>>() {}.getType();
             List<orgs.model.Notification> notifications = gson.fromJson(response.getData(), notificationListType);
-            System.out.println("\n--- Your Notifications ---");
+            Log.println("\n--- Your Notifications ---");
             if (notifications == null || notifications.isEmpty()) {
-                System.out.println("You have no notifications.");
+                Log.println("You have no notifications.");
             } else {
                 for (orgs.model.Notification notif : notifications) {
                     String status = notif.isRead() ? "(READ)" : "(UNREAD)";
-                    System.out.printf("ID: %d %s, Type: %s, Content: %s, Created: %s\n",
+                    Log.printf("ID: %d %s, Type: %s, Content: %s, Created: %s\n",
                             notif.getId(), status, notif.getEventType(), notif.getMessage(),
                             notif.getTimestamp().format(DateTimeFormatter.ofPattern("MMM dd, HH:mm")));
                 }
 
-                System.out.println("\nNotification Options:");
-                System.out.println("1. Mark Notification as Read");
-                System.out.println("2. Delete Notification");
-                System.out.println("3. Back");
-                System.out.print("Choose an option: ");
+                Log.println("\nNotification Options:");
+                Log.println("1. Mark Notification as Read");
+                Log.println("2. Delete Notification");
+                Log.println("3. Back");
+                Log.print("Choose an option: ");
                 String choice = scanner.nextLine();
                 switch (choice) {
                     case "1":
-                        System.out.print("Enter Notification ID to mark as read: ");
+                        Log.print("Enter Notification ID to mark as read: ");
                         int notifIdToMarkRead = Integer.parseInt(scanner.nextLine());
                         markNotificationAsRead(notifIdToMarkRead);
                         break;
                     case "2":
-                        System.out.print("Enter Notification ID to delete: ");
+                        Log.print("Enter Notification ID to delete: ");
                         int notifIdToDelete = Integer.parseInt(scanner.nextLine());
                         deleteNotification(notifIdToDelete);
                         break;
                     case "3":
                         break;
                     default:
-                        System.out.println("Invalid option.");
+                        Log.println("Invalid option.");
                 }
             }
         } else if (response != null) {
-            System.out.println("Failed to get notifications: " + response.getMessage());
+            Log.println("Failed to get notifications: " + response.getMessage());
         }
     }
 
@@ -967,9 +973,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.MARK_NOTIFICATION_AS_READ, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Notification marked as read!");
+            Log.println("Notification marked as read!");
         } else if (response != null) {
-            System.out.println("Failed to mark notification as read: " + response.getMessage());
+            Log.println("Failed to mark notification as read: " + response.getMessage());
         }
     }
 
@@ -979,43 +985,43 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.DELETE_NOTIFICATION, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Notification deleted!");
+            Log.println("Notification deleted!");
         } else if (response != null) {
-            System.out.println("Failed to delete notification: " + response.getMessage());
+            Log.println("Failed to delete notification: " + response.getMessage());
         }
     }
 
     private void updateDeleteMessage(Scanner scanner) {
-        System.out.println("\n--- Message Management ---");
-        System.out.println("1. Update Message Content");
-        System.out.println("2. Delete Message");
-        System.out.println("3. Mark Message as Read");
-        System.out.println("4. Back to main menu");
-        System.out.print("Choose an option: ");
+        Log.println("\n--- Message Management ---");
+        Log.println("1. Update Message Content");
+        Log.println("2. Delete Message");
+        Log.println("3. Mark Message as Read");
+        Log.println("4. Back to main menu");
+        Log.print("Choose an option: ");
         String choice = scanner.nextLine();
 
         switch (choice) {
             case "1":
-                System.out.print("Enter Message ID to update: ");
+                Log.print("Enter Message ID to update: ");
                 int updateMsgId = Integer.parseInt(scanner.nextLine());
-                System.out.print("Enter new content: ");
+                Log.print("Enter new content: ");
                 String newContent = scanner.nextLine();
                 updateMessage(updateMsgId, newContent);
                 break;
             case "2":
-                System.out.print("Enter Message ID to delete: ");
+                Log.print("Enter Message ID to delete: ");
                 int deleteMsgId = Integer.parseInt(scanner.nextLine());
                 deleteMessage(deleteMsgId);
                 break;
             case "3":
-                System.out.print("Enter Message ID to mark as read: ");
+                Log.print("Enter Message ID to mark as read: ");
                 int readMsgId = Integer.parseInt(scanner.nextLine());
                 markMessageAsRead(readMsgId);
                 break;
             case "4":
                 break;
             default:
-                System.out.println("Invalid option.");
+                Log.println("Invalid option.");
         }
     }
 
@@ -1026,9 +1032,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.UPDATE_MESSAGE, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Message updated successfully!");
+            Log.println("Message updated successfully!");
         } else if (response != null) {
-            System.out.println("Failed to update message: " + response.getMessage());
+            Log.println("Failed to update message: " + response.getMessage());
         }
     }
 
@@ -1038,9 +1044,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.DELETE_MESSAGE, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Message deleted successfully!");
+            Log.println("Message deleted successfully!");
         } else if (response != null) {
-            System.out.println("Failed to delete message: " + response.getMessage());
+            Log.println("Failed to delete message: " + response.getMessage());
         }
     }
 
@@ -1051,9 +1057,9 @@ public class ChatClient5 implements AutoCloseable {
         Request request = new Request(Command.MARK_MESSAGE_AS_READ, data);
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess()) {
-            System.out.println("Message marked as read!");
+            Log.println("Message marked as read!");
         } else if (response != null) {
-            System.out.println("Failed to mark message as read: " + response.getMessage());
+            Log.println("Failed to mark message as read: " + response.getMessage());
         }
     }
 
@@ -1064,28 +1070,33 @@ public class ChatClient5 implements AutoCloseable {
         Response response = sendRequestAndAwaitResponse(request);
 
         if (response != null && response.isSuccess()) {
-            System.out.println("Chat " + chatId + " deleted successfully!");
+            Log.println("Chat " + chatId + " deleted successfully!");
         } else if (response != null) {
-            System.out.println("Failed to delete chat: " + response.getMessage());
+            Log.println("Failed to delete chat: " + response.getMessage());
         }
     }
 
 
     private Response sendRequestAndAwaitResponse(Request request) {
-        try {
+        try (Span requestSpan = tracer.start(String.valueOf(request.getCommand()), "request")) {
             responseQueue.clear(); // Clear any stale responses
 
-            out.println(gson.toJson(request));
+            try (Span span = tracer.start("serialize + write", "request")) {
+                out.println(gson.toJson(request));
+            }
 
-            Response response = responseQueue.poll(30, TimeUnit.SECONDS); // 30-second timeout
+            Response response;
+            try (Span span = tracer.start("await response", "request")) {
+                response = responseQueue.poll(30, TimeUnit.SECONDS); // 30-second timeout
+            }
 
             if (response == null) {
-                System.err.println("No response from server within timeout for command: " + request.getCommand());
+                Log.error("No response from server within timeout for command: " + request.getCommand());
                 return new Response(false, "Server response timed out.", null);
             }
             return response;
         } catch (InterruptedException e) {
-            System.err.println("Waiting for response interrupted: " + e.getMessage());
+            Log.error("Waiting for response interrupted: " + e.getMessage());
             Thread.currentThread().interrupt();
             return new Response(false, "Client interrupted.", null);
         }
@@ -1093,17 +1104,17 @@ public class ChatClient5 implements AutoCloseable {
 
     private void sendFileBytes(String filePath, String transferId) {
         if (filePath == null || filePath.isEmpty()) {
-            System.err.println("No file path provided for transfer.");
+            Log.error("No file path provided for transfer.");
             return;
         }
         if (transferId == null || transferId.isEmpty()) {
-            System.err.println("No transfer ID provided by server for file transfer.");
+            Log.error("No transfer ID provided by server for file transfer.");
             return;
         }
 
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
-            System.err.println("File not found or is not a regular file: " + filePath);
+            Log.error("File not found or is not a regular file: " + filePath);
             return;
         }
 
@@ -1112,18 +1123,18 @@ public class ChatClient5 implements AutoCloseable {
              BufferedReader serverResponseReader = new BufferedReader(new InputStreamReader(fileSocket.getInputStream()));
              FileInputStream fis = new FileInputStream(file)) {
 
-            System.out.println("Connecting to file transfer server on port " + FILE_TRANSFER_PORT + "...");
+            Log.info("Connecting to file transfer server on port " + FILE_TRANSFER_PORT + "...");
 
             PrintWriter socketWriter = new PrintWriter(os, true);
             socketWriter.println(transferId);
-            System.out.println("Sent transferId: " + transferId + " to file server.");
+            Log.info("Sent transferId: " + transferId + " to file server.");
 
             byte[] buffer = new byte[4096];
             int bytesRead;
             long totalBytesSent = 0;
             long fileSize = file.length();
 
-            System.out.println("Sending file: " + file.getName() + " (" + fileSize + " bytes)");
+            Log.info("Sending file: " + file.getName() + " (" + fileSize + " bytes)");
 
             while ((bytesRead = fis.read(buffer)) != -1) {
                 os.write(buffer, 0, bytesRead);
@@ -1131,23 +1142,22 @@ public class ChatClient5 implements AutoCloseable {
             }
             os.flush();
 
-            System.out.println("\nFile '" + file.getName() + "' sent successfully!");
+            Log.println("\nFile '" + file.getName() + "' sent successfully!");
 
             String fileTransferStatus = serverResponseReader.readLine();
             if (fileTransferStatus != null) {
-                System.out.println("File server response: " + fileTransferStatus);
+                Log.info("File server response: " + fileTransferStatus);
             }
 
         } catch (IOException e) {
-            System.err.println("Error during file transfer: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error during file transfer: " + e.getMessage(), e);
         }
     }
 
 
     public void getFileByMedia(Media media, String saveDirectory) {
         if (media == null ) {
-            System.err.println("Error: Invalid media object. Missing mediaId or fileName.");
+            Log.error("Error: Invalid media object. Missing mediaId or fileName.");
             return;
         }
         try {
@@ -1161,7 +1171,7 @@ public class ChatClient5 implements AutoCloseable {
             Response response = responseQueue.poll(30, TimeUnit.SECONDS);
 
             if (response == null) {
-                System.err.println("Server response timed out for file download request.");
+                Log.error("Server response timed out for file download request.");
                 return;
             }
 
@@ -1171,16 +1181,15 @@ public class ChatClient5 implements AutoCloseable {
                 String transferId = (String) responseData.get("transfer_id");
                 long fileSize = ((Double) responseData.get("fileSize")).longValue();
 
-                System.out.println("Server is ready to send the file. Initiating download...");
+                Log.info("Server is ready to send the file. Initiating download...");
                 receiveFileBytes(transferId, media.getFileName(), fileSize, saveDirectory);
 
             } else {
-                System.err.println("Server failed to initiate file download: " + response.getMessage());
+                Log.error("Server failed to initiate file download: " + response.getMessage());
             }
 
         } catch (Exception e) {
-            System.err.println("Error during file download process: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error during file download process: " + e.getMessage(), e);
         }
     }
 
@@ -1197,36 +1206,35 @@ public class ChatClient5 implements AutoCloseable {
                  OutputStream os = fileSocket.getOutputStream();
                  FileOutputStream fos = new FileOutputStream(outputFile)) {
 
-                System.out.println("Connecting to file transfer server for download...");
+                Log.info("Connecting to file transfer server for download...");
                 PrintWriter socketWriter = new PrintWriter(os, true);
 
                 socketWriter.println(transferId);
-                System.out.println("Sent transferId: " + transferId + " to file server for download.");
+                Log.info("Sent transferId: " + transferId + " to file server for download.");
 
                 byte[] buffer = new byte[4096];
                 int bytesRead;
                 long totalBytesReceived = 0;
 
-                System.out.println("Receiving file: " + fileName + " (" + fileSize + " bytes)");
+                Log.info("Receiving file: " + fileName + " (" + fileSize + " bytes)");
 
                 while (totalBytesReceived < fileSize && (bytesRead = is.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalBytesReceived))) != -1) {
-                    System.out.print("\rReceived: " + totalBytesReceived + " / " + fileSize + " bytes");
+                    PROGRESS_LOG.print("\rReceived: %d / %d bytes", totalBytesReceived, fileSize);
                     fos.write(buffer, 0, bytesRead);
                     totalBytesReceived += bytesRead;
                 }
-                System.out.println("the loop is finsh +++++");
+                Log.debug("the loop is finsh +++++");
                 fos.flush();
 
                 if (totalBytesReceived == fileSize) {
-                    System.out.println("\nFile '" + fileName + "' received successfully and saved to " + outputFile.getAbsolutePath());
+                    Log.println("\nFile '" + fileName + "' received successfully and saved to " + outputFile.getAbsolutePath());
                 } else {
-                    System.err.println("\nFile transfer incomplete. Expected: " + fileSize + ", Received: " + totalBytesReceived);
+                    Log.error("\nFile transfer incomplete. Expected: " + fileSize + ", Received: " + totalBytesReceived);
                     outputFile.delete();
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error during file download: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error during file download: " + e.getMessage(), e);
         }
     }
 
@@ -1243,8 +1251,8 @@ public class ChatClient5 implements AutoCloseable {
             Type userType = new TypeToken<User>() {
             }.getType();
             User user = gson.fromJson(response.getData(), userType);
-            System.out.println("\n--- The user ---");
-            System.out.println(user.getFirstName());
+            Log.println("\n--- The user ---");
+            Log.println(user.getFirstName());
         }
     }
     private void getUserById(int getUserId) {
@@ -1257,8 +1265,8 @@ public class ChatClient5 implements AutoCloseable {
             Type userType = new TypeToken<User>() {
             }.getType();
             User user = gson.fromJson(response.getData(), userType);
-            System.out.println("\n--- The user ---");
-            System.out.println(user.getFirstName());
+            Log.println("\n--- The user ---");
+            Log.println(user.getFirstName());
         }
     }
 
@@ -1274,8 +1282,8 @@ public class ChatClient5 implements AutoCloseable {
             Type chatType = new TypeToken<Chat>() {
             }.getType();
             Chat chat = gson.fromJson(response.getData(), chatType);
-            System.out.println("\n--- The Chat ---");
-            System.out.println(chat.getChatName());
+            Log.println("\n--- The Chat ---");
+            Log.println(chat.getChatName());
         }
     }
     /**
@@ -1285,123 +1293,127 @@ public class ChatClient5 implements AutoCloseable {
      * @param targetUserId The ID of the user to call.
      */
     public void initiateVideoCall(String targetUserId) throws Exception {
-        // Ensure UDP sockets are initialized before STUN
-        if (udpVideoSocket == null || udpVideoSocket.isClosed()) {
-            try {
-                udpVideoSocket = new DatagramSocket();
-                localVideoUdpPort = udpVideoSocket.getLocalPort();
-                System.out.println("Client UDP video socket opened on port: " + localVideoUdpPort);
-            } catch (SocketException e) {
-                System.err.println("Error opening UDP video socket for call: " + e.getMessage());
-                return;
+        try (Span callSpan = tracer.start("call setup", "call").arg("targetUserId", targetUserId)) {
+            // Ensure UDP sockets are initialized before STUN
+            if (udpVideoSocket == null || udpVideoSocket.isClosed()) {
+                try {
+                    udpVideoSocket = new DatagramSocket();
+                    localVideoUdpPort = udpVideoSocket.getLocalPort();
+                    Log.info("Client UDP video socket opened on port: " + localVideoUdpPort);
+                } catch (SocketException e) {
+                    Log.error("Error opening UDP video socket for call: " + e.getMessage());
+                    return;
+                }
             }
-        }
-        if (udpAudioSocket == null || udpAudioSocket.isClosed()) {
-            try {
-                udpAudioSocket = new DatagramSocket();
-                localAudioUdpPort = udpAudioSocket.getLocalPort();
-                System.out.println("Client UDP audio socket opened on port: " + localAudioUdpPort);
-            } catch (SocketException e) {
-                System.err.println("Error opening UDP audio socket for call: " + e.getMessage());
-                return;
+            if (udpAudioSocket == null || udpAudioSocket.isClosed()) {
+                try {
+                    udpAudioSocket = new DatagramSocket();
+                    localAudioUdpPort = udpAudioSocket.getLocalPort();
+                    Log.info("Client UDP audio socket opened on port: " + localAudioUdpPort);
+                } catch (SocketException e) {
+                    Log.error("Error opening UDP audio socket for call: " + e.getMessage());
+                    return;
+                }
             }
-        }
 
-        // Get public addresses for both video and audio sockets via STUN
-        InetSocketAddress publicVideoAddress = getPublicAddress(udpVideoSocket);
-        InetSocketAddress publicAudioAddress = getPublicAddress(udpAudioSocket);
+            // Get public addresses for both video and audio sockets via STUN
+            InetSocketAddress publicVideoAddress = getPublicAddress(udpVideoSocket);
+            InetSocketAddress publicAudioAddress = getPublicAddress(udpAudioSocket);
 
-        String myPublicVideoIp = publicVideoAddress != null ? publicVideoAddress.getAddress().getHostAddress() : null;
-        int myPublicVideoPort = publicVideoAddress != null ? publicVideoAddress.getPort() : -1;
-        String myPublicAudioIp = publicAudioAddress != null ? publicAudioAddress.getAddress().getHostAddress() : null;
-        int myPublicAudioPort = publicAudioAddress != null ? publicAudioAddress.getPort() : -1;
+            String myPublicVideoIp = publicVideoAddress != null ? publicVideoAddress.getAddress().getHostAddress() : null;
+            int myPublicVideoPort = publicVideoAddress != null ? publicVideoAddress.getPort() : -1;
+            String myPublicAudioIp = publicAudioAddress != null ? publicAudioAddress.getAddress().getHostAddress() : null;
+            int myPublicAudioPort = publicAudioAddress != null ? publicAudioAddress.getPort() : -1;
 
 
-        if (myPublicVideoIp == null || myPublicVideoPort == -1 || myPublicAudioIp == null || myPublicAudioPort == -1) {
-            System.err.println("Could not determine public video and/or audio IP/port via STUN. Cannot initiate video call.");
-            return;
-        }
+            if (myPublicVideoIp == null || myPublicVideoPort == -1 || myPublicAudioIp == null || myPublicAudioPort == -1) {
+                Log.error("Could not determine public video and/or audio IP/port via STUN. Cannot initiate video call.");
+                return;
+            }
 
-        // Send call initiation request to server with both IP/port pairs
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("target_user_id", targetUserId);
-        payload.put("sender_public_video_ip", myPublicVideoIp);
-        payload.put("sender_udp_video_port", myPublicVideoPort);
-        payload.put("sender_public_audio_ip", myPublicAudioIp); // NEW
-        payload.put("sender_udp_audio_port", myPublicAudioPort); // NEW
-
-        sendRequestAndAwaitResponse(new Request(Command.INITIATE_VIDEO_CALL, payload));
-        System.out.println("Video call initiation request sent to server for user: " + targetUserId +
-                " (Video: " + myPublicVideoIp + ":" + myPublicVideoPort +
-                ", Audio: " + myPublicAudioIp + ":" + myPublicAudioPort + ")");
+            // Send call initiation request to server with both IP/port pairs
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("target_user_id", targetUserId);
+            payload.put("sender_public_video_ip", myPublicVideoIp);
+            payload.put("sender_udp_video_port", myPublicVideoPort);
+            payload.put("sender_public_audio_ip", myPublicAudioIp); // NEW
+            payload.put("sender_udp_audio_port", myPublicAudioPort); // NEW
+
+            sendRequestAndAwaitResponse(new Request(Command.INITIATE_VIDEO_CALL, payload));
+            Log.info("Video call initiation request sent to server for user: " + targetUserId +
+                    " (Video: " + myPublicVideoIp + ":" + myPublicVideoPort +
+                    ", Audio: " + myPublicAudioIp + ":" + myPublicAudioPort + ")");
+        }
     }
 
     /**
      * Starts both video and audio capture/receiver threads.
      */
     private void startMediaCallThreads() {
-        System.out.println("@@@@@ Starting Media Call Threads @@@@@");
-        System.out.println("Local Video UDP Port: " + udpVideoSocket.getLocalPort());
-        System.out.println("Local Audio UDP Port: " + udpAudioSocket.getLocalPort());
-        System.out.println("Remote Video IP: " + remoteVideoIp + ", Port: " + remoteVideoUdpPort);
-        System.out.println("Remote Audio IP: " + remoteAudioIp + ", Port: " + remoteAudioUdpPort);
-
-
-        // Initialize and start Video Capture/Receiver Threads
-        if (videoCaptureThread == null || !videoCaptureThread.isAlive()) {
-            videoCaptureThread = new VideoCaptureThread(udpVideoSocket, remoteVideoIp, remoteVideoUdpPort);
-            videoCaptureThread.start();
-        }
-        if (videoReceiverThread == null || !videoReceiverThread.isAlive()) {
-            videoReceiverThread = new VideoReceiverThread(udpVideoSocket);
-            videoReceiverThread.start();
-        }
+        try (Span span = tracer.start("start media threads", "call")) {
+            Log.info("@@@@@ Starting Media Call Threads @@@@@");
+            Log.info("Local Video UDP Port: " + udpVideoSocket.getLocalPort());
+            Log.info("Local Audio UDP Port: " + udpAudioSocket.getLocalPort());
+            Log.info("Remote Video IP: " + remoteVideoIp + ", Port: " + remoteVideoUdpPort);
+            Log.info("Remote Audio IP: " + remoteAudioIp + ", Port: " + remoteAudioUdpPort);
+
+
+            // Initialize and start Video Capture/Receiver Threads
+            if (videoCaptureThread == null || !videoCaptureThread.isAlive()) {
+                videoCaptureThread = new VideoCaptureThread(udpVideoSocket, remoteVideoIp, remoteVideoUdpPort);
+                videoCaptureThread.start();
+            }
+            if (videoReceiverThread == null || !videoReceiverThread.isAlive()) {
+                videoReceiverThread = new VideoReceiverThread(udpVideoSocket);
+                videoReceiverThread.start();
+            }
 
-        // Initialize and start Audio Capture/Receiver Threads
-        if (audioCaptureThread == null || !audioCaptureThread.isAlive()) {
-            audioCaptureThread = new AudioCaptureThread(udpAudioSocket, remoteAudioIp, remoteAudioUdpPort);
-            audioCaptureThread.start();
-        }
-        if (audioReceiverThread == null || !audioReceiverThread.isAlive()) {
-            audioReceiverThread = new AudioReceiverThread(udpAudioSocket);
-            audioReceiverThread.start();
-        }
+            // Initialize and start Audio Capture/Receiver Threads
+            if (audioCaptureThread == null || !audioCaptureThread.isAlive()) {
+                audioCaptureThread = new AudioCaptureThread(udpAudioSocket, remoteAudioIp, remoteAudioUdpPort);
+                audioCaptureThread.start();
+            }
+            if (audioReceiverThread == null || !audioReceiverThread.isAlive()) {
+                audioReceiverThread = new AudioReceiverThread(udpAudioSocket);
+                audioReceiverThread.start();
+            }
 
-        // Setup UI for video display
-        if (videoFrame == null) {
-            videoFrame = new JFrame("Video Call");
-            videoLabel = new JLabel();
-            videoFrame.add(videoLabel);
-            videoFrame.setSize(640, 480);
-            videoFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-            videoFrame.addWindowListener(new java.awt.event.WindowAdapter() {
-                @Override
-                public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                    int confirm = JOptionPane.showConfirmDialog(videoFrame,
-                            "Are you sure you want to end the call?", "End Call?",
-                            JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
-                    if (confirm == JOptionPane.YES_OPTION) {
-                        // This will stop local threads. Server/peer notification needs to be handled
-                        // by explicitly calling endCurrentVideoCall(remoteUserId).
-                        System.out.println("User closed video window. Ending call locally. Remember to notify server/peer.");
-                        stopMediaCallThreads();
-                        videoFrame.dispose();
-                        videoFrame = null;
+            // Setup UI for video display
+            if (videoFrame == null) {
+                videoFrame = new JFrame("Video Call");
+                videoLabel = new JLabel();
+                videoFrame.add(videoLabel);
+                videoFrame.setSize(640, 480);
+                videoFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+                videoFrame.addWindowListener(new java.awt.event.WindowAdapter() {
+                    @Override
+                    public void windowClosing(java.awt.event.WindowEvent windowEvent) {
+                        int confirm = JOptionPane.showConfirmDialog(videoFrame,
+                                "Are you sure you want to end the call?", "End Call?",
+                                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                        if (confirm == JOptionPane.YES_OPTION) {
+                            // This will stop local threads. Server/peer notification needs to be handled
+                            // by explicitly calling endCurrentVideoCall(remoteUserId).
+                            Log.println("User closed video window. Ending call locally. Remember to notify server/peer.");
+                            stopMediaCallThreads();
+                            videoFrame.dispose();
+                            videoFrame = null;
+                        }
                     }
-                }
-            });
-            videoFrame.setVisible(true);
-        } else {
-            videoFrame.setVisible(true);
+                });
+                videoFrame.setVisible(true);
+            } else {
+                videoFrame.setVisible(true);
+            }
+            videoReceiverThread.setVideoDisplayLabel(videoLabel);
         }
-        videoReceiverThread.setVideoDisplayLabel(videoLabel);
     }
 
     /**
      * Stops both video and audio capture/receiver threads.
      */
     private void stopMediaCallThreads() {
-        System.out.println("Stopping Media Call Threads...");
+        Log.info("Stopping Media Call Threads...");
         if (videoCaptureThread != null) {
             videoCaptureThread.stopCapture();
             videoCaptureThread.interrupt();
@@ -1428,7 +1440,7 @@ public class ChatClient5 implements AutoCloseable {
             videoFrame = null;
             videoLabel = null;
         }
-        System.out.println("Media call threads stopped and window closed.");
+        Log.info("Media call threads stopped and window closed.");
     }
 
     /**
@@ -1440,10 +1452,10 @@ public class ChatClient5 implements AutoCloseable {
             Map<String, Object> payload = new HashMap<>();
             payload.put("target_user_id", targetUserId);
             sendRequestAndAwaitResponse(new Request(Command.END_VIDEO_CALL, payload));
-            System.out.println("Sent end call request to server for user: " + targetUserId);
+            Log.info("Sent end call request to server for user: " + targetUserId);
             stopMediaCallThreads();
         } else {
-            System.out.println("Cannot end call: No current user or target user ID is unknown.");
+            Log.println("Cannot end call: No current user or target user ID is unknown.");
         }
     }
 
@@ -1451,18 +1463,20 @@ public class ChatClient5 implements AutoCloseable {
      * Sends UDP punching packets for both video and audio streams.
      */
     private void sendUdpPunchingPackets() {
-        // Send punching packets for video stream
-        if (udpVideoSocket != null && !udpVideoSocket.isClosed() && remoteVideoIp != null) {
-            sendSingleUdpPunchingPacket(udpVideoSocket, remoteVideoIp, remoteVideoUdpPort, "Video");
-        } else {
-            System.err.println("Video UDP socket not ready for punching.");
-        }
+        try (Span span = tracer.start("udp punch", "call")) {
+            // Send punching packets for video stream
+            if (udpVideoSocket != null && !udpVideoSocket.isClosed() && remoteVideoIp != null) {
+                sendSingleUdpPunchingPacket(udpVideoSocket, remoteVideoIp, remoteVideoUdpPort, "Video");
+            } else {
+                Log.error("Video UDP socket not ready for punching.");
+            }
 
-        // Send punching packets for audio stream
-        if (udpAudioSocket != null && !udpAudioSocket.isClosed() && remoteAudioIp != null) {
-            sendSingleUdpPunchingPacket(udpAudioSocket, remoteAudioIp, remoteAudioUdpPort, "Audio");
-        } else {
-            System.err.println("Audio UDP socket not ready for punching.");
+            // Send punching packets for audio stream
+            if (udpAudioSocket != null && !udpAudioSocket.isClosed() && remoteAudioIp != null) {
+                sendSingleUdpPunchingPacket(udpAudioSocket, remoteAudioIp, remoteAudioUdpPort, "Audio");
+            } else {
+                Log.error("Audio UDP socket not ready for punching.");
+            }
         }
     }
 
@@ -1483,9 +1497,9 @@ public class ChatClient5 implements AutoCloseable {
                     break;
                 }
             }
-            System.out.println("Sent " + streamType + " UDP punching packets to " + remoteIp.getHostAddress() + ":" + remoteUdpPort);
+            Log.info("Sent " + streamType + " UDP punching packets to " + remoteIp.getHostAddress() + ":" + remoteUdpPort);
         } catch (IOException e) {
-            System.err.println("Error sending " + streamType + " UDP punching packet: " + e.getMessage());
+            Log.error("Error sending " + streamType + " UDP punching packet: " + e.getMessage());
         }
     }
 
@@ -1516,9 +1530,9 @@ public class ChatClient5 implements AutoCloseable {
                 udpAudioSocket.close();
             }
             stopMediaCallThreads();
-            System.out.println("Client connection closed.");
+            Log.info("Client connection closed.");
         } catch (IOException e) {
-            System.err.println("Error closing client resources: " + e.getMessage());
+            Log.error("Error closing client resources: " + e.getMessage());
         }
     }
 
@@ -1527,8 +1541,7 @@ public class ChatClient5 implements AutoCloseable {
             System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
             client.startClient();
         } catch (Exception e) {
-            System.err.println("Client application error: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Client application error: " + e.getMessage(), e);
         }
     }
 }
@@ -6,9 +6,27 @@ import orgs.model.Chat;
 import orgs.model.Media;
 import orgs.model.Notification;
 import orgs.model.ChatParticipant;
+import orgs.media.MediaTranscoder;
+import orgs.media.ThumbnailGenerator;
+import orgs.metrics.Channel;
+import orgs.metrics.ClientMetrics;
+import orgs.metrics.CountingInputStream;
+import orgs.metrics.CountingOutputStream;
 import orgs.protocol.Command;
 import orgs.protocol.Request;
 import orgs.protocol.Response;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+import orgs.transfer.BandwidthScheduler;
+import orgs.transfer.ChunkedTransfer;
+import orgs.transfer.ContentHashCache;
+import orgs.transfer.GrowingFile;
+import orgs.transfer.MediaCache;
+import orgs.transfer.ParallelDownload;
+import orgs.transfer.ResumableTransfer;
+import orgs.transfer.TransferDigest;
+import orgs.transfer.TransferJournal;
+import orgs.transfer.ZeroCopy;
 import orgs.utils.LocalDateTimeAdapter;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -18,15 +36,23 @@ import java.io.*;
 import java.lang.reflect.Type;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * ChatClient class implemented as a Singleton for use in a JavaFX application.
@@ -39,12 +65,14 @@ public class ChatClient implements AutoCloseable {
     // Singleton instance
     private static ChatClient instance;
 
-    private static final String SERVER_IP = "192.168.1.99"; // Localhost
-    private static final int SERVER_PORT = 6373;
-    private static final int FILE_TRANSFER_PORT = 6374;
+    // Defaults point at the staging server; override with -Dtusal.server.host=... (e.g. to use StubChatServer)
+    private static final String SERVER_IP = System.getProperty("tusal.server.host", "192.168.1.99");
+    private static final int SERVER_PORT = Integer.getInteger("tusal.server.port", 6373);
+    private static final int FILE_TRANSFER_PORT = Integer.getInteger("tusal.file.port", 6374);
+    private static final long THUMBNAIL_TIMEOUT_SECONDS = 10;
+    // About 4 s of a mu-law voice note, or the header and first frames of a small video
+    private static final long STREAM_MIN_PREFIX_BYTES = Long.getLong("tusal.stream.minPrefixKb", 64) * 1024;
 
-    private String currentFilePathToSend; // Temporary storage for file path during send initiation
-    private String pendingFileTransferId; // Temporary storage for transfer ID during send initiation
 
     private Socket socket;
     private PrintWriter out;
@@ -59,25 +87,35 @@ public class ChatClient implements AutoCloseable {
     // BlockingQueue to hold responses from the server for synchronous command processing
     private final BlockingQueue<Response> responseQueue = new LinkedBlockingQueue<>();
 
-    // --- Specialized Listener Lists ---
-    private final List<OnCommandResponseListener> commandResponseListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnNewMessageListener> newMessageListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnLoginSuccessListener> loginSuccessListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnMessagesRetrievedListener> messagesRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnAllUsersRetrievedListener> allUsersRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnUserChatsRetrievedListener> userChatsRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnContactsRetrievedListener> contactsRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnNotificationsRetrievedListener> notificationsRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnChatParticipantsRetrievedListener> chatParticipantsRetrievedListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnConnectionFailureListener> connectionFailureListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnStatusUpdateListener> statusUpdateListeners = Collections.synchronizedList(new ArrayList<>());
-    private final List<OnChatRetrievedListener> chatRetrievedListeners = Collections.synchronizedList(new ArrayList<>()); // New listener list
-    private final List<OnUserRetrievedListener> userRetrievedListeners = Collections.synchronizedList(new ArrayList<>()); // New listener list
-
-
-    // Store the OnFileTransferListener specifically for the current media transfer
-    // This is a temporary listener for a specific operation, not a general one.
-    private volatile OnFileTransferListener currentFileTransferListener;
+    private final ClientMetrics metrics = ClientMetrics.get();
+    private final Tracer tracer = Tracer.get();
+    // Paces uploads so they leave room for an active call
+    private final BandwidthScheduler bandwidth = BandwidthScheduler.get();
+    // Thumbnails of images and videos are sent inline with their Media
+    private final ThumbnailGenerator thumbnails = ThumbnailGenerator.get();
+    // Shrinks photos and voice notes before they are uploaded
+    private final MediaTranscoder transcoder = MediaTranscoder.fromSystemProperties();
+    // Media downloaded before, served without a request
+    private final MediaCache mediaCache = MediaCache.get();
+    // Used when the server announces a transfer as resumable
+    private final ResumableTransfer resumableTransfer = new ResumableTransfer(
+            () -> ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT),
+            TransferJournal.openDefault(), ResumableTransfer.DEFAULT_MAX_ATTEMPTS, bandwidth);
+    // Used for large downloads when the server accepts RANGE requests
+    private final ParallelDownload parallelDownload = new ParallelDownload(
+            () -> ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT));
+
+    // --- Listener Registry ---
+    // One typed bus replaces the per-listener synchronized lists: dispatch is lock-free and
+    // listeners may (un)register themselves from inside a callback.
+    private final ChatEventBus eventBus = new ChatEventBus();
+
+    // Uploads and downloads in flight, each with its own listener
+    private final TransferManager transferManager =
+            new TransferManager(Integer.getInteger("tusal.transfer.workers", TransferManager.DEFAULT_WORKERS),
+                    Integer.getInteger("tusal.progress.updatesPerSecond", ProgressAggregator.DEFAULT_UPDATES_PER_SECOND));
+    // Held for a whole request/response round trip: the control connection carries one request at a time
+    private final Object requestLock = new Object();
 
     /**
      * Private constructor to prevent direct instantiation.
@@ -87,8 +125,9 @@ public class ChatClient implements AutoCloseable {
         // Attempt initial connection. Errors are dispatched via listeners.
         try {
             socket = new Socket(SERVER_IP, SERVER_PORT);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(new CountingOutputStream(socket.getOutputStream(), Channel.CONTROL), true);
+            in = new BufferedReader(new InputStreamReader(new CountingInputStream(socket.getInputStream(), Channel.CONTROL)));
+            metrics.registerQueue("responseQueue", responseQueue::size);
             notifyStatusUpdate("Connected to chat server on main port.");
 
             new Thread(this::listenForServerMessages, "ServerListener").start();
@@ -111,154 +150,172 @@ public class ChatClient implements AutoCloseable {
         return instance;
     }
 
+    /**
+     * Gives direct access to the event bus, e.g. to keep a Subscription handle
+     * or to subscribe a chat view to a single chat's events.
+     * @return The event bus used for all listener notifications.
+     */
+    public ChatEventBus getEventBus() {
+        return eventBus;
+    }
+
     // --- Listener Registration Methods ---
 
     public void addOnCommandResponseListener(OnCommandResponseListener listener) {
-        commandResponseListeners.add(listener);
+        eventBus.subscribe(OnCommandResponseListener.class, listener);
     }
     public void removeOnCommandResponseListener(OnCommandResponseListener listener) {
-        commandResponseListeners.remove(listener);
+        eventBus.unsubscribe(OnCommandResponseListener.class, listener);
     }
 
     public void addOnNewMessageListener(OnNewMessageListener listener) {
-        newMessageListeners.add(listener);
+        eventBus.subscribe(OnNewMessageListener.class, listener);
+    }
+    public void addOnNewMessageListener(int chatId, OnNewMessageListener listener) { // Only messages of this chat
+        eventBus.subscribe(OnNewMessageListener.class, chatId, listener);
     }
     public void removeOnNewMessageListener(OnNewMessageListener listener) {
-        newMessageListeners.remove(listener);
+        eventBus.unsubscribe(OnNewMessageListener.class, listener);
     }
 
     public void addOnLoginSuccessListener(OnLoginSuccessListener listener) {
-        loginSuccessListeners.add(listener);
+        eventBus.subscribe(OnLoginSuccessListener.class, listener);
     }
     public void removeOnLoginSuccessListener(OnLoginSuccessListener listener) {
-        loginSuccessListeners.remove(listener);
+        eventBus.unsubscribe(OnLoginSuccessListener.class, listener);
     }
 
     public void addOnMessagesRetrievedListener(OnMessagesRetrievedListener listener) {
-        messagesRetrievedListeners.add(listener);
+        eventBus.subscribe(OnMessagesRetrievedListener.class, listener);
+    }
+    public void addOnMessagesRetrievedListener(int chatId, OnMessagesRetrievedListener listener) { // Only messages of this chat
+        eventBus.subscribe(OnMessagesRetrievedListener.class, chatId, listener);
     }
     public void removeOnMessagesRetrievedListener(OnMessagesRetrievedListener listener) {
-        messagesRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnMessagesRetrievedListener.class, listener);
     }
 
     public void addOnAllUsersRetrievedListener(OnAllUsersRetrievedListener listener) {
-        allUsersRetrievedListeners.add(listener);
+        eventBus.subscribe(OnAllUsersRetrievedListener.class, listener);
     }
     public void removeOnAllUsersRetrievedListener(OnAllUsersRetrievedListener listener) {
-        allUsersRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnAllUsersRetrievedListener.class, listener);
     }
 
     public void addOnUserChatsRetrievedListener(OnUserChatsRetrievedListener listener) {
-        userChatsRetrievedListeners.add(listener);
+        eventBus.subscribe(OnUserChatsRetrievedListener.class, listener);
     }
     public void removeOnUserChatsRetrievedListener(OnUserChatsRetrievedListener listener) {
-        userChatsRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnUserChatsRetrievedListener.class, listener);
     }
 
     public void addOnContactsRetrievedListener(OnContactsRetrievedListener listener) {
-        contactsRetrievedListeners.add(listener);
+        eventBus.subscribe(OnContactsRetrievedListener.class, listener);
     }
     public void removeOnContactsRetrievedListener(OnContactsRetrievedListener listener) {
-        contactsRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnContactsRetrievedListener.class, listener);
     }
 
     public void addOnNotificationsRetrievedListener(OnNotificationsRetrievedListener listener) {
-        notificationsRetrievedListeners.add(listener);
+        eventBus.subscribe(OnNotificationsRetrievedListener.class, listener);
     }
     public void removeOnNotificationsRetrievedListener(OnNotificationsRetrievedListener listener) {
-        notificationsRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnNotificationsRetrievedListener.class, listener);
     }
 
     public void addOnChatParticipantsRetrievedListener(OnChatParticipantsRetrievedListener listener) {
-        chatParticipantsRetrievedListeners.add(listener);
+        eventBus.subscribe(OnChatParticipantsRetrievedListener.class, listener);
+    }
+    public void addOnChatParticipantsRetrievedListener(int chatId, OnChatParticipantsRetrievedListener listener) { // Only participants of this chat
+        eventBus.subscribe(OnChatParticipantsRetrievedListener.class, chatId, listener);
     }
     public void removeOnChatParticipantsRetrievedListener(OnChatParticipantsRetrievedListener listener) {
-        chatParticipantsRetrievedListeners.remove(listener);
+        eventBus.unsubscribe(OnChatParticipantsRetrievedListener.class, listener);
     }
 
     public void addOnConnectionFailureListener(OnConnectionFailureListener listener) {
-        connectionFailureListeners.add(listener);
+        eventBus.subscribe(OnConnectionFailureListener.class, listener);
     }
     public void removeOnConnectionFailureListener(OnConnectionFailureListener listener) {
-        connectionFailureListeners.remove(listener);
+        eventBus.unsubscribe(OnConnectionFailureListener.class, listener);
     }
 
     public void addOnStatusUpdateListener(OnStatusUpdateListener listener) {
-        statusUpdateListeners.add(listener);
+        eventBus.subscribe(OnStatusUpdateListener.class, listener);
     }
     public void removeOnStatusUpdateListener(OnStatusUpdateListener listener) {
-        statusUpdateListeners.remove(listener);
+        eventBus.unsubscribe(OnStatusUpdateListener.class, listener);
     }
 
-    public void addOnChatRetrievedListener(OnChatRetrievedListener listener) { // New listener registration
-        chatRetrievedListeners.add(listener);
+    public void addOnChatRetrievedListener(OnChatRetrievedListener listener) {
+        eventBus.subscribe(OnChatRetrievedListener.class, listener);
     }
-    public void removeOnChatRetrievedListener(OnChatRetrievedListener listener) { // New listener removal
-        chatRetrievedListeners.remove(listener);
+    public void removeOnChatRetrievedListener(OnChatRetrievedListener listener) {
+        eventBus.unsubscribe(OnChatRetrievedListener.class, listener);
     }
 
-    public void addOnUserRetrievedListener(OnUserRetrievedListener listener) { // New listener registration
-        userRetrievedListeners.add(listener);
+    public void addOnUserRetrievedListener(OnUserRetrievedListener listener) {
+        eventBus.subscribe(OnUserRetrievedListener.class, listener);
     }
-    public void removeOnUserRetrievedListener(OnUserRetrievedListener listener) { // New listener removal
-        userRetrievedListeners.remove(listener);
+    public void removeOnUserRetrievedListener(OnUserRetrievedListener listener) {
+        eventBus.unsubscribe(OnUserRetrievedListener.class, listener);
     }
 
 
     // --- Internal Notification Helpers ---
 
     private void notifyCommandResponse(Response response) {
-        commandResponseListeners.forEach(l -> l.onCommandResponse(response));
+        eventBus.publish(OnCommandResponseListener.class, l -> l.onCommandResponse(response));
     }
 
     private void notifyNewMessageReceived(Message message) {
-        newMessageListeners.forEach(l -> l.onNewMessageReceived(message));
+        eventBus.publish(OnNewMessageListener.class, message != null ? message.getChatId() : ChatEventBus.ANY_CHAT, l -> l.onNewMessageReceived(message));
     }
 
     private void notifyLoginSuccess(User user) {
-        loginSuccessListeners.forEach(l -> l.onLoginSuccess(user));
+        eventBus.publish(OnLoginSuccessListener.class, l -> l.onLoginSuccess(user));
     }
 
     private void notifyMessagesRetrieved(List<Message> messages, int chatId) {
-        messagesRetrievedListeners.forEach(l -> l.onMessagesRetrieved(messages, chatId));
+        eventBus.publish(OnMessagesRetrievedListener.class, chatId, l -> l.onMessagesRetrieved(messages, chatId));
     }
 
     private void notifyAllUsersRetrieved(List<User> users) {
-        allUsersRetrievedListeners.forEach(l -> l.onAllUsersRetrieved(users));
+        eventBus.publish(OnAllUsersRetrievedListener.class, l -> l.onAllUsersRetrieved(users));
     }
 
     private void notifyUserChatsRetrieved(List<Chat> chats) {
-        userChatsRetrievedListeners.forEach(l -> l.onUserChatsRetrieved(chats));
+        eventBus.publish(OnUserChatsRetrievedListener.class, l -> l.onUserChatsRetrieved(chats));
     }
 
     private void notifyContactsRetrieved(List<User> contacts) {
-        contactsRetrievedListeners.forEach(l -> l.onContactsRetrieved(contacts));
+        eventBus.publish(OnContactsRetrievedListener.class, l -> l.onContactsRetrieved(contacts));
     }
 
     private void notifyNotificationsRetrieved(List<Notification> notifications) {
-        notificationsRetrievedListeners.forEach(l -> l.onNotificationsRetrieved(notifications));
+        eventBus.publish(OnNotificationsRetrievedListener.class, l -> l.onNotificationsRetrieved(notifications));
     }
 
     private void notifyChatParticipantsRetrieved(List<ChatParticipant> participants, int chatId) {
-        chatParticipantsRetrievedListeners.forEach(l -> l.onChatParticipantsRetrieved(participants, chatId));
+        eventBus.publish(OnChatParticipantsRetrievedListener.class, chatId, l -> l.onChatParticipantsRetrieved(participants, chatId));
     }
 
     private void notifyConnectionFailure(String errorMessage) {
-        connectionFailureListeners.forEach(l -> l.onConnectionFailure(errorMessage));
+        eventBus.publish(OnConnectionFailureListener.class, l -> l.onConnectionFailure(errorMessage));
         System.err.println("[Connection Failure]: " + errorMessage); // Fallback to console for critical errors
     }
 
     private void notifyStatusUpdate(String status) {
-        statusUpdateListeners.forEach(l -> l.onStatusUpdate(status));
+        eventBus.publish(OnStatusUpdateListener.class, l -> l.onStatusUpdate(status));
         System.out.println("[Status Update]: " + status); // Fallback to console for general status
     }
 
-    private void notifyChatRetrieved(Chat chat) { // New notification helper
-        chatRetrievedListeners.forEach(l -> l.onChatRetrieved(chat));
+    private void notifyChatRetrieved(Chat chat) {
+        eventBus.publish(OnChatRetrievedListener.class, chat != null ? chat.getId() : ChatEventBus.ANY_CHAT, l -> l.onChatRetrieved(chat));
     }
 
-    private void notifyUserRetrieved(User user) { // New notification helper
-        userRetrievedListeners.forEach(l -> l.onUserRetrieved(user));
+    private void notifyUserRetrieved(User user) {
+        eventBus.publish(OnUserRetrievedListener.class, l -> l.onUserRetrieved(user));
     }
 
     // --- Core Listener Thread ---
@@ -272,7 +329,13 @@ public class ChatClient implements AutoCloseable {
         try {
             String serverResponseJson;
             while ((serverResponseJson = in.readLine()) != null) {
-                Response response = gson.fromJson(serverResponseJson, Response.class);
+                long parseStart = System.nanoTime();
+                Response response;
+                try (Span span = tracer.start("envelope parse", "decode")) {
+                    response = gson.fromJson(serverResponseJson, Response.class);
+                    span.arg("chars", serverResponseJson.length());
+                }
+                metrics.recordEnvelopeParse(System.nanoTime() - parseStart);
                 // System.out.println("[DEBUG - Raw Server Response]: " + serverResponseJson); // Debugging can stay
 
                 // Special handling for file transfer initiation (server tells client to send file)
@@ -280,15 +343,36 @@ public class ChatClient implements AutoCloseable {
                     notifyStatusUpdate("Server is ready for file transfer. Initiating file send...");
                     Type type = new TypeToken<Map<String, String>>() {}.getType();
                     Map<String, String> data = gson.fromJson(response.getData(), type);
-                    pendingFileTransferId = data.get("transfer_id");
-
-                    if (pendingFileTransferId != null) {
-                        // This must be called with the specific listener provided by the sendMediaMessage caller
-                        sendFileBytes(currentFilePathToSend, pendingFileTransferId, currentFileTransferListener);
-                    } else {
-                        if (currentFileTransferListener != null) {
-                            currentFileTransferListener.onFail("Error: Server responded READY_TO_RECEIVE_FILE but no transfer_id found in data.");
+                    String transferId = data.get("transfer_id");
+                    boolean resumable = Boolean.parseBoolean(data.get("resumable"));
+                    boolean streamed = Boolean.parseBoolean(data.get("streamed"));
+                    // The oldest upload whose SEND_MESSAGE is with the server
+                    TransferJob job = transferManager.readyToReceive(transferId, response);
+
+                    if (job == null) {
+                        notifyConnectionFailure("Server responded READY_TO_RECEIVE_FILE but no upload is waiting for it.");
+                    } else if (job.isDone()) {
+                        // Cancelled after its request went out; the server is told not to wait for the bytes
+                        if (transferId != null) {
+                            transferManager.afterEnd(job, () -> abandonUpload(transferId));
                         }
+                    } else if (transferId != null && job.getUploadSource() != null) {
+                        OnFileTransferListener jobListener = job.listener();
+                        transferManager.execute(job, () -> sendStreamBytes(job, transferId, streamed, jobListener));
+                    } else if (transferId != null) {
+                        // Sent by a worker, so this thread keeps reading server messages meanwhile
+                        String filePath = job.getUploadFile().getPath();
+                        String contentHash = job.getContentHash();
+                        OnFileTransferListener jobListener = job.listener();
+                        transferManager.execute(job, () -> {
+                            if (resumable) {
+                                sendFileBytesResumable(filePath, transferId, contentHash, jobListener);
+                            } else {
+                                sendFileBytes(filePath, transferId, contentHash, jobListener);
+                            }
+                        });
+                    } else {
+                        job.listener().onFail("Error: Server responded READY_TO_RECEIVE_FILE but no transfer_id found in data.");
                         notifyConnectionFailure("Server responded READY_TO_RECEIVE_FILE but no transfer_id found in data.");
                     }
                     continue; // Do not put this into the main response queue
@@ -296,12 +380,17 @@ public class ChatClient implements AutoCloseable {
 
                 // Handle unsolicited new messages (e.g., from other users)
                 if (response.isSuccess() && "New message received".equals(response.getMessage())) {
-                    Message newMessage = gson.fromJson(response.getData(), Message.class);
+                    Message newMessage = decode(Command.SEND_MESSAGE, response.getData(), Message.class);
                     notifyNewMessageReceived(newMessage);
                 }
+                // The answer to an upload's SEND_MESSAGE once its bytes have arrived, or its refusal
+                else if (transferManager.answer(response) != null) {
+                    notifyCommandResponse(response);
+                }
                 // All other responses are put into the queue for the specific command method that sent the request
                 else {
                     responseQueue.put(response);
+                    metrics.observeQueueDepth("responseQueue", responseQueue.size());
                 }
             }
         } catch (SocketException e) {
@@ -312,6 +401,7 @@ public class ChatClient implements AutoCloseable {
             notifyConnectionFailure("Listener thread interrupted: " + e.getMessage());
             Thread.currentThread().interrupt();
         } finally {
+            transferManager.connectionLost("Server connection lost.");
             closeConnection();
         }
     }
@@ -331,7 +421,7 @@ public class ChatClient implements AutoCloseable {
         Response loginResponse = sendRequestAndAwaitResponse(loginRequest);
 
         if (loginResponse != null && loginResponse.isSuccess()) {
-            this.currentUser = gson.fromJson(loginResponse.getData(), User.class);
+            this.currentUser = decode(Command.LOGIN, loginResponse.getData(), User.class);
             notifyLoginSuccess(currentUser);
             notifyStatusUpdate("Logged in as: " + currentUser.getPhoneNumber() + " (" + currentUser.getFirstName() + " " + currentUser.getLastName() + ")");
         } else if (loginResponse != null) {
@@ -387,7 +477,8 @@ public class ChatClient implements AutoCloseable {
 
     /**
      * Sends a media message to a chat.
-     * This method initiates the media transfer process.
+     * This method initiates the media transfer process and returns once the server has answered,
+     * which it does after receiving the file, however long that takes.
      * @param chatId The ID of the chat.
      * @param filePath The local file path for the media.
      * @param caption The caption for the media message (can be null).
@@ -396,47 +487,335 @@ public class ChatClient implements AutoCloseable {
      * @return The server's Response object for the initial message request.
      */
     public Response sendMediaMessage(int chatId, String filePath, String caption, String mediaType, OnFileTransferListener fileTransferListener) {
+        String error = checkUpload(filePath);
+        if (error != null) {
+            if (currentUser != null && fileTransferListener != null) fileTransferListener.onFail(error);
+            return new Response(false, error, null);
+        }
+        TransferJob job = transferManager.newJob(TransferJob.Direction.UPLOAD, TransferJob.Priority.NORMAL,
+                new File(filePath), fileTransferListener);
+        String thumbnailUrl;
+        try {
+            thumbnailUrl = prepareUpload(job, mediaType).get();
+        } catch (ExecutionException | CancellationException e) {
+            return new Response(false, "Could not prepare " + job.getFile().getName() + " for upload.", null);
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            return new Response(false, "Client interrupted.", null);
+        }
+        Response response = requestUpload(job, chatId, caption, mediaType, thumbnailUrl);
+        if (!"READY_TO_RECEIVE_FILE".equals(response.getMessage())) {
+            return response; // Refused, timed out, or sent without uploading
+        }
+        try {
+            return job.whenAnswered().get();
+        } catch (ExecutionException e) {
+            return new Response(false, "File transfer failed: " + e.getMessage(), null);
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            return new Response(false, "Client interrupted.", null);
+        }
+    }
+
+    /**
+     * Queues a media message and returns at once; the TransferManager sends it when its turn
+     * comes. Calling this for every photo of an album sends them all without waiting.
+     * The file is transcoded, hashed and thumbnailed right away, on their own pools, and its
+     * request is only queued for the dispatcher once that is done.
+     * @param chatId The ID of the chat.
+     * @param filePath The local file path for the media.
+     * @param caption The caption for the media message (can be null).
+     * @param mediaType The type of media (e.g., "image", "video", "voiceNote", "file").
+     * @param priority The queue priority of this transfer.
+     * @param fileTransferListener A specific listener for this file transfer's progress/completion.
+     * @return The job, which can be watched or cancelled.
+     */
+    public TransferJob enqueueMediaMessage(int chatId, String filePath, String caption, String mediaType,
+                                           TransferJob.Priority priority, OnFileTransferListener fileTransferListener) {
+        TransferJob job = transferManager.newJob(TransferJob.Direction.UPLOAD, priority,
+                new File(filePath == null ? "" : filePath), fileTransferListener);
+        String error = checkUpload(filePath);
+        if (error != null) {
+            job.listener().onFail(error);
+            return job;
+        }
+        prepareUpload(job, mediaType).thenAccept(thumbnailUrl ->
+                transferManager.enqueue(job, () -> requestUpload(job, chatId, caption, mediaType, thumbnailUrl)));
+        return job;
+    }
+
+    /**
+     * Queues a media message whose bytes come from a stream instead of a file, e.g. a
+     * screenshot or a voice note that is still being recorded; nothing is written to disk.
+     * The bytes are sent as they are read. When the length is not known they go out in
+     * checksummed chunks (see ChunkedTransfer), which the server must accept ("streamed").
+     * Streams are not transcoded, deduplicated or thumbnailed, and cannot be resumed.
+     * @param chatId The ID of the chat.
+     * @param content The bytes to send; closed once the job has ended.
+     * @param length The number of bytes content holds, or -1 if it is not known; progress then
+     * reports a total of 0.
+     * @param fileName The name the media is stored under.
+     * @param caption The caption for the media message (can be null).
+     * @param mediaType The type of media (e.g., "image", "video", "voiceNote", "file").
+     * @param priority The queue priority of this transfer.
+     * @param fileTransferListener A specific listener for this file transfer's progress/completion;
+     * onComplete gets a File that only carries fileName.
+     * @return The job, which can be watched or cancelled.
+     */
+    public TransferJob enqueueMediaStream(int chatId, ReadableByteChannel content, long length, String fileName,
+                                          String caption, String mediaType, TransferJob.Priority priority,
+                                          OnFileTransferListener fileTransferListener) {
+        TransferJob job = transferManager.newJob(TransferJob.Direction.UPLOAD, priority,
+                new File(fileName == null ? "" : fileName), fileTransferListener);
+        job.setUploadSource(content, length);
+        String error = checkStreamUpload(content, fileName);
+        if (error != null) {
+            job.listener().onFail(error);
+            return job;
+        }
+        transferManager.enqueue(job, () -> requestStreamUpload(job, chatId, caption, mediaType));
+        return job;
+    }
+
+    /**
+     * Like enqueueMediaStream(int, ReadableByteChannel, ...), for an InputStream.
+     */
+    public TransferJob enqueueMediaStream(int chatId, InputStream content, long length, String fileName,
+                                          String caption, String mediaType, TransferJob.Priority priority,
+                                          OnFileTransferListener fileTransferListener) {
+        return enqueueMediaStream(chatId, content == null ? null : Channels.newChannel(content), length, fileName,
+                caption, mediaType, priority, fileTransferListener);
+    }
+
+    /**
+     * @return The SHA-256 of the file (cached by path, size and mtime), or null if it cannot be read.
+     */
+    private String hashForUpload(File file) {
+        try (Span span = tracer.start("content hash", "file").arg("bytes", file.length())) {
+            return ContentHashCache.get().sha256(file.toPath());
+        } catch (IOException e) {
+            notifyStatusUpdate("Could not hash " + file.getName() + " (" + e.getMessage() + "), uploading without deduplication.");
+            return null;
+        }
+    }
+
+    /**
+     * Asks the server for media with this content.
+     * @return The stored media, or null if there is none or the server does not support the lookup.
+     */
+    private Media findMediaByHash(String contentHash, long fileSize) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("content_hash", contentHash);
+        data.put("file_size", fileSize);
+        Response response = sendRequestAndAwaitResponse(new Request(Command.GET_MEDIA_BY_HASH, data));
+        if (!response.isSuccess() || response.getData() == null) {
+            return null;
+        }
+        return decode(Command.GET_MEDIA_BY_HASH, response.getData(), Media.class);
+    }
+
+    /**
+     * Sends a media message that references media already stored on the server.
+     */
+    private Response sendExistingMedia(TransferJob job, int chatId, String caption, Media existing) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("chat_id", chatId);
+        data.put("content", (caption != null && !caption.isEmpty()) ? caption : null);
+        data.put("existing_media_id", existing.getId());
+
+        job.markRequested();
+        Response response = sendRequestAndAwaitResponse(new Request(Command.SEND_MESSAGE, data));
+        OnFileTransferListener fileTransferListener = job.listener();
+        if (response.isSuccess()) {
+            notifyStatusUpdate("File '" + job.getFile().getName() + "' is already on the server, sent without uploading.");
+            fileTransferListener.onProgress(job.getFile().length(), job.getFile().length());
+            fileTransferListener.onComplete(job.getFile());
+        } else {
+            fileTransferListener.onFail("Server failed to send the message: " + response.getMessage());
+        }
+        notifyCommandResponse(response); // Notify general listeners about message send outcome
+        return response;
+    }
+
+    /**
+     * @return Why the file cannot be sent, or null if it can.
+     */
+    private String checkUpload(String filePath) {
         if (currentUser == null) {
-            return new Response(false, "Authentication required to send media messages.", null);
+            return "Authentication required to send media messages.";
         }
         if (filePath == null || filePath.isEmpty()) {
-            return new Response(false, "File path cannot be empty for media message.", null);
+            return "File path cannot be empty for media message.";
         }
-
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
-            String errorMsg = "Error: File not found or is not a regular file at " + filePath;
-            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
-            return new Response(false, errorMsg, null);
+            return "Error: File not found or is not a regular file at " + filePath;
         }
+        return null;
+    }
 
-        // Store the file path and the specific listener for the upcoming file transfer
-        this.currentFilePathToSend = filePath;
-        this.currentFileTransferListener = fileTransferListener; // Set the specific listener for this transfer
+    /**
+     * @return Why the stream cannot be sent, or null if it can.
+     */
+    private String checkStreamUpload(ReadableByteChannel content, String fileName) {
+        if (currentUser == null) {
+            return "Authentication required to send media messages.";
+        }
+        if (content == null) {
+            return "Content cannot be null for media message.";
+        }
+        if (fileName == null || fileName.isEmpty()) {
+            return "File name cannot be empty for media message.";
+        }
+        return null;
+    }
 
-        long fileSize = file.length();
-        String fileName = file.getName();
+    /**
+     * Sends the SEND_MESSAGE of a stream upload job; the bytes follow READY_TO_RECEIVE_FILE
+     * like those of a file (see sendStreamBytes). The size is only announced if it is known.
+     */
+    private Response requestStreamUpload(TransferJob job, int chatId, String caption, String mediaType) {
+        long length = job.getUploadLength();
+        Media media = new Media();
+        media.setFileName(job.getFile().getName());
+        media.setFileSize(length >= 0 ? length : null);
+        media.setMediaType(mediaType);
+        media.setUploadedByUserId(currentUser.getId());
+        media.setUploadedAt(LocalDateTime.now());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("chat_id", chatId);
+        data.put("content", (caption != null && !caption.isEmpty()) ? caption : null);
+        data.put("media", media);
+
+        return sendUploadRequest(job, new Request(Command.SEND_MESSAGE, data));
+    }
+
+    /**
+     * Starts what must be done before the SEND_MESSAGE of an upload job can be sent: photos and
+     * voice notes are transcoded, then the file to upload is hashed, and meanwhile the thumbnail
+     * is made from the original. All of it runs on pools: none on the dispatcher, and none on
+     * the caller, which may be the UI thread.
+     * @return A future completed with the thumbnail data URL, or null if there is none or it was
+     * not ready THUMBNAIL_TIMEOUT_SECONDS after the hash, once the job's upload file and content
+     * hash are set; cancelled if the job ends first.
+     */
+    private CompletableFuture<String> prepareUpload(TransferJob job, String mediaType) {
+        File original = job.getFile();
+        CompletableFuture<String> thumbnail = thumbnails.submit(original, mediaType);
+        // Submitted from a worker, which transcodes itself when the transcoder's queue is full
+        return transferManager.prepare(job, () -> transcoder.submit(original, mediaType))
+                .thenCompose(transcoded -> transcoded)
+                .thenCompose(file -> transferManager.prepare(job, () -> {
+                    if (file != original) {
+                        job.setUploadCopy(file);
+                    }
+                    job.setContentHash(hashForUpload(file));
+                    return file;
+                }))
+                .thenCompose(file -> thumbnail
+                        .orTimeout(THUMBNAIL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                        .exceptionally(e -> {
+                            // The message is then sent without one rather than held back
+                            notifyStatusUpdate("No thumbnail for " + original.getName() + ", sending without one.");
+                            return null;
+                        }));
+    }
+
+    /**
+     * Sends the SEND_MESSAGE of an upload job prepared by prepareUpload. Its bytes are sent by
+     * a worker when the server answers with READY_TO_RECEIVE_FILE (see listenForServerMessages).
+     * If the server already has media with the same SHA-256, the message references that
+     * media instead and nothing is uploaded.
+     */
+    private Response requestUpload(TransferJob job, int chatId, String caption, String mediaType, String thumbnailUrl) {
+        File file = job.getUploadFile();
+        String contentHash = job.getContentHash();
+        if (contentHash != null) {
+            Media existing = findMediaByHash(contentHash, file.length());
+            if (existing != null) {
+                return sendExistingMedia(job, chatId, caption, existing);
+            }
+        }
 
         Media media = new Media();
-        media.setFileName(fileName);
-        media.setFileSize(fileSize);
+        media.setFileName(file.getName());
+        media.setFileSize(file.length());
         media.setMediaType(mediaType);
         media.setUploadedByUserId(currentUser.getId());
         media.setUploadedAt(LocalDateTime.now());
+        media.setContentHash(contentHash);
+        media.setThumbnailUrl(thumbnailUrl);
 
         Map<String, Object> data = new HashMap<>();
         data.put("chat_id", chatId);
         data.put("content", (caption != null && !caption.isEmpty()) ? caption : null);
         data.put("media", media);
 
-        Request request = new Request(Command.SEND_MESSAGE, data);
-        Response response = sendRequestAndAwaitResponse(request);
-        notifyCommandResponse(response); // Notify general listeners about message send outcome
+        return sendUploadRequest(job, new Request(Command.SEND_MESSAGE, data));
+    }
 
-        // Important: currentFileTransferListener will be used by listenForServerMessages
-        // when it receives "READY_TO_RECEIVE_FILE" and calls sendFileBytes.
-        // It's reset inside sendFileBytes's finally block or after successful transfer.
-        return response;
+    /**
+     * Sends the SEND_MESSAGE of an upload and waits for READY_TO_RECEIVE_FILE, or until the job
+     * is cancelled, but not for the bytes: the server answers the request a second time once
+     * it has them, and that answer goes to the job (see TransferManager.answer).
+     * @return READY_TO_RECEIVE_FILE, the server's refusal, or a failed response if the job was
+     * cancelled or the server did not answer in time.
+     */
+    private Response sendUploadRequest(TransferJob job, Request request) {
+        synchronized (requestLock) {
+            try (Span requestSpan = tracer.start(String.valueOf(request.getCommand()), "request")) {
+                long start = System.nanoTime();
+                // Queued for READY_TO_RECEIVE_FILE in the same order the requests go out
+                CompletableFuture<Response> ready = transferManager.awaitReady(job);
+                out.println(gson.toJson(request));
+                try (Span span = tracer.start("await ready", "request")) {
+                    CompletableFuture<Object> readyOrDone = CompletableFuture.anyOf(ready, job.whenDone());
+                    while (true) {
+                        try {
+                            readyOrDone.get(30, TimeUnit.SECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            if (!transferManager.isAnswerOwedBefore(job)) {
+                                throw e;
+                            }
+                        }
+                    }
+                }
+                Response response = ready.getNow(null);
+                if (response == null) {
+                    // Cancelled; the job stays queued, so READY_TO_RECEIVE_FILE still finds it
+                    return new Response(false, "Transfer cancelled.", null);
+                }
+                metrics.recordRoundTrip(request.getCommand(), System.nanoTime() - start);
+                requestSpan.arg("success", response.isSuccess());
+                return response;
+            } catch (TimeoutException | ExecutionException e) {
+                String errorMsg = "No response from server within timeout for command: " + request.getCommand();
+                job.listener().onFail("Server response timed out.");
+                notifyConnectionFailure(errorMsg);
+                return new Response(false, "Server response timed out.", null);
+            } catch (InterruptedException e) {
+                job.cancel();
+                notifyConnectionFailure("Waiting for response interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt();
+                return new Response(false, "Client interrupted.", null);
+            }
+        }
+    }
+
+    /**
+     * Connects for an announced upload and hangs up without sending a byte, so the server
+     * fails the transfer and answers its SEND_MESSAGE now instead of waiting for the bytes.
+     */
+    private void abandonUpload(String transferId) {
+        try (SocketChannel fileChannel = ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT)) {
+            ZeroCopy.writeLine(fileChannel, transferId);
+        } catch (IOException e) {
+            notifyStatusUpdate("Could not abandon transfer " + transferId + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -460,7 +839,7 @@ public class ChatClient implements AutoCloseable {
 
         if (messagesResponse != null && messagesResponse.isSuccess() && "Messages retrieved.".equals(messagesResponse.getMessage())) {
             Type messageListType = new TypeToken<List<Message>>() {}.getType();
-            List<Message> messages = gson.fromJson(messagesResponse.getData(), messageListType);
+            List<Message> messages = decode(Command.GET_CHAT_MESSAGES, messagesResponse.getData(), messageListType);
             notifyMessagesRetrieved(messages, chatId); // Notify dedicated listener
         } else if (messagesResponse != null) {
             notifyCommandResponse(messagesResponse); // Notify general listeners about failure
@@ -504,7 +883,7 @@ public class ChatClient implements AutoCloseable {
         Response allUsersResponse = sendRequestAndAwaitResponse(request);
         if (allUsersResponse != null && allUsersResponse.isSuccess() && "All users retrieved.".equals(allUsersResponse.getMessage())) {
             Type userListType = new TypeToken<List<User>>() {}.getType();
-            List<User> users = gson.fromJson(allUsersResponse.getData(), userListType);
+            List<User> users = decode(Command.GET_ALL_USERS, allUsersResponse.getData(), userListType);
             notifyAllUsersRetrieved(users); // Notify dedicated listener
         } else if (allUsersResponse != null) {
             notifyCommandResponse(allUsersResponse);
@@ -525,7 +904,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess() && "All chats retrieved for user.".equals(response.getMessage())) {
             Type chatListType = new TypeToken<List<Chat>>() {}.getType();
-            List<Chat> chats = gson.fromJson(response.getData(), chatListType);
+            List<Chat> chats = decode(Command.GET_USER_CHATS, response.getData(), chatListType);
             notifyUserChatsRetrieved(chats); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -571,7 +950,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess()) {
             Type participantListType = new TypeToken<List<ChatParticipant>>() {}.getType();
-            List<ChatParticipant> participants = gson.fromJson(response.getData(), participantListType);
+            List<ChatParticipant> participants = decode(Command.GET_CHAT_PARTICIPANTS, response.getData(), participantListType);
             notifyChatParticipantsRetrieved(participants, chatId); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -650,7 +1029,7 @@ public class ChatClient implements AutoCloseable {
         Response response = sendRequestAndAwaitResponse(request);
         if (response != null && response.isSuccess() && "User contacts retrieved.".equals(response.getMessage())) {
             Type contactListType = new TypeToken<List<User>>() {}.getType();
-            List<User> contacts = gson.fromJson(response.getData(), contactListType);
+            List<User> contacts = decode(Command.GET_CONTACTS, response.getData(), contactListType);
             notifyContactsRetrieved(contacts); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -708,7 +1087,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess() && "User notifications retrieved.".equals(response.getMessage())) {
             Type notificationListType = new TypeToken<List<Notification>>() {}.getType();
-            List<Notification> notifications = gson.fromJson(response.getData(), notificationListType);
+            List<Notification> notifications = decode(Command.MY_NOTIFICATIONS, response.getData(), notificationListType);
             notifyNotificationsRetrieved(notifications); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -858,7 +1237,7 @@ public class ChatClient implements AutoCloseable {
         Response unreadMessagesResponse = sendRequestAndAwaitResponse(request);
         if (unreadMessagesResponse != null && unreadMessagesResponse.isSuccess() && "Messages retrieved.".equals(unreadMessagesResponse.getMessage())) {
             Type messageListType = new TypeToken<List<Message>>() {}.getType();
-            List<Message> messages = gson.fromJson(unreadMessagesResponse.getData(), messageListType);
+            List<Message> messages = decode(Command.GET_CHAT_UNREADMESSAGES, unreadMessagesResponse.getData(), messageListType);
             notifyMessagesRetrieved(messages, chatId); // Reuse messages retrieved listener
         } else if (unreadMessagesResponse != null) {
             notifyCommandResponse(unreadMessagesResponse);
@@ -883,7 +1262,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess() && "Chat retrieved by id.".equals(response.getMessage())) {
             Type chatType = new TypeToken<Chat>() {}.getType();
-            Chat chat = gson.fromJson(response.getData(), chatType);
+            Chat chat = decode(Command.GET_CHAT_BY_ID, response.getData(), chatType);
             notifyChatRetrieved(chat); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -908,7 +1287,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess() && "User retrieved by phone number.".equals(response.getMessage())) {
             Type userType = new TypeToken<User>() {}.getType();
-            User user = gson.fromJson(response.getData(), userType);
+            User user = decode(Command.GET_USER_BY_PHONENUMBER, response.getData(), userType);
             notifyUserRetrieved(user); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -933,7 +1312,7 @@ public class ChatClient implements AutoCloseable {
 
         if (response != null && response.isSuccess() && "User retrieved by id.".equals(response.getMessage())) {
             Type userType = new TypeToken<User>() {}.getType();
-            User user = gson.fromJson(response.getData(), userType);
+            User user = decode(Command.GET_USER_BY_ID, response.getData(), userType);
             notifyUserRetrieved(user); // Notify dedicated listener
         } else if (response != null) {
             notifyCommandResponse(response);
@@ -945,38 +1324,85 @@ public class ChatClient implements AutoCloseable {
     /**
      * Sends a request to the server and waits for a response from the response queue.
      * This is a core private helper method used by all public command methods.
+     * Requests from different threads are sent one at a time, since responses are not tagged.
      *
      * @param request The Request object to send.
      * @return The Response object received from the server, or a timeout response.
      */
     private Response sendRequestAndAwaitResponse(Request request) {
-        try {
-            responseQueue.clear(); // Clear any stale responses
-            out.println(gson.toJson(request));
-            Response response = responseQueue.poll(30, TimeUnit.SECONDS); // 30-second timeout
+        synchronized (requestLock) {
+            try (Span requestSpan = tracer.start(String.valueOf(request.getCommand()), "request")) {
+                responseQueue.clear(); // Clear any stale responses
+                long start = System.nanoTime();
+                String json;
+                try (Span span = tracer.start("serialize", "request")) {
+                    json = gson.toJson(request);
+                    span.arg("chars", json.length());
+                }
+                try (Span span = tracer.start("socket write", "request")) {
+                    out.println(json);
+                }
+                Response response;
+                try (Span span = tracer.start("await response", "request")) {
+                    response = awaitResponse();
+                }
+                if (response != null) {
+                    metrics.recordRoundTrip(request.getCommand(), System.nanoTime() - start);
+                    requestSpan.arg("success", response.isSuccess());
+                }
 
-            if (response == null) {
-                String errorMsg = "No response from server within timeout for command: " + request.getCommand();
-                notifyConnectionFailure(errorMsg); // Use specific connection failure listener
-                return new Response(false, "Server response timed out.", null);
+                if (response == null) {
+                    String errorMsg = "No response from server within timeout for command: " + request.getCommand();
+                    notifyConnectionFailure(errorMsg); // Use specific connection failure listener
+                    return new Response(false, "Server response timed out.", null);
+                }
+                return response;
+            } catch (InterruptedException e) {
+                String errorMsg = "Waiting for response interrupted: " + e.getMessage();
+                notifyConnectionFailure(errorMsg);
+                Thread.currentThread().interrupt();
+                return new Response(false, "Client interrupted.", null);
             }
-            return response;
-        } catch (InterruptedException e) {
-            String errorMsg = "Waiting for response interrupted: " + e.getMessage();
-            notifyConnectionFailure(errorMsg);
-            Thread.currentThread().interrupt();
-            return new Response(false, "Client interrupted.", null);
         }
     }
 
+    /**
+     * Waits for the response to the request just sent. The answers the server owes uploads sent
+     * before it come first, and may take as long as their bytes do (a live recording can run for
+     * minutes), so the 30-second timeout only counts once none is owed any more.
+     * @return The response, or null if none came in time.
+     */
+    private Response awaitResponse() throws InterruptedException {
+        Response response;
+        do {
+            response = responseQueue.poll(30, TimeUnit.SECONDS);
+        } while (response == null && transferManager.isAnswerOwedBefore(null));
+        return response;
+    }
+
+    /**
+     * Decodes a response's data with Gson, recording the time spent under the command.
+     */
+    private <T> T decode(Command command, String json, Type type) {
+        long start = System.nanoTime();
+        T result;
+        try (Span span = tracer.start("payload parse", "decode")) {
+            span.arg("command", command).arg("chars", json == null ? 0 : json.length());
+            result = gson.fromJson(json, type);
+        }
+        metrics.recordDecode(command, System.nanoTime() - start);
+        return result;
+    }
+
     /**
      * Sends file bytes to the file transfer server.
      * This method is called internally by the listener thread when the server is ready.
      * @param filePath The path to the file to send.
      * @param transferId The transfer ID provided by the main server.
+     * @param contentHash The SHA-256 of the file, checked against the server's acknowledgement; may be null.
      * @param fileTransferListener The specific listener for this transfer.
      */
-    private void sendFileBytes(String filePath, String transferId, OnFileTransferListener fileTransferListener) {
+    private void sendFileBytes(String filePath, String transferId, String contentHash, OnFileTransferListener fileTransferListener) {
         File file = new File(filePath);
         if (!file.exists() || !file.isFile()) {
             String errorMsg = "File not found or is not a regular file: " + filePath;
@@ -985,38 +1411,47 @@ public class ChatClient implements AutoCloseable {
             return;
         }
 
-        try (Socket fileSocket = new Socket(SERVER_IP, FILE_TRANSFER_PORT);
-             OutputStream os = fileSocket.getOutputStream();
-             BufferedReader serverResponseReader = new BufferedReader(new InputStreamReader(fileSocket.getInputStream()));
-             FileInputStream fis = new FileInputStream(file)) {
+        try (Span transferSpan = tracer.start("file upload", "file").arg("transferId", transferId).arg("bytes", file.length());
+             Span connectSpan = tracer.start("file connect", "file");
+             SocketChannel fileChannel = ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT);
+             FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
 
             notifyStatusUpdate("Connecting to file transfer server on port " + FILE_TRANSFER_PORT + " for sending...");
-            PrintWriter socketWriter = new PrintWriter(os, true);
-            socketWriter.println(transferId);
+            ZeroCopy.writeLine(fileChannel, transferId);
+            connectSpan.close();
             notifyStatusUpdate("Sent transferId: " + transferId + " to file server.");
 
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            long totalBytesSent = 0;
-            long fileSize = file.length();
+            long fileSize = source.size();
+            long[] totalBytesSent = {0};
 
             notifyStatusUpdate("Sending file: " + file.getName() + " (" + fileSize + " bytes)");
 
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-                totalBytesSent += bytesRead;
-                if (fileTransferListener != null) {
-                    fileTransferListener.onProgress(totalBytesSent, fileSize);
-                }
+            // The kernel copies the file straight to the socket (sendfile); we only see the progress.
+            // During a call the strides are paced so audio and video keep their share of the uplink
+            long transferStart = System.nanoTime();
+            try (Span span = tracer.start("file send", "file")) {
+                ZeroCopy.transferToFully(source, 0, fileSize, fileChannel, bandwidth, sent -> {
+                    totalBytesSent[0] += sent;
+                    metrics.addBytesOut(Channel.FILE, sent);
+                    if (fileTransferListener != null) {
+                        fileTransferListener.onProgress(totalBytesSent[0], fileSize);
+                    }
+                });
             }
-            os.flush();
 
-            String fileTransferStatus = serverResponseReader.readLine();
-            if (fileTransferStatus != null && fileTransferStatus.equals("FILE_RECEIVED_SUCCESS")) {
+            String fileTransferStatus;
+            try (Span span = tracer.start("file ack", "file")) {
+                fileTransferStatus = ZeroCopy.readLine(fileChannel);
+            }
+            String errorMsg = checkUploadStatus(fileTransferStatus, contentHash);
+            transferSpan.arg("sent", totalBytesSent[0]).arg("status", fileTransferStatus);
+            if (errorMsg == null) {
+                long transferNanos = System.nanoTime() - transferStart;
+                metrics.recordFileTransfer(totalBytesSent[0], transferNanos);
+                bandwidth.recordUpload(totalBytesSent[0], transferNanos);
                 if (fileTransferListener != null) fileTransferListener.onComplete(file);
                 notifyStatusUpdate("File '" + file.getName() + "' sent successfully!");
             } else {
-                String errorMsg = "File server reported failure or unexpected response: " + fileTransferStatus;
                 if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
                 notifyConnectionFailure(errorMsg);
             }
@@ -1026,47 +1461,344 @@ public class ChatClient implements AutoCloseable {
             if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
             notifyConnectionFailure(errorMsg);
             e.printStackTrace();
-        } finally {
-            // Reset the temporary listener and file path after the transfer attempt
-            this.currentFileTransferListener = null;
-            this.currentFilePathToSend = null;
-            this.pendingFileTransferId = null;
         }
     }
 
     /**
-     * Requests and receives a media file from the server.
+     * Sends the bytes of a stream upload job as they are read from its source. A known length
+     * goes out raw, like a file; otherwise as a ChunkedTransfer stream, if the server accepts one.
+     * The SHA-256 is computed on the way and checked against the server's acknowledgement.
+     * @param streamed True if the server announced that it accepts ChunkedTransfer streams.
+     */
+    private void sendStreamBytes(TransferJob job, String transferId, boolean streamed, OnFileTransferListener fileTransferListener) {
+        ReadableByteChannel source = job.getUploadSource();
+        long length = job.getUploadLength();
+        String fileName = job.getFile().getName();
+        if (length < 0 && !streamed) {
+            String errorMsg = "Server does not accept uploads of unknown length: " + fileName;
+            fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+            return;
+        }
+        TransferDigest digest = new TransferDigest();
+        long transferStart = System.nanoTime();
+        try (Span span = tracer.start("stream upload", "file").arg("transferId", transferId).arg("bytes", length);
+             SocketChannel fileChannel = ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT)) {
+            notifyStatusUpdate("Sending stream: " + fileName + (length >= 0 ? " (" + length + " bytes)" : " (length unknown)"));
+            long sent;
+            if (length >= 0) {
+                ZeroCopy.writeLine(fileChannel, transferId);
+                long[] totalBytesSent = {0};
+                sent = ZeroCopy.copyFully(source, length, fileChannel, bandwidth, digest, n -> {
+                    totalBytesSent[0] += n;
+                    metrics.addBytesOut(Channel.FILE, n);
+                    fileTransferListener.onProgress(totalBytesSent[0], length);
+                });
+            } else {
+                ZeroCopy.writeLine(fileChannel, ChunkedTransfer.streamLine(transferId));
+                long[] committedBytes = {0};
+                sent = ChunkedTransfer.sendStream(fileChannel, bandwidth.pace(fileChannel), source, digest, committed -> {
+                    metrics.addBytesOut(Channel.FILE, committed - committedBytes[0]);
+                    committedBytes[0] = committed;
+                    fileTransferListener.onProgress(committed, 0); // Size not known
+                });
+            }
+            String errorMsg = checkUploadStatus(ZeroCopy.readLine(fileChannel), digest.finish());
+            if (errorMsg == null) {
+                // Not reported to the bandwidth scheduler: a producer's pace says nothing about the uplink
+                metrics.recordFileTransfer(sent, System.nanoTime() - transferStart);
+                fileTransferListener.onComplete(job.getFile());
+                notifyStatusUpdate("Stream '" + fileName + "' sent successfully (" + sent + " bytes)!");
+            } else {
+                fileTransferListener.onFail(errorMsg);
+                notifyConnectionFailure(errorMsg);
+            }
+        } catch (IOException e) {
+            String errorMsg = "Error during stream send transfer: " + e.getMessage();
+            fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+        }
+    }
+
+    /**
+     * Sends file bytes as checksummed chunks (see ChunkedTransfer). A dropped connection is
+     * resumed from the last chunk the server committed instead of starting over.
+     * @param filePath The path to the file to send.
+     * @param transferId The transfer ID provided by the main server.
+     * @param contentHash The SHA-256 of the file, checked against the server's acknowledgement; may be null.
+     * @param fileTransferListener The specific listener for this transfer.
+     */
+    private void sendFileBytesResumable(String filePath, String transferId, String contentHash, OnFileTransferListener fileTransferListener) {
+        File file = new File(filePath);
+        if (!file.isFile()) {
+            String errorMsg = "File not found or is not a regular file: " + filePath;
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+            return;
+        }
+        notifyStatusUpdate("Sending file: " + file.getName() + " (" + file.length() + " bytes, resumable)");
+        uploadResumable(transferId, file, contentHash, fileTransferListener);
+    }
+
+    /**
+     * Continues an upload that was interrupted, e.g. before the client was restarted.
+     * The server must still be waiting for the transfer.
+     * @param transferId The transfer ID of the unfinished upload.
+     * @param fileTransferListener A specific listener for this file transfer's progress/completion.
+     */
+    public void resumeUpload(String transferId, OnFileTransferListener fileTransferListener) {
+        TransferJournal.Entry entry = resumableTransfer.getJournal().get(ResumableTransfer.uploadKey(transferId));
+        if (entry == null) {
+            String errorMsg = "No unfinished upload with transferId " + transferId;
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+            return;
+        }
+        notifyStatusUpdate("Resuming upload of " + entry.getPath());
+        File file = new File(entry.getPath());
+        String contentHash = null;
+        try {
+            // Normally still cached from the first attempt
+            contentHash = ContentHashCache.get().sha256(file.toPath());
+        } catch (IOException e) {
+            // The upload fails on the same error
+        }
+        // Not a TransferJob, but its progress is paced the same way
+        uploadResumable(transferId, file, contentHash, transferManager.getProgressAggregator().wrap(fileTransferListener));
+    }
+
+    private void uploadResumable(String transferId, File file, String contentHash, OnFileTransferListener fileTransferListener) {
+        long fileSize = file.length();
+        long[] committedBytes = {0};
+        long transferStart = System.nanoTime();
+        try (Span span = tracer.start("file upload", "file").arg("transferId", transferId).arg("bytes", fileSize)) {
+            String status = resumableTransfer.upload(transferId, file.toPath(), committed -> {
+                if (committed > committedBytes[0]) {
+                    metrics.addBytesOut(Channel.FILE, committed - committedBytes[0]);
+                }
+                committedBytes[0] = committed;
+                if (fileTransferListener != null) {
+                    fileTransferListener.onProgress(committed, fileSize);
+                }
+            });
+            String errorMsg = checkUploadStatus(status, contentHash);
+            if (errorMsg == null) {
+                long transferNanos = System.nanoTime() - transferStart;
+                metrics.recordFileTransfer(fileSize, transferNanos);
+                bandwidth.recordUpload(fileSize, transferNanos);
+                if (fileTransferListener != null) fileTransferListener.onComplete(file);
+                notifyStatusUpdate("File '" + file.getName() + "' sent successfully!");
+            } else {
+                if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+                notifyConnectionFailure(errorMsg);
+            }
+        } catch (IOException e) {
+            String errorMsg = "Error during file send transfer: " + e.getMessage()
+                    + " (resume later with transferId " + transferId + ")";
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+        }
+    }
+
+    /**
+     * Checks the file server's answer to an upload, including the digest it computed of the
+     * bytes it received, which must match the SHA-256 of the file that was sent.
+     * @return Why the upload failed, or null if it succeeded.
+     */
+    private String checkUploadStatus(String status, String contentHash) {
+        if (!TransferDigest.isSuccess(status)) {
+            return "File server reported failure or unexpected response: " + status;
+        }
+        try {
+            TransferDigest.check(contentHash, TransferDigest.digestOf(status));
+            return null;
+        } catch (TransferDigest.MismatchException e) {
+            return "File was corrupted on the way to the server. " + e.getMessage();
+        }
+    }
+
+    /**
+     * Remembers the digest of a verified download, so sending the file on does not hash it again.
+     */
+    private void rememberContentHash(File file, String sha256) {
+        if (sha256 == null) {
+            return;
+        }
+        try {
+            ContentHashCache.get().remember(file.toPath(), sha256);
+        } catch (IOException e) {
+            // Only an optimization; the file is hashed when it is sent
+        }
+    }
+
+    /**
+     * Returns the thumbnail of an image or video from its metadata, without a request: chat
+     * views draw it right away and fetch the full file with getFileByMedia or enqueueDownload
+     * only when the user opens it.
+     * @param media A media as received with its message.
+     * @return The JPEG bytes (e.g. for new javafx.scene.image.Image(new ByteArrayInputStream(bytes))),
+     * or null if the media has no inline thumbnail, e.g. because an older client sent it.
+     */
+    public byte[] getThumbnail(Media media) {
+        return media == null ? null : ThumbnailGenerator.decode(media.getThumbnailUrl());
+    }
+
+    /**
+     * Requests and receives a media file from the server, returning once the download has finished.
      * @param media The Media object containing details of the file to download.
      * @param saveDirectory The directory where the file should be saved.
      * @param fileTransferListener A specific listener for this file transfer's progress/completion.
      * @return The server's Response object for the initial request to get the file.
      */
     public Response getFileByMedia(Media media, String saveDirectory, OnFileTransferListener fileTransferListener) {
+        String error = checkDownload(media);
+        if (error != null) {
+            if (currentUser != null && fileTransferListener != null) fileTransferListener.onFail(error);
+            return new Response(false, error, null);
+        }
+        TransferJob job = transferManager.newJob(TransferJob.Direction.DOWNLOAD, TransferJob.Priority.NORMAL,
+                new File(saveDirectory, media.getFileName()), fileTransferListener);
+        Response response = requestDownload(job, media, saveDirectory);
+        try {
+            job.await(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+        }
+        return response;
+    }
+
+    /**
+     * Queues a media download and returns at once. Downloads run concurrently on the
+     * TransferManager's workers, so queueing every media of a chat fetches them in parallel.
+     * @param media The Media object containing details of the file to download.
+     * @param saveDirectory The directory where the file should be saved.
+     * @param priority The queue priority of this transfer.
+     * @param fileTransferListener A specific listener for this file transfer's progress/completion.
+     * @return The job, which can be watched or cancelled.
+     */
+    public TransferJob enqueueDownload(Media media, String saveDirectory, TransferJob.Priority priority,
+                                       OnFileTransferListener fileTransferListener) {
+        String fileName = media == null || media.getFileName() == null ? "" : media.getFileName();
+        TransferJob job = transferManager.newJob(TransferJob.Direction.DOWNLOAD, priority,
+                new File(saveDirectory, fileName), fileTransferListener);
+        String error = checkDownload(media);
+        if (error != null) {
+            job.listener().onFail(error);
+            return job;
+        }
+        transferManager.enqueue(job, () -> requestDownload(job, media, saveDirectory));
+        return job;
+    }
+
+    /**
+     * Queues a download that can be played while it arrives, e.g. a long voice note or a video.
+     * The bytes come over a single connection in order, and the returned file can be read as
+     * they are written:
+     * <pre>
+     * GrowingFile file = client.streamMedia(media, dir, listener);
+     * file.whenPlayable().thenRun(() -> player.play(file.openStream()));
+     * </pre>
+     * Reads beyond what has arrived block; once the download has ended they continue from the
+     * saved file, which is also reported to the listener as usual.
+     * @param media The Media object containing details of the file to download.
+     * @param saveDirectory The directory where the file should be saved.
+     * @param fileTransferListener A specific listener for this file transfer's progress/completion.
+     * @return The growing file; whenPlayable completes once tusal.stream.minPrefixKb (default 64) are buffered.
+     */
+    public GrowingFile streamMedia(Media media, String saveDirectory, OnFileTransferListener fileTransferListener) {
+        String fileName = media == null || media.getFileName() == null ? "" : media.getFileName();
+        TransferJob job = transferManager.newJob(TransferJob.Direction.DOWNLOAD, TransferJob.Priority.HIGH,
+                new File(saveDirectory, fileName), fileTransferListener);
+        GrowingFile growing = new GrowingFile(STREAM_MIN_PREFIX_BYTES);
+        job.setGrowingFile(growing);
+        job.whenDone().thenAccept(state -> {
+            if (state == TransferJob.State.COMPLETED) {
+                growing.complete(job.getFile().toPath());
+            } else {
+                growing.fail("Download " + state.name().toLowerCase() + ".");
+            }
+        });
+        String error = checkDownload(media);
+        if (error != null) {
+            job.listener().onFail(error);
+            return growing;
+        }
+        transferManager.enqueue(job, () -> requestDownload(job, media, saveDirectory));
+        return growing;
+    }
+
+    /**
+     * @return The TransferManager running this client's uploads and downloads.
+     */
+    public TransferManager getTransferManager() {
+        return transferManager;
+    }
+
+    /**
+     * @return Why the media cannot be downloaded, or null if it can.
+     */
+    private String checkDownload(Media media) {
         if (currentUser == null) {
-            return new Response(false, "Authentication required to download files.", null);
+            return "Authentication required to download files.";
         }
         if (media == null || media.getId() == 0 || media.getFileName() == null || media.getFileName().isEmpty()) {
-            String errorMsg = "Error: Invalid media object. Missing mediaId or fileName.";
-            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
-            return new Response(false, errorMsg, null);
+            return "Error: Invalid media object. Missing mediaId or fileName.";
         }
+        return null;
+    }
 
-        // Set the specific listener for this download operation
-        this.currentFileTransferListener = fileTransferListener;
+    /**
+     * Sends the GET_FILE_BY_MEDIA of a download job and hands its bytes to a worker.
+     * Media in the MediaCache is served from there instead. While the same media is being
+     * downloaded for another job, this one waits for it to reach the cache.
+     */
+    private Response requestDownload(TransferJob job, Media media, String saveDirectory) {
+        String cacheKey = MediaCache.keyOf(media.getId(), media.getContentHash());
+        File target = new File(saveDirectory, media.getFileName());
+        if (serveFromCache(job, media, cacheKey, target)) {
+            return new Response(true, "Served from the media cache.", null);
+        }
+        CompletableFuture<Path> inFlight = mediaCache.beginFill(cacheKey);
+        if (inFlight != null) {
+            job.markRequested();
+            // Tried again once the other download has ended: a hit then, or this job downloads itself
+            inFlight.thenRun(() -> transferManager.enqueue(job, () -> requestDownload(job, media, saveDirectory)));
+            return new Response(true, "Waiting for the same media to finish downloading.", null);
+        }
+        if (mediaCache.isEnabled()) {
+            job.whenDone().thenAccept(state -> {
+                if (state == TransferJob.State.COMPLETED) {
+                    mediaCache.finishFill(cacheKey, target.toPath());
+                } else {
+                    mediaCache.abandonFill(cacheKey);
+                }
+            });
+        }
 
+        OnFileTransferListener fileTransferListener = job.listener();
         try {
             Map<String, Object> data = new HashMap<>();
             data.put("mediaId", media.getId());
             data.put("fileName", media.getFileName());
 
             Request request = new Request(Command.GET_FILE_BY_MEDIA, data);
-            out.println(gson.toJson(request));
-
-            Response response = responseQueue.poll(30, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            Response response;
+            synchronized (requestLock) {
+                job.markRequested();
+                try (Span span = tracer.start(Command.GET_FILE_BY_MEDIA.name(), "request")) {
+                    out.println(gson.toJson(request));
+                    response = awaitResponse();
+                }
+            }
+            if (response != null) {
+                metrics.recordRoundTrip(Command.GET_FILE_BY_MEDIA, System.nanoTime() - start);
+            }
 
             if (response == null) {
                 String errorMsg = "Server response timed out for file download request.";
-                if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+                fileTransferListener.onFail(errorMsg);
                 notifyConnectionFailure(errorMsg);
                 return new Response(false, errorMsg, null);
             }
@@ -1076,90 +1808,201 @@ public class ChatClient implements AutoCloseable {
                 Map<String, Object> responseData = gson.fromJson(response.getData(), type);
                 String transferId = (String) responseData.get("transfer_id");
                 long fileSize = ((Double) responseData.get("fileSize")).longValue();
+                boolean resumable = Boolean.TRUE.equals(responseData.get("resumable"));
+                boolean ranges = Boolean.TRUE.equals(responseData.get("ranges"));
+                // Verified while the bytes arrive; older servers only know it from the media itself
+                String announced = (String) responseData.get("sha256");
+                String sha256 = announced != null ? announced : media.getContentHash();
 
                 notifyStatusUpdate("Server is ready to send the file. Initiating download...");
-                receiveFileBytes(transferId, media.getFileName(), fileSize, saveDirectory, fileTransferListener);
+                job.setTransferId(transferId);
+                // Parallel ranges arrive out of order, so a streaming download takes a single connection
+                GrowingFile growing = job.getGrowingFile();
+                transferManager.execute(job, () -> {
+                    if (ranges && growing == null && ParallelDownload.chooseParallelism(fileSize) > 1) {
+                        receiveFileBytesParallel(transferId, media.getFileName(), fileSize, sha256, saveDirectory, fileTransferListener);
+                    } else if (resumable) {
+                        receiveFileBytesResumable(transferId, media, fileSize, sha256, saveDirectory, fileTransferListener, growing);
+                    } else {
+                        receiveFileBytes(transferId, media.getFileName(), fileSize, sha256, saveDirectory, fileTransferListener, growing);
+                    }
+                });
 
             } else {
                 String errorMsg = "Server failed to initiate file download: " + response.getMessage();
-                if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+                fileTransferListener.onFail(errorMsg);
                 notifyCommandResponse(response); // Notify general listeners about the failure
             }
             return response;
 
         } catch (Exception e) {
             String errorMsg = "Error during file download process: " + e.getMessage();
-            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            fileTransferListener.onFail(errorMsg);
             notifyConnectionFailure(errorMsg);
             e.printStackTrace();
             return new Response(false, errorMsg, null);
-        } finally {
-            // Reset the temporary listener after the download request is processed
-            this.currentFileTransferListener = null;
         }
     }
 
+    /**
+     * Completes a download job from the MediaCache, without a request.
+     * @return False on a miss.
+     */
+    private boolean serveFromCache(TransferJob job, Media media, String cacheKey, File target) {
+        long expectedSize = media.getFileSize() == null ? -1 : media.getFileSize();
+        if (!mediaCache.copyTo(cacheKey, expectedSize, target.toPath())) {
+            return false;
+        }
+        notifyStatusUpdate("File '" + media.getFileName() + "' served from the media cache.");
+        OnFileTransferListener fileTransferListener = job.listener();
+        fileTransferListener.onProgress(target.length(), target.length());
+        fileTransferListener.onComplete(target);
+        return true;
+    }
+
     /**
      * Receives file bytes from the file transfer server.
      * @param transferId The transfer ID to identify the file on the server.
      * @param fileName The name of the file to save.
      * @param fileSize The expected size of the file.
+     * @param sha256 The SHA-256 the file must have, or null if the server did not announce one.
      * @param saveDirectory The directory where the file should be saved.
      * @param fileTransferListener The specific listener for this transfer.
+     * @param growing Follows the bytes as they are written, for a streaming download; may be null.
      */
-    private void receiveFileBytes(String transferId, String fileName, long fileSize, String saveDirectory, OnFileTransferListener fileTransferListener) {
+    private void receiveFileBytes(String transferId, String fileName, long fileSize, String sha256, String saveDirectory,
+                                  OnFileTransferListener fileTransferListener, GrowingFile growing) {
         File outputFile = new File(saveDirectory, fileName);
-        try {
-            File saveDir = new File(saveDirectory);
-            if (!saveDir.exists()) {
-                saveDir.mkdirs();
+        try (Span transferSpan = tracer.start("file download", "file").arg("transferId", transferId).arg("bytes", fileSize);
+             Span connectSpan = tracer.start("file connect", "file");
+             SocketChannel fileChannel = ZeroCopy.openBulkChannel(SERVER_IP, FILE_TRANSFER_PORT)) {
+
+            notifyStatusUpdate("Connecting to file transfer server for download...");
+            // Send the transfer ID to the file server to identify the file
+            ZeroCopy.writeLine(fileChannel, transferId);
+            connectSpan.close();
+            notifyStatusUpdate("Sent transferId: " + transferId + " to file server for download.");
+
+            long[] totalBytesReceived = {0};
+
+            notifyStatusUpdate("Receiving file: " + fileName + " (" + fileSize + " bytes)");
+
+            // Written to a preallocated temp file and renamed onto outputFile only once complete
+            // (and verified), so a failed download never leaves a truncated or corrupt file behind
+            long transferStart = System.nanoTime();
+            String verified;
+            try (Span span = tracer.start("file receive", "file")) {
+                verified = ZeroCopy.downloadToFile(fileChannel, outputFile.toPath(), fileSize, sha256, received -> {
+                    totalBytesReceived[0] += received;
+                    metrics.addBytesIn(Channel.FILE, received);
+                    if (fileTransferListener != null) {
+                        fileTransferListener.onProgress(totalBytesReceived[0], fileSize);
+                    }
+                }, growing);
             }
 
-            try (Socket fileSocket = new Socket(SERVER_IP, FILE_TRANSFER_PORT);
-                 InputStream is = fileSocket.getInputStream();
-                 OutputStream os = fileSocket.getOutputStream(); // For sending transferId
-                 FileOutputStream fos = new FileOutputStream(outputFile)) {
-
-                notifyStatusUpdate("Connecting to file transfer server for download...");
-                PrintWriter socketWriter = new PrintWriter(os, true);
-
-                // Send the transfer ID to the file server to identify the file
-                socketWriter.println(transferId);
-                notifyStatusUpdate("Sent transferId: " + transferId + " to file server for download.");
-
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                long totalBytesReceived = 0;
-
-                notifyStatusUpdate("Receiving file: " + fileName + " (" + fileSize + " bytes)");
+            transferSpan.arg("received", totalBytesReceived[0]);
+            metrics.recordFileTransfer(totalBytesReceived[0], System.nanoTime() - transferStart);
+            rememberContentHash(outputFile, verified);
+            if (fileTransferListener != null) fileTransferListener.onComplete(outputFile);
+            notifyStatusUpdate("File '" + fileName + "' received successfully and saved to " + outputFile.getAbsolutePath());
+        } catch (EOFException e) {
+            String errorMsg = "File transfer incomplete. Expected: " + fileSize + " bytes. " + e.getMessage();
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+        } catch (TransferDigest.MismatchException e) {
+            String errorMsg = "Downloaded file '" + fileName + "' is corrupt and was discarded. " + e.getMessage();
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during file download: " + e.getMessage();
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+            e.printStackTrace();
+        }
+    }
 
-                while (totalBytesReceived < fileSize && (bytesRead = is.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalBytesReceived))) != -1) {
-                    fos.write(buffer, 0, bytesRead);
-                    totalBytesReceived += bytesRead;
-                    if (fileTransferListener != null) {
-                        fileTransferListener.onProgress(totalBytesReceived, fileSize);
-                    }
+    /**
+     * Receives a large file over several connections at once (see ParallelDownload).
+     * @param transferId The transfer ID to identify the file on the server.
+     * @param fileName The name of the file to save.
+     * @param fileSize The expected size of the file.
+     * @param sha256 The SHA-256 the file must have, or null if the server did not announce one.
+     * @param saveDirectory The directory to save the file in.
+     * @param fileTransferListener The specific listener for this transfer; gets the combined progress of all connections.
+     */
+    private void receiveFileBytesParallel(String transferId, String fileName, long fileSize, String sha256, String saveDirectory, OnFileTransferListener fileTransferListener) {
+        File outputFile = new File(saveDirectory, fileName);
+        long[] lastReceived = {0};
+        long transferStart = System.nanoTime();
+        try (Span span = tracer.start("file download", "file").arg("transferId", transferId).arg("bytes", fileSize)) {
+            notifyStatusUpdate("Receiving file: " + fileName + " (" + fileSize + " bytes, "
+                    + ParallelDownload.chooseParallelism(fileSize) + " connections)");
+            String verified = parallelDownload.download(transferId, outputFile.toPath(), fileSize, sha256, received -> {
+                // Serialized by ParallelDownload; may step back when a failed range is retried
+                if (received > lastReceived[0]) {
+                    metrics.addBytesIn(Channel.FILE, received - lastReceived[0]);
                 }
-                fos.flush();
-
-                if (totalBytesReceived == fileSize) {
-                    if (fileTransferListener != null) fileTransferListener.onComplete(outputFile);
-                    notifyStatusUpdate("File '" + fileName + "' received successfully and saved to " + outputFile.getAbsolutePath());
-                } else {
-                    String errorMsg = "File transfer incomplete. Expected: " + fileSize + ", Received: " + totalBytesReceived;
-                    if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
-                    notifyConnectionFailure(errorMsg);
-                    outputFile.delete(); // Clean up incomplete file
+                lastReceived[0] = received;
+                if (fileTransferListener != null) {
+                    fileTransferListener.onProgress(received, fileSize);
                 }
-            }
+            });
+            metrics.recordFileTransfer(fileSize, System.nanoTime() - transferStart);
+            rememberContentHash(outputFile, verified);
+            if (fileTransferListener != null) fileTransferListener.onComplete(outputFile);
+            notifyStatusUpdate("File '" + fileName + "' received successfully and saved to " + outputFile.getAbsolutePath());
+        } catch (TransferDigest.MismatchException e) {
+            String errorMsg = "Downloaded file '" + fileName + "' is corrupt and was discarded. " + e.getMessage();
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
         } catch (IOException e) {
             String errorMsg = "Error during file download: " + e.getMessage();
             if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
             notifyConnectionFailure(errorMsg);
-            e.printStackTrace();
-        } finally {
-            // Reset the temporary listener after the transfer attempt
-            this.currentFileTransferListener = null;
+        }
+    }
+
+    /**
+     * Receives file bytes as checksummed chunks (see ChunkedTransfer). A dropped connection is
+     * resumed from the last verified chunk, and when all attempts fail the partial file is
+     * kept, so the next download of the same media continues where this one stopped.
+     * @param transferId The transfer ID to identify the file on the server.
+     * @param media The media being downloaded; its id keys the partial file.
+     * @param fileSize The expected size of the file.
+     * @param sha256 The SHA-256 the file must have, or null if the server did not announce one.
+     * @param saveDirectory The directory to save the file in.
+     * @param fileTransferListener The specific listener for this transfer.
+     * @param growing Follows the bytes as they are written, for a streaming download; may be null.
+     */
+    private void receiveFileBytesResumable(String transferId, Media media, long fileSize, String sha256, String saveDirectory,
+                                           OnFileTransferListener fileTransferListener, GrowingFile growing) {
+        File outputFile = new File(saveDirectory, media.getFileName());
+        long[] committedBytes = {-1};
+        long transferStart = System.nanoTime();
+        try (Span span = tracer.start("file download", "file").arg("transferId", transferId).arg("bytes", fileSize)) {
+            notifyStatusUpdate("Receiving file: " + media.getFileName() + " (" + fileSize + " bytes, resumable)");
+            String verified = resumableTransfer.download(transferId, ResumableTransfer.mediaKey(media.getId()), outputFile.toPath(), fileSize, sha256, committed -> {
+                if (committedBytes[0] >= 0 && committed > committedBytes[0]) {
+                    metrics.addBytesIn(Channel.FILE, committed - committedBytes[0]);
+                }
+                committedBytes[0] = committed;
+                if (fileTransferListener != null) {
+                    fileTransferListener.onProgress(committed, fileSize);
+                }
+            }, growing);
+            metrics.recordFileTransfer(fileSize, System.nanoTime() - transferStart);
+            rememberContentHash(outputFile, verified);
+            if (fileTransferListener != null) fileTransferListener.onComplete(outputFile);
+            notifyStatusUpdate("File '" + media.getFileName() + "' received successfully and saved to " + outputFile.getAbsolutePath());
+        } catch (TransferDigest.MismatchException e) {
+            String errorMsg = "Downloaded file '" + media.getFileName() + "' is corrupt and was discarded. " + e.getMessage();
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
+        } catch (IOException e) {
+            String errorMsg = "Error during file download: " + e.getMessage() + " (the partial file is kept for the next attempt)";
+            if (fileTransferListener != null) fileTransferListener.onFail(errorMsg);
+            notifyConnectionFailure(errorMsg);
         }
     }
 
@@ -1169,6 +2012,7 @@ public class ChatClient implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
+        transferManager.cancelAll();
         closeConnection();
     }
 
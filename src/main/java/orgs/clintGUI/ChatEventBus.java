@@ -0,0 +1,187 @@
+package orgs.clintGUI;
+
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Typed event bus used by ChatClient to dispatch events to the UI listeners.
+ * Each event type (the listener interface, e.g. OnNewMessageListener.class) owns a
+ * copy-on-write array of subscribers. Subscribing and unsubscribing swap the array
+ * with a CAS, and publishing just iterates the current snapshot without any lock,
+ * so listeners may safely add or remove listeners from inside their own callbacks.
+ */
+public class ChatEventBus {
+
+    /** Chat id used for subscriptions that want every chat, and for events that are not tied to a chat. */
+    public static final int ANY_CHAT = -1;
+
+    private static final Subscriber<?>[] NO_SUBSCRIBERS = new Subscriber<?>[0];
+
+    // Map: <EventType, Snapshot of its subscribers>
+    private final ConcurrentMap<Class<?>, AtomicReference<Subscriber<?>[]>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Handle returned by subscribe, used to remove exactly that subscription.
+     */
+    public interface Subscription {
+        void cancel();
+    }
+
+    /**
+     * Subscribes a listener to every event of the given type.
+     *
+     * @param eventType The listener interface identifying the event type.
+     * @param listener  The listener to call.
+     * @return A Subscription that removes this listener when cancelled.
+     */
+    public <L> Subscription subscribe(Class<L> eventType, L listener) {
+        return subscribe(eventType, ANY_CHAT, listener);
+    }
+
+    /**
+     * Subscribes a listener to the events of the given type for a single chat.
+     * Events published without a chat id are still delivered to it.
+     *
+     * @param eventType The listener interface identifying the event type.
+     * @param chatId    The chat to filter on, or ANY_CHAT for all chats.
+     * @param listener  The listener to call.
+     * @return A Subscription that removes this listener when cancelled.
+     */
+    public <L> Subscription subscribe(Class<L> eventType, int chatId, L listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null.");
+        }
+        Subscriber<L> subscriber = new Subscriber<>(listener, chatId);
+        AtomicReference<Subscriber<?>[]> ref = subscribers.computeIfAbsent(eventType, k -> new AtomicReference<>(NO_SUBSCRIBERS));
+        Subscriber<?>[] current;
+        Subscriber<?>[] updated;
+        do {
+            current = ref.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscriber;
+        } while (!ref.compareAndSet(current, updated));
+        return () -> remove(eventType, subscriber);
+    }
+
+    /**
+     * Removes every subscription of the given listener for the event type,
+     * whatever chat it was filtered on.
+     *
+     * @param eventType The listener interface identifying the event type.
+     * @param listener  The listener to remove.
+     */
+    public <L> void unsubscribe(Class<L> eventType, L listener) {
+        AtomicReference<Subscriber<?>[]> ref = subscribers.get(eventType);
+        if (ref == null) {
+            return;
+        }
+        Subscriber<?>[] current;
+        Subscriber<?>[] updated;
+        do {
+            current = ref.get();
+            updated = Arrays.stream(current)
+                    .filter(s -> s.listener != listener)
+                    .toArray(Subscriber<?>[]::new);
+            if (updated.length == current.length) {
+                return; // Not subscribed
+            }
+        } while (!ref.compareAndSet(current, updated));
+    }
+
+    private void remove(Class<?> eventType, Subscriber<?> subscriber) {
+        AtomicReference<Subscriber<?>[]> ref = subscribers.get(eventType);
+        if (ref == null) {
+            return;
+        }
+        Subscriber<?>[] current;
+        Subscriber<?>[] updated;
+        do {
+            current = ref.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscriber) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return; // Already cancelled
+            }
+            updated = new Subscriber<?>[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        } while (!ref.compareAndSet(current, updated));
+    }
+
+    /**
+     * Publishes an event that is not tied to a chat to all subscribers of the type.
+     *
+     * @param eventType The listener interface identifying the event type.
+     * @param dispatch  Calls the listener method with the event data.
+     */
+    public <L> void publish(Class<L> eventType, Consumer<? super L> dispatch) {
+        publish(eventType, ANY_CHAT, dispatch);
+    }
+
+    /**
+     * Publishes an event for a chat. Subscribers filtered on another chat are skipped.
+     * A listener that throws does not prevent delivery to the remaining ones.
+     *
+     * @param eventType The listener interface identifying the event type.
+     * @param chatId    The chat the event belongs to, or ANY_CHAT.
+     * @param dispatch  Calls the listener method with the event data.
+     */
+    @SuppressWarnings("unchecked")
+    public <L> void publish(Class<L> eventType, int chatId, Consumer<? super L> dispatch) {
+        AtomicReference<Subscriber<?>[]> ref = subscribers.get(eventType);
+        Subscriber<?>[] current = ref == null ? null : ref.get();
+        if (current == null || current.length == 0) {
+            return;
+        }
+        // One span per publish shows how long the UI callbacks hold up the publishing thread
+        try (Span span = Tracer.get().start(eventType.getSimpleName(), "listeners")) {
+            int notified = 0;
+            for (Subscriber<?> subscriber : current) {
+                if (!subscriber.accepts(chatId)) {
+                    continue;
+                }
+                notified++;
+                try {
+                    dispatch.accept((L) subscriber.listener);
+                } catch (RuntimeException e) {
+                    System.err.println("Listener " + eventType.getSimpleName() + " failed: " + e.getMessage());
+                }
+            }
+            span.arg("listeners", notified);
+        }
+    }
+
+    /**
+     * @param eventType The listener interface identifying the event type.
+     * @return The number of current subscriptions for the type.
+     */
+    public int subscriberCount(Class<?> eventType) {
+        AtomicReference<Subscriber<?>[]> ref = subscribers.get(eventType);
+        return ref == null ? 0 : ref.get().length;
+    }
+
+    private static final class Subscriber<L> {
+        private final L listener;
+        private final int chatId;
+
+        private Subscriber(L listener, int chatId) {
+            this.listener = listener;
+            this.chatId = chatId;
+        }
+
+        private boolean accepts(int eventChatId) {
+            return chatId == ANY_CHAT || eventChatId == ANY_CHAT || chatId == eventChatId;
+        }
+    }
+}
@@ -17,10 +17,21 @@ public interface OnFileTransferListener {
      * Called to report progress during file sending or receiving.
      *
      * @param transferredBytes The number of bytes transferred so far.
-     * @param totalSize        The total size of the file in bytes.
+     * @param totalSize        The total size of the file in bytes, or 0 if it is not known.
      */
     void onProgress(long transferredBytes, long totalSize);
 
+    /**
+     * Called a few times per second during transfers run by the TransferManager, with the
+     * throughput and the estimated time left. By default it reports the byte counts to
+     * onProgress(long, long).
+     *
+     * @param progress The progress of the transfer.
+     */
+    default void onProgress(TransferProgress progress) {
+        onProgress(progress.getTransferredBytes(), progress.getTotalSize());
+    }
+
     /**
      * Called when a file has been successfully sent or received.
      *
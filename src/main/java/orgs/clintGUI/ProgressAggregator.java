@@ -0,0 +1,173 @@
+package orgs.clintGUI;
+
+import orgs.logging.Log;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns the raw progress of file transfers into a few listener calls per second.
+ *
+ * Transfer loops report progress after every stride or chunk, far more often than a UI can
+ * redraw. A wrapped listener only stores the latest byte count; a single ticker thread
+ * samples all active transfers every TICK_MILLIS, averages their throughput over the last
+ * few seconds (progress often moves in whole chunks, so one tick says little), and calls
+ * each listener at most updatesPerSecond times, and only when the count changed.
+ *
+ * Listeners are therefore called on the ticker thread ("TransferProgress"). Before onComplete
+ * the final progress is always delivered once, and nothing is delivered after onComplete or onFail.
+ */
+public class ProgressAggregator implements AutoCloseable {
+
+    public static final int DEFAULT_UPDATES_PER_SECOND = 4;
+
+    private static final long TICK_MILLIS = 100;
+    // Throughput is averaged over this many ticks
+    private static final int WINDOW_TICKS = 30;
+
+    private final long minEmitNanos;
+    private final Set<Tracked> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * @param updatesPerSecond The most progress calls a listener gets per second.
+     */
+    public ProgressAggregator(int updatesPerSecond) {
+        this.minEmitNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, updatesPerSecond);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TransferProgress");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return A listener that forwards to listener through this aggregator, or null if listener is null.
+     */
+    public OnFileTransferListener wrap(OnFileTransferListener listener) {
+        return listener == null ? null : new Tracked(listener);
+    }
+
+    /**
+     * @return The number of transfers currently sampled.
+     */
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (Tracked tracked : active) {
+            try {
+                tracked.sample(now, false);
+            } catch (RuntimeException e) {
+                Log.error("Progress listener failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+        active.clear();
+    }
+
+    /**
+     * One transfer. Recording only writes two volatile fields; every call to the caller's
+     * listener is made under this object's lock, which keeps them in order.
+     */
+    private final class Tracked implements OnFileTransferListener {
+        private final OnFileTransferListener listener;
+        private final AtomicBoolean registered = new AtomicBoolean();
+        private volatile long transferred;
+        private volatile long total;
+        private volatile boolean finished;
+
+        // Guarded by this; a ring of the last samples, oldest at next once it is full
+        private final long[] sampleNanos = new long[WINDOW_TICKS];
+        private final long[] sampleBytes = new long[WINDOW_TICKS];
+        private int next;
+        private int samples;
+        private long startNanos;
+        private long lastEmitNanos;
+        private long lastEmittedBytes = -1;
+
+        Tracked(OnFileTransferListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onProgress(long transferredBytes, long totalSize) {
+            total = totalSize;
+            transferred = transferredBytes;
+            if (!finished && !registered.get() && registered.compareAndSet(false, true)) {
+                synchronized (this) {
+                    startNanos = System.nanoTime();
+                    record(startNanos, transferredBytes);
+                }
+                active.add(this);
+            }
+        }
+
+        @Override
+        public void onComplete(File file) {
+            synchronized (this) {
+                if (registered.get()) {
+                    sample(System.nanoTime(), true);
+                }
+                finish();
+                listener.onComplete(file);
+            }
+        }
+
+        @Override
+        public void onFail(String msg) {
+            synchronized (this) {
+                finish();
+                listener.onFail(msg);
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            active.remove(this);
+        }
+
+        /**
+         * Updates the throughput and calls the listener if an update is due.
+         * @param force Deliver the current count even if one was delivered very recently.
+         */
+        synchronized void sample(long now, boolean force) {
+            if (finished) {
+                return;
+            }
+            long bytes = transferred;
+            record(now, bytes);
+            if (bytes == lastEmittedBytes || (!force && now - lastEmitNanos < minEmitNanos)) {
+                return;
+            }
+            lastEmitNanos = now;
+            lastEmittedBytes = bytes;
+            listener.onProgress(new TransferProgress(bytes, total, bytesPerSecond(now, bytes), (now - startNanos) / 1_000_000));
+        }
+
+        private void record(long now, long bytes) {
+            sampleNanos[next] = now;
+            sampleBytes[next] = bytes;
+            next = (next + 1) % WINDOW_TICKS;
+            samples = Math.min(samples + 1, WINDOW_TICKS);
+        }
+
+        private double bytesPerSecond(long now, long bytes) {
+            int oldest = samples < WINDOW_TICKS ? 0 : next;
+            long elapsed = now - sampleNanos[oldest];
+            return elapsed <= 0 ? 0 : Math.max(0, bytes - sampleBytes[oldest]) * 1e9 / elapsed;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package orgs.clintGUI;
+
+import orgs.protocol.Response;
+import orgs.transfer.GrowingFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One upload or download handled by the TransferManager.
+ *
+ * A job starts QUEUED, becomes REQUESTED once its control request (SEND_MESSAGE or
+ * GET_FILE_BY_MEDIA) has been sent, TRANSFERRING when a worker moves its bytes on the
+ * file port, and ends COMPLETED, FAILED or CANCELLED. The listener given at creation is
+ * told about progress and exactly one of onComplete/onFail.
+ */
+public class TransferJob {
+
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+    /** Queue priority; jobs of the same priority run in the order they were added. */
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    public enum State { QUEUED, REQUESTED, TRANSFERRING, COMPLETED, FAILED, CANCELLED }
+
+    private final long sequence;
+    private final Direction direction;
+    private final Priority priority;
+    private final File file;
+    private final OnFileTransferListener listener;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final CompletableFuture<State> outcome = new CompletableFuture<>();
+    // Completed with the server's answer to an upload's SEND_MESSAGE (see TransferManager)
+    private final CompletableFuture<Response> answer = new CompletableFuture<>();
+
+    private volatile String transferId;
+    private volatile String contentHash;
+    private volatile File uploadCopy;
+    private volatile GrowingFile growingFile;
+    private volatile ReadableByteChannel uploadSource;
+    private volatile long uploadLength = -1;
+    private volatile State state = State.QUEUED;
+    private Thread worker; // Guarded by this
+    private boolean ended; // Guarded by this
+
+    TransferJob(long sequence, Direction direction, Priority priority, File file, OnFileTransferListener listener) {
+        this.sequence = sequence;
+        this.direction = direction;
+        this.priority = priority;
+        this.file = file;
+        this.listener = listener;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The file being sent, or the file a download is saved to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The file whose bytes are uploaded: a smaller transcoded copy of getFile(), or getFile() itself.
+     */
+    public File getUploadFile() {
+        File copy = uploadCopy;
+        return copy != null ? copy : file;
+    }
+
+    /**
+     * @return The stream an upload sends instead of a file, or null if it sends getUploadFile().
+     */
+    public ReadableByteChannel getUploadSource() {
+        return uploadSource;
+    }
+
+    /**
+     * @return The number of bytes getUploadSource() holds, or -1 if it is not known.
+     */
+    public long getUploadLength() {
+        return uploadLength;
+    }
+
+    /**
+     * @return The server's transfer ID, or null while the server has not announced the transfer yet.
+     */
+    public String getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * @return The SHA-256 of the file being sent, or null if it is not known; the server's
+     * acknowledgement is checked against it.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public synchronized boolean isDone() {
+        return ended;
+    }
+
+    /**
+     * Waits until the job has completed, failed or been cancelled, and its listener has been told.
+     * @return True if the job finished within the timeout.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * @return A future completed with COMPLETED, FAILED or CANCELLED once the listener has been told.
+     */
+    public CompletableFuture<State> whenDone() {
+        return outcome.copy();
+    }
+
+    /**
+     * Cancels the job. A queued job is dropped, a running transfer is interrupted. An upload
+     * whose SEND_MESSAGE is already with the server is not sent; the server is told to give up on it.
+     * @return False if the job had already finished.
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (!end(State.CANCELLED)) {
+                return false;
+            }
+            // Under the lock, so the worker cannot have moved on to another job (see detach)
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+        if (listener != null) {
+            listener.onFail("Transfer cancelled.");
+        }
+        release();
+        return true;
+    }
+
+    // --- Used by TransferManager and ChatClient ---
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return A future completed with the server's answer to the SEND_MESSAGE of this upload,
+     * which comes once the server has its bytes, or has given up on them.
+     */
+    CompletableFuture<Response> whenAnswered() {
+        return answer;
+    }
+
+    void setTransferId(String transferId) {
+        this.transferId = transferId;
+    }
+
+    void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Uploads copy instead of getFile(). The copy belongs to the MediaTranscoder, which keeps it
+     * for later uploads of the same original, so a failed upload can also still be resumed.
+     */
+    void setUploadCopy(File copy) {
+        this.uploadCopy = copy;
+    }
+
+    /**
+     * Uploads the bytes of source instead of a file; getFile() only names them. The source is
+     * closed once the job has ended, however it ended.
+     * @param length The number of bytes source holds, or -1 if it is not known.
+     */
+    void setUploadSource(ReadableByteChannel source, long length) {
+        this.uploadLength = length;
+        this.uploadSource = source;
+    }
+
+    /**
+     * @return The file a streaming download exposes while it grows, or null for other jobs.
+     */
+    GrowingFile getGrowingFile() {
+        return growingFile;
+    }
+
+    /**
+     * Makes this download stream: its bytes must arrive in order, and growingFile follows them.
+     */
+    void setGrowingFile(GrowingFile growingFile) {
+        this.growingFile = growingFile;
+    }
+
+    synchronized void markRequested() {
+        if (state == State.QUEUED) {
+            state = State.REQUESTED;
+        }
+    }
+
+    /**
+     * Binds the job to the worker thread that moves its bytes.
+     * @return False if the job was cancelled in the meantime and must not run.
+     */
+    synchronized boolean startOn(Thread thread) {
+        if (isDone()) {
+            return false;
+        }
+        state = State.TRANSFERRING;
+        worker = thread;
+        return true;
+    }
+
+    /**
+     * Unbinds the worker thread and clears an interrupt a cancel may have left on it.
+     */
+    synchronized void detach() {
+        worker = null;
+        Thread.interrupted();
+    }
+
+    /**
+     * @return The listener the transfer code reports to; it records the outcome on this job
+     * and forwards to the caller's listener, ignoring anything after the job has finished.
+     */
+    OnFileTransferListener listener() {
+        return new OnFileTransferListener() {
+            @Override
+            public void onFail(String msg) {
+                if (end(State.FAILED)) {
+                    if (listener != null) listener.onFail(msg);
+                    release();
+                }
+            }
+
+            @Override
+            public void onProgress(long transferredBytes, long totalSize) {
+                if (!isDone() && listener != null) {
+                    listener.onProgress(transferredBytes, totalSize);
+                }
+            }
+
+            @Override
+            public void onComplete(File completed) {
+                if (end(State.COMPLETED)) {
+                    // The caller sent its own file, not the transcoded copy
+                    if (listener != null) listener.onComplete(uploadCopy != null ? file : completed);
+                    release();
+                }
+            }
+        };
+    }
+
+    private void release() {
+        ReadableByteChannel source = uploadSource;
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // Nothing more will be read from it
+            }
+        }
+        finished.countDown();
+        outcome.complete(state);
+    }
+
+    /**
+     * Moves the job to its final state; the caller then notifies the listener and releases await.
+     * @return False if it had already finished, in which case nothing changes.
+     */
+    private synchronized boolean end(State outcome) {
+        if (ended) {
+            return false;
+        }
+        ended = true;
+        state = outcome;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return direction + " " + file.getName() + " [" + state + (transferId != null ? ", " + transferId : "") + "]";
+    }
+}
@@ -0,0 +1,362 @@
+package orgs.clintGUI;
+
+import orgs.logging.Log;
+import orgs.protocol.Response;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs the file transfers of a ChatClient, many at a time.
+ *
+ * Every transfer is a TransferJob with its own listener. A job has two phases:
+ * - its control request (SEND_MESSAGE with media, or GET_FILE_BY_MEDIA), sent by a single
+ *   dispatcher thread in priority order, because the control connection carries one
+ *   request at a time;
+ * - moving its bytes on the file port, done by a bounded pool of worker threads, also
+ *   picking the highest priority first.
+ * The request phase ends when the server announces the transfer: READY_TO_SEND_FILE for a
+ * download, READY_TO_RECEIVE_FILE for an upload. The dispatcher then moves on to the next
+ * job, so the requests of later uploads and downloads go out while earlier bytes still move.
+ * The server answers an upload's SEND_MESSAGE a second time once it has the file; that answer
+ * is handed to the job on the thread reading server messages (see answer), never to a request
+ * sent in the meantime. A server that handles one request at a time still answers those
+ * requests only after the uploads ahead of them.
+ *
+ * Progress goes through a ProgressAggregator, so listeners get a few onProgress calls per
+ * second with throughput and ETA, on the aggregator's thread, however often bytes move.
+ *
+ * Upload responses carry no reference to the request they answer; the server answers
+ * requests in order, so they are matched to uploads in the order their SEND_MESSAGE was sent.
+ * From READY_TO_RECEIVE_FILE on every job is also found by its transferId.
+ */
+public class TransferManager implements AutoCloseable {
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final Set<TransferJob> jobs = ConcurrentHashMap.newKeySet();
+    // Map: <TransferId, Job> for every job the server has announced and that has not finished
+    private final ConcurrentMap<String, TransferJob> jobsByTransferId = new ConcurrentHashMap<>();
+    // Uploads whose SEND_MESSAGE has been sent but not yet answered with READY_TO_RECEIVE_FILE
+    private final Queue<Pending> awaitingReady = new ConcurrentLinkedQueue<>();
+    // Uploads asked for their bytes whose SEND_MESSAGE has not been answered a second time
+    private final Queue<TransferJob> awaitingAnswer = new ConcurrentLinkedQueue<>();
+
+    private final PriorityBlockingQueue<Task> requests = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor workers;
+    private final ProgressAggregator progress;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    /**
+     * @param workerCount The number of transfers that move bytes at the same time.
+     */
+    public TransferManager(int workerCount) {
+        this(workerCount, ProgressAggregator.DEFAULT_UPDATES_PER_SECOND);
+    }
+
+    /**
+     * @param workerCount The number of transfers that move bytes at the same time.
+     * @param progressUpdatesPerSecond The most onProgress calls a listener gets per second.
+     */
+    public TransferManager(int workerCount, int progressUpdatesPerSecond) {
+        this.progress = new ProgressAggregator(progressUpdatesPerSecond);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "FileTransfer-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.dispatcher = new Thread(this::dispatch, "TransferDispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @return The unfinished job with this transferId, or null.
+     */
+    public TransferJob getJob(String transferId) {
+        return jobsByTransferId.get(transferId);
+    }
+
+    /**
+     * @return All jobs that have not finished yet, queued ones included.
+     */
+    public List<TransferJob> getActiveJobs() {
+        jobs.removeIf(TransferJob::isDone);
+        return new ArrayList<>(jobs);
+    }
+
+    public void cancelAll() {
+        for (TransferJob job : getActiveJobs()) {
+            job.cancel();
+        }
+    }
+
+    // --- Used by ChatClient ---
+
+    TransferJob newJob(TransferJob.Direction direction, TransferJob.Priority priority, File file, OnFileTransferListener listener) {
+        TransferJob job = new TransferJob(sequence.incrementAndGet(), direction, priority, file, progress.wrap(listener));
+        jobs.add(job);
+        return job;
+    }
+
+    /**
+     * @return The aggregator that paces the progress calls of this manager's listeners.
+     */
+    ProgressAggregator getProgressAggregator() {
+        return progress;
+    }
+
+    /**
+     * Queues the control request of a job for the dispatcher thread.
+     */
+    void enqueue(TransferJob job, Runnable request) {
+        requests.add(new Task(job, false, request));
+    }
+
+    /**
+     * Records that the SEND_MESSAGE of an upload is being sent.
+     * Must be called under the same lock that orders the requests on the control connection.
+     * @return A future completed with READY_TO_RECEIVE_FILE, or with the server's refusal.
+     */
+    CompletableFuture<Response> awaitReady(TransferJob job) {
+        job.markRequested();
+        Pending pending = new Pending(job);
+        awaitingReady.add(pending);
+        return pending.ready;
+    }
+
+    /**
+     * Called for READY_TO_RECEIVE_FILE. The upload it answers now waits for its second answer.
+     * @return The upload it answers, or null if no upload is waiting. The upload may have
+     * been cancelled meanwhile.
+     */
+    TransferJob readyToReceive(String transferId, Response response) {
+        Pending pending = awaitingReady.poll();
+        if (pending == null) {
+            return null;
+        }
+        TransferJob job = pending.job;
+        if (transferId != null) {
+            job.setTransferId(transferId);
+            jobsByTransferId.put(transferId, job);
+        }
+        awaitingAnswer.add(job);
+        pending.ready.complete(response);
+        return job;
+    }
+
+    /**
+     * Called for every response to a request that is not READY_TO_RECEIVE_FILE. Answers to
+     * uploads come before the answer to any request sent after them, so the response belongs
+     * to the oldest upload asked for its bytes, or else is the refusal of the upload waiting
+     * for READY_TO_RECEIVE_FILE. Either way a failure fails the job, unless it has ended.
+     * @return The upload the response answers, or null if it answers some other request.
+     */
+    TransferJob answer(Response response) {
+        TransferJob job = awaitingAnswer.poll();
+        if (job != null) {
+            if (!response.isSuccess()) {
+                job.listener().onFail("Server failed to send the message: " + response.getMessage());
+            }
+            job.whenAnswered().complete(response);
+            return job;
+        }
+        Pending pending = awaitingReady.poll();
+        if (pending != null) {
+            pending.job.listener().onFail("Server did not accept the file: " + response.getMessage());
+            pending.job.whenAnswered().complete(response);
+            pending.ready.complete(response);
+            return pending.job;
+        }
+        return null;
+    }
+
+    /**
+     * @param job The upload whose SEND_MESSAGE is waiting for READY_TO_RECEIVE_FILE, or null
+     * for any other request.
+     * @return True while the server still owes an answer to an upload sent before the request
+     * of job; it answers that first, and if it handles one request at a time, it does not read
+     * the request before the upload's bytes have arrived.
+     */
+    boolean isAnswerOwedBefore(TransferJob job) {
+        if (!awaitingAnswer.isEmpty()) {
+            return true;
+        }
+        for (Pending pending : awaitingReady) {
+            if (pending.job != job) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once the control connection is lost: no upload will be answered any more.
+     */
+    void connectionLost(String reason) {
+        Response lost = new Response(false, reason, null);
+        Pending pending;
+        while ((pending = awaitingReady.poll()) != null) {
+            pending.job.listener().onFail(reason);
+            pending.job.whenAnswered().complete(lost);
+            pending.ready.complete(lost);
+        }
+        TransferJob job;
+        while ((job = awaitingAnswer.poll()) != null) {
+            job.listener().onFail(reason);
+            job.whenAnswered().complete(lost);
+        }
+    }
+
+    /**
+     * Hands the byte transfer of an announced job to the worker pool.
+     * @param transfer Moves the bytes, reporting to job.listener().
+     */
+    void execute(TransferJob job, Runnable transfer) {
+        job.markRequested();
+        if (job.getTransferId() != null) {
+            jobsByTransferId.put(job.getTransferId(), job);
+        }
+        workers.execute(new Task(job, false, () -> {
+            if (!job.startOn(Thread.currentThread())) {
+                return; // Cancelled while queued
+            }
+            try {
+                transfer.run();
+            } finally {
+                job.detach();
+                if (!job.isDone()) {
+                    job.listener().onFail("Transfer ended without a result.");
+                }
+            }
+        }));
+    }
+
+    /**
+     * Runs work that must be done before the request of a job is sent, e.g. hashing its file,
+     * on the worker pool.
+     * @return A future completed with the result, failed if work throws, and cancelled if the
+     * job ends first.
+     */
+    <T> CompletableFuture<T> prepare(TransferJob job, Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        workers.execute(new Task(job, false, () -> {
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        }));
+        job.whenDone().thenRun(() -> result.cancel(false));
+        return result;
+    }
+
+    /**
+     * Runs the clean-up of a job that has ended on the worker pool, e.g. telling the server
+     * to give up on the bytes of an upload cancelled after its SEND_MESSAGE went out.
+     */
+    void afterEnd(TransferJob job, Runnable cleanup) {
+        workers.execute(new Task(job, true, cleanup));
+    }
+
+    private void dispatch() {
+        while (running) {
+            Task task;
+            try {
+                task = requests.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            task.run();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+        cancelAll();
+        workers.shutdownNow();
+        progress.close();
+    }
+
+    /**
+     * An upload whose SEND_MESSAGE is with the server, and the future its READY_TO_RECEIVE_FILE completes.
+     */
+    private static final class Pending {
+        final TransferJob job;
+        final CompletableFuture<Response> ready = new CompletableFuture<>();
+
+        Pending(TransferJob job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * A job's control request or byte transfer, ordered by the job's priority and then by age.
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        private final TransferJob job;
+        private final boolean afterEnd;
+        private final Runnable action;
+
+        /**
+         * @param afterEnd True to run action even if the job has ended.
+         */
+        Task(TransferJob job, boolean afterEnd, Runnable action) {
+            this.job = job;
+            this.afterEnd = afterEnd;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            if (job.isDone() && !afterEnd) {
+                forget(job);
+                return;
+            }
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Log.error("Transfer " + job + " failed", e);
+                job.listener().onFail("Transfer failed: " + e.getMessage());
+            } finally {
+                if (job.isDone()) {
+                    forget(job);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byPriority = job.getPriority().compareTo(other.job.getPriority());
+            return byPriority != 0 ? byPriority : Long.compare(job.getSequence(), other.job.getSequence());
+        }
+    }
+
+    private void forget(TransferJob job) {
+        jobs.remove(job);
+        if (job.getTransferId() != null) {
+            jobsByTransferId.remove(job.getTransferId(), job);
+        }
+    }
+}
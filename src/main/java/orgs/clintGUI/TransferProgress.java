@@ -0,0 +1,68 @@
+package orgs.clintGUI;
+
+/**
+ * A snapshot of a transfer's progress, as passed to OnFileTransferListener by the ProgressAggregator.
+ */
+public class TransferProgress {
+
+    private final long transferredBytes;
+    private final long totalSize;
+    private final double bytesPerSecond;
+    private final long elapsedMillis;
+
+    public TransferProgress(long transferredBytes, long totalSize, double bytesPerSecond, long elapsedMillis) {
+        this.transferredBytes = transferredBytes;
+        this.totalSize = totalSize;
+        this.bytesPerSecond = bytesPerSecond;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * @return The size of the file in bytes, or 0 if it is not known.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return The share of the file transferred so far, between 0 and 1, or 0 if the size is not known.
+     */
+    public double getFraction() {
+        return totalSize > 0 ? Math.min(1.0, (double) transferredBytes / totalSize) : 0;
+    }
+
+    /**
+     * @return The throughput, smoothed over the last few seconds.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return The time since the first bytes were reported.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The estimated time until the transfer completes at the current throughput,
+     * or -1 if it cannot be estimated yet.
+     */
+    public long getEtaMillis() {
+        if (totalSize <= 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+        return (long) (Math.max(0, totalSize - transferredBytes) * 1000 / bytesPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d bytes (%.0f%%), %.1f KB/s, ETA %s", transferredBytes, totalSize,
+                getFraction() * 100, bytesPerSecond / 1024, getEtaMillis() < 0 ? "?" : (getEtaMillis() / 1000) + "s");
+    }
+}
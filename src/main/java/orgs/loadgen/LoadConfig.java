@@ -0,0 +1,79 @@
+package orgs.loadgen;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Settings of a load run, read from "--key=value" command line arguments.
+ * Every setting has a default so the generator can be started without arguments.
+ */
+public class LoadConfig {
+
+    String host = "192.168.1.99";
+    int port = 6373;
+    int filePort = 6374;
+    int sessions = 1000;
+    int durationSeconds = 60;
+    int rampUpSeconds = 10;
+    int thinkMillis = 500;
+    // Simulated users log in as String.format(phonePattern, sessionIndex)
+    String phonePattern = "7%08d";
+    String password = "loadtest";
+    int defaultChatId = 1;
+    int historyPageSize = 50;
+    int historyMaxPages = 10;
+    Path uploadFile;        // Optional file to upload; a generated file is used otherwise
+    int uploadSizeKb = 256; // Size of the generated upload file
+    int reportIntervalSeconds = 10;
+    WorkloadMix mix = WorkloadMix.parse("send=60,history=30,upload=10");
+
+    /**
+     * Parses command line arguments such as "--sessions=5000 --mix=send=80,history=20".
+     * @param args The program arguments.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an argument is unknown or malformed.
+     */
+    public static LoadConfig fromArgs(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "host": config.host = value; break;
+                case "port": config.port = Integer.parseInt(value); break;
+                case "file-port": config.filePort = Integer.parseInt(value); break;
+                case "sessions": config.sessions = Integer.parseInt(value); break;
+                case "duration": config.durationSeconds = Integer.parseInt(value); break;
+                case "ramp-up": config.rampUpSeconds = Integer.parseInt(value); break;
+                case "think-ms": config.thinkMillis = Integer.parseInt(value); break;
+                case "phone-pattern": config.phonePattern = value; break;
+                case "password": config.password = value; break;
+                case "chat-id": config.defaultChatId = Integer.parseInt(value); break;
+                case "page-size": config.historyPageSize = Integer.parseInt(value); break;
+                case "max-pages": config.historyMaxPages = Integer.parseInt(value); break;
+                case "upload-file": config.uploadFile = Paths.get(value); break;
+                case "upload-kb": config.uploadSizeKb = Integer.parseInt(value); break;
+                case "report-every": config.reportIntervalSeconds = Integer.parseInt(value); break;
+                case "mix": config.mix = WorkloadMix.parse(value); break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        return config;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadConfig{" +
+                "server=" + host + ":" + port + "/" + filePort +
+                ", sessions=" + sessions +
+                ", duration=" + durationSeconds + "s" +
+                ", rampUp=" + rampUpSeconds + "s" +
+                ", think=" + thinkMillis + "ms" +
+                ", mix=" + mix +
+                '}';
+    }
+}
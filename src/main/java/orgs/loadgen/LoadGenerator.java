@@ -0,0 +1,107 @@
+package orgs.loadgen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load generator for the chat server. Runs thousands of LoadSession instances,
+ * one virtual thread each, and reports throughput and latency percentiles per Command.
+ *
+ * Example:
+ *   java -cp tusalClint.jar orgs.loadgen.LoadGenerator --host=127.0.0.1 --sessions=5000
+ *        --duration=120 --mix=send=60,history=30,upload=10
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config;
+        try {
+            config = LoadConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Options: --host --port --file-port --sessions --duration --ramp-up --think-ms " +
+                    "--phone-pattern --password --chat-id --page-size --max-pages --upload-file --upload-kb " +
+                    "--report-every --mix=send=60,history=30,upload=10");
+            System.exit(1);
+            return;
+        }
+        System.out.println("Starting load run: " + config);
+        LoadStats stats = run(config);
+        System.out.println(stats.getFailedSessions() > 0
+                ? "Sessions failed (could not connect or log in, or connection lost): " + stats.getFailedSessions()
+                : "All sessions completed.");
+    }
+
+    /**
+     * Runs the configured load and prints the final report.
+     * @param config The run settings.
+     * @return The collected statistics.
+     * @throws IOException If the generated upload file cannot be created.
+     * @throws InterruptedException If interrupted while waiting for the sessions.
+     */
+    public static LoadStats run(LoadConfig config) throws IOException, InterruptedException {
+        Path uploadFile = config.mix.contains(WorkloadMix.Operation.UPLOAD) ? prepareUploadFile(config) : null;
+        LoadStats stats = new LoadStats();
+
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        long rampStepNanos = config.sessions == 0 ? 0 : TimeUnit.SECONDS.toNanos(config.rampUpSeconds) / config.sessions;
+
+        Thread reporter = Thread.ofPlatform().daemon().name("LoadReporter").start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(config.reportIntervalSeconds));
+                    double elapsed = (System.nanoTime() - startNanos) / 1e9;
+                    System.out.printf("[%5.0fs] active sessions=%d, requests=%d%n",
+                            elapsed, stats.getActiveSessions(), stats.getTotalCount());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.sessions; i++) {
+                executor.submit(new LoadSession(i, config, stats, uploadFile, deadlineNanos));
+                if (rampStepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(rampStepNanos);
+                }
+            }
+        } // close() waits for every session to reach the deadline
+        reporter.interrupt();
+
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println();
+        System.out.printf("Finished after %.1fs with %d sessions.%n", elapsedSeconds, config.sessions);
+        System.out.print(stats.formatReport(elapsedSeconds));
+
+        if (uploadFile != null && config.uploadFile == null) {
+            Files.deleteIfExists(uploadFile);
+        }
+        return stats;
+    }
+
+    private static Path prepareUploadFile(LoadConfig config) throws IOException {
+        if (config.uploadFile != null) {
+            if (!Files.isRegularFile(config.uploadFile)) {
+                throw new IOException("Upload file not found: " + config.uploadFile);
+            }
+            return config.uploadFile;
+        }
+        Path generated = Files.createTempFile("loadgen-upload", ".bin");
+        byte[] chunk = new byte[1024];
+        try (OutputStream os = Files.newOutputStream(generated)) {
+            for (int i = 0; i < config.uploadSizeKb; i++) {
+                ThreadLocalRandom.current().nextBytes(chunk);
+                os.write(chunk);
+            }
+        }
+        return generated;
+    }
+}
@@ -0,0 +1,231 @@
+package orgs.loadgen;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import orgs.model.Chat;
+import orgs.model.Media;
+import orgs.model.User;
+import orgs.protocol.Command;
+import orgs.protocol.Request;
+import orgs.protocol.Response;
+import orgs.transfer.TransferDigest;
+import orgs.transfer.ZeroCopy;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One simulated user. It opens its own control connection, logs in, then keeps
+ * performing operations from the WorkloadMix until the deadline, speaking the same
+ * newline-delimited Request/Response JSON protocol as ChatClient. Responses are read
+ * synchronously on the session's own (virtual) thread, so no listener thread is needed.
+ */
+public class LoadSession implements Runnable {
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
+            .serializeNulls()
+            .create();
+
+    private final int index;
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final Path uploadFile;
+    private final long deadlineNanos;
+
+    private PrintWriter out;
+    private BufferedReader in;
+    private User user;
+    private int[] chatIds;
+    private Path pendingUpload; // File to stream when the server answers READY_TO_RECEIVE_FILE
+
+    public LoadSession(int index, LoadConfig config, LoadStats stats, Path uploadFile, long deadlineNanos) {
+        this.index = index;
+        this.config = config;
+        this.stats = stats;
+        this.uploadFile = uploadFile;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public void run() {
+        stats.sessionStarted();
+        boolean failed = false;
+        try (Socket socket = new Socket(config.host, config.port)) {
+            socket.setSoTimeout(30_000);
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            if (!login()) {
+                failed = true;
+                return;
+            }
+            loadChats();
+
+            while (System.nanoTime() < deadlineNanos && !Thread.currentThread().isInterrupted()) {
+                switch (config.mix.next()) {
+                    case SEND:
+                        sendText();
+                        break;
+                    case HISTORY:
+                        pageHistory();
+                        break;
+                    case UPLOAD:
+                        upload();
+                        break;
+                }
+                if (config.thinkMillis > 0) {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(config.thinkMillis + 1));
+                }
+            }
+            timed(Command.LOGOUT.name(), new Request(Command.LOGOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            stats.sessionEnded(failed);
+        }
+    }
+
+    private boolean login() throws IOException {
+        Map<String, Object> authData = new HashMap<>();
+        authData.put("phone_number", String.format(config.phonePattern, index));
+        authData.put("password", config.password);
+        Response response = timed(Command.LOGIN.name(), new Request(Command.LOGIN, authData));
+        if (response == null || !response.isSuccess()) {
+            return false;
+        }
+        user = gson.fromJson(response.getData(), User.class);
+        return user != null;
+    }
+
+    private void loadChats() throws IOException {
+        Response response = timed(Command.GET_USER_CHATS.name(), new Request(Command.GET_USER_CHATS));
+        if (response != null && response.isSuccess() && response.getData() != null) {
+            Type chatListType = new TypeToken<List<Chat>>() {}.getType();
+            List<Chat> chats = gson.fromJson(response.getData(), chatListType);
+            if (chats != null && !chats.isEmpty()) {
+                chatIds = chats.stream().mapToInt(Chat::getId).toArray();
+                return;
+            }
+        }
+        chatIds = new int[]{config.defaultChatId};
+    }
+
+    private int randomChatId() {
+        return chatIds[ThreadLocalRandom.current().nextInt(chatIds.length)];
+    }
+
+    private void sendText() throws IOException {
+        Map<String, Object> data = new HashMap<>();
+        data.put("chat_id", randomChatId());
+        data.put("content", "load test message " + System.nanoTime());
+        timed(Command.SEND_MESSAGE.name(), new Request(Command.SEND_MESSAGE, data));
+    }
+
+    private void pageHistory() throws IOException {
+        Map<String, Object> data = new HashMap<>();
+        data.put("chat_id", randomChatId());
+        data.put("limit", config.historyPageSize);
+        data.put("offset", ThreadLocalRandom.current().nextInt(config.historyMaxPages) * config.historyPageSize);
+        timed(Command.GET_CHAT_MESSAGES.name(), new Request(Command.GET_CHAT_MESSAGES, data));
+    }
+
+    private void upload() throws IOException {
+        Media media = new Media();
+        media.setFileName(uploadFile.getFileName().toString());
+        media.setFileSize(Files.size(uploadFile));
+        media.setMediaType("file");
+        media.setUploadedByUserId(user.getId());
+        media.setUploadedAt(LocalDateTime.now());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("chat_id", randomChatId());
+        data.put("content", null);
+        data.put("media", media);
+
+        pendingUpload = uploadFile;
+        try {
+            timed(Command.SEND_MESSAGE.name() + "+upload", new Request(Command.SEND_MESSAGE, data));
+        } finally {
+            pendingUpload = null;
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response, recording the round trip under the given key.
+     * @return The server's Response.
+     * @throws EOFException If the server closed the connection before answering.
+     */
+    private Response timed(String key, Request request) throws IOException {
+        long start = System.nanoTime();
+        out.println(gson.toJson(request));
+        Response response = awaitResponse();
+        long elapsed = System.nanoTime() - start;
+        if (response != null && response.isSuccess()) {
+            stats.recordSuccess(key, elapsed);
+        } else {
+            stats.recordError(key);
+        }
+        if (response == null) {
+            throw new EOFException("Server closed the connection.");
+        }
+        return response;
+    }
+
+    /**
+     * Reads lines until the response to the outstanding request arrives, skipping
+     * unsolicited pushes and performing the file transfer when the server asks for it.
+     */
+    private Response awaitResponse() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            Response response = gson.fromJson(line, Response.class);
+            String message = response.getMessage();
+            if ("READY_TO_RECEIVE_FILE".equals(message)) {
+                Type type = new TypeToken<Map<String, String>>() {}.getType();
+                Map<String, String> data = gson.fromJson(response.getData(), type);
+                String transferId = data == null ? null : data.get("transfer_id");
+                if (transferId == null || pendingUpload == null || !sendFileBytes(transferId, pendingUpload)) {
+                    stats.recordError("FILE_TRANSFER");
+                }
+                continue;
+            }
+            if ("New message received".equals(message) || (message != null && message.startsWith("VIDEO_CALL_"))) {
+                continue; // Unsolicited push from another session
+            }
+            return response;
+        }
+        return null;
+    }
+
+    private boolean sendFileBytes(String transferId, Path file) {
+        long start = System.nanoTime();
+        try (SocketChannel fileChannel = ZeroCopy.openBulkChannel(config.host, config.filePort);
+             FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            ZeroCopy.writeLine(fileChannel, transferId);
+            ZeroCopy.transferToFully(source, 0, source.size(), fileChannel, null);
+            boolean ok = TransferDigest.isSuccess(ZeroCopy.readLine(fileChannel));
+            if (ok) {
+                stats.recordSuccess("FILE_TRANSFER", System.nanoTime() - start);
+            }
+            return ok;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package orgs.loadgen;
+
+import orgs.utils.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and error counters shared by all simulated sessions, keyed by the
+ * Command name (uploads are reported as "SEND_MESSAGE+upload" since they use
+ * the same Command as text messages but include the file transfer).
+ */
+public class LoadStats {
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder failedSessions = new LongAdder();
+
+    public void recordSuccess(String key, long nanos) {
+        latencies.computeIfAbsent(key, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    public void recordError(String key) {
+        errors.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    public void sessionStarted() {
+        activeSessions.increment();
+    }
+
+    public void sessionEnded(boolean failed) {
+        activeSessions.decrement();
+        if (failed) {
+            failedSessions.increment();
+        }
+    }
+
+    public long getActiveSessions() {
+        return activeSessions.sum();
+    }
+
+    public long getFailedSessions() {
+        return failedSessions.sum();
+    }
+
+    public long getTotalCount() {
+        return latencies.values().stream().mapToLong(LatencyHistogram::getCount).sum();
+    }
+
+    /**
+     * Formats a per-Command table of throughput and latency percentiles.
+     * @param elapsedSeconds The measured run time used to compute throughput.
+     * @return The report, one line per Command.
+     */
+    public String formatReport(double elapsedSeconds) {
+        Map<String, LatencyHistogram> sorted = new TreeMap<>(latencies);
+        for (String key : errors.keySet()) {
+            sorted.putIfAbsent(key, new LatencyHistogram());
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "command", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : sorted.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            LongAdder errorCount = errors.get(entry.getKey());
+            sb.append(String.format("%-22s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey(),
+                    h.getCount(),
+                    errorCount == null ? 0 : errorCount.sum(),
+                    h.getCount() / Math.max(elapsedSeconds, 0.001),
+                    toMillis(h.getPercentileNanos(50)),
+                    toMillis(h.getPercentileNanos(90)),
+                    toMillis(h.getPercentileNanos(99)),
+                    toMillis(h.getPercentileNanos(99.9)),
+                    toMillis(h.getMaxNanos())));
+        }
+        return sb.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,98 @@
+package orgs.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted mix of the operations a simulated session performs after login.
+ * Parsed from a string such as "send=60,history=30,upload=10".
+ */
+public class WorkloadMix {
+
+    public enum Operation {
+        SEND,    // SEND_MESSAGE with text content
+        HISTORY, // GET_CHAT_MESSAGES for a random page
+        UPLOAD   // SEND_MESSAGE with media, followed by the file port transfer
+    }
+
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final int totalWeight;
+
+    private WorkloadMix(Map<Operation, Integer> weights) {
+        operations = new Operation[weights.size()];
+        cumulativeWeights = new int[weights.size()];
+        int sum = 0;
+        int i = 0;
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            sum += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulativeWeights[i] = sum;
+            i++;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Workload mix needs at least one operation with a positive weight.");
+        }
+        totalWeight = sum;
+    }
+
+    /**
+     * Parses a mix description, e.g. "send=60,history=30,upload=10".
+     * @param spec The comma separated operation=weight pairs.
+     * @return The parsed WorkloadMix.
+     * @throws IllegalArgumentException If an operation name or weight is invalid.
+     */
+    public static WorkloadMix parse(String spec) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid workload mix entry: " + part);
+            }
+            Operation operation = Operation.valueOf(pair[0].trim().toUpperCase());
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + operation);
+            }
+            if (weight > 0) {
+                weights.put(operation, weight);
+            }
+        }
+        return new WorkloadMix(weights);
+    }
+
+    /**
+     * @return A randomly chosen operation according to the weights.
+     */
+    public Operation next() {
+        int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public boolean contains(Operation operation) {
+        for (Operation o : operations) {
+            if (o == operation) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < operations.length; i++) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(operations[i].name().toLowerCase()).append('=').append(cumulativeWeights[i] - previous);
+            previous = cumulativeWeights[i];
+        }
+        return sb.toString();
+    }
+}
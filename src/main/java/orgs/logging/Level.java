@@ -0,0 +1,27 @@
+package orgs.logging;
+
+/**
+ * Severity of a log message. Messages below the configured level are discarded
+ * at the call site, before any formatting work is done.
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    /**
+     * Parses a level name, case-insensitively.
+     * @return The matching level, or the fallback if the name is null or unknown.
+     */
+    static Level parse(String name, Level fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
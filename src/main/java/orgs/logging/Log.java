@@ -0,0 +1,291 @@
+package orgs.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logging facade, used instead of System.out/System.err.
+ *
+ * Callers only capture the message and its arguments into a lock-free ring buffer
+ * (LogRingBuffer); a single daemon thread ("LogDrain") formats the records and writes
+ * them to buffered stdout/stderr streams, flushing whenever it runs out of work. A slow
+ * console therefore no longer stalls the network, capture or transfer threads.
+ *
+ * Leveled messages (debug/info/warn/error) get a timestamp, level and thread name.
+ * WARN and ERROR go to stderr, the rest to stdout. Messages below the level set by the
+ * system property tusal.log.level (default INFO) are discarded before any formatting.
+ * The print/println/printf methods are raw console output for the command line clients'
+ * menus and prompts: never filtered, and kept in order with the leveled messages.
+ *
+ * When the buffer is full, DEBUG and INFO records are dropped and counted; raw output,
+ * WARN and ERROR wait for free space so they are never lost. Hot call sites use a
+ * rate-limited LogSite (see site()). Records still buffered at JVM exit are written by
+ * a shutdown hook.
+ */
+public final class Log {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int FLUSH_EVERY = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static final LogRingBuffer buffer =
+            new LogRingBuffer(Integer.getInteger("tusal.log.bufferSize", DEFAULT_BUFFER_SIZE));
+    private static final PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false, System.out.charset());
+    private static final PrintStream err = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 16), false, System.err.charset());
+    private static final LongAdder dropped = new LongAdder();
+    private static final ZoneId zone = ZoneId.systemDefault();
+
+    private static volatile Level level = Level.parse(System.getProperty("tusal.log.level"), Level.INFO);
+    private static volatile boolean drainWaiting;
+    private static volatile boolean closed;
+    private static volatile long writtenPosition; // Records written and flushed by the drain thread
+    private static final Thread drainThread;
+
+    static {
+        drainThread = new Thread(Log::drain, "LogDrain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "LogShutdown"));
+    }
+
+    private Log() {
+    }
+
+    // --- Configuration ---
+
+    public static boolean isEnabled(Level candidate) {
+        return candidate.compareTo(level) >= 0;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Creates a rate-limited call site.
+     * @param maxPerInterval How many messages may pass in each interval.
+     * @param intervalMillis The length of the interval.
+     */
+    public static LogSite site(int maxPerInterval, long intervalMillis) {
+        return new LogSite(maxPerInterval, TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+    }
+
+    /**
+     * @return The number of DEBUG/INFO records dropped because the buffer was full.
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // --- Leveled messages ---
+    // The varargs variants use String.format syntax and format on the drain thread,
+    // so pass values rather than objects that may change afterwards.
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null, null);
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null, null);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, format, args, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null, null);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, format, args, null);
+    }
+
+    public static void warn(String message, Throwable thrown) {
+        log(Level.WARN, message, null, thrown);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null, null);
+    }
+
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, format, args, null);
+    }
+
+    /**
+     * Logs the message followed by the stack trace of thrown.
+     */
+    public static void error(String message, Throwable thrown) {
+        log(Level.ERROR, message, null, thrown);
+    }
+
+    // --- Raw console output ---
+
+    public static void print(String text) {
+        enqueue(new LogRecord(null, false, text, null, null, 0));
+    }
+
+    public static void println(Object line) {
+        enqueue(new LogRecord(null, true, String.valueOf(line), null, null, 0));
+    }
+
+    public static void println() {
+        enqueue(new LogRecord(null, true, "", null, null, 0));
+    }
+
+    public static void printf(String format, Object... args) {
+        enqueue(new LogRecord(null, false, format, args, null, 0));
+    }
+
+    /**
+     * Blocks until everything logged so far has been written, or a timeout expires.
+     */
+    public static void flush() {
+        long target = buffer.tailPosition();
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while (!closed && writtenPosition < target && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(drainThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    // --- Internals ---
+
+    private static void log(Level messageLevel, String format, Object[] args, Throwable thrown) {
+        if (isEnabled(messageLevel)) {
+            enqueue(new LogRecord(messageLevel, true, format, args, thrown, 0));
+        }
+    }
+
+    static void enqueue(LogRecord record) {
+        if (closed) {
+            writeNow(record);
+            return;
+        }
+        if (!buffer.offer(record)) {
+            if (record.level != null && record.level.compareTo(Level.WARN) < 0) {
+                dropped.increment();
+                return;
+            }
+            // Raw output, warnings and errors are never dropped: wait for the drain thread
+            while (!buffer.offer(record)) {
+                if (closed) {
+                    writeNow(record);
+                    return;
+                }
+                LockSupport.unpark(drainThread);
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        if (drainWaiting) {
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    private static void drain() {
+        long written = 0;
+        long reportedDrops = 0;
+        while (true) {
+            LogRecord record = buffer.poll();
+            if (record != null) {
+                write(record);
+                if (++written % FLUSH_EVERY == 0) {
+                    flushStreams(written);
+                }
+                continue;
+            }
+            if (buffer.tailPosition() != buffer.headPosition()) {
+                Thread.onSpinWait(); // A producer has claimed a slot but not published it yet
+                continue;
+            }
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                write(new LogRecord(Level.WARN, true, "%d log messages dropped, the log buffer was full",
+                        new Object[]{drops - reportedDrops}, null, 0));
+                reportedDrops = drops;
+            }
+            flushStreams(written);
+            if (closed) {
+                return;
+            }
+            drainWaiting = true;
+            if (buffer.tailPosition() == buffer.headPosition()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            drainWaiting = false;
+        }
+    }
+
+    private static synchronized void write(LogRecord record) {
+        try {
+            if (record.level == null) {
+                if (record.newline) {
+                    out.println(record.message());
+                } else {
+                    out.print(record.message());
+                }
+                return;
+            }
+            PrintStream target = record.level.compareTo(Level.WARN) >= 0 ? err : out;
+            StringBuilder line = new StringBuilder(96)
+                    .append(TIME_FORMAT.format(LocalTime.ofInstant(Instant.ofEpochMilli(record.timeMillis), zone)))
+                    .append(' ').append(record.level)
+                    .append(" [").append(record.threadName).append("] ")
+                    .append(record.message());
+            if (record.suppressed > 0) {
+                line.append(" (").append(record.suppressed).append(" similar messages suppressed)");
+            }
+            target.println(line);
+            if (record.thrown != null) {
+                record.thrown.printStackTrace(target);
+            }
+        } catch (RuntimeException e) {
+            // A failing toString() in an argument must not kill the drain thread
+            err.println("Failed to write log record: " + e);
+        }
+    }
+
+    private static void writeNow(LogRecord record) {
+        write(record);
+        flushStreams(writtenPosition);
+    }
+
+    private static synchronized void flushStreams(long written) {
+        out.flush();
+        err.flush();
+        writtenPosition = written;
+    }
+
+    private static void shutdown() {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(FLUSH_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushStreams(writtenPosition);
+    }
+}
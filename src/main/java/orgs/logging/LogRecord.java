@@ -0,0 +1,39 @@
+package orgs.logging;
+
+/**
+ * One entry waiting in the ring buffer. Formatting is deferred to the drain thread,
+ * so the producer only pays for capturing the arguments.
+ */
+final class LogRecord {
+
+    final Level level;          // null for raw console output
+    final boolean newline;      // false for print(), true for println()/log messages
+    final long timeMillis;
+    final String threadName;
+    final String format;
+    final Object[] args;        // null when format is the literal message
+    final Throwable thrown;
+    final long suppressed;      // messages dropped by the site's rate limit since the last one
+
+    LogRecord(Level level, boolean newline, String format, Object[] args, Throwable thrown, long suppressed) {
+        this.level = level;
+        this.newline = newline;
+        this.timeMillis = System.currentTimeMillis();
+        this.threadName = Thread.currentThread().getName();
+        this.format = format;
+        this.args = args;
+        this.thrown = thrown;
+        this.suppressed = suppressed;
+    }
+
+    String message() {
+        if (args == null || args.length == 0) {
+            return String.valueOf(format);
+        }
+        try {
+            return String.format(format, args);
+        } catch (RuntimeException e) {
+            return format + " (bad format: " + e.getMessage() + ")";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package orgs.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer ring buffer.
+ *
+ * Every slot carries a sequence number: a slot is free for the producer claiming
+ * position p when its sequence equals p, and ready for the consumer when it equals p + 1.
+ * Producers claim positions with a CAS on the tail; the single drain thread owns the head.
+ * When the buffer is full offer() fails instead of blocking, and the caller decides
+ * whether to drop the record or wait.
+ */
+final class LogRingBuffer {
+
+    private final int mask;
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong(); // Written by the consumer only
+
+    /**
+     * @param capacity Rounded up to the next power of two.
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full.
+     */
+    boolean offer(LogRecord record) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                long witness = tail.compareAndExchange(pos, pos + 1);
+                if (witness == pos) {
+                    slots.set(index, record);
+                    sequences.set(index, pos + 1); // Publish to the consumer
+                    return true;
+                }
+                pos = witness;
+            } else if (diff < 0) {
+                return false; // The consumer has not freed this slot yet
+            } else {
+                pos = tail.get(); // Another producer took this position
+            }
+        }
+    }
+
+    /**
+     * Consumer side only.
+     * @return The oldest record, or null if none is ready.
+     */
+    LogRecord poll() {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        LogRecord record = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, pos + mask + 1); // Free the slot for the next lap
+        head.set(pos + 1);
+        return record;
+    }
+
+    /**
+     * @return The position the next producer will claim.
+     */
+    long tailPosition() {
+        return tail.get();
+    }
+
+    /**
+     * @return The number of records the consumer has taken so far.
+     */
+    long headPosition() {
+        return head.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
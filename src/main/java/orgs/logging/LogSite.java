@@ -0,0 +1,80 @@
+package orgs.logging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A rate-limited logging call site, for messages on hot paths (per frame, per packet,
+ * per chunk). At most maxPerInterval messages pass in every interval; the rest are
+ * counted and the count is appended to the next message that gets through.
+ *
+ * Keep one instance per call site in a static field:
+ *   private static final LogSite FRAME_LOG = Log.site(1, 1000);
+ *   ...
+ *   FRAME_LOG.debug("Sent frame %d (%d bytes)", frameNumber, size);
+ */
+public final class LogSite {
+
+    private final int maxPerInterval;
+    private final long intervalNanos;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger used = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    LogSite(int maxPerInterval, long intervalNanos) {
+        this.maxPerInterval = maxPerInterval;
+        this.intervalNanos = intervalNanos;
+    }
+
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * Raw console output without a line break (e.g. a "\r" progress line), rate limited.
+     */
+    public void print(String format, Object... args) {
+        if (tryAcquire() >= 0) {
+            Log.enqueue(new LogRecord(null, false, format, args, null, 0));
+        }
+    }
+
+    private void log(Level level, String format, Object[] args) {
+        if (!Log.isEnabled(level)) {
+            return;
+        }
+        long skipped = tryAcquire();
+        if (skipped >= 0) {
+            Log.enqueue(new LogRecord(level, true, format, args, null, skipped));
+        }
+    }
+
+    /**
+     * @return -1 if the message must be dropped, otherwise the number of messages
+     *         dropped since the last one that passed.
+     */
+    private long tryAcquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= intervalNanos && windowStart.compareAndSet(start, now)) {
+            used.set(0);
+        }
+        if (used.incrementAndGet() <= maxPerInterval) {
+            return suppressed.getAndSet(0);
+        }
+        suppressed.incrementAndGet();
+        return -1;
+    }
+}
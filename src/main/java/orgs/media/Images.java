@@ -0,0 +1,243 @@
+package orgs.media;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Decoding, scaling and JPEG encoding with the JDK's ImageIO and Java2D.
+ */
+final class Images {
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private Images() {
+    }
+
+    /**
+     * @return The lower case ImageIO format name of the file ("jpeg", "png", "gif", ...),
+     * or null if no reader understands it.
+     */
+    static String formatName(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            return readers.hasNext() ? readers.next().getFormatName().toLowerCase(Locale.ROOT) : null;
+        }
+    }
+
+    /**
+     * Decodes an image, skipping rows and columns it would only throw away when scaled to maxEdge.
+     * Decoding every pixel of a 12 MP photo for a small result is most of the work otherwise.
+     * @return The image, at least twice maxEdge on its longer side if the file is that large,
+     * or null if no ImageIO reader understands the file.
+     */
+    static BufferedImage read(File file, int maxEdge) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // Twice the target survives subsampling, so the final scale can still smooth
+                int step = Math.max(1, longEdge / (maxEdge * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return The image scaled to fit maxEdge (never enlarged), as opaque RGB on white.
+     */
+    static BufferedImage scale(BufferedImage image, int maxEdge) {
+        // Bilinear scaling skips pixels beyond a factor of 2, so larger steps are taken in halves
+        while (Math.max(image.getWidth(), image.getHeight()) > maxEdge * 2) {
+            image = draw(image, Math.max(1, image.getWidth() / 2), Math.max(1, image.getHeight() / 2));
+        }
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        return draw(image, width, height);
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no alpha: transparent areas become white instead of black
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * @return False if any pixel is at least partly transparent.
+     */
+    static boolean isOpaque(BufferedImage image) {
+        WritableRaster alpha = image.getAlphaRaster();
+        if (alpha == null) {
+            return true;
+        }
+        int[] row = new int[alpha.getWidth()];
+        for (int y = 0; y < alpha.getHeight(); y++) {
+            alpha.getSamples(0, y, row.length, 1, 0, row);
+            for (int a : row) {
+                if (a != 255) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the EXIF orientation of a JPEG. ImageIO ignores it, and a re-encoded photo loses
+     * its EXIF data, so a photo taken upright is stored sideways unless the pixels are turned.
+     * @return The orientation, 1 (upright) to 8, or 1 if the file has none.
+     */
+    static int exifOrientation(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1; // Not a JPEG
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) {
+                    return 1; // Start of the image data, or not a marker: no EXIF before it
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (marker != 0xFFE1) {
+                    in.skipNBytes(length);
+                    continue;
+                }
+                byte[] segment = new byte[length];
+                in.readFully(segment);
+                int orientation = exifOrientation(segment);
+                if (orientation != 0) {
+                    return orientation;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * @return The orientation tag of IFD0 in an APP1 segment, or 0 if it is not EXIF or has none.
+     */
+    private static int exifOrientation(byte[] segment) {
+        // "Exif\0\0", then a TIFF header: byte order, 42, offset of IFD0
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+            return 0;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifd = tiff.getInt(4);
+        if (ifd < 8 || ifd + 2 > tiff.limit()) {
+            return 0;
+        }
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            if ((tiff.getShort(entry) & 0xFFFF) == EXIF_ORIENTATION_TAG) {
+                int value = tiff.getShort(entry + 8) & 0xFFFF;
+                return value >= 1 && value <= 8 ? value : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param orientation An EXIF orientation, see exifOrientation.
+     * @return The image turned and flipped upright, or image itself if it already is.
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform t;
+        switch (orientation) {
+            case 2: t = new AffineTransform(-1, 0, 0, 1, w, 0); break;   // Mirrored
+            case 3: t = new AffineTransform(-1, 0, 0, -1, w, h); break;  // Upside down
+            case 4: t = new AffineTransform(1, 0, 0, -1, 0, h); break;   // Upside down, mirrored
+            case 5: t = new AffineTransform(0, 1, 1, 0, 0, 0); break;    // Transposed
+            case 6: t = new AffineTransform(0, 1, -1, 0, h, 0); break;   // Turned left, needs 90 degrees clockwise
+            case 7: t = new AffineTransform(0, -1, -1, 0, h, w); break;  // Transversed
+            case 8: t = new AffineTransform(0, -1, 1, 0, 0, w); break;   // Turned right, needs 90 degrees counterclockwise
+            default: return image;
+        }
+        boolean sideways = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(sideways ? h : w, sideways ? w : h,
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = oriented.createGraphics();
+        try {
+            g.drawImage(image, t, null);
+        } finally {
+            g.dispose();
+        }
+        return oriented;
+    }
+
+    /**
+     * @param quality The JPEG quality, between 0 and 1.
+     */
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG encoder available");
+        }
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,277 @@
+package orgs.media;
+
+import orgs.logging.Log;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shrinks media before it is uploaded, using only the JDK:
+ * - "image": JPEG, PNG and BMP photos are scaled to fit imageMaxEdge and re-encoded as JPEG
+ *   at imageQuality. GIFs (maybe animated) and images with transparent pixels are left alone.
+ * - "voiceNote": PCM WAV, AIFF and AU notes become mono 8-bit mu-law WAV at voiceSampleRate.
+ *
+ * Files smaller than minBytes are sent as they are, and so is a result that does not save at
+ * least a tenth. Transcoding runs on a bounded pool ("Transcoder-N"); when its queue is full the
+ * caller transcodes itself, which holds back new uploads instead of piling up work.
+ *
+ * A transcoded copy is written to a directory under the output directory named after the
+ * original's path, size and modification time and the settings, keeping the original name
+ * (with a .jpg or .wav extension). Transcoding the same unchanged original again returns that
+ * copy, so forwarding a photo neither transcodes it again nor, since the copy is unchanged too,
+ * hashes it again (see ContentHashCache); an original not worth transcoding is remembered the
+ * same way. Copies are shared by all uploads of their original and kept until they have not
+ * been used for keepHours; prune, run when the transcoder is created, deletes them.
+ *
+ * The settings come from system properties (see fromSystemProperties):
+ * tusal.transcode (false disables it), tusal.transcode.imageMaxEdge, tusal.transcode.imageQuality,
+ * tusal.transcode.voiceSampleRate, tusal.transcode.minKb, tusal.transcode.workers, tusal.transcode.dir
+ * and tusal.transcode.keepHours.
+ */
+public class MediaTranscoder {
+
+    public static final int DEFAULT_IMAGE_MAX_EDGE = 2048;
+    public static final float DEFAULT_IMAGE_QUALITY = 0.85f;
+    public static final int DEFAULT_VOICE_SAMPLE_RATE = 16000;
+    public static final long DEFAULT_MIN_BYTES = 256 * 1024;
+    public static final long DEFAULT_KEEP_HOURS = 24;
+
+    /** A transcoded file is only used if it is at most this share of the original. */
+    static final double KEEP_RATIO = 0.9;
+    private static final int QUEUE_CAPACITY = 16;
+    // Left in the directory of an original whose transcoded copy would not have been smaller
+    private static final String KEEP_ORIGINAL = "original";
+
+    private final int imageMaxEdge;
+    private final float imageQuality;
+    private final int voiceSampleRate;
+    private final long minBytes;
+    private final Path outputDirectory;
+    private final long keepMillis;
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * @param workerCount The number of files transcoded at the same time.
+     * @param imageMaxEdge The longest side of a transcoded image, in pixels.
+     * @param imageQuality The JPEG quality of a transcoded image, between 0 and 1.
+     * @param voiceSampleRate The highest sample rate of a transcoded voice note, in Hz.
+     * @param minBytes Files smaller than this are not transcoded.
+     * @param outputDirectory Where transcoded copies are written.
+     * @param keepHours How long a copy is kept after it was last used.
+     */
+    public MediaTranscoder(int workerCount, int imageMaxEdge, float imageQuality, int voiceSampleRate,
+                           long minBytes, Path outputDirectory, long keepHours) {
+        this.imageMaxEdge = imageMaxEdge;
+        this.imageQuality = imageQuality;
+        this.voiceSampleRate = voiceSampleRate;
+        this.minBytes = minBytes;
+        this.outputDirectory = outputDirectory;
+        this.keepMillis = TimeUnit.HOURS.toMillis(keepHours);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "Transcoder-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+        this.workers.execute(this::prune);
+    }
+
+    /**
+     * @return A transcoder configured by the tusal.transcode.* system properties.
+     */
+    public static MediaTranscoder fromSystemProperties() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("tusal.transcode", "true"));
+        long minKb = Long.getLong("tusal.transcode.minKb", DEFAULT_MIN_BYTES / 1024);
+        return new MediaTranscoder(
+                Integer.getInteger("tusal.transcode.workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("tusal.transcode.imageMaxEdge", DEFAULT_IMAGE_MAX_EDGE),
+                Float.parseFloat(System.getProperty("tusal.transcode.imageQuality", String.valueOf(DEFAULT_IMAGE_QUALITY))),
+                Integer.getInteger("tusal.transcode.voiceSampleRate", DEFAULT_VOICE_SAMPLE_RATE),
+                enabled ? minKb * 1024 : Long.MAX_VALUE,
+                Paths.get(System.getProperty("tusal.transcode.dir",
+                        Paths.get(System.getProperty("java.io.tmpdir"), "tusal-transcoded").toString())),
+                Long.getLong("tusal.transcode.keepHours", DEFAULT_KEEP_HOURS));
+    }
+
+    /**
+     * @return True if media of this type ("image", "voiceNote", ...) may be transcoded.
+     */
+    public static boolean supports(String mediaType) {
+        return "image".equals(mediaType) || "voiceNote".equals(mediaType);
+    }
+
+    /**
+     * Transcodes a file on a worker.
+     * @return The file to upload: a smaller copy, or file itself if it is not worth transcoding
+     * or transcoding failed. The future never completes exceptionally.
+     */
+    public CompletableFuture<File> submit(File file, String mediaType) {
+        if (!supports(mediaType) || file.length() < minBytes) {
+            return CompletableFuture.completedFuture(file);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                File transcoded = transcode(file, mediaType);
+                return transcoded != null ? transcoded : file;
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Could not transcode " + file.getName() + ", sending the original: " + e.getMessage());
+                return file;
+            }
+        }, workers);
+    }
+
+    /**
+     * Transcodes a file on the calling thread, whatever its size, or returns the copy made
+     * earlier of the same unchanged file.
+     * @return The smaller copy, or null if the file was left as it is.
+     */
+    public File transcode(File file, String mediaType) throws IOException {
+        String extension = "image".equals(mediaType) ? ".jpg" : "voiceNote".equals(mediaType) ? ".wav" : null;
+        if (extension == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (Span span = Tracer.get().start("transcode", "media").arg("type", mediaType).arg("bytes", file.length())) {
+            Path directory = outputDirectory.resolve(keyOf(file, mediaType));
+            Path target = directory.resolve(copyName(file, extension));
+            if (Files.isRegularFile(target) || Files.exists(directory.resolve(KEEP_ORIGINAL))) {
+                // Made for an earlier upload; marked as used, so prune keeps it
+                Files.setLastModifiedTime(directory, FileTime.fromMillis(System.currentTimeMillis()));
+                span.arg("reused", true);
+                return Files.isRegularFile(target) ? target.toFile() : null;
+            }
+            Files.createDirectories(directory);
+            // Written aside, so an upload of the same file running meanwhile never sees half a copy
+            Path temp = directory.resolve(target.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                boolean written = "image".equals(mediaType) ? transcodeImage(file, temp) : transcodeVoiceNote(file, temp);
+                if (!written || Files.size(temp) > file.length() * KEEP_RATIO) {
+                    Files.write(directory.resolve(KEEP_ORIGINAL), new byte[0]);
+                    return null;
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            long transcodedBytes = Files.size(target);
+            span.arg("transcodedBytes", transcodedBytes);
+            Log.info("Transcoded %s from %d to %d bytes in %d ms", file.getName(), file.length(),
+                    transcodedBytes, (System.nanoTime() - start) / 1_000_000);
+            return target.toFile();
+        }
+    }
+
+    /**
+     * @return False if the image is left as it is.
+     */
+    private boolean transcodeImage(File file, Path target) throws IOException {
+        String format = Images.formatName(file);
+        if (!"jpeg".equals(format) && !"png".equals(format) && !"bmp".equals(format)) {
+            return false;
+        }
+        BufferedImage image = Images.read(file, imageMaxEdge);
+        if (image == null || !Images.isOpaque(image)) {
+            return false; // JPEG would lose the transparency
+        }
+        BufferedImage scaled = Images.orient(Images.scale(image, imageMaxEdge), Images.exifOrientation(file));
+        byte[] jpeg = Images.encodeJpeg(scaled, imageQuality);
+        if (jpeg.length > file.length() * KEEP_RATIO) {
+            return false;
+        }
+        Files.write(target, jpeg);
+        return true;
+    }
+
+    /**
+     * @return False if the voice note is left as it is.
+     */
+    private boolean transcodeVoiceNote(File file, Path target) throws IOException {
+        return VoiceNotes.encode(file, target.toFile(), voiceSampleRate);
+    }
+
+    /**
+     * @return The name of the directory holding the copy of file: a digest of its path, size and
+     * modification time, and of the settings it is transcoded with.
+     */
+    private String keyOf(File file, String mediaType) throws IOException {
+        Path absolute = file.toPath().toAbsolutePath();
+        String key = absolute + "\n" + Files.size(absolute) + "\n" + Files.getLastModifiedTime(absolute).toMillis()
+                + "\n" + mediaType + "\n" + imageMaxEdge + "\n" + imageQuality + "\n" + voiceSampleRate;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return The original name of file with the given extension.
+     */
+    private static String copyName(File file, String extension) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + extension;
+    }
+
+    /**
+     * Deletes the copies that have not been used for keepHours, e.g. those of originals that
+     * have changed or been deleted since.
+     */
+    public void prune() {
+        long cutoff = System.currentTimeMillis() - keepMillis;
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(outputDirectory)) {
+            for (Path directory : directories) {
+                if (Files.isDirectory(directory) && Files.getLastModifiedTime(directory).toMillis() < cutoff) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                        for (Path file : files) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                    Files.deleteIfExists(directory);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing transcoded yet
+        } catch (IOException e) {
+            Log.warn("Could not prune transcoded copies in " + outputDirectory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes a copy made by this transcoder now, with its directory, rather than when it is
+     * pruned. Does nothing for other files.
+     */
+    public void discard(File transcoded) {
+        File directory = transcoded.getParentFile();
+        if (directory == null || directory.getParentFile() == null
+                || !directory.getParentFile().toPath().equals(outputDirectory)) {
+            return;
+        }
+        transcoded.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,157 @@
+package orgs.media;
+
+import orgs.logging.Log;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes small JPEG thumbnails of images and videos before they are uploaded (Singleton).
+ *
+ * A thumbnail travels inline with the Media metadata, as a data URL in thumbnailUrl, so
+ * chat timelines can draw every media message from GET_CHAT_MESSAGES alone and fetch the
+ * full file only when it is opened. To keep message lists light, thumbnails fit MAX_EDGE
+ * pixels and MAX_BYTES bytes.
+ *
+ * Decoding a large photo or seeking in a video takes a while, so thumbnails are made on a
+ * small pool of workers ("Thumbnailer-N") while the upload path hashes the file.
+ */
+public class ThumbnailGenerator {
+
+    public static final int MAX_EDGE = 256;
+    /** Most thumbnails are 8-16 KB; a busy picture is re-encoded at lower quality until it fits. */
+    public static final int MAX_BYTES = 24 * 1024;
+
+    private static final String DATA_URL_PREFIX = "data:image/jpeg;base64,";
+    private static final float[] QUALITIES = {0.75f, 0.6f, 0.45f, 0.3f};
+
+    private static final ThumbnailGenerator INSTANCE =
+            new ThumbnailGenerator(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final ExecutorService workers;
+    private volatile boolean videoUnavailable;
+
+    /**
+     * @param workerCount The number of thumbnails made at the same time.
+     */
+    public ThumbnailGenerator(int workerCount) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "Thumbnailer-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.workers = pool;
+    }
+
+    /**
+     * @return The generator shared by the whole client.
+     */
+    public static ThumbnailGenerator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return True if media of this type ("image", "video", ...) gets a thumbnail.
+     */
+    public static boolean supports(String mediaType) {
+        return "image".equals(mediaType) || "video".equals(mediaType);
+    }
+
+    /**
+     * Makes the thumbnail of a file on a worker.
+     * @return The thumbnail as a data URL for Media.setThumbnailUrl, or null if the media type
+     * has none or the file cannot be decoded. The future never completes exceptionally.
+     */
+    public CompletableFuture<String> submit(File file, String mediaType) {
+        if (!supports(mediaType)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return generate(file, mediaType);
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Could not make a thumbnail of " + file.getName() + ": " + e.getMessage());
+                return null;
+            }
+        }, workers);
+    }
+
+    /**
+     * Makes the thumbnail of a file on the calling thread.
+     * @return The thumbnail as a data URL, or null if there is none.
+     */
+    public String generate(File file, String mediaType) throws IOException {
+        try (Span span = Tracer.get().start("thumbnail", "media").arg("type", mediaType).arg("bytes", file.length())) {
+            boolean video = "video".equals(mediaType);
+            BufferedImage source = video ? grabVideoFrame(file) : Images.read(file, MAX_EDGE);
+            if (source == null) {
+                return null;
+            }
+            BufferedImage thumbnail = Images.scale(source, MAX_EDGE);
+            if (!video) {
+                thumbnail = Images.orient(thumbnail, Images.exifOrientation(file));
+            }
+            byte[] jpeg = null;
+            for (float quality : QUALITIES) {
+                jpeg = Images.encodeJpeg(thumbnail, quality);
+                if (jpeg.length <= MAX_BYTES) {
+                    break;
+                }
+            }
+            span.arg("thumbnailBytes", jpeg.length);
+            return jpeg.length <= MAX_BYTES ? toDataUrl(jpeg) : null;
+        }
+    }
+
+    private BufferedImage grabVideoFrame(File file) throws IOException {
+        if (videoUnavailable) {
+            return null;
+        }
+        try {
+            return VideoFrames.grab(file);
+        } catch (LinkageError e) {
+            // Without the OpenCV native library, videos are simply sent without thumbnails
+            videoUnavailable = true;
+            Log.warn("Video thumbnails disabled, OpenCV is not available: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return True if thumbnailUrl carries the thumbnail itself rather than pointing to it.
+     */
+    public static boolean isInline(String thumbnailUrl) {
+        return thumbnailUrl != null && thumbnailUrl.startsWith(DATA_URL_PREFIX);
+    }
+
+    /**
+     * @return The JPEG bytes of an inline thumbnail, or null if thumbnailUrl is not one.
+     */
+    public static byte[] decode(String thumbnailUrl) {
+        if (!isInline(thumbnailUrl)) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(thumbnailUrl.substring(DATA_URL_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static String toDataUrl(byte[] jpeg) {
+        return DATA_URL_PREFIX + Base64.getEncoder().encodeToString(jpeg);
+    }
+}
@@ -0,0 +1,54 @@
+package orgs.media;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads single frames of video files with OpenCV, which the calls already depend on.
+ * Kept apart so the rest of the package loads without the OpenCV native library.
+ */
+final class VideoFrames {
+
+    private VideoFrames() {
+    }
+
+    /**
+     * @return A frame a tenth into the video (the first one is often black), or null if the
+     * file cannot be opened or decoded.
+     */
+    static BufferedImage grab(File file) throws IOException {
+        VideoCapture capture = new VideoCapture(file.getAbsolutePath());
+        Mat frame = new Mat();
+        MatOfByte encoded = new MatOfByte();
+        try {
+            if (!capture.isOpened()) {
+                return null;
+            }
+            double frameCount = capture.get(Videoio.CAP_PROP_FRAME_COUNT);
+            if (frameCount > 1) {
+                capture.set(Videoio.CAP_PROP_POS_FRAMES, Math.floor(frameCount / 10));
+            }
+            if (!capture.read(frame) || frame.empty()) {
+                return null;
+            }
+            // BMP is lossless and cheap to encode; the frame is scaled and compressed afterwards
+            if (!Imgcodecs.imencode(".bmp", frame, encoded)) {
+                return null;
+            }
+            return ImageIO.read(new ByteArrayInputStream(encoded.toArray()));
+        } finally {
+            encoded.release();
+            frame.release();
+            capture.release();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package orgs.media;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Re-encodes voice notes with javax.sound.sampled: mono, at most a given sample rate, and
+ * 8-bit mu-law, the companding telephony uses for speech. A 44.1 kHz stereo WAV shrinks
+ * about elevenfold at 16 kHz.
+ *
+ * The JDK converts between PCM sample formats and to mu-law, but does not resample, so
+ * Downsampler does that while streaming; long notes are never held in memory.
+ */
+final class VoiceNotes {
+
+    private VoiceNotes() {
+    }
+
+    /**
+     * @param maxSampleRate The highest sample rate of the result; notes are never upsampled.
+     * @return False if the file is not PCM audio the JDK can read, and nothing was written.
+     */
+    static boolean encode(File source, File target, float maxSampleRate) throws IOException {
+        AudioInputStream original;
+        try {
+            original = AudioSystem.getAudioInputStream(source);
+        } catch (UnsupportedAudioFileException e) {
+            return false;
+        }
+        try (AudioInputStream in = original) {
+            AudioFormat format = in.getFormat();
+            AudioFormat.Encoding encoding = format.getEncoding();
+            boolean pcm = AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding);
+            // Already companded or compressed, or of unknown length
+            if (!pcm || in.getFrameLength() == AudioSystem.NOT_SPECIFIED || format.getSampleRate() <= 0) {
+                return false;
+            }
+            AudioFormat pcm16 = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+            if (!AudioSystem.isConversionSupported(pcm16, format)) {
+                return false; // E.g. 24-bit samples
+            }
+            float rate = Math.min(format.getSampleRate(), maxSampleRate);
+            long frames = (long) (in.getFrameLength() * (double) rate / format.getSampleRate());
+            AudioFormat mono = new AudioFormat(rate, 16, 1, true, false);
+            AudioInputStream resampled = new AudioInputStream(new Downsampler(AudioSystem.getAudioInputStream(pcm16, in),
+                    format.getChannels(), format.getSampleRate() / rate, frames), mono, frames);
+            AudioFormat ulaw = new AudioFormat(AudioFormat.Encoding.ULAW, rate, 8, 1, 1, rate, false);
+            AudioSystem.write(AudioSystem.getAudioInputStream(ulaw, resampled), AudioFileFormat.Type.WAVE, target);
+            return true;
+        }
+    }
+
+    /**
+     * Mixes 16-bit little-endian PCM down to mono and lowers its rate by averaging the source
+     * samples that fall into each output sample (partial samples are weighted), which also
+     * filters out most of what would otherwise alias. Produces exactly the given number of frames.
+     */
+    private static final class Downsampler extends InputStream {
+        private final AudioInputStream source;
+        private final int channels;
+        private final int frameSize;
+        private final double step; // Source frames per output frame, at least 1
+        private final long frames;
+        private final byte[] buffer;
+        private int position;
+        private int length;
+        private long produced;
+        private double sourcePosition; // In source frames, fractional while a frame is split
+        private double sum;
+        private double weight;
+
+        Downsampler(AudioInputStream source, int channels, double step, long frames) {
+            this.source = source;
+            this.channels = channels;
+            this.frameSize = 2 * channels;
+            this.step = Math.max(1.0, step);
+            this.frames = frames;
+            this.buffer = new byte[frameSize * 4096];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (produced >= frames) {
+                return -1;
+            }
+            int written = 0;
+            while (written + 2 <= len && produced < frames) {
+                int sample = nextSample();
+                b[off + written] = (byte) sample;
+                b[off + written + 1] = (byte) (sample >> 8);
+                written += 2;
+                produced++;
+            }
+            return written;
+        }
+
+        private int nextSample() throws IOException {
+            double end = (produced + 1) * step;
+            while (true) {
+                if (position == length && !fill()) {
+                    return emit(); // Source ended early; the rest is silence
+                }
+                double frameEnd = Math.floor(sourcePosition) + 1;
+                double until = Math.min(frameEnd, end);
+                double share = until - sourcePosition;
+                sum += currentFrame() * share;
+                weight += share;
+                sourcePosition = until;
+                if (until == frameEnd) {
+                    position += frameSize;
+                }
+                if (until == end) {
+                    return emit();
+                }
+            }
+        }
+
+        private int emit() {
+            double average = weight > 0 ? sum / weight : 0;
+            sum = 0;
+            weight = 0;
+            return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(average)));
+        }
+
+        private double currentFrame() {
+            int total = 0;
+            for (int c = 0; c < channels; c++) {
+                int at = position + 2 * c;
+                total += (short) ((buffer[at] & 0xFF) | (buffer[at + 1] << 8));
+            }
+            return (double) total / channels;
+        }
+
+        private boolean fill() throws IOException {
+            int n;
+            do {
+                n = source.read(buffer, 0, buffer.length);
+            } while (n == 0);
+            position = 0;
+            length = n < 0 ? 0 : n - n % frameSize;
+            return length > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
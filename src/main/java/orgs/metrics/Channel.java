@@ -0,0 +1,11 @@
+package orgs.metrics;
+
+/**
+ * Network channels whose traffic is counted separately by ClientMetrics.
+ */
+public enum Channel {
+    CONTROL,     // JSON request/response socket (SERVER_PORT)
+    FILE,        // File transfer sockets (FILE_TRANSFER_PORT)
+    VIDEO_UDP,   // Call video stream
+    AUDIO_UDP    // Call audio stream
+}
@@ -0,0 +1,330 @@
+package orgs.metrics;
+
+import orgs.logging.Log;
+import orgs.protocol.Command;
+import orgs.utils.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Client-wide metrics registry (Singleton). Keeps a LatencyHistogram per Command for
+ * the request round trip and for payload decoding, a histogram for envelope parsing,
+ * byte counters per Channel, queue depth and other gauges, and file transfer throughput.
+ *
+ * Recording only touches atomics and LongAdders, so it is cheap enough for hot paths.
+ * The registry is exposed over JMX as "orgs.metrics:type=ClientMetrics" and, when the
+ * system property tusal.metrics.dumpSeconds is set, dumped periodically to the console.
+ *
+ * Comparing round trip, envelope parse and decode times tells whether a slow command is
+ * spending its time on the network/server side or in client-side decoding.
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    public static final String OBJECT_NAME = "orgs.metrics:type=ClientMetrics";
+
+    private static final ClientMetrics INSTANCE = new ClientMetrics();
+
+    private final Map<Command, LatencyHistogram> roundTrip = new EnumMap<>(Command.class);
+    private final Map<Command, LatencyHistogram> decode = new EnumMap<>(Command.class);
+    private final LatencyHistogram envelopeParse = new LatencyHistogram();
+
+    private final Map<Channel, LongAdder> bytesIn = new EnumMap<>(Channel.class);
+    private final Map<Channel, LongAdder> bytesOut = new EnumMap<>(Channel.class);
+
+    private final ConcurrentMap<String, IntSupplier> queueGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> queueMaxDepths = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final LongAdder transferCount = new LongAdder();
+    private final LongAdder transferBytes = new LongAdder();
+    private final LongAdder transferNanos = new LongAdder();
+    private volatile double lastTransferMBps;
+
+    private ScheduledExecutorService dumpScheduler;
+
+    private ClientMetrics() {
+        // All maps are filled up front so recording never needs to allocate or lock
+        for (Command command : Command.values()) {
+            roundTrip.put(command, new LatencyHistogram());
+            decode.put(command, new LatencyHistogram());
+        }
+        for (Channel channel : Channel.values()) {
+            bytesIn.put(channel, new LongAdder());
+            bytesOut.put(channel, new LongAdder());
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            Log.warn("Could not register client metrics MBean: " + e.getMessage());
+        }
+        long dumpSeconds = Long.getLong("tusal.metrics.dumpSeconds", 0L);
+        if (dumpSeconds > 0) {
+            startPeriodicDump(dumpSeconds);
+        }
+    }
+
+    /**
+     * @return The global metrics registry.
+     */
+    public static ClientMetrics get() {
+        return INSTANCE;
+    }
+
+    // --- Recording ---
+
+    public void recordRoundTrip(Command command, long nanos) {
+        if (command != null) {
+            roundTrip.get(command).record(nanos);
+        }
+    }
+
+    public void recordDecode(Command command, long nanos) {
+        if (command != null) {
+            decode.get(command).record(nanos);
+        }
+    }
+
+    public void recordEnvelopeParse(long nanos) {
+        envelopeParse.record(nanos);
+    }
+
+    public void addBytesIn(Channel channel, long bytes) {
+        bytesIn.get(channel).add(bytes);
+    }
+
+    public void addBytesOut(Channel channel, long bytes) {
+        bytesOut.get(channel).add(bytes);
+    }
+
+    /**
+     * Registers a queue whose size is read whenever metrics are sampled.
+     * @param name The name shown in the metrics (e.g. "responseQueue").
+     * @param depth Supplies the current size of the queue.
+     */
+    public void registerQueue(String name, IntSupplier depth) {
+        queueGauges.put(name, depth);
+        queueMaxDepths.putIfAbsent(name, new AtomicInteger());
+    }
+
+    /**
+     * Updates the high-water mark of a registered queue; call after enqueueing.
+     */
+    public void observeQueueDepth(String name, int depth) {
+        AtomicInteger max = queueMaxDepths.computeIfAbsent(name, k -> new AtomicInteger());
+        if (depth > max.get()) {
+            max.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * Registers a value that is read whenever metrics are sampled (e.g. a bandwidth limit).
+     * @param name The name shown in the metrics (e.g. "bandwidth.fileLimit").
+     * @param value Supplies the current value.
+     */
+    public void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Records one completed file transfer.
+     * @param bytes The number of bytes moved.
+     * @param nanos The time the byte transfer took.
+     */
+    public void recordFileTransfer(long bytes, long nanos) {
+        transferCount.increment();
+        transferBytes.add(bytes);
+        transferNanos.add(nanos);
+        lastTransferMBps = toMBps(bytes, nanos);
+    }
+
+    // --- Periodic dump ---
+
+    /**
+     * Logs a snapshot of all metrics at a fixed rate, on a daemon thread.
+     * @param periodSeconds The interval between two dumps.
+     */
+    public synchronized void startPeriodicDump(long periodSeconds) {
+        if (dumpScheduler != null) {
+            dumpScheduler.shutdownNow();
+        }
+        dumpScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MetricsDump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumpScheduler.scheduleAtFixedRate(() -> Log.info(snapshot()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumpScheduler != null) {
+            dumpScheduler.shutdownNow();
+            dumpScheduler = null;
+        }
+    }
+
+    // --- ClientMetricsMXBean ---
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        roundTrip.forEach((command, h) -> {
+            if (h.getCount() > 0) result.put(command.name(), h.getCount());
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getRoundTripP50Millis() {
+        return perCommand(roundTrip, h -> toMillis(h.getPercentileNanos(50)));
+    }
+
+    @Override
+    public Map<String, Double> getRoundTripP99Millis() {
+        return perCommand(roundTrip, h -> toMillis(h.getPercentileNanos(99)));
+    }
+
+    @Override
+    public Map<String, Double> getRoundTripMaxMillis() {
+        return perCommand(roundTrip, h -> toMillis(h.getMaxNanos()));
+    }
+
+    @Override
+    public Map<String, Double> getDecodeP99Millis() {
+        return perCommand(decode, h -> toMillis(h.getPercentileNanos(99)));
+    }
+
+    @Override
+    public double getEnvelopeParseP99Millis() {
+        return toMillis(envelopeParse.getPercentileNanos(99));
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return perChannel(bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return perChannel(bytesOut);
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        queueGauges.forEach((name, gauge) -> {
+            int depth = gauge.getAsInt();
+            observeQueueDepth(name, depth);
+            result.put(name, depth);
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueMaxDepths() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        queueMaxDepths.forEach((name, max) -> result.put(name, max.get()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+        return result;
+    }
+
+    @Override
+    public long getFileTransferCount() {
+        return transferCount.sum();
+    }
+
+    @Override
+    public long getFileTransferBytes() {
+        return transferBytes.sum();
+    }
+
+    @Override
+    public double getFileTransferAverageMBps() {
+        return toMBps(transferBytes.sum(), transferNanos.sum());
+    }
+
+    @Override
+    public double getFileTransferLastMBps() {
+        return lastTransferMBps;
+    }
+
+    @Override
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder("--- Client metrics ---\n");
+        sb.append(String.format("%-28s %8s %10s %10s %10s %10s%n", "command", "count", "p50 ms", "p99 ms", "max ms", "decode p99"));
+        for (Command command : Command.values()) {
+            LatencyHistogram h = roundTrip.get(command);
+            if (h.getCount() == 0) continue;
+            sb.append(String.format("%-28s %8d %10.2f %10.2f %10.2f %10.2f%n", command, h.getCount(),
+                    toMillis(h.getPercentileNanos(50)), toMillis(h.getPercentileNanos(99)),
+                    toMillis(h.getMaxNanos()), toMillis(decode.get(command).getPercentileNanos(99))));
+        }
+        sb.append(String.format("envelope parse p99: %.3f ms over %d responses%n",
+                getEnvelopeParseP99Millis(), envelopeParse.getCount()));
+        sb.append("bytes in: ").append(getBytesIn()).append(", bytes out: ").append(getBytesOut()).append('\n');
+        sb.append("queues: ").append(getQueueDepths()).append(" (max ").append(getQueueMaxDepths()).append(")\n");
+        if (!gauges.isEmpty()) {
+            sb.append("gauges: ").append(getGauges()).append('\n');
+        }
+        sb.append(String.format("file transfers: %d, %d bytes, avg %.2f MB/s, last %.2f MB/s",
+                getFileTransferCount(), getFileTransferBytes(), getFileTransferAverageMBps(), getFileTransferLastMBps()));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        roundTrip.values().forEach(LatencyHistogram::reset);
+        decode.values().forEach(LatencyHistogram::reset);
+        envelopeParse.reset();
+        bytesIn.values().forEach(LongAdder::reset);
+        bytesOut.values().forEach(LongAdder::reset);
+        queueMaxDepths.values().forEach(max -> max.set(0));
+        transferCount.reset();
+        transferBytes.reset();
+        transferNanos.reset();
+        lastTransferMBps = 0;
+    }
+
+    private static Map<String, Double> perCommand(Map<Command, LatencyHistogram> histograms, ToDoubleFunction<LatencyHistogram> value) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        histograms.forEach((command, h) -> {
+            if (h.getCount() > 0) result.put(command.name(), value.applyAsDouble(h));
+        });
+        return result;
+    }
+
+    private static Map<String, Long> perChannel(Map<Channel, LongAdder> counters) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        counters.forEach((channel, counter) -> result.put(channel.name(), counter.sum()));
+        return result;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static double toMBps(long bytes, long nanos) {
+        return nanos <= 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+}
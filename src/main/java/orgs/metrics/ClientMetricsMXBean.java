@@ -0,0 +1,54 @@
+package orgs.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of ClientMetrics, registered as "orgs.metrics:type=ClientMetrics".
+ * Maps are keyed by Command name (latencies) or Channel name (traffic).
+ */
+public interface ClientMetricsMXBean {
+
+    /** Requests answered by the server, per Command. */
+    Map<String, Long> getRequestCounts();
+
+    /** Round trip from writing the request to receiving its response, per Command. */
+    Map<String, Double> getRoundTripP50Millis();
+
+    Map<String, Double> getRoundTripP99Millis();
+
+    Map<String, Double> getRoundTripMaxMillis();
+
+    /** Time spent in Gson turning a response's data into model objects, per Command. */
+    Map<String, Double> getDecodeP99Millis();
+
+    /** Time spent parsing the Response envelope of every line read from the server. */
+    double getEnvelopeParseP99Millis();
+
+    Map<String, Long> getBytesIn();
+
+    Map<String, Long> getBytesOut();
+
+    /** Current depth of every registered queue (e.g. responseQueue). */
+    Map<String, Integer> getQueueDepths();
+
+    /** Highest depth observed for every registered queue. */
+    Map<String, Integer> getQueueMaxDepths();
+
+    /** Current value of every registered gauge, e.g. the bandwidth limits in bytes per second. */
+    Map<String, Long> getGauges();
+
+    long getFileTransferCount();
+
+    long getFileTransferBytes();
+
+    /** Average throughput over all completed file transfers, in MB/s. */
+    double getFileTransferAverageMBps();
+
+    /** Throughput of the last completed file transfer, in MB/s. */
+    double getFileTransferLastMBps();
+
+    /** A human-readable dump of all metrics. */
+    String snapshot();
+
+    void reset();
+}
@@ -0,0 +1,36 @@
+package orgs.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream wrapper that adds every byte read to ClientMetrics' bytes-in counter of a channel.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final Channel channel;
+
+    public CountingInputStream(InputStream in, Channel channel) {
+        super(in);
+        this.channel = channel;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            ClientMetrics.get().addBytesIn(channel, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            ClientMetrics.get().addBytesIn(channel, n);
+        }
+        return n;
+    }
+}
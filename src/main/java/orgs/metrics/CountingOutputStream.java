@@ -0,0 +1,30 @@
+package orgs.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream wrapper that adds every byte written to ClientMetrics' bytes-out counter of a channel.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final Channel channel;
+
+    public CountingOutputStream(OutputStream out, Channel channel) {
+        super(out);
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        ClientMetrics.get().addBytesOut(channel, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len); // Bypass FilterOutputStream's byte-by-byte loop
+        ClientMetrics.get().addBytesOut(channel, len);
+    }
+}
@@ -12,6 +12,7 @@ public class Media {
     private LocalDateTime uploadedAt;
     private String fileName;
     private String transferId;
+    private String contentHash; // Hex SHA-256 of the file content
 
     public String getTransferId() {
         return transferId;
@@ -100,6 +101,14 @@ public class Media {
         this.uploadedAt = uploadedAt;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     //--------------------------
 
     public Media(Integer id, String filePathOrUrl, String thumbnailUrl, Long fileSize, String mediaType, int uploadedByUserId, LocalDateTime uploadedAt) {
@@ -128,6 +137,7 @@ public class Media {
                 ", mediaType='" + mediaType + '\'' +
                 ", uploadedByUserId=" + uploadedByUserId +
                 ", uploadedAt=" + uploadedAt +
+                ", contentHash='" + contentHash + '\'' +
                 '}';
     }
 }
@@ -33,6 +33,7 @@ public enum Command {
     MARK_MESSAGE_AS_READ,
     GET_FILE_BY_MEDIA,
     GET_CHAT_UNREADMESSAGES,
+    GET_MEDIA_BY_HASH,      // Asks whether media with this SHA-256 is already stored, to skip the upload
 
 
     // Chat Participant Management
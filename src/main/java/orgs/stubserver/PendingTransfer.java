@@ -0,0 +1,118 @@
+package orgs.stubserver;
+
+import orgs.transfer.TransferDigest;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A file transfer announced on the control port (READY_TO_RECEIVE_FILE or
+ * READY_TO_SEND_FILE) and waiting for the client to connect to the file port.
+ */
+class PendingTransfer {
+
+    private final boolean upload;
+    private final long size;
+    private final byte[] content;
+    // Uploads: the SHA-256 the client announced (may be null), and the digest of what arrived
+    private final String expectedSha256;
+    private final TransferDigest digest = new TransferDigest();
+    private final CompletableFuture<byte[]> received = new CompletableFuture<>();
+
+    // Resumable uploads: the bytes committed so far, kept across connections
+    private byte[] partial;
+    private long committed;
+    // Range downloads: the bytes served by completed ranges
+    private long served;
+
+    private PendingTransfer(boolean upload, long size, byte[] content, String expectedSha256) {
+        this.upload = upload;
+        this.size = size;
+        this.content = content;
+        this.expectedSha256 = expectedSha256;
+    }
+
+    /**
+     * @param size The announced size, or -1 for a stream of unknown length.
+     */
+    static PendingTransfer upload(long size, String expectedSha256) {
+        return new PendingTransfer(true, size, null, expectedSha256);
+    }
+
+    static PendingTransfer download(byte[] content) {
+        return new PendingTransfer(false, content.length, content, null);
+    }
+
+    boolean isUpload() {
+        return upload;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return The buffer a resumable upload is written into.
+     */
+    synchronized byte[] getPartial() {
+        if (partial == null) {
+            partial = new byte[(int) size];
+        }
+        return partial;
+    }
+
+    synchronized long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * Records newly committed bytes of a resumable upload and digests them.
+     */
+    synchronized void setCommitted(long committed) {
+        digest.update(this.committed, ByteBuffer.wrap(partial, (int) this.committed, (int) (committed - this.committed)));
+        this.committed = committed;
+    }
+
+    /**
+     * Digests uploaded bytes as they arrive on the file port, in order.
+     */
+    synchronized void digest(long position, byte[] bytes, int length) {
+        digest.update(position, ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    /**
+     * Finishes the digest of an upload.
+     * @return The SHA-256 of the received bytes, for the acknowledgement.
+     * @throws TransferDigest.MismatchException If the client announced a different one.
+     */
+    synchronized String verify() throws TransferDigest.MismatchException {
+        return digest.verify(expectedSha256);
+    }
+
+    /**
+     * @return The bytes served by completed ranges, including this one.
+     */
+    synchronized long addServed(long bytes) {
+        served += bytes;
+        return served;
+    }
+
+    /**
+     * @return Completed with the uploaded bytes once the client has sent them.
+     */
+    CompletableFuture<byte[]> getReceived() {
+        return received;
+    }
+
+    void complete(byte[] bytes) {
+        received.complete(bytes);
+    }
+
+    void fail(Throwable cause) {
+        received.completeExceptionally(cause);
+    }
+}
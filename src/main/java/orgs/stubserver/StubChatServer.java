@@ -0,0 +1,377 @@
+package orgs.stubserver;
+
+import orgs.transfer.ChunkedTransfer;
+import orgs.transfer.ParallelDownload;
+import orgs.transfer.TransferDigest;
+import orgs.transfer.ZeroCopy;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * In-process stand-in for the chat server, for tests and benchmarks that must run
+ * without the staging server. It speaks the same wire protocol as the real server:
+ * newline-delimited Request/Response JSON on the control port, and on the file port
+ * a transferId line followed by the raw file bytes. Transfers are announced as
+ * resumable, so the file port also accepts the ChunkedTransfer protocol, uploads of
+ * unknown length as ChunkedTransfer streams, and downloads the RANGE requests of
+ * ParallelDownload.
+ *
+ * State lives in memory (StubStore) and every control response can be delayed by a
+ * configurable artificial latency, so client-side costs can be measured against a
+ * known, repeatable server time.
+ *
+ * Usage:
+ *   try (StubChatServer server = new StubChatServer(0, 0).setLatency(5, 2).start()) {
+ *       System.setProperty("tusal.server.host", "127.0.0.1");
+ *       System.setProperty("tusal.server.port", String.valueOf(server.getControlPort()));
+ *       System.setProperty("tusal.file.port", String.valueOf(server.getFilePort()));
+ *       ...
+ *   }
+ */
+public class StubChatServer implements AutoCloseable {
+
+    // Streams are held in memory until they end
+    private static final long MAX_STREAM_BYTES = 512L * 1024 * 1024;
+
+    private final ServerSocket controlServerSocket;
+    private final ServerSocket fileServerSocket;
+    private final StubStore store;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Open control connections, used to push "New message received" to other participants
+    private final Set<StubConnection> connections = ConcurrentHashMap.newKeySet();
+    // Map: <TransferId, PendingTransfer> announced on the control port, claimed on the file port
+    private final ConcurrentMap<String, PendingTransfer> transfers = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile boolean running;
+
+    /**
+     * Binds both ports. Use 0 to let the OS pick free ports.
+     * @param controlPort The port for the JSON control protocol (6373 on the real server).
+     * @param filePort The port for file transfers (6374 on the real server).
+     * @throws IOException If a port cannot be bound.
+     */
+    public StubChatServer(int controlPort, int filePort) throws IOException {
+        this(controlPort, filePort, true);
+    }
+
+    /**
+     * @param autoRegister When true, LOGIN with an unknown phone number creates the user,
+     *                     which lets load tests log in any number of sessions.
+     */
+    public StubChatServer(int controlPort, int filePort, boolean autoRegister) throws IOException {
+        this.controlServerSocket = new ServerSocket(controlPort);
+        this.fileServerSocket = new ServerSocket(filePort);
+        this.store = new StubStore(autoRegister);
+    }
+
+    /**
+     * Sets the artificial delay added before every control response.
+     * @param latencyMillis The fixed part of the delay.
+     * @param jitterMillis A random extra delay in [0, jitterMillis].
+     * @return This server, for chaining.
+     */
+    public StubChatServer setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * Starts accepting control and file connections on background threads.
+     * @return This server, for chaining.
+     */
+    public StubChatServer start() {
+        running = true;
+        executor.submit(this::acceptControlConnections);
+        executor.submit(this::acceptFileConnections);
+        return this;
+    }
+
+    public int getControlPort() {
+        return controlServerSocket.getLocalPort();
+    }
+
+    public int getFilePort() {
+        return fileServerSocket.getLocalPort();
+    }
+
+    StubStore getStore() {
+        return store;
+    }
+
+    Set<StubConnection> getConnections() {
+        return connections;
+    }
+
+    void simulateLatency() throws InterruptedException {
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Registers a transfer announced on the control port.
+     * @return The transfer id the client must send first on the file port.
+     */
+    String registerTransfer(PendingTransfer transfer) {
+        String transferId = UUID.randomUUID().toString();
+        transfers.put(transferId, transfer);
+        return transferId;
+    }
+
+    void cancelTransfer(String transferId) {
+        transfers.remove(transferId);
+    }
+
+    private void acceptControlConnections() {
+        while (running) {
+            try {
+                Socket socket = controlServerSocket.accept();
+                StubConnection connection = new StubConnection(this, socket);
+                connections.add(connection);
+                executor.submit(() -> {
+                    try {
+                        connection.run();
+                    } finally {
+                        connections.remove(connection);
+                    }
+                });
+            } catch (SocketException e) {
+                break; // Server socket closed
+            } catch (IOException e) {
+                System.err.println("Stub server failed to accept control connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void acceptFileConnections() {
+        while (running) {
+            try {
+                Socket socket = fileServerSocket.accept();
+                executor.submit(() -> handleFileConnection(socket));
+            } catch (SocketException e) {
+                break; // Server socket closed
+            } catch (IOException e) {
+                System.err.println("Stub server failed to accept file connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleFileConnection(Socket socket) {
+        try (socket;
+             InputStream is = new BufferedInputStream(socket.getInputStream());
+             OutputStream os = new BufferedOutputStream(socket.getOutputStream())) {
+            String transferId = readLine(is);
+            ChunkedTransfer.Resume resume = ChunkedTransfer.Resume.parse(transferId);
+            if (resume != null) {
+                // Unbuffered out: every ACK must reach the client before the next chunk is read
+                handleResume(resume, Channels.newChannel(is), Channels.newChannel(socket.getOutputStream()));
+                return;
+            }
+            String streamId = ChunkedTransfer.parseStreamLine(transferId);
+            if (streamId != null) {
+                handleStream(streamId, Channels.newChannel(is), Channels.newChannel(socket.getOutputStream()));
+                return;
+            }
+            ParallelDownload.RangeRequest range = ParallelDownload.RangeRequest.parse(transferId);
+            if (range != null) {
+                handleRanges(range, is, os);
+                return;
+            }
+            PendingTransfer transfer = transferId == null ? null : transfers.remove(transferId);
+            if (transfer == null) {
+                os.write("UNKNOWN_TRANSFER_ID\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (transfer.isUpload()) {
+                receiveUpload(transfer, is, os);
+            } else {
+                os.write(transfer.getContent());
+            }
+            os.flush();
+        } catch (IOException e) {
+            System.err.println("Stub server file transfer failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the raw bytes of an upload, digesting them as they arrive, and answers with the
+     * digest, or FILE_RECEIVED_FAILED if the bytes are short or not what the client announced.
+     */
+    private void receiveUpload(PendingTransfer transfer, InputStream is, OutputStream os) throws IOException {
+        if (transfer.getSize() < 0) {
+            transfer.fail(new ProtocolException("Upload of unknown length sent without STREAM"));
+            os.write((TransferDigest.FAILED + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] content = new byte[(int) transfer.getSize()];
+        byte[] buffer = new byte[64 * 1024];
+        int received = 0;
+        int n;
+        while (received < content.length && (n = is.read(buffer, 0, Math.min(buffer.length, content.length - received))) > 0) {
+            transfer.digest(received, buffer, n);
+            System.arraycopy(buffer, 0, content, received, n);
+            received += n;
+        }
+        try {
+            if (received < content.length) {
+                throw new EOFException("Expected " + transfer.getSize() + " bytes, received " + received);
+            }
+            String sha256 = transfer.verify();
+            transfer.complete(content);
+            os.write((TransferDigest.successLine(sha256) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            transfer.fail(e);
+            os.write((TransferDigest.FAILED + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Serves a resumable transfer (see ChunkedTransfer). The transfer stays registered
+     * until all of its bytes have been moved, so the client can reconnect and continue.
+     */
+    private void handleResume(ChunkedTransfer.Resume resume, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        PendingTransfer transfer = transfers.get(resume.getTransferId());
+        if (transfer == null || resume.getOffset() < 0 || resume.getOffset() > transfer.getSize()) {
+            ZeroCopy.writeLine(out, ChunkedTransfer.UNKNOWN_TRANSFER_ID);
+            return;
+        }
+        if (transfer.isUpload()) {
+            byte[] partial = transfer.getPartial();
+            ZeroCopy.writeLine(out, ChunkedTransfer.offsetLine(transfer.getCommitted()));
+            ChunkedTransfer.receiveChunks(in, out, (position, data) -> data.get(partial, (int) position, data.remaining()),
+                    transfer.getCommitted(), transfer.getSize(), transfer::setCommitted);
+            String sha256;
+            try {
+                sha256 = transfer.verify();
+            } catch (TransferDigest.MismatchException e) {
+                if (transfers.remove(resume.getTransferId(), transfer)) {
+                    transfer.fail(e);
+                }
+                ZeroCopy.writeLine(out, TransferDigest.FAILED);
+                return;
+            }
+            if (transfers.remove(resume.getTransferId(), transfer)) {
+                transfer.complete(partial);
+            }
+            ZeroCopy.writeLine(out, TransferDigest.successLine(sha256));
+        } else {
+            ZeroCopy.writeLine(out, ChunkedTransfer.offsetLine(resume.getOffset()));
+            ChunkedTransfer.sendChunks(in, out, ChunkedTransfer.source(transfer.getContent()),
+                    resume.getOffset(), transfer.getSize(), committed -> { });
+            transfers.remove(resume.getTransferId(), transfer);
+        }
+    }
+
+    /**
+     * Receives an upload sent as a ChunkedTransfer stream, digesting it as it arrives, and
+     * answers like receiveUpload. A stream that ends short of an announced size fails.
+     */
+    private void handleStream(String transferId, ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        PendingTransfer transfer = transfers.remove(transferId);
+        if (transfer == null || !transfer.isUpload()) {
+            ZeroCopy.writeLine(out, ChunkedTransfer.UNKNOWN_TRANSFER_ID);
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            long maxSize = transfer.getSize() >= 0 ? transfer.getSize() : MAX_STREAM_BYTES;
+            long length = ChunkedTransfer.receiveStream(in, out, (position, data) -> {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                transfer.digest(position, bytes, bytes.length);
+                content.write(bytes, 0, bytes.length);
+            }, maxSize, committed -> { });
+            if (transfer.getSize() >= 0 && length != transfer.getSize()) {
+                throw new EOFException("Expected " + transfer.getSize() + " bytes, received " + length);
+            }
+            String sha256 = transfer.verify();
+            transfer.complete(content.toByteArray());
+            ZeroCopy.writeLine(out, TransferDigest.successLine(sha256));
+        } catch (IOException e) {
+            transfer.fail(e);
+            ZeroCopy.writeLine(out, TransferDigest.FAILED);
+        }
+    }
+
+    /**
+     * Serves the ranges one ParallelDownload connection asks for, one RANGE line at a time,
+     * until the client closes the connection. The transfer is unregistered once ranges adding
+     * up to its size have been served.
+     */
+    private void handleRanges(ParallelDownload.RangeRequest range, InputStream is, OutputStream os) throws IOException {
+        while (range != null) {
+            PendingTransfer transfer = transfers.get(range.getTransferId());
+            long end = range.getOffset() + range.getLength();
+            if (transfer == null || transfer.isUpload() || range.getOffset() < 0 || range.getLength() <= 0 || end > transfer.getSize()) {
+                os.write("UNKNOWN_TRANSFER_ID\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            os.write(transfer.getContent(), (int) range.getOffset(), (int) range.getLength());
+            os.flush();
+            if (transfer.addServed(range.getLength()) >= transfer.getSize()) {
+                transfers.remove(range.getTransferId(), transfer);
+            }
+            range = ParallelDownload.RangeRequest.parse(readLine(is));
+        }
+    }
+
+    /**
+     * Reads the transferId line byte by byte so no file bytes are consumed with it.
+     */
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = is.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return b == -1 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            controlServerSocket.close();
+            fileServerSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing stub server sockets: " + e.getMessage());
+        }
+        connections.forEach(StubConnection::close);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the stub as a standalone process.
+     * Arguments: [controlPort=6373] [filePort=6374] [latencyMillis=0] [jitterMillis=0]
+     */
+    public static void main(String[] args) throws Exception {
+        int controlPort = args.length > 0 ? Integer.parseInt(args[0]) : 6373;
+        int filePort = args.length > 1 ? Integer.parseInt(args[1]) : 6374;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        long jitter = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        StubChatServer server = new StubChatServer(controlPort, filePort).setLatency(latency, jitter).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Stub chat server listening on control port " + server.getControlPort() +
+                " and file port " + server.getFilePort() + " (latency " + latency + "ms +/- " + jitter + "ms)");
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,290 @@
+package orgs.stubserver;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import orgs.model.*;
+import orgs.protocol.Command;
+import orgs.protocol.Request;
+import orgs.protocol.Response;
+import orgs.utils.LocalDateTimeAdapter;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One client's control connection to the StubChatServer. Reads Request lines,
+ * applies them to the StubStore and answers with the same Response messages
+ * the real server uses, so ChatClient's message checks keep working.
+ */
+class StubConnection implements Runnable {
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(java.time.LocalDateTime.class, new LocalDateTimeAdapter())
+            .serializeNulls()
+            .create();
+
+    private static final long UPLOAD_TIMEOUT_SECONDS = 60;
+
+    private final StubChatServer server;
+    private final StubStore store;
+    private final Socket socket;
+    private PrintWriter out;
+    private volatile User currentUser;
+
+    StubConnection(StubChatServer server, Socket socket) {
+        this.server = server;
+        this.store = server.getStore();
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                Request request = gson.fromJson(line, Request.class);
+                Response response = handle(request);
+                server.simulateLatency();
+                send(response);
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (currentUser != null) {
+                store.logout(currentUser);
+            }
+            close();
+        }
+    }
+
+    void send(Response response) {
+        synchronized (this) {
+            if (out != null) {
+                out.println(response.toJson());
+            }
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private Response handle(Request request) throws InterruptedException {
+        Command command = request.getCommand();
+        if (command == null) {
+            return fail("Unknown command.");
+        }
+        JsonObject data = request.getPayload() == null ? new JsonObject()
+                : JsonParser.parseString(request.getPayload()).getAsJsonObject();
+
+        if (command != Command.LOGIN && command != Command.REGISTER && currentUser == null) {
+            return fail("Authentication required.");
+        }
+        int userId = currentUser == null ? 0 : currentUser.getId();
+
+        switch (command) {
+            case REGISTER: {
+                User user = store.register(str(data, "phone_number"), str(data, "password"),
+                        str(data, "first_name"), str(data, "last_name"));
+                return user == null ? fail("Phone number already registered.") : ok("Registration successful!", user);
+            }
+            case LOGIN: {
+                User user = store.login(str(data, "phone_number"), str(data, "password"));
+                if (user == null) {
+                    return fail("Invalid phone number or password.");
+                }
+                currentUser = user;
+                return ok("Login successful!", user);
+            }
+            case LOGOUT:
+                store.logout(currentUser);
+                currentUser = null;
+                return ok("Logged out successfully.", null);
+
+            case GET_ALL_USERS:
+                return ok("All users retrieved.", store.getAllUsers());
+            case GET_USER_BY_ID: {
+                User user = store.getUser(integer(data, "user_id"));
+                return user == null ? fail("User not found.") : ok("User retrieved by id.", user);
+            }
+            case GET_USER_BY_PHONENUMBER: {
+                User user = store.getUserByPhone(str(data, "phone_number"));
+                return user == null ? fail("User not found.") : ok("User retrieved by phone number.", user);
+            }
+
+            case CREATE_CHAT: {
+                Chat chat = store.createChat(userId, str(data, "chat_type"), str(data, "chat_name"),
+                        str(data, "chat_description"), str(data, "public_link"));
+                return ok("Chat created successfully!", chat);
+            }
+            case GET_USER_CHATS:
+                return ok("All chats retrieved for user.", store.getUserChats(userId));
+            case GET_CHAT_BY_ID:
+            case GET_CHAT_DETAILS: {
+                Chat chat = store.getChat(integer(data, "chat_id"));
+                return chat == null ? fail("Chat not found.") : ok("Chat retrieved by id.", chat);
+            }
+            case DELETE_CHAT:
+                return store.deleteChat(integer(data, "chatId")) ? ok("Chat deleted successfully.", null) : fail("Chat not found.");
+
+            case ADD_CHAT_PARTICIPANT: {
+                ChatParticipant p = store.addParticipant(integer(data, "chat_id"), integer(data, "user_id"), str(data, "role"));
+                return p == null ? fail("Failed to add participant.") : ok("Participant added successfully.", p);
+            }
+            case GET_CHAT_PARTICIPANTS:
+                return ok("Chat participants retrieved.", store.getParticipants(integer(data, "chat_id")));
+            case UPDATE_CHAT_PARTICIPANT_ROLE:
+                return store.updateParticipantRole(integer(data, "chat_id"), integer(data, "user_id"), str(data, "new_role"))
+                        ? ok("Participant role updated.", null) : fail("Participant not found.");
+            case REMOVE_CHAT_PARTICIPANT:
+                return store.removeParticipant(integer(data, "chat_id"), integer(data, "user_id"))
+                        ? ok("Participant removed.", null) : fail("Participant not found.");
+
+            case SEND_MESSAGE:
+                return sendMessage(data, userId);
+            case GET_CHAT_MESSAGES:
+                return ok("Messages retrieved.", store.getMessages(integer(data, "chat_id"), integer(data, "limit"), integer(data, "offset")));
+            case GET_CHAT_UNREADMESSAGES:
+                return ok("Messages retrieved.", store.getMessagesAfter(integer(data, "chat_id"), integer(data, "lastMessageId")));
+            case UPDATE_MESSAGE:
+                return store.updateMessage(integer(data, "message_id"), userId, str(data, "new_content"))
+                        ? ok("Message updated successfully.", null) : fail("Message not found or not yours.");
+            case DELETE_MESSAGE:
+                return store.deleteMessage(integer(data, "message_id"), userId)
+                        ? ok("Message deleted successfully.", null) : fail("Message not found or not yours.");
+            case MARK_MESSAGE_AS_READ:
+                return store.markMessageAsRead(integer(data, "message_id"), userId)
+                        ? ok("Message marked as read.", null) : fail("Message not found.");
+            case GET_FILE_BY_MEDIA:
+                return prepareDownload(integer(data, "mediaId"));
+            case GET_MEDIA_BY_HASH: {
+                JsonElement size = data.get("file_size");
+                Media media = store.findMediaByHash(str(data, "content_hash"), size == null ? -1 : size.getAsLong());
+                return media == null ? fail("Media not found.") : ok("Media found.", media);
+            }
+
+            case ADD_CONTACT:
+                return store.addContact(userId, integer(data, "contact_user_id")) ? ok("Contact added.", null) : fail("Failed to add contact.");
+            case GET_CONTACTS:
+                return ok("User contacts retrieved.", store.getContacts(userId));
+            case REMOVE_CONTACT:
+                return store.removeContact(userId, integer(data, "contact_user_id")) ? ok("Contact removed.", null) : fail("Contact not found.");
+
+            case MY_NOTIFICATIONS:
+                return ok("User notifications retrieved.", store.getNotifications(userId));
+            case MARK_NOTIFICATION_AS_READ:
+                return store.markNotificationAsRead(userId, integer(data, "notification_id"))
+                        ? ok("Notification marked as read.", null) : fail("Notification not found.");
+            case DELETE_NOTIFICATION:
+                return store.deleteNotification(userId, integer(data, "notification_id"))
+                        ? ok("Notification deleted.", null) : fail("Notification not found.");
+
+            default:
+                return fail("Command not supported by stub server: " + command);
+        }
+    }
+
+    /**
+     * Text messages are stored right away. Media messages first answer READY_TO_RECEIVE_FILE,
+     * then wait for the bytes on the file port before storing the message, like the real server.
+     * Messages with an existing_media_id reference media found with GET_MEDIA_BY_HASH and
+     * need no transfer.
+     */
+    private Response sendMessage(JsonObject data, int userId) throws InterruptedException {
+        int chatId = integer(data, "chat_id");
+        if (store.getChat(chatId) == null || !store.isParticipant(chatId, userId)) {
+            return fail("Chat not found or you are not a participant.");
+        }
+        Media storedMedia = null;
+        JsonElement mediaJson = data.get("media");
+        int existingMediaId = integer(data, "existing_media_id");
+        if (existingMediaId != 0) {
+            storedMedia = store.getMedia(existingMediaId);
+            if (storedMedia == null) {
+                return fail("Media not found.");
+            }
+        } else if (mediaJson != null && !mediaJson.isJsonNull()) {
+            Media incoming = gson.fromJson(mediaJson, Media.class);
+            // Unknown for a stream, which then arrives as a ChunkedTransfer stream
+            long size = incoming.getFileSize() == null ? -1 : incoming.getFileSize();
+            PendingTransfer transfer = PendingTransfer.upload(size, incoming.getContentHash());
+            String transferId = server.registerTransfer(transfer);
+            Map<String, Object> ready = new HashMap<>();
+            ready.put("transfer_id", transferId);
+            ready.put("resumable", true);
+            ready.put("streamed", true);
+            send(new Response(true, "READY_TO_RECEIVE_FILE", gson.toJson(ready)));
+            try {
+                byte[] content = transfer.getReceived().get(UPLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                incoming.setFileSize((long) content.length);
+                storedMedia = store.addMedia(incoming, userId, "stub/" + transferId + "/" + incoming.getFileName());
+                store.putMediaContent(storedMedia.getId(), content);
+            } catch (ExecutionException | TimeoutException e) {
+                server.cancelTransfer(transferId);
+                return fail("File transfer failed: " + e.getMessage());
+            }
+        }
+        Message message = store.addMessage(chatId, userId, str(data, "content"), storedMedia);
+        pushNewMessage(message);
+        return ok("Message sent successfully!", message);
+    }
+
+    private Response prepareDownload(int mediaId) {
+        Media media = store.getMedia(mediaId);
+        byte[] content = media == null ? null : store.getMediaContent(mediaId);
+        if (content == null) {
+            return fail("Media not found.");
+        }
+        String transferId = server.registerTransfer(PendingTransfer.download(content));
+        Map<String, Object> ready = new HashMap<>();
+        ready.put("transfer_id", transferId);
+        ready.put("fileSize", content.length);
+        ready.put("resumable", true);
+        ready.put("ranges", true);
+        ready.put("sha256", media.getContentHash());
+        return new Response(true, "READY_TO_SEND_FILE", gson.toJson(ready));
+    }
+
+    private void pushNewMessage(Message message) {
+        Response push = ok("New message received", message);
+        for (StubConnection connection : server.getConnections()) {
+            User user = connection.currentUser;
+            if (connection != this && user != null && store.isParticipant(message.getChatId(), user.getId())) {
+                connection.send(push);
+            }
+        }
+    }
+
+    private static Response ok(String message, Object data) {
+        return new Response(true, message, data == null ? null : gson.toJson(data));
+    }
+
+    private static Response fail(String message) {
+        return new Response(false, message, null);
+    }
+
+    private static String str(JsonObject data, String key) {
+        JsonElement e = data.get(key);
+        return e == null || e.isJsonNull() ? null : e.getAsString();
+    }
+
+    private static int integer(JsonObject data, String key) {
+        JsonElement e = data.get(key);
+        return e == null || e.isJsonNull() ? 0 : e.getAsInt();
+    }
+}
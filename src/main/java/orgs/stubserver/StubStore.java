@@ -0,0 +1,309 @@
+package orgs.stubserver;
+
+import orgs.model.*;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory replacement for the server's database tables. All methods are
+ * synchronized; the stub is meant for deterministic tests and benchmarks,
+ * not for measuring the real server's storage layer.
+ */
+class StubStore {
+
+    private final boolean autoRegister;
+
+    private final Map<Integer, User> users = new LinkedHashMap<>();
+    private final Map<String, User> usersByPhone = new HashMap<>();
+    private final Map<Integer, Chat> chats = new LinkedHashMap<>();
+    private final Map<Integer, List<ChatParticipant>> participants = new HashMap<>();
+    private final Map<Integer, List<Message>> messages = new HashMap<>();
+    private final Map<Integer, Message> messagesById = new HashMap<>();
+    private final Map<Integer, Media> media = new HashMap<>();
+    private final Map<Integer, byte[]> mediaContent = new HashMap<>();
+    private final Map<Integer, Set<Integer>> contacts = new HashMap<>();
+    private final Map<Integer, List<Notification>> notifications = new HashMap<>();
+
+    private int nextUserId = 1;
+    private int nextChatId = 1;
+    private int nextParticipantId = 1;
+    private int nextMessageId = 1;
+    private int nextMediaId = 1;
+    private int nextNotificationId = 1;
+
+    StubStore(boolean autoRegister) {
+        this.autoRegister = autoRegister;
+    }
+
+    // --- Users ---
+
+    synchronized User register(String phoneNumber, String password, String firstName, String lastName) {
+        if (usersByPhone.containsKey(phoneNumber)) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        User user = new User(nextUserId++, phoneNumber, phoneNumber, firstName, lastName, password,
+                null, null, false, now, now, now);
+        users.put(user.getId(), user);
+        usersByPhone.put(phoneNumber, user);
+        return user;
+    }
+
+    /**
+     * @return The user when the credentials match, or when auto registration is enabled
+     *         and the phone number is unknown; null otherwise.
+     */
+    synchronized User login(String phoneNumber, String password) {
+        User user = usersByPhone.get(phoneNumber);
+        if (user == null && autoRegister) {
+            user = register(phoneNumber, password, "Stub", phoneNumber);
+        }
+        if (user == null || !Objects.equals(user.getPassword(), password)) {
+            return null;
+        }
+        user.setOnline(true);
+        return user;
+    }
+
+    synchronized void logout(User user) {
+        user.setOnline(false);
+        user.setLastSeenAt(LocalDateTime.now());
+    }
+
+    synchronized User getUser(int id) {
+        return users.get(id);
+    }
+
+    synchronized User getUserByPhone(String phoneNumber) {
+        return usersByPhone.get(phoneNumber);
+    }
+
+    synchronized List<User> getAllUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    // --- Chats ---
+
+    synchronized Chat createChat(int creatorId, String chatType, String chatName, String chatDescription, String publicLink) {
+        LocalDateTime now = LocalDateTime.now();
+        Chat chat = new Chat(nextChatId++, chatType, chatName, null, chatDescription, publicLink, creatorId, now, now);
+        chats.put(chat.getId(), chat);
+        addParticipant(chat.getId(), creatorId, "creator");
+        return chat;
+    }
+
+    synchronized Chat getChat(int chatId) {
+        return chats.get(chatId);
+    }
+
+    synchronized List<Chat> getUserChats(int userId) {
+        return chats.values().stream()
+                .filter(c -> isParticipant(c.getId(), userId))
+                .collect(Collectors.toList());
+    }
+
+    synchronized boolean deleteChat(int chatId) {
+        participants.remove(chatId);
+        List<Message> removed = messages.remove(chatId);
+        if (removed != null) {
+            removed.forEach(m -> messagesById.remove(m.getId()));
+        }
+        return chats.remove(chatId) != null;
+    }
+
+    synchronized ChatParticipant addParticipant(int chatId, int userId, String role) {
+        if (!chats.containsKey(chatId) || !users.containsKey(userId) || isParticipant(chatId, userId)) {
+            return null;
+        }
+        ChatParticipant participant = new ChatParticipant(nextParticipantId++, chatId, userId, role, 0, null, LocalDateTime.now());
+        participants.computeIfAbsent(chatId, k -> new ArrayList<>()).add(participant);
+        return participant;
+    }
+
+    synchronized List<ChatParticipant> getParticipants(int chatId) {
+        return new ArrayList<>(participants.getOrDefault(chatId, Collections.emptyList()));
+    }
+
+    synchronized boolean updateParticipantRole(int chatId, int userId, String role) {
+        for (ChatParticipant p : participants.getOrDefault(chatId, Collections.emptyList())) {
+            if (p.getUserId() == userId) {
+                p.setRole(role);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean removeParticipant(int chatId, int userId) {
+        List<ChatParticipant> list = participants.get(chatId);
+        return list != null && list.removeIf(p -> p.getUserId() == userId);
+    }
+
+    synchronized boolean isParticipant(int chatId, int userId) {
+        return participants.getOrDefault(chatId, Collections.emptyList()).stream().anyMatch(p -> p.getUserId() == userId);
+    }
+
+    // --- Messages & Media ---
+
+    synchronized Message addMessage(int chatId, int senderId, String content, Media attachedMedia) {
+        Message message = new Message(nextMessageId++, chatId, senderId, content,
+                attachedMedia == null ? "text" : attachedMedia.getMediaType(), LocalDateTime.now(),
+                attachedMedia == null ? null : attachedMedia.getId(), null, null, null, null, false, 0);
+        message.setMedia(attachedMedia);
+        messages.computeIfAbsent(chatId, k -> new ArrayList<>()).add(message);
+        messagesById.put(message.getId(), message);
+        for (ChatParticipant p : participants.getOrDefault(chatId, Collections.emptyList())) {
+            if (p.getUserId() != senderId) {
+                p.setUnreadCount(p.getUnreadCount() + 1);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Returns a page of a chat's messages, newest first, like the real server.
+     */
+    synchronized List<Message> getMessages(int chatId, int limit, int offset) {
+        List<Message> all = messages.getOrDefault(chatId, Collections.emptyList());
+        List<Message> page = new ArrayList<>();
+        for (int i = all.size() - 1 - offset; i >= 0 && page.size() < limit; i--) {
+            page.add(all.get(i));
+        }
+        return page;
+    }
+
+    synchronized List<Message> getMessagesAfter(int chatId, int lastMessageId) {
+        return messages.getOrDefault(chatId, Collections.emptyList()).stream()
+                .filter(m -> m.getId() > lastMessageId)
+                .collect(Collectors.toList());
+    }
+
+    synchronized Message getMessage(int messageId) {
+        return messagesById.get(messageId);
+    }
+
+    synchronized boolean updateMessage(int messageId, int userId, String newContent) {
+        Message message = messagesById.get(messageId);
+        if (message == null || message.getSenderId() != userId) {
+            return false;
+        }
+        message.setContent(newContent);
+        message.setEditedAt(LocalDateTime.now());
+        return true;
+    }
+
+    synchronized boolean deleteMessage(int messageId, int userId) {
+        Message message = messagesById.get(messageId);
+        if (message == null || message.getSenderId() != userId) {
+            return false;
+        }
+        messagesById.remove(messageId);
+        messages.getOrDefault(message.getChatId(), new ArrayList<>()).remove(message);
+        return true;
+    }
+
+    synchronized boolean markMessageAsRead(int messageId, int userId) {
+        Message message = messagesById.get(messageId);
+        if (message == null) {
+            return false;
+        }
+        message.setViewCount(message.getViewCount() + 1);
+        for (ChatParticipant p : participants.getOrDefault(message.getChatId(), Collections.emptyList())) {
+            if (p.getUserId() == userId) {
+                p.setLastReadMessageId(messageId);
+                p.setUnreadCount(0);
+            }
+        }
+        return true;
+    }
+
+    synchronized Media addMedia(Media incoming, int uploaderId, String path) {
+        Media stored = new Media(nextMediaId++, path, incoming.getThumbnailUrl(), incoming.getFileSize(),
+                incoming.getMediaType(), uploaderId, LocalDateTime.now(), incoming.getFileName());
+        media.put(stored.getId(), stored);
+        return stored;
+    }
+
+    synchronized Media getMedia(int mediaId) {
+        return media.get(mediaId);
+    }
+
+    /**
+     * Stores the content of a media and records its SHA-256, computed here rather than
+     * trusted from the client, so GET_MEDIA_BY_HASH only ever matches real content.
+     */
+    synchronized void putMediaContent(int mediaId, byte[] content) {
+        mediaContent.put(mediaId, content);
+        Media stored = media.get(mediaId);
+        if (stored != null) {
+            stored.setContentHash(sha256(content));
+        }
+    }
+
+    synchronized Media findMediaByHash(String contentHash, long size) {
+        for (Media m : media.values()) {
+            if (contentHash.equalsIgnoreCase(m.getContentHash()) && m.getFileSize() != null && m.getFileSize() == size) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized byte[] getMediaContent(int mediaId) {
+        return mediaContent.get(mediaId);
+    }
+
+    // --- Contacts & Notifications ---
+
+    synchronized boolean addContact(int userId, int contactUserId) {
+        return users.containsKey(contactUserId) && contacts.computeIfAbsent(userId, k -> new LinkedHashSet<>()).add(contactUserId);
+    }
+
+    synchronized boolean removeContact(int userId, int contactUserId) {
+        Set<Integer> set = contacts.get(userId);
+        return set != null && set.remove(contactUserId);
+    }
+
+    synchronized List<User> getContacts(int userId) {
+        return contacts.getOrDefault(userId, Collections.emptySet()).stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    synchronized void addNotification(int recipientUserId, String text, String eventType, Integer relatedChatId) {
+        notifications.computeIfAbsent(recipientUserId, k -> new ArrayList<>())
+                .add(new Notification(nextNotificationId++, recipientUserId, text, eventType, relatedChatId, false, LocalDateTime.now()));
+    }
+
+    synchronized List<Notification> getNotifications(int userId) {
+        return new ArrayList<>(notifications.getOrDefault(userId, Collections.emptyList()));
+    }
+
+    synchronized boolean markNotificationAsRead(int userId, int notificationId) {
+        for (Notification n : notifications.getOrDefault(userId, Collections.emptyList())) {
+            if (n.getId() == notificationId) {
+                n.setRead(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized boolean deleteNotification(int userId, int notificationId) {
+        List<Notification> list = notifications.get(userId);
+        return list != null && list.removeIf(n -> n.getId() == notificationId);
+    }
+}
@@ -0,0 +1,57 @@
+package orgs.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed section of work, recorded into the Tracer when closed.
+ * Use with try-with-resources:
+ *   try (Span span = Tracer.get().start("serialize", "request")) {
+ *       ...
+ *   }
+ * Spans on the same thread nest by time, which is how Chrome's trace viewer draws them.
+ */
+public final class Span implements AutoCloseable {
+
+    /** Returned while tracing is disabled; records nothing. */
+    static final Span NOOP = new Span(null, null, null, 0);
+
+    private final Tracer tracer;
+    private final String name;
+    private final String category;
+    private final long startNanos;
+    private final Thread thread;
+    private Map<String, Object> args;
+    private boolean closed;
+
+    Span(Tracer tracer, String name, String category, long startNanos) {
+        this.tracer = tracer;
+        this.name = name;
+        this.category = category;
+        this.startNanos = startNanos;
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Attaches an argument shown in the trace viewer's details pane (e.g. the Command or a byte count).
+     * @return This span, for chaining.
+     */
+    public Span arg(String key, Object value) {
+        if (tracer != null) {
+            if (args == null) {
+                args = new LinkedHashMap<>(4);
+            }
+            args.put(key, value);
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (tracer != null && !closed) {
+            closed = true;
+            tracer.record(new TraceEvent(name, category, startNanos, System.nanoTime() - startNanos,
+                    thread.threadId(), thread.getName(), args));
+        }
+    }
+}
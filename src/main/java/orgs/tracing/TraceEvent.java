@@ -0,0 +1,58 @@
+package orgs.tracing;
+
+import java.util.Map;
+
+/**
+ * A completed span as stored in the Tracer's buffer.
+ */
+public final class TraceEvent {
+
+    private final String name;
+    private final String category;
+    private final long startNanos;
+    private final long durationNanos;
+    private final long threadId;
+    private final String threadName;
+    private final Map<String, Object> args;
+
+    TraceEvent(String name, String category, long startNanos, long durationNanos,
+               long threadId, String threadName, Map<String, Object> args) {
+        this.name = name;
+        this.category = category;
+        this.startNanos = startNanos;
+        this.durationNanos = durationNanos;
+        this.threadId = threadId;
+        this.threadName = threadName;
+        this.args = args;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    /** System.nanoTime() at the start of the span. */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /** Arguments attached with Span.arg(), or null if there are none. */
+    public Map<String, Object> getArgs() {
+        return args;
+    }
+}
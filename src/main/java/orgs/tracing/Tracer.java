@@ -0,0 +1,186 @@
+package orgs.tracing;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import orgs.logging.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lightweight span tracer (Singleton). Completed spans go into a fixed-size ring buffer
+ * that keeps the most recent events, so tracing can stay on for a whole session without
+ * growing memory; recording is one atomic increment and one array store.
+ *
+ * The buffer can be exported in Chrome trace_event JSON ("complete" events, ph = "X"),
+ * which chrome://tracing and https://ui.perfetto.dev open directly. Each thread gets its
+ * own track, so a request shows its serialize/write/await phases on the calling thread
+ * and the envelope parse, decode and listener callbacks on the ServerListener thread.
+ *
+ * System properties:
+ *   tusal.trace.enabled  - "false" turns tracing off (default on).
+ *   tusal.trace.capacity - number of events kept (default 65536).
+ *   tusal.trace.file     - if set, the trace is written to this file when the JVM exits.
+ */
+public final class Tracer {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final Tracer INSTANCE = new Tracer(Integer.getInteger("tusal.trace.capacity", DEFAULT_CAPACITY));
+
+    static {
+        String traceFile = System.getProperty("tusal.trace.file");
+        if (traceFile != null && !traceFile.isBlank()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    INSTANCE.exportChromeTrace(Paths.get(traceFile));
+                } catch (IOException e) {
+                    Log.error("Failed to write trace to " + traceFile + ": " + e.getMessage());
+                }
+            }, "TraceExport"));
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<TraceEvent> events;
+    private final AtomicLong written = new AtomicLong();
+    private final long originNanos = System.nanoTime();
+    private volatile boolean enabled = Boolean.parseBoolean(System.getProperty("tusal.trace.enabled", "true"));
+
+    private Tracer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.events = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * @return The global tracer.
+     */
+    public static Tracer get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts a span on the current thread. Close it (try-with-resources) to record it.
+     * @param name What is being timed (e.g. "serialize", "file send").
+     * @param category Groups related spans (e.g. "request", "decode", "file", "call").
+     */
+    public Span start(String name, String category) {
+        return enabled ? new Span(this, name, category, System.nanoTime()) : Span.NOOP;
+    }
+
+    void record(TraceEvent event) {
+        long slot = written.getAndIncrement();
+        events.set((int) (slot % capacity), event);
+    }
+
+    /**
+     * @return The buffered events, oldest first.
+     */
+    public List<TraceEvent> snapshot() {
+        long end = written.get();
+        long begin = Math.max(0, end - capacity);
+        List<TraceEvent> result = new ArrayList<>((int) (end - begin));
+        for (long i = begin; i < end; i++) {
+            TraceEvent event = events.get((int) (i % capacity));
+            if (event != null) {
+                result.add(event);
+            }
+        }
+        result.sort(Comparator.comparingLong(TraceEvent::getStartNanos));
+        return result;
+    }
+
+    /**
+     * Discards all buffered events, e.g. to start tracing a new session.
+     */
+    public void clear() {
+        for (int i = 0; i < capacity; i++) {
+            events.set(i, null);
+        }
+    }
+
+    /**
+     * @return The buffered events as a Chrome trace_event JSON document.
+     */
+    public String toChromeTraceJson() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeChromeTrace(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the buffered events to a file in Chrome trace_event JSON.
+     * @param file The target file; parent directories are created if needed.
+     */
+    public void exportChromeTrace(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeChromeTrace(writer);
+        }
+        Log.info("Trace written to " + file.toAbsolutePath());
+    }
+
+    private void writeChromeTrace(Appendable out) throws IOException {
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        List<Map<String, Object>> traceEvents = new ArrayList<>();
+        long pid = ProcessHandle.current().pid();
+        Map<Long, String> threadNames = new HashMap<>();
+
+        for (TraceEvent event : snapshot()) {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("name", event.getName());
+            e.put("cat", event.getCategory());
+            e.put("ph", "X");
+            e.put("ts", (event.getStartNanos() - originNanos) / 1000.0); // Microseconds
+            e.put("dur", event.getDurationNanos() / 1000.0);
+            e.put("pid", pid);
+            e.put("tid", event.getThreadId());
+            if (event.getArgs() != null) {
+                e.put("args", event.getArgs());
+            }
+            traceEvents.add(e);
+            threadNames.putIfAbsent(event.getThreadId(), event.getThreadName());
+        }
+        // Metadata events name the thread tracks in the viewer
+        threadNames.forEach((tid, threadName) -> {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("name", "thread_name");
+            e.put("ph", "M");
+            e.put("pid", pid);
+            e.put("tid", tid);
+            e.put("args", Map.of("name", threadName));
+            traceEvents.add(e);
+        });
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("traceEvents", traceEvents);
+        document.put("displayTimeUnit", "ms");
+        gson.toJson(document, out);
+    }
+}
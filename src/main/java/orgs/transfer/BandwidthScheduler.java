@@ -0,0 +1,268 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+import orgs.metrics.ClientMetrics;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the uplink between calls and file transfers, client-wide (Singleton).
+ *
+ * Traffic has a strict priority: audio, then video, then files.
+ * - Audio is never held back; the capture thread only reports what it sent (recordAudio).
+ * - Video may use the uplink budget that audio leaves. A frame is only sent while the
+ *   video token bucket is not in debt (admitVideoFrame), otherwise it is skipped, since a
+ *   late frame is worth less than the next one.
+ * - File uploads get what audio and video leave, paced in small quanta through acquire,
+ *   so they never queue more than a few milliseconds of data in front of call packets.
+ *
+ * A call counts as active while audio or video was sent within the last CALL_IDLE_NANOS;
+ * file uploads shrink and grow back automatically. The uplink capacity comes from the system
+ * property tusal.bandwidth.uplinkKbps, otherwise from the fastest upload seen that was not
+ * throttled (recordUpload), otherwise DEFAULT_UPLINK. Without a configured capacity, uploads are not limited outside calls.
+ *
+ * The effective limits are ClientMetrics gauges, in bytes per second (0 means unlimited).
+ */
+public class BandwidthScheduler implements Throttle {
+
+    public static final String UPLINK_PROPERTY = "tusal.bandwidth.uplinkKbps";
+
+    /** Assumed uplink while a call is active and nothing better is known: 2 Mbit/s. */
+    static final long DEFAULT_UPLINK = 2_000_000 / 8;
+    /** Uploads keep at least this rate during a call, so they never stall completely. */
+    static final long MIN_FILE_RATE = 16 * 1024;
+    /** Share of the uplink left unused during a call, so call packets never wait in a queue. */
+    static final double HEADROOM = 0.15;
+    static final long CALL_IDLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final long QUANTUM_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MIN_QUANTUM = 4 * 1024;
+    private static final long FILE_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long VIDEO_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MIN_MEASURED_UPLOAD = 1024 * 1024;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final BandwidthScheduler INSTANCE = new BandwidthScheduler(configuredUplink());
+
+    static {
+        ClientMetrics metrics = ClientMetrics.get();
+        metrics.registerGauge("bandwidth.uplink", INSTANCE::getUplink);
+        metrics.registerGauge("bandwidth.audio", () -> INSTANCE.getRate(INSTANCE.audio));
+        metrics.registerGauge("bandwidth.video", () -> INSTANCE.getRate(INSTANCE.video));
+        metrics.registerGauge("bandwidth.videoLimit", INSTANCE::getVideoLimit);
+        metrics.registerGauge("bandwidth.fileLimit", INSTANCE::getFileLimit);
+    }
+
+    private final long configuredUplink;
+    // All guarded by this
+    private final RateMeter audio = new RateMeter();
+    private final RateMeter video = new RateMeter();
+    private final TokenBucket videoBucket = new TokenBucket();
+    private final TokenBucket fileBucket = new TokenBucket();
+    private long lastMediaNanos;
+    private long lastThrottledNanos;
+    private long peakFileRate;
+    private boolean callActive;
+
+    /**
+     * @param configuredUplink The uplink capacity in bytes per second, or 0 if unknown.
+     */
+    public BandwidthScheduler(long configuredUplink) {
+        this.configuredUplink = configuredUplink;
+        this.lastMediaNanos = System.nanoTime() - CALL_IDLE_NANOS;
+        this.lastThrottledNanos = System.nanoTime() - Long.MAX_VALUE / 2; // Never
+    }
+
+    /**
+     * @return The scheduler shared by the whole client, with its gauges registered in ClientMetrics.
+     */
+    public static BandwidthScheduler get() {
+        return INSTANCE;
+    }
+
+    private static long configuredUplink() {
+        long kbps = Long.getLong(UPLINK_PROPERTY, 0L);
+        return kbps > 0 ? kbps * 1000 / 8 : 0;
+    }
+
+    // --- Call media ---
+
+    /**
+     * Reports an audio packet that was sent. Audio is never held back.
+     */
+    public synchronized void recordAudio(int bytes) {
+        long now = System.nanoTime();
+        audio.add(now, bytes);
+        lastMediaNanos = now;
+    }
+
+    /**
+     * Decides whether a video frame may be sent now, and counts it if so.
+     * @param bytes The size of the frame on the wire.
+     * @return False if the frame should be skipped to keep the uplink free for audio.
+     */
+    public synchronized boolean admitVideoFrame(int bytes) {
+        long now = System.nanoTime();
+        lastMediaNanos = now;
+        long limit = videoLimit(now);
+        videoBucket.refill(now, limit, limit * VIDEO_BURST_NANOS / 1_000_000_000L);
+        if (videoBucket.tokens < 0) {
+            return false;
+        }
+        videoBucket.tokens -= bytes; // May go into debt: a frame is sent whole
+        video.add(now, bytes);
+        return true;
+    }
+
+    // --- File uploads ---
+
+    @Override
+    public long acquire(long wanted) throws InterruptedIOException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long limit = fileLimit(now);
+                if (limit == 0) {
+                    return wanted;
+                }
+                lastThrottledNanos = now;
+                long granted = Math.min(wanted, Math.max(MIN_QUANTUM, limit * QUANTUM_NANOS / 1_000_000_000L));
+                fileBucket.refill(now, limit, Math.max(granted, limit * FILE_BURST_NANOS / 1_000_000_000L));
+                if (fileBucket.tokens >= granted) {
+                    fileBucket.tokens -= granted;
+                    return granted;
+                }
+                waitNanos = (long) ((granted - fileBucket.tokens) * 1e9 / limit);
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 100_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+            }
+        }
+    }
+
+    /**
+     * Reports a completed upload. Uploads that were never throttled tell how fast the uplink
+     * is, unless a capacity is configured.
+     * @param bytes The size of the upload.
+     * @param nanos The time it took.
+     */
+    public synchronized void recordUpload(long bytes, long nanos) {
+        long now = System.nanoTime();
+        // Small files mostly measure latency, not bandwidth
+        if (bytes >= MIN_MEASURED_UPLOAD && nanos > 0 && now - lastThrottledNanos > nanos) {
+            peakFileRate = Math.max(peakFileRate, (long) (bytes * 1e9 / nanos));
+        }
+    }
+
+    // --- Gauges ---
+
+    /**
+     * @return The uplink capacity the limits are based on, in bytes per second.
+     */
+    public synchronized long getUplink() {
+        return uplink();
+    }
+
+    /**
+     * @return The current video limit in bytes per second, 0 when no call is active.
+     */
+    public synchronized long getVideoLimit() {
+        long now = System.nanoTime();
+        return isCallActive(now) ? videoLimit(now) : 0;
+    }
+
+    /**
+     * @return The current upload limit in bytes per second, 0 when unlimited.
+     */
+    public synchronized long getFileLimit() {
+        return fileLimit(System.nanoTime());
+    }
+
+    public synchronized boolean isCallActive() {
+        return isCallActive(System.nanoTime());
+    }
+
+    private synchronized long getRate(RateMeter meter) {
+        return (long) meter.rate(System.nanoTime());
+    }
+
+    // --- Limits, all called under the lock ---
+
+    private boolean isCallActive(long now) {
+        return now - lastMediaNanos < CALL_IDLE_NANOS;
+    }
+
+    private long uplink() {
+        if (configuredUplink > 0) {
+            return configuredUplink;
+        }
+        return peakFileRate > 0 ? peakFileRate : DEFAULT_UPLINK;
+    }
+
+    private long videoLimit(long now) {
+        return Math.max(0, (long) (uplink() * (1 - HEADROOM) - audio.rate(now)));
+    }
+
+    private long fileLimit(long now) {
+        boolean active = isCallActive(now);
+        if (active != callActive) {
+            callActive = active;
+            Log.info(active ? "Call active, uploads limited to what audio and video leave of "
+                    + uplink() / 1024 + " KB/s" : "Call ended, uploads no longer limited by the call");
+        }
+        if (!active) {
+            return configuredUplink;
+        }
+        double left = uplink() * (1 - HEADROOM) - audio.rate(now) - video.rate(now);
+        return Math.max(MIN_FILE_RATE, (long) left);
+    }
+
+    /**
+     * Bytes per second, smoothed over one second windows.
+     */
+    private static final class RateMeter {
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+        private double rate;
+
+        void add(long now, long bytes) {
+            roll(now);
+            windowBytes += bytes;
+        }
+
+        double rate(long now) {
+            roll(now);
+            return rate;
+        }
+
+        private void roll(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW_NANOS) {
+                return;
+            }
+            double windowRate = windowBytes * 1e9 / elapsed;
+            // After a long pause the old rate says nothing any more
+            rate = elapsed > 2 * WINDOW_NANOS ? windowRate : (rate + windowRate) / 2;
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    /**
+     * Tokens in bytes, refilled at a rate that may change on every call.
+     */
+    private static final class TokenBucket {
+        private double tokens;
+        private long last = System.nanoTime();
+
+        void refill(long now, long rate, long burst) {
+            tokens = Math.min(burst, tokens + rate * ((now - last) / 1e9));
+            last = now;
+        }
+    }
+}
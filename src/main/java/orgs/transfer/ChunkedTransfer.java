@@ -0,0 +1,372 @@
+package orgs.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksummed chunk framing for resumable transfers on the file port.
+ *
+ * A resumable connection starts with the line "RESUME {transferId} {offset}", where offset
+ * is the number of bytes the client already holds (0 for uploads, where the server knows
+ * best). The server answers "OFFSET {n}" with the offset the data stream will start at,
+ * or UNKNOWN_TRANSFER_ID. The sender then writes chunks of at most CHUNK_SIZE bytes:
+ *
+ *   long offset | int length | int crc32c | length bytes
+ *
+ * and waits for the receiver to answer every chunk with "ACK {end offset}" once it is
+ * stored, or "NAK {offset}" when the checksum did not match, in which case only that chunk
+ * is sent again. Everything before the last ACK is committed on the receiving side, which
+ * is what makes it safe to reconnect and continue after a dropped connection.
+ *
+ * An upload whose length is not known up front (e.g. a voice note that is still being
+ * recorded) starts with the line "STREAM {transferId}" instead and sends the same chunks,
+ * ended by an empty chunk at the total length. A stream is read once, so it cannot be
+ * resumed after a dropped connection; a damaged chunk is still sent again.
+ */
+public final class ChunkedTransfer {
+
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** How often a chunk is re-sent after a checksum mismatch before the connection is given up. */
+    public static final int MAX_CHUNK_RETRIES = 3;
+
+    public static final String RESUME = "RESUME";
+    public static final String OFFSET = "OFFSET";
+    public static final String UNKNOWN_TRANSFER_ID = "UNKNOWN_TRANSFER_ID";
+    public static final String STREAM = "STREAM";
+
+    private static final String ACK = "ACK";
+    private static final String NAK = "NAK";
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private ChunkedTransfer() {
+    }
+
+    /** Reads the bytes of a chunk; must fill the buffer up to its limit. */
+    @FunctionalInterface
+    public interface ChunkSource {
+        void read(long position, ByteBuffer into) throws IOException;
+    }
+
+    /** Stores a verified chunk at its offset. */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void write(long position, ByteBuffer data) throws IOException;
+    }
+
+    /** Told the new committed offset after every chunk. */
+    @FunctionalInterface
+    public interface CommitListener {
+        void committed(long offset) throws IOException;
+    }
+
+    /**
+     * The parsed "RESUME {transferId} {offset}" line.
+     */
+    public static final class Resume {
+        private final String transferId;
+        private final long offset;
+
+        private Resume(String transferId, long offset) {
+            this.transferId = transferId;
+            this.offset = offset;
+        }
+
+        /**
+         * @return The request, or null if the line is not a RESUME line (e.g. a plain transferId).
+         */
+        public static Resume parse(String line) {
+            if (line == null || !line.startsWith(RESUME + " ")) {
+                return null;
+            }
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Resume(parts[1], Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+    }
+
+    public static String resumeLine(String transferId, long offset) {
+        return RESUME + " " + transferId + " " + offset;
+    }
+
+    public static String streamLine(String transferId) {
+        return STREAM + " " + transferId;
+    }
+
+    /**
+     * @return The transferId of a "STREAM {transferId}" line, or null if the line is not one.
+     */
+    public static String parseStreamLine(String line) {
+        if (line == null || !line.startsWith(STREAM + " ")) {
+            return null;
+        }
+        String transferId = line.substring(STREAM.length() + 1).trim();
+        return transferId.isEmpty() || transferId.contains(" ") ? null : transferId;
+    }
+
+    public static String offsetLine(long offset) {
+        return OFFSET + " " + offset;
+    }
+
+    /**
+     * Parses the server's answer to a RESUME line.
+     * @throws ProtocolException If the server does not know the transfer or sent anything else.
+     */
+    public static long parseOffsetLine(String line) throws IOException {
+        if (line == null) {
+            throw new EOFException("Connection closed before the resume offset was received");
+        }
+        if (line.startsWith(OFFSET + " ")) {
+            try {
+                return Long.parseLong(line.substring(OFFSET.length() + 1).trim());
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        throw new ProtocolException("Server refused to resume the transfer: " + line);
+    }
+
+    public static ChunkSource source(FileChannel file) {
+        return (position, into) -> {
+            long p = position;
+            while (into.hasRemaining()) {
+                int n = file.read(into, p);
+                if (n < 0) {
+                    throw new EOFException("File ended at " + p);
+                }
+                p += n;
+            }
+        };
+    }
+
+    public static ChunkSource source(byte[] content) {
+        return (position, into) -> into.put(content, (int) position, into.remaining());
+    }
+
+    public static ChunkSink sink(FileChannel file) {
+        return (position, data) -> {
+            long p = position;
+            while (data.hasRemaining()) {
+                p += file.write(data, p);
+            }
+        };
+    }
+
+    /**
+     * Sends the bytes [from, size) as checksummed chunks and waits for every chunk to be acknowledged.
+     *
+     * @param in       Where the receiver's ACK/NAK lines arrive.
+     * @param out      Where the chunks are written.
+     * @param listener Told the committed offset after every acknowledged chunk.
+     * @throws IOException If the connection fails or a chunk is rejected MAX_CHUNK_RETRIES times.
+     */
+    public static void sendChunks(ReadableByteChannel in, WritableByteChannel out, ChunkSource source,
+                                  long from, long size, CommitListener listener) throws IOException {
+        // Header and data share one buffer so every chunk goes out in a single write
+        ByteBuffer frame = ByteBuffer.allocateDirect(HEADER_SIZE + (int) Math.min(CHUNK_SIZE, Math.max(size - from, 0)));
+        CRC32C crc = new CRC32C();
+        long position = from;
+        while (position < size) {
+            int length = (int) Math.min(CHUNK_SIZE, size - position);
+            frame.clear().position(HEADER_SIZE).limit(HEADER_SIZE + length);
+            source.read(position, frame);
+            sendFrame(in, out, frame, position, crc);
+            position += length;
+            listener.committed(position);
+        }
+    }
+
+    /**
+     * Sends everything source holds until its end as checksummed chunks, followed by the empty
+     * chunk that ends a stream, and waits for every chunk to be acknowledged. A chunk goes out
+     * once it is full or source has ended.
+     *
+     * @param in       Where the receiver's ACK/NAK lines arrive.
+     * @param out      Where the chunks are written.
+     * @param digest   Digests the bytes as they are read; may be null.
+     * @param listener Told the committed offset after every acknowledged chunk.
+     * @return The number of bytes sent.
+     * @throws IOException If the connection fails or a chunk is rejected MAX_CHUNK_RETRIES times.
+     */
+    public static long sendStream(ReadableByteChannel in, WritableByteChannel out, ReadableByteChannel source,
+                                  TransferDigest digest, CommitListener listener) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocateDirect(HEADER_SIZE + CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+        long position = 0;
+        boolean ended = false;
+        while (!ended) {
+            frame.clear().position(HEADER_SIZE);
+            while (frame.hasRemaining()) {
+                if (source.read(frame) < 0) {
+                    ended = true;
+                    break;
+                }
+            }
+            frame.flip().position(HEADER_SIZE);
+            int length = frame.remaining();
+            if (length == 0) {
+                break;
+            }
+            if (digest != null) {
+                digest.update(position, frame);
+            }
+            sendFrame(in, out, frame, position, crc);
+            position += length;
+            listener.committed(position);
+        }
+        frame.clear().position(HEADER_SIZE).limit(HEADER_SIZE);
+        sendFrame(in, out, frame, position, crc);
+        return position;
+    }
+
+    /**
+     * Writes one chunk and waits for its ACK, sending it again after a NAK.
+     * @param frame Holds the chunk's bytes between HEADER_SIZE and its limit; the header is filled in here.
+     */
+    private static void sendFrame(ReadableByteChannel in, WritableByteChannel out, ByteBuffer frame,
+                                  long position, CRC32C crc) throws IOException {
+        int length = frame.limit() - HEADER_SIZE;
+        frame.position(HEADER_SIZE);
+        crc.reset();
+        crc.update(frame);
+        frame.putLong(0, position).putInt(Long.BYTES, length).putInt(Long.BYTES + Integer.BYTES, (int) crc.getValue());
+
+        String expected = ACK + " " + (position + length);
+        for (int attempt = 1; ; attempt++) {
+            frame.rewind();
+            while (frame.hasRemaining()) {
+                out.write(frame);
+            }
+            String reply = ZeroCopy.readLine(in);
+            if (expected.equals(reply)) {
+                return;
+            }
+            if (reply == null) {
+                throw new EOFException("Connection closed while waiting for the chunk at " + position);
+            }
+            if (!reply.startsWith(NAK)) {
+                throw new ProtocolException("Unexpected reply to the chunk at " + position + ": " + reply);
+            }
+            if (attempt >= MAX_CHUNK_RETRIES) {
+                throw new IOException("Chunk at " + position + " failed its checksum " + attempt + " times");
+            }
+        }
+    }
+
+    /**
+     * Receives the bytes [from, size) as checksummed chunks. Damaged chunks are answered with
+     * NAK and not stored; every stored chunk is reported to the listener before it is acknowledged.
+     *
+     * @param in       Where the chunks arrive.
+     * @param out      Where the ACK/NAK lines are written.
+     * @param listener Told the committed offset after every stored chunk.
+     */
+    public static void receiveChunks(ReadableByteChannel in, WritableByteChannel out, ChunkSink sink,
+                                     long from, long size, CommitListener listener) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer data = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, Math.max(size - from, 0)));
+        CRC32C crc = new CRC32C();
+        long position = from;
+        while (position < size) {
+            header.clear();
+            readFully(in, header);
+            long offset = header.getLong(0);
+            int length = header.getInt(Long.BYTES);
+            int checksum = header.getInt(Long.BYTES + Integer.BYTES);
+            if (offset != position || length <= 0 || length > data.capacity() || offset + length > size) {
+                throw new ProtocolException("Unexpected chunk at " + offset + " (" + length + " bytes), expected " + position);
+            }
+
+            data.clear().limit(length);
+            readFully(in, data);
+            data.flip();
+            crc.reset();
+            crc.update(data);
+            if ((int) crc.getValue() != checksum) {
+                ZeroCopy.writeLine(out, NAK + " " + position);
+                continue;
+            }
+            data.rewind();
+            sink.write(position, data);
+            position += length;
+            listener.committed(position);
+            ZeroCopy.writeLine(out, ACK + " " + position);
+        }
+    }
+
+    /**
+     * Receives a stream sent with sendStream, up to and including the empty chunk that ends it.
+     * Damaged chunks are answered with NAK and not stored; every stored chunk is reported to the
+     * listener before it is acknowledged.
+     *
+     * @param in       Where the chunks arrive.
+     * @param out      Where the ACK/NAK lines are written.
+     * @param maxSize  The most bytes the stream may have.
+     * @param listener Told the committed offset after every stored chunk.
+     * @return The length of the stream.
+     */
+    public static long receiveStream(ReadableByteChannel in, WritableByteChannel out, ChunkSink sink,
+                                     long maxSize, CommitListener listener) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer data = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+        long position = 0;
+        while (true) {
+            header.clear();
+            readFully(in, header);
+            long offset = header.getLong(0);
+            int length = header.getInt(Long.BYTES);
+            int checksum = header.getInt(Long.BYTES + Integer.BYTES);
+            if (offset != position || length < 0 || length > CHUNK_SIZE || offset + length > maxSize) {
+                throw new ProtocolException("Unexpected chunk at " + offset + " (" + length + " bytes), expected " + position);
+            }
+            if (length == 0) {
+                ZeroCopy.writeLine(out, ACK + " " + position);
+                return position;
+            }
+
+            data.clear().limit(length);
+            readFully(in, data);
+            data.flip();
+            crc.reset();
+            crc.update(data);
+            if ((int) crc.getValue() != checksum) {
+                ZeroCopy.writeLine(out, NAK + " " + position);
+                continue;
+            }
+            data.rewind();
+            sink.write(position, data);
+            position += length;
+            listener.committed(position);
+            ZeroCopy.writeLine(out, ACK + " " + position);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("Connection closed in the middle of a chunk");
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA-256 of local files, remembered by path, size and modification time so a file is only
+ * hashed again after it changed.
+ *
+ * Hashing streams the file through one direct buffer. The cache is kept in memory and in
+ * a properties file (system property tusal.hashCache.file, default ~/.tusal/hash-cache),
+ * so large videos are not rehashed after a restart either. The file is rewritten in the
+ * background at most once every SAVE_DELAY_SECONDS however many hashes were added, and once
+ * more at shutdown, so hashing or downloading a file never waits for it.
+ *
+ * Past MAX_ENTRIES files the least recently used one is forgotten. Recency is kept in memory
+ * only: after a restart the entries start out in the order of the file.
+ */
+public class ContentHashCache {
+
+    public static final String FILE_PROPERTY = "tusal.hashCache.file";
+    public static final long SAVE_DELAY_SECONDS = 5;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "HashCacheSaver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ContentHashCache INSTANCE = new ContentHashCache(defaultFile());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::flush, "HashCacheShutdown"));
+    }
+
+    private final Path file;
+    // Map: <Absolute path, "size:mtime:sha256">, least recently used first; guarded by this
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded; // Guarded by this
+    private boolean dirty; // Guarded by this
+    private boolean saveScheduled; // Guarded by this
+    // Held while writing the file, so two saves never interleave
+    private final Object saveLock = new Object();
+
+    public ContentHashCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The cache shared by the whole client, saved at shutdown.
+     */
+    public static ContentHashCache get() {
+        return INSTANCE;
+    }
+
+    private static Path defaultFile() {
+        String configured = System.getProperty(FILE_PROPERTY);
+        return configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".tusal", "hash-cache");
+    }
+
+    /**
+     * @return The hex SHA-256 of the file, from the cache when the file has not changed since.
+     */
+    public String sha256(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        long size = Files.size(absolute);
+        long modified = Files.getLastModifiedTime(absolute).toMillis();
+        String stamp = size + ":" + modified + ":";
+
+        String cached;
+        synchronized (this) {
+            load();
+            cached = entries.get(absolute.toString()); // Moves the entry to the most recently used end
+        }
+        if (cached != null && cached.startsWith(stamp)) {
+            return cached.substring(stamp.length());
+        }
+        String hash = hash(absolute);
+        put(absolute, stamp, hash);
+        return hash;
+    }
+
+    /**
+     * Records the SHA-256 of a file that was hashed elsewhere, e.g. while it was downloaded.
+     */
+    public void remember(Path path, String sha256) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        put(absolute, Files.size(absolute) + ":" + Files.getLastModifiedTime(absolute).toMillis() + ":", sha256);
+    }
+
+    /**
+     * Writes the cache to its file now if anything was added since it was last written.
+     */
+    public void flush() {
+        synchronized (saveLock) {
+            Properties properties = new Properties();
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                properties.putAll(entries);
+            }
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    properties.store(out, null);
+                }
+                ZeroCopy.moveIntoPlace(temp, file);
+            } catch (IOException e) {
+                Log.warn("Could not save hash cache " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void put(Path absolute, String stamp, String hash) {
+        load();
+        entries.put(absolute.toString(), stamp + hash);
+        dirty = true;
+        if (!saveScheduled) {
+            saveScheduled = true;
+            SAVER.schedule(this::scheduledSave, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void scheduledSave() {
+        synchronized (this) {
+            saveScheduled = false;
+        }
+        flush();
+    }
+
+    /**
+     * Computes the hex SHA-256 of a file without the cache.
+     */
+    public static String hash(Path path) throws IOException {
+        MessageDigest digest = TransferDigest.newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Reads the file into the cache, once. Called under the lock.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            properties.forEach((key, value) -> entries.putIfAbsent((String) key, (String) value));
+        } catch (NoSuchFileException e) {
+            // Nothing hashed yet
+        } catch (IOException | IllegalArgumentException e) {
+            Log.warn("Ignoring unreadable hash cache " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package orgs.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A file that is still being downloaded, readable while its bytes arrive.
+ *
+ * The download attaches its hidden ".part" file and commits how many bytes from the start
+ * are written; it must receive them in order (ZeroCopy.downloadToFile or ResumableTransfer,
+ * not ParallelDownload). Streams from openStream read the committed prefix and block on
+ * anything beyond it until it arrives, the download completes, or it fails, in which case
+ * the read throws.
+ *
+ * A player waits for whenPlayable, which completes once minPrefix bytes are in (or the whole
+ * file, if smaller), so it does not stall on its first reads.
+ *
+ * The bytes read are those written to disk, before the SHA-256 of the whole file could be
+ * checked; a download that turns out corrupt fails the stream at its end.
+ */
+public class GrowingFile {
+
+    private final long minPrefix;
+    private final CompletableFuture<Void> playable = new CompletableFuture<>();
+
+    private long size = -1; // Guarded by this
+    private Path part; // Guarded by this
+    private Path completed; // Guarded by this
+    private long committed; // Guarded by this
+    private IOException failure; // Guarded by this
+
+    /**
+     * @param minPrefix The bytes to buffer before playback starts.
+     */
+    public GrowingFile(long minPrefix) {
+        this.minPrefix = Math.max(0, minPrefix);
+    }
+
+    /**
+     * @return The size of the whole file, or -1 while the download has not started.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The bytes from the start of the file that can be read without blocking.
+     */
+    public synchronized long getAvailable() {
+        return completed != null ? size : committed;
+    }
+
+    public synchronized boolean isComplete() {
+        return completed != null;
+    }
+
+    /**
+     * @return A future completed once minPrefix bytes can be read, or completed exceptionally
+     * with the IOException of a download that failed before.
+     */
+    public CompletableFuture<Void> whenPlayable() {
+        return playable.copy();
+    }
+
+    /**
+     * @return A new stream over the file from its first byte. Streams are independent; closing
+     * one does not stop the download.
+     */
+    public InputStream openStream() {
+        return new Reader();
+    }
+
+    /**
+     * Called by the download once its part file exists.
+     * @param fileSize The size of the whole file.
+     * @param start The bytes already in the file, e.g. from an earlier attempt that is resumed.
+     */
+    synchronized void attach(Path partFile, long fileSize, long start) {
+        part = partFile;
+        size = fileSize;
+        committed = 0;
+        commit(start);
+    }
+
+    /**
+     * Called by the download as bytes are written.
+     * @param contiguous The bytes from the start of the file that are written.
+     */
+    synchronized void commit(long contiguous) {
+        if (contiguous <= committed) {
+            return;
+        }
+        committed = contiguous;
+        notifyAll();
+        if (committed >= Math.min(minPrefix, size)) {
+            playable.complete(null);
+        }
+    }
+
+    /**
+     * Ends the download successfully; readers continue from file.
+     */
+    public void complete(Path file) {
+        synchronized (this) {
+            if (completed != null || failure != null) {
+                return;
+            }
+            if (size < 0) {
+                size = file.toFile().length(); // Never attached, e.g. served from the MediaCache
+            }
+            completed = file;
+            notifyAll();
+        }
+        playable.complete(null);
+    }
+
+    /**
+     * Ends the download unsuccessfully; blocked and later reads throw.
+     */
+    public void fail(String reason) {
+        IOException e = new IOException(reason);
+        synchronized (this) {
+            if (completed != null || failure != null) {
+                return;
+            }
+            failure = e;
+            notifyAll();
+        }
+        playable.completeExceptionally(e);
+    }
+
+    /**
+     * Waits until the byte at position can be read.
+     * @return The file to read it from, or null at the end of a completed file.
+     */
+    private synchronized Path awaitByte(long position) throws IOException {
+        while (true) {
+            if (completed != null) {
+                return position < size ? completed : null;
+            }
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            // At the end of the file, wait for complete or fail: the last byte is committed
+            // before the digest of the whole file is checked
+            if (part != null && position < committed) {
+                return part;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the download");
+            }
+        }
+    }
+
+    private final class Reader extends InputStream {
+        private FileChannel channel;
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            Path file = awaitByte(position);
+            if (file == null) {
+                return -1;
+            }
+            if (channel == null) {
+                // Once open, the part file stays readable after it is renamed onto the target
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, getAvailable() - position)), position);
+            if (n < 0) {
+                throw new IOException("Downloaded file ended at " + position + " of " + getSize() + " bytes");
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            // Ahead of the download, the next read waits for the skipped-to position
+            long size = getSize();
+            long skipped = Math.max(0, size < 0 ? n : Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, getAvailable() - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+import orgs.metrics.ClientMetrics;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloaded media kept on disk, so the same media is only downloaded once (Singleton).
+ *
+ * An entry is a file named by its key (keyOf: the SHA-256 of the content if known, else the
+ * media id), in the directory given by the system property tusal.mediaCache.dir (default
+ * ~/.tusal/media-cache). Entries are evicted least recently used first once they take more
+ * than tusal.mediaCache.maxMb (default 2048; 0 disables the cache).
+ *
+ * The index lives in memory and is rebuilt with one scan of the directory, ordered by
+ * modification time, which a hit updates. Files are copied between the cache and a download
+ * directory, never linked: a saved download is the user's to edit, and an entry sharing its
+ * bytes would change along with it while its key still claims the old content.
+ *
+ * A fill is announced with beginFill: a second download of the same media waits for the
+ * first one instead of fetching the bytes again.
+ *
+ * Hits, misses and the cache size are ClientMetrics gauges.
+ */
+public class MediaCache {
+
+    public static final String DIR_PROPERTY = "tusal.mediaCache.dir";
+    public static final String MAX_MB_PROPERTY = "tusal.mediaCache.maxMb";
+    public static final long DEFAULT_MAX_MB = 2048;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final MediaCache INSTANCE = new MediaCache(defaultDirectory(), Long.getLong(MAX_MB_PROPERTY, DEFAULT_MAX_MB) * 1024 * 1024);
+
+    static {
+        ClientMetrics metrics = ClientMetrics.get();
+        metrics.registerGauge("mediaCache.bytes", INSTANCE::getSize);
+        metrics.registerGauge("mediaCache.hits", INSTANCE.hits::get);
+        metrics.registerGauge("mediaCache.misses", INSTANCE.misses::get);
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    // Map: <Key, size>, least recently used first; guarded by this
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size; // Guarded by this
+    private boolean loaded; // Guarded by this
+    private final ConcurrentMap<String, CompletableFuture<Path>> fills = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes The most the entries may take together; 0 disables the cache.
+     */
+    public MediaCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The cache shared by the whole client, with its gauges registered in ClientMetrics.
+     */
+    public static MediaCache get() {
+        return INSTANCE;
+    }
+
+    private static Path defaultDirectory() {
+        String configured = System.getProperty(DIR_PROPERTY);
+        return configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".tusal", "media-cache");
+    }
+
+    /**
+     * @param contentHash The hex SHA-256 of the media, or null if it is not known.
+     * @return The key the media is cached under.
+     */
+    public static String keyOf(int mediaId, String contentHash) {
+        if (contentHash != null && contentHash.matches("[0-9a-fA-F]{64}")) {
+            return "sha256-" + contentHash.toLowerCase();
+        }
+        return "media-" + mediaId;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return The bytes taken by all entries.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Serves a cached media: places it at target, replacing a file that is there.
+     * @param expectedSize The size the media must have, or -1 if it is not known.
+     * @return False on a miss, in which case target is left alone.
+     */
+    public boolean copyTo(String key, long expectedSize, Path target) {
+        if (!isEnabled()) {
+            return false;
+        }
+        Path entry = directory.resolve(key);
+        synchronized (this) {
+            load();
+            Long cached = entries.get(key); // Moves the entry to the most recently used end
+            if (cached == null || (expectedSize >= 0 && cached != expectedSize)) {
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        try {
+            place(entry, target);
+            // Recency survives a restart through the modification time
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            Log.warn("Could not serve " + key + " from the media cache: " + e.getMessage());
+            if (!Files.exists(entry)) {
+                forget(key); // Evicted meanwhile, or removed behind our back
+            }
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Announces that the caller is about to download the media with this key.
+     * @return Null if the caller fills the entry and must end with finishFill or abandonFill;
+     * otherwise the fill in progress, which completes with the entry, or with null if it failed.
+     */
+    public CompletableFuture<Path> beginFill(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return fills.putIfAbsent(key, new CompletableFuture<>());
+    }
+
+    /**
+     * Adds a downloaded file under key and releases those waiting for it.
+     */
+    public void finishFill(String key, Path downloaded) {
+        Path entry = null;
+        try {
+            entry = put(key, downloaded);
+        } catch (IOException e) {
+            Log.warn("Could not add " + downloaded + " to the media cache: " + e.getMessage());
+        } finally {
+            CompletableFuture<Path> fill = fills.remove(key);
+            if (fill != null) {
+                fill.complete(entry);
+            }
+        }
+    }
+
+    /**
+     * Ends a fill whose download failed; those waiting for it download themselves.
+     */
+    public void abandonFill(String key) {
+        CompletableFuture<Path> fill = fills.remove(key);
+        if (fill != null) {
+            fill.complete(null);
+        }
+    }
+
+    /**
+     * Adds a file under key, evicting least recently used entries to stay within the budget.
+     * @return The entry, or null if the file is larger than the whole cache.
+     */
+    public Path put(String key, Path file) throws IOException {
+        long fileSize = Files.size(file);
+        if (!isEnabled() || fileSize > maxBytes) {
+            return null;
+        }
+        Files.createDirectories(directory);
+        Path entry = directory.resolve(key);
+        place(file, entry);
+        List<Path> evicted;
+        synchronized (this) {
+            load();
+            Long previous = entries.put(key, fileSize);
+            size += fileSize - (previous == null ? 0 : previous);
+            evicted = evictOverBudget(key);
+        }
+        for (Path path : evicted) {
+            Files.deleteIfExists(path);
+        }
+        return entry;
+    }
+
+    /**
+     * Drops least recently used entries from the index until they fit in maxBytes. Called
+     * under the lock; the caller deletes the files.
+     * @param keep A key that is never dropped, or null.
+     * @return The files of the dropped entries.
+     */
+    private List<Path> evictOverBudget(String keep) {
+        List<Path> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> e = eldest.next();
+            if (e.getKey().equals(keep)) {
+                continue;
+            }
+            evicted.add(directory.resolve(e.getKey()));
+            size -= e.getValue();
+            eldest.remove();
+        }
+        return evicted;
+    }
+
+    private synchronized void forget(String key) {
+        Long removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed;
+        }
+    }
+
+    /**
+     * Makes target a copy of source, replacing it atomically.
+     */
+    private static void place(Path source, Path target) throws IOException {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = target.resolveSibling(target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+        try {
+            Files.copy(source, temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the directory, oldest modification first, and evicts what no
+     * longer fits in maxBytes. Called under the lock.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Found> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(path); // Left by a crash while placing a file
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    found.add(new Found(name, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Could not read the media cache " + directory + ": " + e.getMessage());
+        }
+        found.sort(Comparator.comparingLong(f -> f.modified));
+        for (Found f : found) {
+            entries.put(f.key, f.size);
+            size += f.size;
+        }
+        // The budget may have been lowered since the entries were added
+        List<Path> evicted = evictOverBudget(null);
+        for (Path path : evicted) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                Log.warn("Could not evict " + path + " from the media cache: " + e.getMessage());
+            }
+        }
+        Log.info("Media cache: %d entries, %d MB, indexed in %d ms, %d evicted", entries.size(), size / (1024 * 1024),
+                (System.nanoTime() - start) / 1_000_000, evicted.size());
+    }
+
+    private static final class Found {
+        final String key;
+        final long size;
+        final long modified;
+
+        Found(String key, long size, long modified) {
+            this.key = key;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
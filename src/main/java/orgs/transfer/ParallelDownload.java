@@ -0,0 +1,288 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloads one large file over several file-port connections at once, for links where a
+ * single TCP stream cannot fill the bandwidth-delay product.
+ *
+ * The file is cut into ranges of RANGE_SIZE bytes. Every connection asks for one range at
+ * a time with "RANGE {transferId} {offset} {length}", to which the server answers with
+ * exactly those bytes, and then asks for the next free range, so a slow connection simply
+ * ends up doing fewer ranges. The bytes go straight into their offset of one preallocated
+ * ".part" file with positional FileChannel.transferFrom, which is safe from several threads;
+ * the file is renamed onto the target once every range has arrived.
+ *
+ * The number of connections comes from a shared ParallelismAdvisor, based on the file size
+ * and the throughput of earlier downloads.
+ *
+ * Ranges arrive out of order, so they cannot be digested on their way in. Instead, whenever
+ * the ranges at the front of the file are complete, they are read back and digested while
+ * the other connections keep downloading; the bytes are still in the page cache, and at the
+ * end only the last ranges are left to digest.
+ */
+public class ParallelDownload {
+
+    public static final String RANGE = "RANGE";
+
+    /** Files smaller than this gain nothing from a second connection. */
+    public static final long MIN_PARALLEL_SIZE = 2 * ParallelismAdvisor.MIN_BYTES_PER_CONNECTION;
+
+    static final long RANGE_SIZE = 4L * 1024 * 1024;
+
+    // Failed ranges are re-queued; after this many failures in one download it is given up
+    private static final int MAX_RANGE_FAILURES = 6;
+
+    private static final ParallelismAdvisor advisor = new ParallelismAdvisor();
+
+    private final ResumableTransfer.Connector connector;
+    private final Tracer tracer = Tracer.get();
+
+    public ParallelDownload(ResumableTransfer.Connector connector) {
+        this.connector = connector;
+    }
+
+    public static String rangeLine(String transferId, long offset, long length) {
+        return RANGE + " " + transferId + " " + offset + " " + length;
+    }
+
+    /**
+     * The parsed "RANGE {transferId} {offset} {length}" line.
+     */
+    public static final class RangeRequest {
+        private final String transferId;
+        private final long offset;
+        private final long length;
+
+        private RangeRequest(String transferId, long offset, long length) {
+            this.transferId = transferId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return The request, or null if the line is not a RANGE line.
+         */
+        public static RangeRequest parse(String line) {
+            if (line == null || !line.startsWith(RANGE + " ")) {
+                return null;
+            }
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                return new RangeRequest(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * @return The number of connections a download of this size would use now.
+     */
+    public static int chooseParallelism(long size) {
+        return size < MIN_PARALLEL_SIZE ? 1 : advisor.choose(size);
+    }
+
+    /**
+     * Downloads the file announced with READY_TO_SEND_FILE.
+     *
+     * @param expectedSha256 The hex SHA-256 announced by the server, or null to skip verification.
+     * @param onProgress     Told the total number of bytes received by all connections together.
+     *                       Calls are serialized; a failed range is subtracted again before it is retried.
+     * @return The verified SHA-256, or null if none was expected.
+     * @throws TransferDigest.MismatchException If the content does not match expectedSha256.
+     */
+    public String download(String transferId, Path target, long size, String expectedSha256,
+                           LongConsumer onProgress) throws IOException {
+        int parallelism = chooseParallelism(size);
+        AtomicLong nextOffset = new AtomicLong();
+        ConcurrentLinkedQueue<long[]> retries = new ConcurrentLinkedQueue<>();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong received = new AtomicLong();
+        LongConsumer progress = delta -> {
+            synchronized (received) {
+                onProgress.accept(received.addAndGet(delta));
+            }
+        };
+
+        Path part = ZeroCopy.createPartFile(target);
+        String sha256 = null;
+        boolean done = false;
+        long start = System.nanoTime();
+        try (Span span = tracer.start("parallel download", "file").arg("connections", parallelism)) {
+            try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+                file.setLength(size);
+                FileChannel channel = file.getChannel();
+                RangeDigest digest = expectedSha256 == null ? null : new RangeDigest(channel);
+
+                ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+                try {
+                    List<Future<?>> workers = new ArrayList<>();
+                    for (int i = 0; i < parallelism; i++) {
+                        workers.add(executor.submit(() -> {
+                            runWorker(transferId, channel, size, nextOffset, retries, failures, digest, progress);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> worker : workers) {
+                        await(worker);
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+                if (digest != null) {
+                    sha256 = digest.verify(size, expectedSha256);
+                }
+                channel.force(false);
+            }
+            ZeroCopy.moveIntoPlace(part, target);
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(part);
+            }
+        }
+        advisor.record(parallelism, size, System.nanoTime() - start);
+        return sha256;
+    }
+
+    /**
+     * Fetches ranges over one connection until none are left, reconnecting after a failure.
+     */
+    private void runWorker(String transferId, FileChannel file, long size, AtomicLong nextOffset,
+                           ConcurrentLinkedQueue<long[]> retries, AtomicLong failures, RangeDigest digest,
+                           LongConsumer progress) throws IOException {
+        SocketChannel socket = null;
+        try {
+            long[] range;
+            while ((range = nextRange(size, nextOffset, retries)) != null) {
+                long offset = range[0];
+                long length = range[1];
+                long[] rangeReceived = {0};
+                try (Span span = tracer.start("file range", "file").arg("offset", offset).arg("bytes", length)) {
+                    if (socket == null) {
+                        socket = connector.open();
+                    }
+                    ZeroCopy.writeLine(socket, rangeLine(transferId, offset, length));
+                    ZeroCopy.transferFromFully(socket, file, offset, length, n -> {
+                        rangeReceived[0] += n;
+                        progress.accept(n);
+                    });
+                } catch (IOException e) {
+                    progress.accept(-rangeReceived[0]);
+                    retries.add(range);
+                    closeQuietly(socket);
+                    socket = null;
+                    if (failures.incrementAndGet() > MAX_RANGE_FAILURES) {
+                        throw e;
+                    }
+                    Log.warn("Range at " + offset + " of " + transferId + " failed (" + e.getMessage() + "), retrying");
+                    continue;
+                }
+                if (digest != null) {
+                    digest.completed(offset, length);
+                }
+            }
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Digests the completed ranges in file order, as far as they are contiguous.
+     */
+    private static final class RangeDigest {
+        private final TransferDigest digest = new TransferDigest();
+        private final FileChannel file;
+        // Map: <Offset, End> of completed ranges past the digested part
+        private final TreeMap<Long, Long> completed = new TreeMap<>();
+
+        RangeDigest(FileChannel file) {
+            this.file = file;
+        }
+
+        synchronized void completed(long offset, long length) throws IOException {
+            completed.put(offset, offset + length);
+            long upTo = digest.getPosition();
+            Long end;
+            while ((end = completed.remove(upTo)) != null) {
+                upTo = end;
+            }
+            digest.catchUp(file, upTo);
+        }
+
+        synchronized String verify(long size, String expected) throws IOException {
+            digest.catchUp(file, size);
+            return digest.verify(expected);
+        }
+    }
+
+    private static long[] nextRange(long size, AtomicLong nextOffset, ConcurrentLinkedQueue<long[]> retries) {
+        long[] retry = retries.poll();
+        if (retry != null) {
+            return retry;
+        }
+        long offset = nextOffset.getAndAdd(RANGE_SIZE);
+        return offset < size ? new long[]{offset, Math.min(RANGE_SIZE, size - offset)} : null;
+    }
+
+    private static void await(Future<?> worker) throws IOException {
+        try {
+            worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package orgs.transfer;
+
+/**
+ * Chooses how many connections a ParallelDownload uses.
+ *
+ * The file size gives an upper bound (every connection should get at least
+ * MIN_BYTES_PER_CONNECTION), and the throughput of earlier downloads tunes the count
+ * within it: when more connections made the last download faster, the next one tries
+ * more; when they did not help, it goes back to the smaller count. On a link that one
+ * TCP stream can already fill this settles at a low count, on a long fat link it climbs.
+ */
+class ParallelismAdvisor {
+
+    static final int MAX_CONNECTIONS = 8;
+    static final long MIN_BYTES_PER_CONNECTION = 8L * 1024 * 1024;
+
+    private static final int INITIAL_CONNECTIONS = 4;
+    // A change in throughput smaller than this is treated as noise
+    private static final double SIGNIFICANT = 0.10;
+
+    private int suggested = INITIAL_CONNECTIONS;
+    private int lastParallelism;
+    private double lastMBps;
+
+    /**
+     * @return The number of connections to use for a file of the given size, at least 1.
+     */
+    synchronized int choose(long size) {
+        long bySize = Math.max(1, size / MIN_BYTES_PER_CONNECTION);
+        return (int) Math.min(Math.min(bySize, suggested), MAX_CONNECTIONS);
+    }
+
+    /**
+     * Records how fast a download with the given number of connections was.
+     */
+    synchronized void record(int parallelism, long bytes, long nanos) {
+        if (nanos <= 0 || parallelism != suggested) {
+            return; // Limited by the file size, which says nothing about the link
+        }
+        double mbps = (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+        if (lastParallelism == 0) {
+            // Nothing to compare with yet: probe upwards next time
+            suggested = Math.min(MAX_CONNECTIONS, parallelism + 2);
+        } else if (parallelism > lastParallelism) {
+            suggested = mbps > lastMBps * (1 + SIGNIFICANT) ? Math.min(MAX_CONNECTIONS, parallelism + 2) : lastParallelism;
+        } else if (parallelism < lastParallelism) {
+            suggested = mbps >= lastMBps * (1 - SIGNIFICANT) ? parallelism : lastParallelism;
+        }
+        // The same count as last time means it has settled; keep it
+        lastParallelism = parallelism;
+        lastMBps = mbps;
+    }
+}
@@ -0,0 +1,243 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+/**
+ * Uploads and downloads over the file port that survive dropped connections.
+ *
+ * Both directions use the ChunkedTransfer protocol. When the connection fails the transfer
+ * reconnects, asks the server where to continue and only sends what is missing, up to
+ * maxAttempts connections with a growing pause in between. Offsets are kept in a
+ * TransferJournal, and a download keeps its partial file between attempts, so a transfer
+ * can also continue after the client was restarted.
+ */
+public class ResumableTransfer {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    // Partial downloads are forced to disk and journaled at most this often
+    private static final long JOURNAL_INTERVAL = 8L * ChunkedTransfer.CHUNK_SIZE;
+
+    /** Opens a new connection to the file port. */
+    @FunctionalInterface
+    public interface Connector {
+        SocketChannel open() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    private final Connector connector;
+    private final TransferJournal journal;
+    private final int maxAttempts;
+    private final Throttle uploadThrottle;
+
+    public ResumableTransfer(Connector connector, TransferJournal journal, int maxAttempts) {
+        this(connector, journal, maxAttempts, null);
+    }
+
+    /**
+     * @param uploadThrottle Paces the chunks of uploads; may be null.
+     */
+    public ResumableTransfer(Connector connector, TransferJournal journal, int maxAttempts, Throttle uploadThrottle) {
+        this.connector = connector;
+        this.journal = journal;
+        this.maxAttempts = maxAttempts;
+        this.uploadThrottle = uploadThrottle;
+    }
+
+    public static String uploadKey(String transferId) {
+        return "upload-" + transferId;
+    }
+
+    public static String mediaKey(int mediaId) {
+        return "media-" + mediaId;
+    }
+
+    public TransferJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Uploads a file for a transfer announced with READY_TO_RECEIVE_FILE.
+     *
+     * @param onCommitted Told the number of bytes the server has committed, at the start of
+     *                    every connection and after every chunk.
+     * @return The server's final status line (see TransferDigest.isSuccess).
+     */
+    public String upload(String transferId, Path file, LongConsumer onCommitted) throws IOException {
+        String key = uploadKey(transferId);
+        long size = Files.size(file);
+        journal.put(key, new TransferJournal.Entry(file.toAbsolutePath().toString(), size, 0));
+        long[] journaled = {0};
+
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            String status = withRetries("upload " + transferId, () -> {
+                try (SocketChannel channel = connector.open()) {
+                    // The server knows best how much it has, so ask from 0
+                    ZeroCopy.writeLine(channel, ChunkedTransfer.resumeLine(transferId, 0));
+                    long offset = ChunkedTransfer.parseOffsetLine(ZeroCopy.readLine(channel));
+                    if (offset < 0 || offset > size) {
+                        throw new ProtocolException("Server asked to resume the upload at " + offset + " of " + size);
+                    }
+                    onCommitted.accept(offset);
+                    WritableByteChannel out = uploadThrottle == null ? channel : uploadThrottle.pace(channel);
+                    ChunkedTransfer.sendChunks(channel, out, ChunkedTransfer.source(source), offset, size, committed -> {
+                        if (committed - journaled[0] >= JOURNAL_INTERVAL) {
+                            journal.put(key, new TransferJournal.Entry(file.toAbsolutePath().toString(), size, committed));
+                            journaled[0] = committed;
+                        }
+                        onCommitted.accept(committed);
+                    });
+                    return ZeroCopy.readLine(channel);
+                }
+            });
+            journal.remove(key);
+            return status;
+        }
+    }
+
+    /**
+     * Continues an upload recorded in the journal, e.g. after the client was restarted.
+     * The server must still know the transferId.
+     *
+     * @throws IOException If there is no such upload in the journal, or it fails again.
+     */
+    public String resumeUpload(String transferId, LongConsumer onCommitted) throws IOException {
+        TransferJournal.Entry entry = journal.get(uploadKey(transferId));
+        if (entry == null) {
+            throw new IOException("No unfinished upload with transferId " + transferId);
+        }
+        return upload(transferId, Paths.get(entry.getPath()), onCommitted);
+    }
+
+    /**
+     * Downloads a file for a transfer announced with READY_TO_SEND_FILE. The bytes go to a
+     * hidden ".part" file next to the target, which is kept when the download fails so that
+     * the next download under the same key continues where this one stopped.
+     *
+     * When the server announced the SHA-256 of the file, every chunk is digested as it is
+     * stored (a resumed partial file is caught up from disk once), and a file that does not
+     * match is deleted along with its journal entry, since resuming it would not help.
+     *
+     * @param key            Identifies the content across transferIds, e.g. mediaKey(media.getId()).
+     * @param expectedSha256 The hex SHA-256 announced by the server, or null to skip verification.
+     * @param onCommitted    Told the number of bytes stored, at the start of every connection and after every chunk.
+     * @param growing        Told about the partial file and the bytes stored in it, for reading it while it grows; may be null.
+     * @return The verified SHA-256, or null if none was expected.
+     * @throws TransferDigest.MismatchException If the content does not match expectedSha256.
+     */
+    public String download(String transferId, String key, Path target, long size, String expectedSha256,
+                           LongConsumer onCommitted, GrowingFile growing) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path part = directory.resolve("." + target.getFileName() + "." + key + ".part");
+
+        TransferJournal.Entry entry = journal.get(key);
+        long start = 0;
+        if (entry != null && entry.getSize() == size && part.toString().equals(entry.getPath()) && Files.exists(part)) {
+            start = entry.getCommitted();
+            Log.info("Resuming download of " + target.getFileName() + " at " + start + " of " + size + " bytes");
+        } else {
+            Files.deleteIfExists(part);
+        }
+        TransferJournal.Entry started = new TransferJournal.Entry(part.toString(), size, start);
+        journal.put(key, started);
+
+        TransferDigest digest = expectedSha256 == null ? null : new TransferDigest();
+        try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            if (digest != null) {
+                digest.catchUp(channel, start);
+            }
+            if (growing != null) {
+                growing.attach(part, size, start);
+            }
+            LongConsumer report = growing == null ? onCommitted : onCommitted.andThen(growing::commit);
+            ChunkedTransfer.ChunkSink sink = digest == null ? ChunkedTransfer.sink(channel)
+                    : digest.digesting(ChunkedTransfer.sink(channel));
+            long[] committed = {start};
+            long[] journaled = {start};
+
+            withRetries("download " + transferId, () -> {
+                try (SocketChannel socket = connector.open()) {
+                    ZeroCopy.writeLine(socket, ChunkedTransfer.resumeLine(transferId, committed[0]));
+                    long offset = ChunkedTransfer.parseOffsetLine(ZeroCopy.readLine(socket));
+                    if (offset != committed[0]) {
+                        throw new ProtocolException("Server resumed the download at " + offset + " instead of " + committed[0]);
+                    }
+                    report.accept(offset);
+                    ChunkedTransfer.receiveChunks(socket, socket, sink, offset, size, c -> {
+                        committed[0] = c;
+                        if (c - journaled[0] >= JOURNAL_INTERVAL) {
+                            channel.force(false);
+                            journal.put(key, started.withCommitted(c));
+                            journaled[0] = c;
+                        }
+                        report.accept(c);
+                    });
+                    return null;
+                } catch (IOException e) {
+                    // Remember exactly how far we got before reconnecting or giving up
+                    channel.force(false);
+                    journal.put(key, started.withCommitted(committed[0]));
+                    journaled[0] = committed[0];
+                    throw e;
+                }
+            });
+            channel.force(false);
+        }
+        if (digest != null) {
+            try {
+                digest.verify(expectedSha256);
+            } catch (TransferDigest.MismatchException e) {
+                Files.deleteIfExists(part);
+                journal.remove(key);
+                throw e;
+            }
+        }
+        ZeroCopy.moveIntoPlace(part, target);
+        journal.remove(key);
+        return digest == null ? null : digest.finish();
+    }
+
+    private <T> T withRetries(String what, Attempt<T> attempt) throws IOException {
+        for (int i = 1; ; i++) {
+            try {
+                return attempt.run();
+            } catch (ProtocolException e) {
+                throw e; // The server refused; another connection will not change that
+            } catch (IOException e) {
+                if (i >= maxAttempts) {
+                    throw e;
+                }
+                long backoff = RETRY_BACKOFF_MILLIS * i;
+                Log.warn("Connection lost during " + what + " (" + e.getMessage() + "), resuming in "
+                        + backoff + " ms (attempt " + (i + 1) + " of " + maxAttempts + ")");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to resume " + what);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package orgs.transfer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Paces outgoing bulk bytes, e.g. to leave room for a call (see BandwidthScheduler).
+ */
+@FunctionalInterface
+public interface Throttle {
+
+    /**
+     * Blocks until some of the wanted bytes may be sent.
+     * @param wanted The number of bytes the caller is about to send, at least 1.
+     * @return How many of them may be sent now, between 1 and wanted.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    long acquire(long wanted) throws InterruptedIOException;
+
+    /**
+     * @return A channel that writes to channel no faster than this throttle allows.
+     */
+    default WritableByteChannel pace(WritableByteChannel channel) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                if (!src.hasRemaining()) {
+                    return 0;
+                }
+                int limit = src.limit();
+                src.limit(src.position() + (int) acquire(src.remaining()));
+                try {
+                    return channel.write(src);
+                } finally {
+                    src.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
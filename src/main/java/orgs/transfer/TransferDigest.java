@@ -0,0 +1,167 @@
+package orgs.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * End-to-end SHA-256 of a transfer, computed while the bytes stream through the transfer
+ * loop instead of in a second pass over the finished file.
+ *
+ * The digest only moves forward: update takes the bytes at any offset, but digests only
+ * those past what it has already seen, so chunks that are sent again after a reconnect are
+ * not counted twice. Bytes that are already on disk (a resumed download, or ranges that
+ * arrived out of order) are caught up from the file.
+ *
+ * Both sides exchange the digest when a transfer completes:
+ * - uploads: the client sends the SHA-256 with the media of SEND_MESSAGE, and the file port
+ *   acknowledges with "FILE_RECEIVED_SUCCESS {sha256}" (or FILE_RECEIVED_FAILED on mismatch);
+ * - downloads: READY_TO_SEND_FILE carries "sha256", checked before the file is moved into place.
+ * A peer that sends no digest is accepted as before.
+ */
+public final class TransferDigest {
+
+    public static final String SUCCESS = "FILE_RECEIVED_SUCCESS";
+    public static final String FAILED = "FILE_RECEIVED_FAILED";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final MessageDigest digest = newSha256();
+    private long position;
+    private String hex;
+
+    /**
+     * Thrown when the received content does not have the SHA-256 the other side announced.
+     */
+    public static class MismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MismatchException(String expected, String actual) {
+            super("Content digest mismatch: expected SHA-256 " + expected + ", got " + actual);
+        }
+    }
+
+    /**
+     * @return The number of bytes digested so far.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Digests the bytes of data that lie past getPosition(), without moving data's position.
+     * @param at The offset of data's first remaining byte in the transfer.
+     * @throws IllegalStateException If the bytes before at have not been digested yet.
+     */
+    public void update(long at, ByteBuffer data) {
+        long end = at + data.remaining();
+        if (at > position) {
+            throw new IllegalStateException("Bytes at " + at + " arrived before the bytes at " + position);
+        }
+        if (end <= position) {
+            return; // Sent again after a reconnect, already counted
+        }
+        ByteBuffer fresh = data.duplicate();
+        fresh.position(fresh.position() + (int) (position - at));
+        digest.update(fresh);
+        position = end;
+    }
+
+    /**
+     * Digests the bytes [getPosition(), upTo) from a file that already holds them.
+     */
+    public void catchUp(FileChannel file, long upTo) throws IOException {
+        if (upTo <= position) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, upTo - position));
+        while (position < upTo) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), upTo - position));
+            int n = file.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("File ended at " + position + " while digesting up to " + upTo);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+        }
+    }
+
+    /**
+     * @return A sink that digests every chunk before handing it on to sink.
+     */
+    public ChunkedTransfer.ChunkSink digesting(ChunkedTransfer.ChunkSink sink) {
+        return (at, data) -> {
+            update(at, data);
+            sink.write(at, data);
+        };
+    }
+
+    /**
+     * Finishes the digest; nothing can be added afterwards.
+     * @return The hex SHA-256 of everything digested.
+     */
+    public String finish() {
+        if (hex == null) {
+            hex = HexFormat.of().formatHex(digest.digest());
+        }
+        return hex;
+    }
+
+    /**
+     * Finishes the digest and compares it with the one announced by the other side.
+     * @param expected The announced hex SHA-256, or null if the peer did not send one.
+     * @return The hex SHA-256 of everything digested.
+     * @throws MismatchException If they differ.
+     */
+    public String verify(String expected) throws MismatchException {
+        String actual = finish();
+        check(expected, actual);
+        return actual;
+    }
+
+    /**
+     * @throws MismatchException If both digests are known and differ.
+     */
+    public static void check(String expected, String actual) throws MismatchException {
+        if (expected != null && actual != null && !expected.equalsIgnoreCase(actual)) {
+            throw new MismatchException(expected, actual);
+        }
+    }
+
+    /**
+     * @return The upload acknowledgement, carrying the digest of what was received if known.
+     */
+    public static String successLine(String sha256) {
+        return sha256 == null ? SUCCESS : SUCCESS + " " + sha256;
+    }
+
+    /**
+     * @return True if the file port acknowledged the upload, with or without a digest.
+     */
+    public static boolean isSuccess(String line) {
+        return line != null && (line.equals(SUCCESS) || line.startsWith(SUCCESS + " "));
+    }
+
+    /**
+     * @return The digest in a "FILE_RECEIVED_SUCCESS {sha256}" line, or null if it carries none.
+     */
+    public static String digestOf(String line) {
+        if (!isSuccess(line) || line.length() == SUCCESS.length()) {
+            return null;
+        }
+        String digest = line.substring(SUCCESS.length() + 1).trim();
+        return digest.isEmpty() ? null : digest;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package orgs.transfer;
+
+import orgs.logging.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Persists the committed offset of unfinished transfers, so they can continue after a
+ * dropped connection or a restart of the client.
+ *
+ * Every transfer is a small properties file in the journal directory, named after its key
+ * (e.g. "upload-{transferId}" or "media-{mediaId}"). Files are replaced atomically, so a
+ * crash while writing leaves the previous offset, never a torn one.
+ *
+ * The directory is taken from the system property tusal.transfer.journalDir and defaults
+ * to ~/.tusal/transfers.
+ */
+public class TransferJournal {
+
+    public static final String DIRECTORY_PROPERTY = "tusal.transfer.journalDir";
+
+    private static final String SUFFIX = ".transfer";
+
+    private final Path directory;
+
+    public TransferJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    public static TransferJournal openDefault() {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        Path directory = configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".tusal", "transfers");
+        return new TransferJournal(directory);
+    }
+
+    /**
+     * One unfinished transfer.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long committed;
+
+        /**
+         * @param path      The local file (the source of an upload, the partial file of a download).
+         * @param size      The total size of the transfer.
+         * @param committed The number of bytes acknowledged by the receiving side.
+         */
+        public Entry(String path, long size, long committed) {
+            this.path = path;
+            this.size = size;
+            this.committed = committed;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCommitted() {
+            return committed;
+        }
+
+        public Entry withCommitted(long committed) {
+            return new Entry(path, size, committed);
+        }
+    }
+
+    /**
+     * @return The entry for the key, or null if there is none or it cannot be read.
+     */
+    public synchronized Entry get(String key) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(fileOf(key))) {
+            properties.load(in);
+            return new Entry(properties.getProperty("path"),
+                    Long.parseLong(properties.getProperty("size")),
+                    Long.parseLong(properties.getProperty("committed")));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Ignoring unreadable transfer journal entry " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("path", entry.getPath());
+        properties.setProperty("size", Long.toString(entry.getSize()));
+        properties.setProperty("committed", Long.toString(entry.getCommitted()));
+
+        Files.createDirectories(directory);
+        Path file = fileOf(key);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        ZeroCopy.moveIntoPlace(temp, file);
+    }
+
+    public synchronized void remove(String key) {
+        try {
+            Files.deleteIfExists(fileOf(key));
+        } catch (IOException e) {
+            Log.warn("Could not remove transfer journal entry " + key + ": " + e.getMessage());
+        }
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(key.replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+    }
+}
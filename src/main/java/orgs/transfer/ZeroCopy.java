@@ -0,0 +1,307 @@
+package orgs.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+
+/**
+ * Channel-to-channel file transfer helpers for the file port.
+ *
+ * FileChannel.transferTo into a SocketChannel lets the kernel move the bytes (sendfile on
+ * Linux) instead of copying every chunk through a heap byte[] and the socket stream.
+ * Downloads use FileChannel.transferFrom, which reads the socket into a reused direct
+ * buffer and writes it at the file position without a heap copy.
+ * Transfers are done in strides of STRIDE bytes so progress can still be reported.
+ * A download that must be verified does the same read and write itself, so every stride
+ * also goes through a TransferDigest on its way to the file.
+ */
+public final class ZeroCopy {
+
+    /** Bytes handed to the kernel per call; also the granularity of progress callbacks. */
+    public static final long STRIDE = 1024 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private ZeroCopy() {
+    }
+
+    /**
+     * Sends count bytes of a file, starting at position, to the target channel.
+     *
+     * @param source     The file to read from.
+     * @param position   The file offset to start at.
+     * @param count      The number of bytes to send.
+     * @param target     Usually a blocking SocketChannel.
+     * @param onProgress Called after every stride with the number of bytes sent in it; may be null.
+     * @return The number of bytes sent (always count).
+     * @throws EOFException If the file ends before count bytes were sent.
+     */
+    public static long transferToFully(FileChannel source, long position, long count,
+                                       WritableByteChannel target, LongConsumer onProgress) throws IOException {
+        return transferToFully(source, position, count, target, null, onProgress);
+    }
+
+    /**
+     * Like transferToFully, but hands the kernel no more bytes at a time than throttle allows.
+     *
+     * @param throttle Paces the strides; may be null.
+     */
+    public static long transferToFully(FileChannel source, long position, long count, WritableByteChannel target,
+                                       Throttle throttle, LongConsumer onProgress) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long stride = Math.min(STRIDE, count - sent);
+            if (throttle != null) {
+                stride = throttle.acquire(stride);
+            }
+            long n = source.transferTo(position + sent, stride, target);
+            if (n <= 0) {
+                if (position + sent >= source.size()) {
+                    throw new EOFException("File ended after " + sent + " of " + count + " bytes");
+                }
+                continue; // Nothing moved this time (e.g. a non-blocking target), try again
+            }
+            sent += n;
+            if (onProgress != null) {
+                onProgress.accept(n);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Sends exactly count bytes read from a channel, e.g. a producer's stream rather than a
+     * file, so nothing goes through a temporary file first.
+     *
+     * @param throttle   Paces the writes; may be null.
+     * @param digest     Digests the bytes as they are sent; may be null.
+     * @param onProgress Called after every stride with the number of bytes sent in it; may be null.
+     * @return The number of bytes sent (always count).
+     * @throws EOFException If the source ends before count bytes were read.
+     */
+    public static long copyFully(ReadableByteChannel source, long count, WritableByteChannel target,
+                                 Throttle throttle, TransferDigest digest, LongConsumer onProgress) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(STRIDE, Math.max(count, 1)));
+        WritableByteChannel out = throttle == null ? target : throttle.pace(target);
+        long sent = 0;
+        while (sent < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - sent));
+            int n = source.read(buffer);
+            if (n < 0) {
+                throw new EOFException("Source ended after " + sent + " of " + count + " bytes");
+            }
+            buffer.flip();
+            if (digest != null) {
+                digest.update(sent, buffer);
+            }
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            sent += n;
+            if (onProgress != null) {
+                onProgress.accept(n);
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Receives count bytes from the source channel into a file, starting at position.
+     *
+     * @param onProgress Called after every stride with the number of bytes received in it; may be null.
+     * @return The number of bytes received (always count).
+     * @throws EOFException If the source ends before count bytes arrived.
+     */
+    public static long transferFromFully(ReadableByteChannel source, FileChannel target, long position, long count,
+                                         LongConsumer onProgress) throws IOException {
+        long received = 0;
+        while (received < count) {
+            long n = target.transferFrom(source, position + received, Math.min(STRIDE, count - received));
+            if (n <= 0) {
+                // transferFrom reports the end of a socket as 0 bytes
+                throw new EOFException("Connection closed after " + received + " of " + count + " bytes");
+            }
+            received += n;
+            if (onProgress != null) {
+                onProgress.accept(n);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Receives count bytes from the source channel into a file like transferFromFully, and
+     * digests every stride between reading it and writing it.
+     *
+     * @param digest     Must already hold every byte before position.
+     * @param onProgress Called after every stride with the number of bytes received in it; may be null.
+     * @return The number of bytes received (always count).
+     * @throws EOFException If the source ends before count bytes arrived.
+     */
+    public static long receiveFully(ReadableByteChannel source, FileChannel target, long position, long count,
+                                    TransferDigest digest, LongConsumer onProgress) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(STRIDE, Math.max(count, 1)));
+        long received = 0;
+        while (received < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - received));
+            int n = source.read(buffer);
+            if (n < 0) {
+                throw new EOFException("Connection closed after " + received + " of " + count + " bytes");
+            }
+            buffer.flip();
+            digest.update(position + received, buffer);
+            while (buffer.hasRemaining()) {
+                target.write(buffer, position + received + buffer.position());
+            }
+            received += n;
+            if (onProgress != null) {
+                onProgress.accept(n);
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Downloads exactly size bytes into target without ever exposing a partial file.
+     *
+     * The bytes go to a hidden ".part" file next to the target, preallocated to the announced
+     * size so the file system does not grow it chunk by chunk. Only when every byte has
+     * arrived and been forced to disk is it renamed onto the target, atomically where the
+     * file system supports it. On any failure the temporary file is deleted.
+     *
+     * When the server announced the SHA-256 of the file, the bytes are digested as they
+     * arrive and a file with a different digest is deleted instead of moved into place.
+     *
+     * @param source         The socket channel, positioned at the first file byte.
+     * @param target         The final location of the file; an existing file is replaced.
+     * @param size           The size announced by the server (fileSize of READY_TO_SEND_FILE).
+     * @param expectedSha256 The hex SHA-256 announced by the server, or null to skip verification.
+     * @param onProgress     Called after every stride with the number of bytes received in it; may be null.
+     * @param growing        Told about the part file and the bytes written to it, for reading it while it grows; may be null.
+     * @return The verified SHA-256, or null if none was expected.
+     * @throws TransferDigest.MismatchException If the content does not match expectedSha256.
+     */
+    public static String downloadToFile(ReadableByteChannel source, Path target, long size, String expectedSha256,
+                                        LongConsumer onProgress, GrowingFile growing) throws IOException {
+        Path part = createPartFile(target);
+        if (growing != null) {
+            growing.attach(part, size, 0);
+            long[] written = {0};
+            LongConsumer report = onProgress;
+            onProgress = n -> {
+                if (report != null) {
+                    report.accept(n);
+                }
+                growing.commit(written[0] += n);
+            };
+        }
+        TransferDigest digest = null;
+        boolean done = false;
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw")) {
+                // Preallocate; transferFrom also never writes past the current end of the file
+                file.setLength(size);
+                FileChannel channel = file.getChannel();
+                if (expectedSha256 != null) {
+                    digest = new TransferDigest();
+                    receiveFully(source, channel, 0, size, digest, onProgress);
+                    digest.verify(expectedSha256);
+                } else {
+                    transferFromFully(source, channel, 0, size, onProgress);
+                }
+                channel.force(false);
+            }
+            moveIntoPlace(part, target);
+            done = true;
+            return digest == null ? null : digest.finish();
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty, uniquely named ".part" file next to target (and its directory, if missing).
+     */
+    static Path createPartFile(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        // Not Files.createTempFile: that file would be owner-only, unlike a normally created download
+        return Files.createFile(directory.resolve("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + PART_SUFFIX));
+    }
+
+    /**
+     * Moves a finished file onto its target, atomically where the file system supports it.
+     */
+    static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes a protocol line (e.g. the transferId) to a channel, terminated by '\n'.
+     */
+    public static void writeLine(WritableByteChannel channel, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads one '\n'-terminated line from a channel, one byte at a time so that no
+     * bytes after the line are consumed.
+     * @return The line without its terminator, or null if the channel ended first.
+     */
+    public static String readLine(ReadableByteChannel channel) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        StringBuilder line = new StringBuilder(32);
+        while (true) {
+            one.clear();
+            if (channel.read(one) < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            char c = (char) one.get(0);
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Opens a blocking SocketChannel with the options used for bulk file transfers.
+     */
+    public static SocketChannel openBulkChannel(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setSendBufferSize(1 << 20);
+            channel.socket().setReceiveBufferSize(1 << 20);
+            channel.connect(new InetSocketAddress(host, port));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+}
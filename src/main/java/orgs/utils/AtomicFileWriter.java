@@ -0,0 +1,231 @@
+package orgs.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes streams to files so that a crash never leaves a partial file under the final name.
+ *
+ * The bytes go to a hidden ".tmp" file next to the target, through a FileChannel in
+ * BUFFER_SIZE writes from pooled direct buffers, and the finished file is renamed onto the
+ * target atomically. How much survives a power loss is set by the Fsync policy:
+ * - NONE: nothing is forced; after a power loss a file may exist but be empty.
+ * - DATA: the file is forced before the rename, so a file under its final name is complete.
+ * - FULL: also the directory after the rename, so a file that was reported stored stays stored.
+ *
+ * writeAsync runs on a bounded pool ("StorageWriter-N"); when its queue is full the caller
+ * writes itself, which holds back new uploads instead of piling them up in memory.
+ *
+ * The settings come from system properties (see fromSystemProperties):
+ * tusal.storage.fsync (none, data or full; default full) and tusal.storage.writers.
+ */
+public class AtomicFileWriter {
+
+    public enum Fsync { NONE, DATA, FULL }
+
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_WORKERS = 4;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final Fsync fsync;
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final int maxPooledBuffers;
+
+    /**
+     * @param workerCount The number of files written at the same time by writeAsync.
+     */
+    public AtomicFileWriter(int workerCount, Fsync fsync) {
+        this.fsync = fsync;
+        // One buffer per writer, plus a few for callers writing on their own thread
+        this.maxPooledBuffers = workerCount + 4;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+                    Thread t = new Thread(r, "StorageWriter-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return A writer configured by the tusal.storage.* system properties.
+     * @throws IllegalArgumentException If tusal.storage.fsync is not none, data or full.
+     */
+    public static AtomicFileWriter fromSystemProperties() {
+        return new AtomicFileWriter(Integer.getInteger("tusal.storage.writers", DEFAULT_WORKERS),
+                Fsync.valueOf(System.getProperty("tusal.storage.fsync", "full").toUpperCase(Locale.ROOT)));
+    }
+
+    public Fsync getFsync() {
+        return fsync;
+    }
+
+    /**
+     * @return The bounded pool writeAsync runs on, for other work that writes files.
+     */
+    Executor executor() {
+        return workers;
+    }
+
+    /**
+     * Writes a stream to target on a worker. The stream is read there, so it must stay open
+     * until the future completes; it is not closed.
+     * @return The number of bytes written; completed exceptionally with the IOException of a
+     * failed write, in which case target is untouched.
+     */
+    public CompletableFuture<Long> writeAsync(InputStream in, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(in, target);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, workers);
+    }
+
+    /**
+     * Writes a stream to target on the calling thread, replacing a file that is there.
+     * The stream is read to its end but not closed.
+     * @return The number of bytes written.
+     * @throws IOException If the write fails, in which case target is untouched.
+     */
+    public long write(InputStream in, Path target) throws IOException {
+        Path temp = tempFileFor(target.toAbsolutePath().getParent(), target.getFileName().toString());
+        long written = writeTemp(in, temp, null);
+        moveIntoPlace(temp, target);
+        return written;
+    }
+
+    /**
+     * @return A path for a new temporary file in directory; hidden, and named after name so
+     * a leftover can be told apart.
+     */
+    public Path tempFileFor(Path directory, String name) {
+        return directory.resolve("." + name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+    }
+
+    /**
+     * @return True if file is a temporary file of this writer, e.g. one left by a crash.
+     */
+    public static boolean isTempFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(".") && name.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * The first half of write, for a caller that picks the target only once the bytes are
+     * written, e.g. by their digest: writes a stream to a new temp file (see tempFileFor) and,
+     * unless the policy is NONE, forces it.
+     * @param digest Updated with the bytes written, or null.
+     * @return The number of bytes written.
+     * @throws IOException If the write fails, in which case temp is deleted.
+     */
+    public long writeTemp(InputStream in, Path temp, MessageDigest digest) throws IOException {
+        Files.createDirectories(temp.getParent());
+        ByteBuffer buffer = acquireBuffer();
+        boolean done = false;
+        try {
+            long written = 0;
+            // A plain FileInputStream hands over its own channel, so nothing is copied twice
+            ReadableByteChannel source = Channels.newChannel(in);
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                boolean ended = false;
+                while (!ended) {
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer) < 0) {
+                            ended = true;
+                            break;
+                        }
+                    }
+                    buffer.flip();
+                    if (digest != null) {
+                        digest.update(buffer.duplicate());
+                    }
+                    while (buffer.hasRemaining()) {
+                        written += out.write(buffer);
+                    }
+                }
+                if (fsync != Fsync.NONE) {
+                    out.force(false);
+                }
+            }
+            done = true;
+            return written;
+        } finally {
+            releaseBuffer(buffer);
+            if (!done) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * The second half of write: renames a temp file from writeTemp onto target atomically,
+     * replacing a file that is there, and under the FULL policy forces the directory.
+     * @throws IOException If the rename fails, in which case temp is deleted.
+     */
+    public void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (fsync == Fsync.FULL) {
+            forceDirectory(target.toAbsolutePath().getParent());
+        }
+    }
+
+    /**
+     * Makes a rename in directory durable. Not every platform can open a directory (Windows
+     * cannot); the rename is still atomic there, only its durability is up to the file system.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // See above
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // Racy bound, but it only decides whether a spare buffer is kept or left to the GC
+        if (buffers.size() < maxPooledBuffers) {
+            buffers.offer(buffer);
+        }
+    }
+}
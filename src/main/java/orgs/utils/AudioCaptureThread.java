@@ -101,6 +101,12 @@
 //}
 package orgs.utils;
 
+import orgs.logging.Log;
+import orgs.logging.LogSite;
+import orgs.metrics.Channel;
+import orgs.metrics.ClientMetrics;
+import orgs.transfer.BandwidthScheduler;
+
 import javax.sound.sampled.*;
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -119,6 +125,9 @@ public class AudioCaptureThread extends Thread {
     private AtomicBoolean running = new AtomicBoolean(true);
     private TargetDataLine targetDataLine; // Line for capturing audio
 
+    // Per-packet problems, at most a few per second
+    private static final LogSite PACKET_LOG = Log.site(5, 1000);
+
     // Audio format for capture and playback
     private static final float SAMPLE_RATE = 16000; // 16 kHz
     private static final int SAMPLE_SIZE_IN_BITS = 16;
@@ -146,19 +155,19 @@ public class AudioCaptureThread extends Thread {
         if (targetDataLine != null) {
             targetDataLine.stop();
             targetDataLine.close();
-            System.out.println("Audio capture line closed.");
+            Log.info("Audio capture line closed.");
         }
     }
 
     @Override
     public void run() {
-        System.out.println("Audio capture thread started.");
+        Log.info("Audio capture thread started.");
 
         AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE_IN_BITS, CHANNELS, SIGNED, BIG_ENDIAN);
         DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
 
         if (!AudioSystem.isLineSupported(info)) {
-            System.err.println("Audio capture line not supported: " + info);
+            Log.error("Audio capture line not supported: " + info);
             running.set(false);
             return;
         }
@@ -173,7 +182,7 @@ public class AudioCaptureThread extends Thread {
 
             byte[] buffer = new byte[BUFFER_SIZE]; // Buffer for each UDP packet
 
-            System.out.println("Audio capture started. Sending to " + remoteIp + ":" + remoteUdpPort +
+            Log.info("Audio capture started. Sending to " + remoteIp + ":" + remoteUdpPort +
                     " with packet size " + BUFFER_SIZE + " bytes (" + PACKET_DURATION_MS + "ms audio).");
 
             while (running.get()) {
@@ -187,32 +196,31 @@ public class AudioCaptureThread extends Thread {
                         DatagramPacket packet = new DatagramPacket(buffer, 0, bytesToSend, remoteIp, remoteUdpPort);
                         try {
                             udpSocket.send(packet);
+                            ClientMetrics.get().addBytesOut(Channel.AUDIO_UDP, bytesToSend);
+                            BandwidthScheduler.get().recordAudio(bytesToSend);
                             // System.out.println("Sent audio packet: " + bytesToSend + " bytes");
                         } catch (IOException e) {
                             if (running.get()) {
-                                System.err.println("Error sending audio packet: " + e.getMessage());
+                                PACKET_LOG.error("Error sending audio packet: %s", e.getMessage());
                             }
                         }
                     } else {
-                        System.err.println("Captured non-integral number of frames. Discarding " + bytesRead + " bytes.");
+                        PACKET_LOG.warn("Captured non-integral number of frames. Discarding %d bytes.", bytesRead);
                     }
                 }
             }
         } catch (LineUnavailableException e) {
-            System.err.println("Microphone line unavailable: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Microphone line unavailable: " + e.getMessage(), e);
         } catch (SecurityException e) {
-            System.err.println("Security exception: Permission to access microphone denied. " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Security exception: Permission to access microphone denied. " + e.getMessage(), e);
         } catch (Exception e) {
-            System.err.println("An unexpected error occurred in audio capture: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("An unexpected error occurred in audio capture: " + e.getMessage(), e);
         } finally {
             if (targetDataLine != null && targetDataLine.isOpen()) {
                 targetDataLine.stop();
                 targetDataLine.close();
             }
-            System.out.println("Audio capture thread stopped.");
+            Log.info("Audio capture thread stopped.");
         }
     }
 }
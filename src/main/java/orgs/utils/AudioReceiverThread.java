@@ -111,6 +111,11 @@
 //}
 package orgs.utils;
 
+import orgs.logging.Log;
+import orgs.logging.LogSite;
+import orgs.metrics.Channel;
+import orgs.metrics.ClientMetrics;
+
 import javax.sound.sampled.*;
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -131,6 +136,9 @@ public class AudioReceiverThread extends Thread {
     private AtomicBoolean running = new AtomicBoolean(true);
     private SourceDataLine sourceDataLine; // Line for playing audio
 
+    // Per-packet problems, at most a few per second
+    private static final LogSite PACKET_LOG = Log.site(5, 1000);
+
     // Audio format (must match capture format)
     private static final float SAMPLE_RATE = 16000; // 16 kHz
     private static final int SAMPLE_SIZE_IN_BITS = 16;
@@ -158,19 +166,19 @@ public class AudioReceiverThread extends Thread {
         if (sourceDataLine != null) {
             sourceDataLine.stop();
             sourceDataLine.close();
-            System.out.println("Audio playback line closed.");
+            Log.info("Audio playback line closed.");
         }
     }
 
     @Override
     public void run() {
-        System.out.println("Audio receiver thread started.");
+        Log.info("Audio receiver thread started.");
 
         AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_SIZE_IN_BITS, CHANNELS, SIGNED, BIG_ENDIAN);
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
 
         if (!AudioSystem.isLineSupported(info)) {
-            System.err.println("Audio playback line not supported: " + info);
+            Log.error("Audio playback line not supported: " + info);
             running.set(false);
             return;
         }
@@ -183,7 +191,7 @@ public class AudioReceiverThread extends Thread {
 
             byte[] receiveBuffer = new byte[EXPECTED_PACKET_SIZE + 100]; // Slightly larger than expected packet size for safety
 
-            System.out.println("Audio playback started. Listening on port " + udpSocket.getLocalPort() +
+            Log.info("Audio playback started. Listening on port " + udpSocket.getLocalPort() +
                     ". Expected packet size: " + EXPECTED_PACKET_SIZE + " bytes. Frame size: " + FRAME_SIZE + " bytes.");
 
             // Thread for receiving packets and adding to jitter buffer
@@ -193,6 +201,7 @@ public class AudioReceiverThread extends Thread {
                     try {
                         udpSocket.receive(packet);
                         int bytesReceived = packet.getLength();
+                        ClientMetrics.get().addBytesIn(Channel.AUDIO_UDP, bytesReceived);
 
                         if (bytesReceived > 0) {
                             // Ensure the received data is a multiple of the frame size
@@ -201,23 +210,23 @@ public class AudioReceiverThread extends Thread {
                             if (bytesToProcess > 0) {
                                 byte[] audioData = Arrays.copyOf(packet.getData(), bytesToProcess);
                                 if (!jitterBuffer.offer(audioData, 1, TimeUnit.SECONDS)) { // Offer with timeout
-                                    System.err.println("Jitter buffer full, dropping audio packet.");
+                                    PACKET_LOG.warn("Jitter buffer full, dropping audio packet.");
                                 }
                             } else {
-                                System.err.println("Received audio packet with non-integral number of frames. Discarding " + bytesReceived + " bytes.");
+                                PACKET_LOG.warn("Received audio packet with non-integral number of frames. Discarding %d bytes.", bytesReceived);
                             }
                         }
                     } catch (IOException e) {
                         if (running.get() && !udpSocket.isClosed()) {
-                            System.err.println("Error receiving audio packet: " + e.getMessage());
+                            PACKET_LOG.error("Error receiving audio packet: %s", e.getMessage());
                         }
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         running.set(false);
-                        System.out.println("Audio receiver thread interrupted during buffer offer.");
+                        Log.info("Audio receiver thread interrupted during buffer offer.");
                     }
                 }
-                System.out.println("UDP packet receiver sub-thread stopped.");
+                Log.info("UDP packet receiver sub-thread stopped.");
             }, "AudioPacketReceiver");
             receiverThread.start();
 
@@ -239,27 +248,23 @@ public class AudioReceiverThread extends Thread {
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     running.set(false);
-                    System.out.println("Audio playback thread interrupted.");
+                    Log.info("Audio playback thread interrupted.");
                 } catch (Exception e) {
-                    System.err.println("An unexpected error occurred during audio playback: " + e.getMessage());
-                    e.printStackTrace();
+                    Log.error("An unexpected error occurred during audio playback: " + e.getMessage(), e);
                 }
             }
         } catch (LineUnavailableException e) {
-            System.err.println("Speaker line unavailable: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Speaker line unavailable: " + e.getMessage(), e);
         } catch (SecurityException e) {
-            System.err.println("Security exception: Permission to access speakers denied. " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Security exception: Permission to access speakers denied. " + e.getMessage(), e);
         } catch (Exception e) {
-            System.err.println("An unexpected error occurred in audio reception: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("An unexpected error occurred in audio reception: " + e.getMessage(), e);
         } finally {
             if (sourceDataLine != null && sourceDataLine.isOpen()) {
                 sourceDataLine.stop();
                 sourceDataLine.close();
             }
-            System.out.println("Audio receiver thread stopped.");
+            Log.info("Audio receiver thread stopped.");
         }
     }
 }
@@ -0,0 +1,480 @@
+package orgs.utils;
+
+import orgs.logging.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Media stored once per content, however many times it is uploaded.
+ *
+ * A blob is named by the hex SHA-256 of its bytes, two shard levels deep under the blob
+ * directory (blobs/3f/a2/3fa2...), and written once: a put whose content is already there
+ * discards its own copy. Entries, the flat paths FileStorageManager hands out, map to blobs
+ * in an index kept in memory and in an append-only journal (refs.log) with one line per
+ * added or released entry. The reference count of a blob is the number of entries mapping
+ * to it.
+ *
+ * Releasing the last entry of a blob does not delete it; compact does, in the background
+ * (startCompaction), along with temp files left by a crash, and rewrites the journal with
+ * the live entries only. A put and the deletion of its blob lock the same stripe, so
+ * compaction never deletes a blob while an entry is being added to it.
+ *
+ * Like the blobs, the journal is forced to disk under the FULL fsync policy of the writer.
+ * A closed store stops compacting and releases the journal; puts, releases and compact then fail.
+ */
+public class ContentStore implements AutoCloseable {
+
+    public static final String JOURNAL_NAME = "refs.log";
+
+    private static final int LOCK_STRIPES = 64;
+    // A temp file untouched for this long belongs to no write in progress
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String ADDED = "+";
+    private static final String RELEASED = "-";
+
+    private final Path directory;
+    private final Path journalFile;
+    private final AtomicFileWriter writer;
+    // Map: <Entry, blob hash>; changed only under journalLock, so the journal matches it
+    private final ConcurrentMap<String, String> entries = new ConcurrentHashMap<>();
+    // Map: <Blob hash, entries mapping to it>
+    private final ConcurrentMap<String, Integer> refCounts = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Object journalLock = new Object();
+    private FileChannel journal; // Guarded by journalLock
+    private long journalLines; // Guarded by journalLock
+    private ScheduledExecutorService compactor; // Guarded by this
+    private boolean closed; // Guarded by this
+
+    /**
+     * Opens the store in directory, creating it if needed, and loads its index.
+     * @param writer Writes the blobs, and sets the fsync policy of the journal.
+     */
+    public ContentStore(Path directory, AtomicFileWriter writer) throws IOException {
+        this.directory = directory;
+        this.journalFile = directory.resolve(JOURNAL_NAME);
+        this.writer = writer;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        load();
+        Log.info("Content store %s: %d entries, %d blobs, loaded in %d ms", directory, entries.size(), refCounts.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Stores a stream under entry on the calling thread. The stream is read to its end but
+     * not closed.
+     * @param entry The path the content is known by, e.g. "uploads/images/abc.jpg".
+     * @return The hex SHA-256 of the content, which names its blob.
+     * @throws IOException If the write fails, in which case no entry is added.
+     * @throws IllegalArgumentException If entry is already stored (of concurrent puts of one
+     * entry, the last one wins) or has a line break.
+     */
+    public String put(InputStream in, String entry) throws IOException {
+        if (entry.indexOf('\n') >= 0 || entry.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Entry has a line break: " + entry);
+        }
+        if (entries.containsKey(entry)) {
+            throw new IllegalArgumentException("Already stored: " + entry);
+        }
+        MessageDigest digest = sha256();
+        Path temp = writer.tempFileFor(directory, "blob");
+        writer.writeTemp(in, temp, digest);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path blob = blobPath(hash);
+        try {
+            synchronized (lockFor(hash)) {
+                if (Files.exists(blob)) {
+                    Files.delete(temp); // Same bytes as the blob, which stays as it is
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    writer.moveIntoPlace(temp, blob);
+                }
+                record(ADDED + "\t" + hash + "\t" + entry, () -> add(entry, hash));
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    /**
+     * Stores a stream like put, on a writer thread instead of the calling one. The stream is
+     * read there, so close it only once the future has completed.
+     * @return Completed with the hash of the content, or exceptionally with the exception of put.
+     */
+    public CompletableFuture<String> putAsync(InputStream in, String entry) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return put(in, entry);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, writer.executor());
+    }
+
+    /**
+     * @return The blob of entry, or null if entry is not stored here.
+     */
+    public Path resolve(String entry) {
+        String hash = entries.get(entry);
+        return hash != null ? blobPath(hash) : null;
+    }
+
+    /**
+     * Removes entry. Its blob stays until compaction, and only if no other entry maps to it.
+     * @return False if entry was not stored here.
+     */
+    public boolean release(String entry) throws IOException {
+        String hash = entries.get(entry);
+        if (hash == null) {
+            return false;
+        }
+        synchronized (lockFor(hash)) {
+            if (!hash.equals(entries.get(entry))) {
+                return false; // Released meanwhile
+            }
+            record(RELEASED + "\t" + entry, () -> {
+                entries.remove(entry);
+                refCounts.computeIfPresent(hash, (h, count) -> count > 1 ? count - 1 : null);
+            });
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of entries mapping to the blob of hash.
+     */
+    public int getRefCount(String hash) {
+        return refCounts.getOrDefault(hash, 0);
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of blobs at least one entry maps to.
+     */
+    public int getBlobCount() {
+        return refCounts.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Runs compact every periodMinutes on a background thread ("StorageCompactor"), starting
+     * one period from now. Does nothing if periodMinutes is not positive, it runs already or
+     * the store is closed.
+     */
+    public synchronized void startCompaction(long periodMinutes) {
+        if (periodMinutes <= 0 || compactor != null || closed) {
+            return;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "StorageCompactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Compacting " + directory + " failed: " + e.getMessage());
+            }
+        }, periodMinutes, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the background compaction and closes the journal. Blobs and the journal stay on
+     * disk for the next store opened on the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (compactor != null) {
+                compactor.shutdownNow();
+                compactor = null;
+            }
+        }
+        synchronized (journalLock) {
+            journal.close();
+        }
+    }
+
+    /**
+     * What a compaction did.
+     */
+    public static final class Compaction {
+        private long blobsDeleted;
+        private long bytesFreed;
+        private long tempFilesDeleted;
+        private long journalLinesDropped;
+
+        public long getBlobsDeleted() {
+            return blobsDeleted;
+        }
+
+        public long getBytesFreed() {
+            return bytesFreed;
+        }
+
+        public long getTempFilesDeleted() {
+            return tempFilesDeleted;
+        }
+
+        public long getJournalLinesDropped() {
+            return journalLinesDropped;
+        }
+
+        @Override
+        public String toString() {
+            return blobsDeleted + " blobs deleted (" + bytesFreed / (1024 * 1024) + " MB), " + tempFilesDeleted
+                    + " temp files deleted, " + journalLinesDropped + " journal lines dropped";
+        }
+    }
+
+    /**
+     * Deletes the blobs no entry maps to and stale temp files, and rewrites the journal with
+     * the live entries. Puts and releases wait while the journal is rewritten, not while
+     * blobs are deleted.
+     * @throws IOException If the journal cannot be rewritten or the blob directory read.
+     */
+    public Compaction compact() throws IOException {
+        long start = System.nanoTime();
+        Compaction result = new Compaction();
+        result.journalLinesDropped = rewriteJournal();
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> top = Files.newDirectoryStream(directory)) {
+            for (Path first : top) {
+                if (AtomicFileWriter.isTempFile(first)) {
+                    deleteIfStale(first, staleBefore, result);
+                } else if (isShardDirectory(first)) {
+                    try (DirectoryStream<Path> seconds = Files.newDirectoryStream(first)) {
+                        for (Path second : seconds) {
+                            if (isShardDirectory(second)) {
+                                compactShard(second, staleBefore, result);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Log.info("Compacted %s in %d ms: %s", directory, (System.nanoTime() - start) / 1_000_000, result);
+        return result;
+    }
+
+    private void compactShard(Path shard, long staleBefore, Compaction result) throws IOException {
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(shard)) {
+            for (Path blob : blobs) {
+                String hash = blob.getFileName().toString();
+                if (AtomicFileWriter.isTempFile(blob)) {
+                    deleteIfStale(blob, staleBefore, result);
+                } else if (isHash(hash) && !refCounts.containsKey(hash)) {
+                    synchronized (lockFor(hash)) {
+                        // A put may have added an entry since the check above
+                        if (!refCounts.containsKey(hash)) {
+                            long size = Files.size(blob);
+                            if (Files.deleteIfExists(blob)) {
+                                result.blobsDeleted++;
+                                result.bytesFreed += size;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void deleteIfStale(Path temp, long staleBefore, Compaction result) throws IOException {
+        try {
+            if (Files.getLastModifiedTime(temp, LinkOption.NOFOLLOW_LINKS).toMillis() < staleBefore && Files.deleteIfExists(temp)) {
+                result.tempFilesDeleted++;
+            }
+        } catch (NoSuchFileException e) {
+            // Moved into place or deleted by its put since the directory was listed
+        }
+    }
+
+    /**
+     * Replaces the journal with one ADDED line per entry, unless it has no other lines.
+     * @return The number of lines dropped.
+     */
+    private long rewriteJournal() throws IOException {
+        synchronized (journalLock) {
+            if (!journal.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            long dropped = journalLines - entries.size();
+            if (dropped <= 0) {
+                return 0;
+            }
+            Path temp = writer.tempFileFor(directory, JOURNAL_NAME);
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                Writer lines = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8), AtomicFileWriter.BUFFER_SIZE);
+                for (Map.Entry<String, String> e : entries.entrySet()) {
+                    lines.write(ADDED + "\t" + e.getValue() + "\t" + e.getKey() + "\n");
+                }
+                lines.flush();
+                if (writer.getFsync() != AtomicFileWriter.Fsync.NONE) {
+                    out.force(false);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            journal.close();
+            try {
+                writer.moveIntoPlace(temp, journalFile);
+            } finally {
+                // The old journal again if the rename failed, which still holds every entry
+                journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            journalLines = entries.size();
+            return dropped;
+        }
+    }
+
+    /**
+     * Appends line to the journal and then applies the change it describes to the index.
+     */
+    private void record(String line, Runnable change) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (journalLock) {
+            try {
+                while (bytes.hasRemaining()) {
+                    journal.write(bytes);
+                }
+                if (writer.getFsync() == AtomicFileWriter.Fsync.FULL) {
+                    journal.force(false);
+                }
+            } catch (IOException e) {
+                throw new IOException("Could not record " + line + " in " + journalFile + ": " + e.getMessage(), e);
+            }
+            change.run();
+            journalLines++;
+        }
+    }
+
+    /**
+     * Maps entry to hash, or remaps it: the journal allows it, although put refuses it.
+     */
+    private void add(String entry, String hash) {
+        String previous = entries.put(entry, hash);
+        if (previous != null) {
+            refCounts.computeIfPresent(previous, (h, count) -> count > 1 ? count - 1 : null);
+        }
+        refCounts.merge(hash, 1, Integer::sum);
+    }
+
+    /**
+     * Replays the journal into the index and opens it for appending. A last line without its
+     * line break was torn by a crash and is cut off.
+     */
+    private void load() throws IOException {
+        long complete = 0;
+        long position = 0;
+        if (Files.exists(journalFile)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(journalFile), AtomicFileWriter.BUFFER_SIZE)) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(160);
+                int b;
+                while ((b = in.read()) >= 0) {
+                    position++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    replay(line.toString(StandardCharsets.UTF_8));
+                    line.reset();
+                    complete = position;
+                    journalLines++;
+                }
+            }
+        }
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (complete < position) {
+            Log.warn("Cutting a torn line off " + journalFile);
+            journal.truncate(complete);
+        }
+    }
+
+    /**
+     * Applies one journal line. An entry may hold tabs, so it is always the rest of the line.
+     */
+    private void replay(String line) {
+        String[] fields = line.split("\t", 2);
+        String[] added = ADDED.equals(fields[0]) && fields.length == 2 ? fields[1].split("\t", 2) : null;
+        if (added != null && added.length == 2 && isHash(added[0])) {
+            add(added[1], added[0]);
+        } else if (RELEASED.equals(fields[0]) && fields.length == 2) {
+            String hash = entries.remove(fields[1]);
+            if (hash != null) {
+                refCounts.computeIfPresent(hash, (h, count) -> count > 1 ? count - 1 : null);
+            }
+        } else {
+            Log.warn("Skipping a malformed line in " + journalFile + ": " + line);
+        }
+    }
+
+    /**
+     * @return Where the blob of hash is kept, e.g. "blobs/3f/a2/3fa2...".
+     */
+    public Path blobPath(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static boolean isShardDirectory(Path path) {
+        String name = path.getFileName().toString();
+        return name.length() == 2 && HexFormat.isHexDigit(name.charAt(0)) && HexFormat.isHexDigit(name.charAt(1))
+                && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static boolean isHash(String name) {
+        return name.matches("[0-9a-f]{64}");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every JDK has it
+        }
+    }
+}
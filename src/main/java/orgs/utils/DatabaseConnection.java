@@ -1,6 +1,8 @@
 
 package orgs.utils;
 
+import orgs.logging.Log;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -23,11 +25,11 @@ public class DatabaseConnection {
         // If the connection is null or closed, re-establish it
         if (connection == null || connection.isClosed()) {
             try {
-                System.out.println("Attempting to establish new database connection...");
+                Log.info("Attempting to establish new database connection...");
                 connection = DriverManager.getConnection(JDBC_URL, DB_USERNAME, DB_PASSWORD);
-                System.out.println("Database connection established successfully!");
+                Log.info("Database connection established successfully!");
             } catch (SQLException e) {
-                System.err.println("Failed to establish database connection: " + e.getMessage());
+                Log.error("Failed to establish database connection: " + e.getMessage());
                 throw e; // Re-throw the exception for the caller to handle
             }
         }
@@ -39,11 +41,10 @@ public class DatabaseConnection {
             try {
                 if (!connection.isClosed()) {
                     connection.close();
-                    System.out.println("Database connection closed.");
+                    Log.info("Database connection closed.");
                 }
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Error closing database connection: " + e.getMessage(), e);
             } finally {
                 connection = null; // Set to null after closing
             }
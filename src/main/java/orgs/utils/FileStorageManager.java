@@ -1,29 +1,72 @@
 // src/orgs/utils/FileStorageManager.java
 package orgs.utils;
 
+import orgs.logging.Log;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Stores uploaded media under BASE_UPLOAD_DIR, one directory per message type.
+ *
+ * Files are spread over two levels of 256 shard directories named by the first two bytes
+ * of the SHA-256 of their file name (uploads/images/3f/a2/{uuid}.jpg), so no directory grows
+ * beyond a few thousand entries. The paths handed out and stored in the database stay flat
+ * (uploads/images/{uuid}.jpg); getAbsolutePath finds the file in either layout, so trees from
+ * before sharding keep working and can be moved over with ShardedLayoutMigrator.
+ *
+ * Files are written by an AtomicFileWriter: through a temporary file that is renamed into
+ * place once complete, so a crash never leaves a partial file under a stored path.
+ * saveFileAsync writes on the writer's pool, so request threads do not wait for the disk.
+ *
+ * With the system property tusal.storage.contentAddressed=true, the content of each file is
+ * stored once however often it is uploaded, as a blob in BASE_UPLOAD_DIR/blobs named by its
+ * SHA-256 (see ContentStore). The paths handed out stay the same, and getAbsolutePath maps
+ * them to their blob; deleteFile releases them, and blobs nothing maps to any more are
+ * deleted every tusal.storage.compactMinutes (default 60). Files stored before the mode was
+ * turned on keep being found where they are.
+ *
+ * readRange and transferRange serve any part of a stored file, e.g. to resume a download or
+ * to play from a position, through a StoredFileReader: handles of recently served files stay
+ * open, and small hot files are served from memory mappings.
+ */
 public class FileStorageManager {
 
     // Base directory for all uploads. Adjust this path as needed for your server.
     public static final String BASE_UPLOAD_DIR = "uploads"; // Relative to where your server JAR runs or an absolute path
 
+    /** The directories under BASE_UPLOAD_DIR that hold media, one per message type. */
+    public static final List<String> TYPE_DIRS = List.of("images", "videos", "voice_notes", "files");
+
+    /** The directory under BASE_UPLOAD_DIR that holds the blobs of the content-addressed mode. */
+    public static final String BLOB_DIR = "blobs";
+
+    private static final AtomicFileWriter WRITER = AtomicFileWriter.fromSystemProperties();
+    private static final StoredFileReader READER = StoredFileReader.fromSystemProperties();
+    // Null unless tusal.storage.contentAddressed is set
+    private static final ContentStore STORE = Boolean.getBoolean("tusal.storage.contentAddressed") ? openContentStore() : null;
+
     static {
         // Ensure the base upload directory exists
         try {
             Files.createDirectories(Paths.get(BASE_UPLOAD_DIR));
-            Files.createDirectories(Paths.get(BASE_UPLOAD_DIR, "images"));
-            Files.createDirectories(Paths.get(BASE_UPLOAD_DIR, "videos"));
-            Files.createDirectories(Paths.get(BASE_UPLOAD_DIR, "voice_notes"));
-            Files.createDirectories(Paths.get(BASE_UPLOAD_DIR, "files")); // For general files
+            for (String typeDir : TYPE_DIRS) {
+                Files.createDirectories(Paths.get(BASE_UPLOAD_DIR, typeDir));
+            }
         } catch (IOException e) {
-            System.err.println("Error creating upload directories: " + e.getMessage());
+            Log.error("Error creating upload directories: " + e.getMessage());
             // This is a critical error, you might want to stop the application or log it severely.
         }
     }
@@ -35,11 +78,119 @@ public class FileStorageManager {
      * @param inputStream The input stream of the file content.
      * @param originalFileName The original name of the file (used for extension).
      * @param messageType The type of message ('image', 'video', 'voiceNote', 'file').
-     * @return The relative path to the saved file (e.g., "uploads/images/unique_name.jpg").
+     * @return The relative path to the saved file (e.g., "uploads/images/unique_name.jpg"); the
+     * file itself is in a shard directory, see getAbsolutePath.
      * @throws IOException If an I/O error occurs during saving.
      * @throws IllegalArgumentException If an unsupported messageType is provided.
      */
     public static String saveFile(InputStream inputStream, String originalFileName, String messageType) throws IOException {
+        Path flatPath = newFlatPath(originalFileName, messageType);
+        if (STORE != null) {
+            STORE.put(inputStream, flatPath.toString());
+        } else {
+            WRITER.write(inputStream, shardedPath(flatPath));
+        }
+        return flatPath.toString(); // Return relative path
+    }
+
+    /**
+     * Saves an InputStream content like saveFile, on a storage writer thread instead of the
+     * calling one. The stream is read there, so close it only once the future has completed.
+     *
+     * @param inputStream The input stream of the file content.
+     * @param originalFileName The original name of the file (used for extension).
+     * @param messageType The type of message ('image', 'video', 'voiceNote', 'file').
+     * @return Completed with the relative path to the saved file once it is stored (durably,
+     * under the default tusal.storage.fsync=full), or exceptionally with the IOException of a
+     * failed write or the IllegalArgumentException of an unsupported messageType.
+     */
+    public static CompletableFuture<String> saveFileAsync(InputStream inputStream, String originalFileName, String messageType) {
+        Path flatPath;
+        try {
+            flatPath = newFlatPath(originalFileName, messageType);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (STORE != null) {
+            return STORE.putAsync(inputStream, flatPath.toString()).thenApply(hash -> flatPath.toString());
+        }
+        return WRITER.writeAsync(inputStream, shardedPath(flatPath)).thenApply(written -> flatPath.toString());
+    }
+
+    /**
+     * Deletes a saved file. In the content-addressed mode, only its reference is removed; the
+     * content goes with the next compaction once no other file has it.
+     * @param relativePath The path as returned by saveFile.
+     * @return False if there was no such file.
+     * @throws IOException If an I/O error occurs during deleting.
+     */
+    public static boolean deleteFile(String relativePath) throws IOException {
+        Path absolutePath = getAbsolutePath(relativePath);
+        READER.evict(absolutePath);
+        if (STORE != null && STORE.release(Paths.get(relativePath).toString())) {
+            return true;
+        }
+        return Files.deleteIfExists(absolutePath);
+    }
+
+    /**
+     * Reads part of a saved file, e.g. the next chunk of a resumed download.
+     * @param relativePath The path as returned by saveFile.
+     * @param length The most bytes to read; fewer are returned at the end of the file.
+     * @return A read-only buffer of the bytes, empty from the end of the file on.
+     * @throws IOException If the file cannot be read, e.g. NoSuchFileException if there is none.
+     * @throws IllegalArgumentException If offset or length is negative.
+     */
+    public static ByteBuffer readRange(String relativePath, long offset, int length) throws IOException {
+        return READER.read(getAbsolutePath(relativePath), offset, length);
+    }
+
+    /**
+     * Writes part of a saved file to a channel, e.g. the socket of a download from offset on,
+     * without copying it through the JVM.
+     * @param relativePath The path as returned by saveFile.
+     * @param length The most bytes to write, fewer at the end of the file.
+     * @return The number of bytes written.
+     * @throws IOException If the file cannot be read or target written.
+     * @throws IllegalArgumentException If offset or length is negative.
+     */
+    public static long transferRange(String relativePath, long offset, long length, WritableByteChannel target) throws IOException {
+        return READER.transferTo(getAbsolutePath(relativePath), offset, length, target);
+    }
+
+    /**
+     * @param relativePath The path as returned by saveFile.
+     * @return The size of the saved file, e.g. to answer a range request.
+     * @throws IOException If the file cannot be read, e.g. NoSuchFileException if there is none.
+     */
+    public static long getFileSize(String relativePath) throws IOException {
+        return READER.size(getAbsolutePath(relativePath));
+    }
+
+    /**
+     * @return The store of the content-addressed mode, or null if it is off.
+     */
+    public static ContentStore getContentStore() {
+        return STORE;
+    }
+
+    private static ContentStore openContentStore() {
+        try {
+            ContentStore store = new ContentStore(Paths.get(BASE_UPLOAD_DIR, BLOB_DIR), WRITER);
+            store.startCompaction(Long.getLong("tusal.storage.compactMinutes", 60));
+            return store;
+        } catch (IOException e) {
+            // Files are then stored one per upload, as without the mode, and still found
+            Log.error("Content-addressed storage is off, its index cannot be read: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return A new unique path directly in the type directory of messageType, with the extension of originalFileName.
+     * @throws IllegalArgumentException If an unsupported messageType is provided.
+     */
+    private static Path newFlatPath(String originalFileName, String messageType) {
         String subDir;
         switch (messageType) {
             case "image":
@@ -65,21 +216,61 @@ public class FileStorageManager {
         }
 
         String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
-        Path targetPath = Paths.get(BASE_UPLOAD_DIR, subDir, uniqueFileName);
-
-        Files.copy(inputStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
-
-        return Paths.get(BASE_UPLOAD_DIR, subDir, uniqueFileName).toString(); // Return relative path
+        return Paths.get(BASE_UPLOAD_DIR, subDir, uniqueFileName);
     }
 
     /**
      * Gets the full absolute path for a given relative file path.
      * Used for serving files or checking existence.
-     * @param relativePath The path as stored in the database (e.g., "uploads/images/abc.jpg")
-     * @return Absolute Path object.
+     * @param relativePath The path as stored in the database (e.g., "uploads/images/abc.jpg"),
+     * whether the file is a blob, in its shard directory or, not migrated yet, in the type directory itself.
+     * @return Absolute Path object; the flat location if the file exists in neither.
      */
     public static Path getAbsolutePath(String relativePath) {
-        return Paths.get(relativePath).toAbsolutePath();
+        Path flat = Paths.get(relativePath);
+        Path blob = STORE != null ? STORE.resolve(flat.toString()) : null;
+        if (blob != null) {
+            return blob.toAbsolutePath();
+        }
+        Path sharded = shardedPath(flat);
+        if (sharded == flat) {
+            return flat.toAbsolutePath();
+        }
+        if (Files.exists(sharded)) {
+            return sharded.toAbsolutePath();
+        }
+        if (Files.exists(flat)) {
+            return flat.toAbsolutePath();
+        }
+        // Moved by a running migration between the two checks
+        return (Files.exists(sharded) ? sharded : flat).toAbsolutePath();
+    }
+
+    /**
+     * @param flatPath A path directly inside a type directory, e.g. "uploads/images/abc.jpg".
+     * @return Where the sharded layout keeps that file, e.g. "uploads/images/3f/a2/abc.jpg", or
+     * flatPath itself if it is not inside a type directory.
+     */
+    public static Path shardedPath(Path flatPath) {
+        Path fileName = flatPath.getFileName();
+        Path typeDir = flatPath.getParent();
+        if (fileName == null || typeDir == null || !TYPE_DIRS.contains(typeDir.getFileName().toString())) {
+            return flatPath;
+        }
+        return typeDir.resolve(shardOf(fileName.toString())).resolve(fileName);
+    }
+
+    /**
+     * @return The two shard directory levels of a file name, e.g. "3f/a2".
+     */
+    static String shardOf(String fileName) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(fileName.getBytes(StandardCharsets.UTF_8));
+            HexFormat hex = HexFormat.of();
+            return hex.toHexDigits(hash[0]) + "/" + hex.toHexDigits(hash[1]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every JDK has it
+        }
     }
 
 
@@ -90,10 +281,9 @@ public class FileStorageManager {
         if (!Files.exists(uploadPath)) {
             try {
                 Files.createDirectories(uploadPath);
-                System.out.println("Created upload directory: " + uploadPath.toAbsolutePath());
+                Log.info("Created upload directory: " + uploadPath.toAbsolutePath());
             } catch (IOException e) {
-                System.err.println("Failed to create upload directory: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Failed to create upload directory: " + e.getMessage(), e);
                 // Handle this error appropriately, perhaps by exiting or disabling file features
             }
         }
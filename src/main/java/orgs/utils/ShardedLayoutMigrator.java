@@ -0,0 +1,136 @@
+package orgs.utils;
+
+import orgs.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves an upload tree from the flat layout into the sharded one (see FileStorageManager).
+ *
+ * Every regular file directly inside a type directory is renamed into its shard directory;
+ * the shard directories themselves are left alone, so the tool can be stopped and run again
+ * at any time, also while the server runs: getAbsolutePath finds a file before and after
+ * its move. Renames stay within one file system, so no bytes are copied, and the type
+ * directories are read as streams, so even millions of entries take little memory.
+ *
+ * Usage:
+ *   java -cp tusalClint.jar orgs.utils.ShardedLayoutMigrator [--dry-run] [uploadDir]
+ * uploadDir defaults to FileStorageManager.BASE_UPLOAD_DIR.
+ */
+public class ShardedLayoutMigrator {
+
+    private static final int REPORT_EVERY = 10_000;
+
+    /**
+     * What a migration did.
+     */
+    public static final class Result {
+        private long moved;
+        private long conflicts;
+        private long failed;
+
+        /**
+         * @return The files moved into their shard directory (or that would be, in a dry run).
+         */
+        public long getMoved() {
+            return moved;
+        }
+
+        /**
+         * @return The files left in place because their shard directory already has a file of that name.
+         */
+        public long getConflicts() {
+            return conflicts;
+        }
+
+        /**
+         * @return The files that could not be moved.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return moved + " moved, " + conflicts + " conflicts, " + failed + " failed";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean dryRun = false;
+        Path uploadDir = Paths.get(FileStorageManager.BASE_UPLOAD_DIR);
+        for (String arg : args) {
+            if ("--dry-run".equals(arg)) {
+                dryRun = true;
+            } else if (arg.startsWith("--")) {
+                Log.error("Unknown option " + arg);
+                Log.println("Usage: ShardedLayoutMigrator [--dry-run] [uploadDir]");
+                System.exit(1);
+                return;
+            } else {
+                uploadDir = Paths.get(arg);
+            }
+        }
+        Result result = migrate(uploadDir, dryRun);
+        Log.println((dryRun ? "Dry run: " : "") + result);
+        if (result.getFailed() > 0) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Moves the files of every type directory under uploadDir into their shard directories.
+     * @param dryRun If true, only counts what would be moved.
+     * @throws IOException If a type directory cannot be read.
+     */
+    public static Result migrate(Path uploadDir, boolean dryRun) throws IOException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        for (String typeDir : FileStorageManager.TYPE_DIRS) {
+            Path directory = uploadDir.resolve(typeDir);
+            if (Files.isDirectory(directory)) {
+                migrateDirectory(directory, dryRun, result);
+            }
+        }
+        Log.info("Migrated %s to the sharded layout in %d ms: %s", uploadDir, (System.nanoTime() - start) / 1_000_000, result);
+        return result;
+    }
+
+    private static void migrateDirectory(Path directory, boolean dryRun, Result result) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path flat : entries) {
+                // Shard directories, and anything else that is not a plain file, stay where they are
+                if (!Files.isRegularFile(flat, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                Path sharded = FileStorageManager.shardedPath(flat);
+                try {
+                    // An atomic rename would silently replace an existing file on POSIX
+                    if (Files.exists(sharded, LinkOption.NOFOLLOW_LINKS)) {
+                        throw new FileAlreadyExistsException(sharded.toString());
+                    }
+                    if (!dryRun) {
+                        Files.createDirectories(sharded.getParent());
+                        Files.move(flat, sharded, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    if (++result.moved % REPORT_EVERY == 0) {
+                        Log.info("Migrated %d files, now in %s", result.moved, directory);
+                    }
+                } catch (FileAlreadyExistsException e) {
+                    result.conflicts++;
+                    Log.warn("Not migrating " + flat + ": " + sharded + " already exists");
+                } catch (IOException e) {
+                    result.failed++;
+                    Log.warn("Could not migrate " + flat + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package orgs.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads ranges of stored files for serving them, without opening a file per request.
+ *
+ * Open files are kept in a cache of at most maxOpenFiles handles, least recently used
+ * first out; a handle evicted while a read uses it is closed once that read is done.
+ * Reads are positional, so any number of them share one handle, each at its own offset.
+ *
+ * A small file (at most mmapMaxBytes) read HOT_READS times is hot: it is mapped into memory
+ * once, and later reads return slices of the mapping, so serving a thumbnail or the first
+ * seconds of a popular voice note costs no system call and no copy. Mappings take at most
+ * mmapBudgetBytes together; they are dropped with their handle and unmapped by the GC.
+ *
+ * Stored files never change under their path (see FileStorageManager), so a cached handle
+ * or mapping is never stale; a deleted file is evicted with evict.
+ */
+public class StoredFileReader {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+    public static final long DEFAULT_MMAP_MAX_KB = 1024;
+    public static final long DEFAULT_MMAP_BUDGET_MB = 256;
+    /** The reads after which a small file is mapped. */
+    public static final int HOT_READS = 2;
+
+    private final int maxOpenFiles;
+    private final long mmapMaxBytes;
+    private final long mmapBudgetBytes;
+    // Map: <Absolute path, handle>, least recently used first; guarded by this
+    private final LinkedHashMap<Path, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes; // Guarded by this
+
+    /**
+     * @param maxOpenFiles The most files kept open between reads.
+     * @param mmapMaxBytes The largest file that is mapped once hot; 0 maps none.
+     * @param mmapBudgetBytes The most bytes mapped at the same time.
+     */
+    public StoredFileReader(int maxOpenFiles, long mmapMaxBytes, long mmapBudgetBytes) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        this.mmapMaxBytes = Math.min(mmapMaxBytes, Integer.MAX_VALUE);
+        this.mmapBudgetBytes = mmapBudgetBytes;
+    }
+
+    /**
+     * @return A reader configured by the system properties tusal.storage.openFiles,
+     * tusal.storage.mmapMaxKb and tusal.storage.mmapBudgetMb.
+     */
+    public static StoredFileReader fromSystemProperties() {
+        return new StoredFileReader(Integer.getInteger("tusal.storage.openFiles", DEFAULT_MAX_OPEN_FILES),
+                Long.getLong("tusal.storage.mmapMaxKb", DEFAULT_MMAP_MAX_KB) * 1024,
+                Long.getLong("tusal.storage.mmapBudgetMb", DEFAULT_MMAP_BUDGET_MB) * 1024 * 1024);
+    }
+
+    /**
+     * @return The size of file.
+     */
+    public long size(Path file) throws IOException {
+        Handle handle = acquire(file);
+        try {
+            return handle.size;
+        } finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Reads a range of file.
+     * @param length The most bytes to read; fewer are returned at the end of the file, and
+     * none from offset on.
+     * @return A read-only buffer of the bytes, a slice of the mapping if the file is hot.
+     * @throws IllegalArgumentException If offset or length is negative.
+     */
+    public ByteBuffer read(Path file, long offset, int length) throws IOException {
+        checkRange(offset, length);
+        Handle handle = acquire(file);
+        try {
+            int n = (int) Math.max(0, Math.min(length, handle.size - offset));
+            if (n == 0) {
+                return ByteBuffer.allocate(0);
+            }
+            MappedByteBuffer mapped = mapIfHot(handle);
+            if (mapped != null) {
+                return mapped.slice((int) offset, n).asReadOnlyBuffer();
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(n);
+            while (bytes.hasRemaining()) {
+                if (handle.channel.read(bytes, offset + bytes.position()) < 0) {
+                    throw new IOException(file + " ended at " + (offset + bytes.position()) + " of " + handle.size + " bytes");
+                }
+            }
+            return bytes.flip().asReadOnlyBuffer();
+        } finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Writes a range of file to target, e.g. a socket, with FileChannel.transferTo: the
+     * kernel moves the bytes, and none are copied into the JVM.
+     * @param length The most bytes to write, fewer at the end of the file.
+     * @return The number of bytes written.
+     * @throws IllegalArgumentException If offset or length is negative.
+     */
+    public long transferTo(Path file, long offset, long length, WritableByteChannel target) throws IOException {
+        checkRange(offset, length);
+        Handle handle = acquire(file);
+        try {
+            long end = offset + Math.max(0, Math.min(length, handle.size - offset));
+            long position = offset;
+            MappedByteBuffer mapped = mapIfHot(handle);
+            if (mapped != null && position < end) {
+                ByteBuffer slice = mapped.slice((int) position, (int) (end - position));
+                while (slice.hasRemaining()) {
+                    position += target.write(slice);
+                }
+            }
+            while (position < end) {
+                long n = handle.channel.transferTo(position, end - position, target);
+                if (n <= 0 && position >= handle.channel.size()) {
+                    throw new IOException(file + " ended at " + position + " of " + handle.size + " bytes");
+                }
+                position += n;
+            }
+            return Math.max(0, position - offset);
+        } finally {
+            release(handle);
+        }
+    }
+
+    /**
+     * Drops the handle and mapping of file, e.g. once it is deleted.
+     */
+    public synchronized void evict(Path file) {
+        Handle handle = handles.remove(file.toAbsolutePath());
+        if (handle != null) {
+            retire(handle);
+        }
+    }
+
+    /**
+     * @return The number of files kept open.
+     */
+    public synchronized int getOpenFiles() {
+        return handles.size();
+    }
+
+    /**
+     * @return The bytes of all mappings.
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    private static void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range: " + length + " bytes at " + offset);
+        }
+    }
+
+    private Handle acquire(Path file) throws IOException {
+        Path key = file.toAbsolutePath();
+        synchronized (this) {
+            Handle handle = handles.get(key);
+            if (handle != null) {
+                handle.users++;
+                return handle;
+            }
+        }
+        // Opened outside the lock; of two threads opening one file, the second closes its own
+        FileChannel channel = FileChannel.open(key, StandardOpenOption.READ);
+        Handle opened;
+        try {
+            opened = new Handle(channel, channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        synchronized (this) {
+            Handle handle = handles.get(key);
+            if (handle == null) {
+                handle = opened;
+                handles.put(key, handle);
+                trim();
+            } else {
+                channel.close();
+            }
+            handle.users++;
+            return handle;
+        }
+    }
+
+    private synchronized void release(Handle handle) {
+        handle.users--;
+        if (handle.retired && handle.users == 0) {
+            close(handle);
+        }
+    }
+
+    /**
+     * Evicts the least recently used handles beyond maxOpenFiles. Called under the lock.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Path, Handle>> eldest = handles.entrySet().iterator();
+        while (handles.size() > maxOpenFiles && eldest.hasNext()) {
+            Handle handle = eldest.next().getValue();
+            eldest.remove();
+            retire(handle);
+        }
+    }
+
+    /**
+     * Takes a handle out of service; it is closed once no read uses it. Called under the lock.
+     */
+    private void retire(Handle handle) {
+        handle.retired = true;
+        if (handle.mapped != null) {
+            mappedBytes -= handle.size;
+            handle.mapped = null;
+        }
+        if (handle.users == 0) {
+            close(handle);
+        }
+    }
+
+    private static void close(Handle handle) {
+        try {
+            handle.channel.close();
+        } catch (IOException e) {
+            // Opened for reading only, so nothing is lost
+        }
+    }
+
+    /**
+     * Counts a read of the file of handle; only read and transferTo call this, so asking for
+     * its size does not make a file hot.
+     * @return The mapping of the file of handle, made now if it just became hot, or null if
+     * it is not hot, too large or the budget is used up.
+     */
+    private MappedByteBuffer mapIfHot(Handle handle) throws IOException {
+        synchronized (this) {
+            handle.reads++;
+            if (handle.mapped != null || handle.mapping || handle.retired || handle.reads < HOT_READS
+                    || handle.size == 0 || handle.size > mmapMaxBytes || mappedBytes + handle.size > mmapBudgetBytes) {
+                return handle.mapped;
+            }
+            // Reserved before mapping; readers meanwhile go through the channel
+            mappedBytes += handle.size;
+            handle.mapping = true;
+        }
+        MappedByteBuffer mapped = null;
+        try {
+            mapped = handle.channel.map(FileChannel.MapMode.READ_ONLY, 0, handle.size);
+            return mapped;
+        } finally {
+            synchronized (this) {
+                handle.mapping = false;
+                if (mapped != null && !handle.retired) {
+                    handle.mapped = mapped;
+                } else {
+                    mappedBytes -= handle.size;
+                }
+            }
+        }
+    }
+
+    private static final class Handle {
+        final FileChannel channel;
+        final long size;
+        int users; // Guarded by the reader
+        int reads; // Guarded by the reader
+        boolean retired; // Guarded by the reader
+        boolean mapping; // Guarded by the reader
+        MappedByteBuffer mapped; // Guarded by the reader
+
+        Handle(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+}
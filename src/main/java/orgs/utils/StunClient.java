@@ -1,4 +1,9 @@
 package  orgs.utils ;
+import orgs.logging.Level;
+import orgs.logging.Log;
+import orgs.tracing.Span;
+import orgs.tracing.Tracer;
+
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -36,39 +41,36 @@ public class StunClient {
     private static final short XOR_MAPPED_ADDRESS_TYPE = 0x0020;
 
     public static void main(String[] args) {
-        System.out.println("Starting STUN client to discover public IP and port...");
-        System.out.println("STUN Server: " + STUN_SERVER_HOST + ":" + STUN_SERVER_PORT);
+        Log.info("Starting STUN client to discover public IP and port...");
+        Log.info("STUN Server: " + STUN_SERVER_HOST + ":" + STUN_SERVER_PORT);
 
         try (DatagramSocket socket = new DatagramSocket()) {
             // You can optionally bind the socket to a specific local port if needed,
             // otherwise, the OS will assign a random ephemeral port.
             // socket.bind(new InetSocketAddress(0)); // Binds to any available local port
 
-            System.out.println("Local Socket Bound to: " + socket.getLocalSocketAddress());
+            Log.info("Local Socket Bound to: " + socket.getLocalSocketAddress());
 
             InetSocketAddress publicAddress = getPublicAddress(socket);
 
             if (publicAddress != null) {
-                System.out.println("\n--- STUN Discovery Successful ---");
-                System.out.println("Your Public IP Address: " + publicAddress.getAddress().getHostAddress());
-                System.out.println("Your Public Port: " + publicAddress.getPort());
-                System.out.println("---------------------------------");
+                Log.info("STUN discovery successful. Public IP Address: %s, Public Port: %d",
+                        publicAddress.getAddress().getHostAddress(), publicAddress.getPort());
             } else {
-                System.out.println("STUN discovery failed: Could not determine public address.");
+                Log.warn("STUN discovery failed: Could not determine public address.");
             }
 
         } catch (SocketTimeoutException e) {
-            System.err.println("Error: STUN server did not respond within the timeout period. " +
+            Log.error("Error: STUN server did not respond within the timeout period. " +
                     "This might be due to a strict firewall, network issues, or the STUN server being unreachable.");
         } catch (SocketException e) {
-            System.err.println("Error creating or using UDP socket: " + e.getMessage());
+            Log.error("Error creating or using UDP socket: " + e.getMessage());
         } catch (IOException e) {
-            System.err.println("Network I/O error: " + e.getMessage());
+            Log.error("Network I/O error: " + e.getMessage());
         } catch (Exception e) {
-            System.err.println("An unexpected error occurred: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("An unexpected error occurred: " + e.getMessage(), e);
         }
-        System.out.println("STUN client finished.");
+        Log.info("STUN client finished.");
     }
 
     /**
@@ -83,28 +85,34 @@ public class StunClient {
      * @throws Exception if the STUN response is malformed or invalid.
      */
     public static InetSocketAddress getPublicAddress(DatagramSocket socket) throws IOException, Exception {
-        socket.setSoTimeout(STUN_TIMEOUT_MS); // Set timeout for receiving responses
+        try (Span span = Tracer.get().start("stun discovery", "call").arg("localPort", socket.getLocalPort())) {
+            socket.setSoTimeout(STUN_TIMEOUT_MS); // Set timeout for receiving responses
 
-        byte[] transactionId = generateTransactionId();
-        byte[] requestBytes = createStunBindingRequest(transactionId);
+            byte[] transactionId = generateTransactionId();
+            byte[] requestBytes = createStunBindingRequest(transactionId);
 
-        InetAddress serverAddress = InetAddress.getByName(STUN_SERVER_HOST);
-        DatagramPacket requestPacket = new DatagramPacket(requestBytes, requestBytes.length, serverAddress, STUN_SERVER_PORT);
+            InetAddress serverAddress = InetAddress.getByName(STUN_SERVER_HOST);
+            DatagramPacket requestPacket = new DatagramPacket(requestBytes, requestBytes.length, serverAddress, STUN_SERVER_PORT);
 
-        System.out.println("Sending STUN Binding Request...");
-        socket.send(requestPacket);
+            Log.debug("Sending STUN Binding Request...");
+            socket.send(requestPacket);
 
-        byte[] responseBuffer = new byte[1024];
-        DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
+            byte[] responseBuffer = new byte[1024];
+            DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
 
-        System.out.println("Waiting for STUN Binding Response...");
-        socket.receive(responsePacket);
+            Log.debug("Waiting for STUN Binding Response...");
+            socket.receive(responsePacket);
 
-        System.out.println("Received STUN Binding Response.");
-        // Print raw response bytes for debugging, limiting to first 64 bytes for brevity
-        System.out.println("Raw response bytes (first " + Math.min(responsePacket.getLength(), 64) + " bytes): " + bytesToHex(Arrays.copyOfRange(responsePacket.getData(), 0, Math.min(responsePacket.getLength(), 64))));
+            Log.debug("Received STUN Binding Response.");
+            // Print raw response bytes for debugging, limiting to first 64 bytes for brevity
+            if (Log.isEnabled(Level.DEBUG)) {
+                int dumpLength = Math.min(responsePacket.getLength(), 64);
+                Log.debug("Raw response bytes (first %d bytes): %s", dumpLength,
+                        bytesToHex(Arrays.copyOfRange(responsePacket.getData(), 0, dumpLength)));
+            }
 
-        return parseStunBindingResponse(responsePacket.getData(), responsePacket.getLength(), transactionId);
+            return parseStunBindingResponse(responsePacket.getData(), responsePacket.getLength(), transactionId);
+        }
     }
 
     /**
@@ -164,11 +172,10 @@ public class StunClient {
         byte[] transactionId = new byte[12];
         buffer.get(transactionId);
 
-        System.out.println("STUN Response Header:");
-        System.out.println("  Message Type: " + String.format("0x%04X", messageType));
-        System.out.println("  Message Length: " + messageLength + " bytes (attributes only)");
-        System.out.println("  Magic Cookie: " + String.format("0x%08X", magicCookie));
-        System.out.println("  Transaction ID: " + bytesToHex(transactionId));
+        if (Log.isEnabled(Level.DEBUG)) {
+            Log.debug("STUN Response Header: Message Type: 0x%04X, Message Length: %d bytes (attributes only), " +
+                    "Magic Cookie: 0x%08X, Transaction ID: %s", messageType, messageLength, magicCookie, bytesToHex(transactionId));
+        }
 
         // Validate STUN header
         if (messageType != BINDING_SUCCESS_RESPONSE_TYPE) {
@@ -192,7 +199,7 @@ public class StunClient {
             short attributeType = buffer.getShort();
             short attributeLength = buffer.getShort();
 
-            System.out.println("  Parsing Attribute: Type=0x" + String.format("%04X", attributeType) + ", Length=" + attributeLength + " bytes");
+            Log.debug("Parsing STUN Attribute: Type=0x%04X, Length=%d bytes", attributeType, attributeLength);
 
             if (attributeType == MAPPED_ADDRESS_TYPE) {
                 // MAPPED-ADDRESS attribute format:
@@ -247,7 +254,7 @@ public class StunClient {
         if (publicIp != null && publicPort != -1) {
             return new InetSocketAddress(publicIp, publicPort);
         } else {
-            System.out.println("No MAPPED-ADDRESS or XOR-MAPPED-ADDRESS attribute found in STUN response.");
+            Log.warn("No MAPPED-ADDRESS or XOR-MAPPED-ADDRESS attribute found in STUN response.");
             return null;
         }
     }
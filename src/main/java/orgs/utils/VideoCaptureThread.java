@@ -7,6 +7,11 @@ import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfInt;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.videoio.VideoCapture;
+import orgs.metrics.Channel;
+import orgs.logging.Log;
+import orgs.logging.LogSite;
+import orgs.metrics.ClientMetrics;
+import orgs.transfer.BandwidthScheduler;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -24,6 +29,10 @@ public class VideoCaptureThread extends Thread {
     private AtomicBoolean running = new AtomicBoolean(true);
     private int frameId = 0; // Simple frame counter
 
+    // Per-frame messages, at most one per second
+    private static final LogSite FRAME_LOG = Log.site(1, 1000);
+    private static final LogSite SEND_ERROR_LOG = Log.site(5, 1000);
+
     public VideoCaptureThread(DatagramSocket socket, InetAddress remoteIp, int remoteUdpPort) {
         //System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         this.udpSocket = socket;
@@ -31,7 +40,7 @@ public class VideoCaptureThread extends Thread {
         this.remoteUdpPort = remoteUdpPort;
         this.capture = new VideoCapture(0); // 0 for default webcam
         if (!capture.isOpened()) {
-            System.err.println("Error: Could not open webcam.");
+            Log.error("Could not open webcam.");
             running.set(false);
         }
     }
@@ -45,7 +54,7 @@ public class VideoCaptureThread extends Thread {
 
     @Override
     public void run() {
-        System.out.println("the capter thread is on \n\n");
+        Log.info("Video capture thread started.");
         Mat frame = new Mat();
         MatOfByte mob = new MatOfByte(); // Used for JPEG encoding
         int quality = 20 ; //
@@ -55,12 +64,20 @@ public class VideoCaptureThread extends Thread {
                 // Encode frame to JPEG (simple for demo, but not very efficient for video)
                 Imgcodecs.imencode(".jpg", frame, mob ,new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality));
                 byte[] frameBytes = mob.toArray();
-                System.out.println("you need up load faster then: " + (mob.total()*8*5)/1024 + " K bits");
+                FRAME_LOG.debug("Frame %d is %d bytes, upload needs at least %d kbit/s", frameId, frameBytes.length, (mob.total() * 8 * 5) / 1024);
                 // For fragmented packets, each packet might look like:
                 // [4 bytes: frameId] [4 bytes: fragmentIndex] [4 bytes: totalFragments] [data...]
                 int maxPacketSize = 1400; // Typical payload size to avoid IP fragmentation
                 int totalFragments = (int) Math.ceil((double) frameBytes.length / maxPacketSize);
 
+                // Audio goes first: skip this frame if the uplink it leaves is used up
+                if (!BandwidthScheduler.get().admitVideoFrame(frameBytes.length + totalFragments * 12)) {
+                    FRAME_LOG.debug("Skipped frame %d (%d bytes), video limit is %d bytes/s",
+                            frameId, frameBytes.length, BandwidthScheduler.get().getVideoLimit());
+                    sleepUntilNextFrame();
+                    continue;
+                }
+
                 for (int i = 0; i < totalFragments; i++) {
                     int offset = i * maxPacketSize;
                     int length = Math.min(maxPacketSize, frameBytes.length - offset);
@@ -75,25 +92,21 @@ public class VideoCaptureThread extends Thread {
                     DatagramPacket packet = new DatagramPacket(packetBuffer.array(), packetBuffer.position(), remoteIp, remoteUdpPort);
                     try {
                         udpSocket.send(packet);
+                        ClientMetrics.get().addBytesOut(Channel.VIDEO_UDP, packet.getLength());
                     } catch (IOException e) {
-                        System.err.println("Error sending video packet: " + e.getMessage());
+                        SEND_ERROR_LOG.error("Error sending video packet: %s", e.getMessage());
                         if (e instanceof SocketException && e.getMessage().contains("socket closed")) {
                             running.set(false); // Stop if socket is closed externally
                         }
                     }
                 }
                 frameId++;
-                System.out.println("********* send video to the ip : "+remoteIp+ " on port : "+remoteUdpPort);
+                FRAME_LOG.debug("Sent video frame %d to %s:%d", frameId, remoteIp, remoteUdpPort);
             }
 
-            try {
-                Thread.sleep(33); // ~33ms for ~30 FPS
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                running.set(false);
-            }
+            sleepUntilNextFrame();
         }
-        System.out.println("Video capture thread stopped.");
+        Log.info("Video capture thread stopped.");
         frame.release(); // Release frame resources
         mob.release(); // Release MatOfByte resources
         if (capture.isOpened()) {
@@ -101,6 +114,15 @@ public class VideoCaptureThread extends Thread {
         }
     }
 
+    private void sleepUntilNextFrame() {
+        try {
+            Thread.sleep(33); // ~33ms for ~30 FPS
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.set(false);
+        }
+    }
+
 //    public static void main(String[] args) {
 //        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 //        VideoCaptureThread videoCaptureThread =new VideoCaptureThread(null, null,1234);
@@ -3,6 +3,10 @@ package orgs.utils;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
+import orgs.metrics.Channel;
+import orgs.logging.Log;
+import orgs.logging.LogSite;
+import orgs.metrics.ClientMetrics;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -30,6 +34,10 @@ public class VideoReceiverThread extends Thread {
     private ConcurrentMap<Integer, Integer> frameMetadata = new ConcurrentHashMap<>();
     private int lastDisplayedFrameId = -1; // To ensure frames are displayed in order
 
+    // Per-packet and per-frame messages are rate limited
+    private static final LogSite FRAME_LOG = Log.site(1, 1000);
+    private static final LogSite ERROR_LOG = Log.site(5, 1000);
+
     public VideoReceiverThread(DatagramSocket socket) {
         this.udpSocket = socket;
     }
@@ -44,8 +52,8 @@ public class VideoReceiverThread extends Thread {
 
     @Override
     public void run() {
-        System.out.println("the rsever thread is on "+ "\nrunning : "+running.get() +"\nis close : "+udpSocket.isClosed());
-        System.out.println(" \nmy port" + udpSocket.getLocalPort());
+        Log.info("Video receiver thread started on port %d (running: %b, closed: %b)",
+                udpSocket.getLocalPort(), running.get(), udpSocket.isClosed());
         byte[] buffer = new byte[65507]; // Max UDP packet size
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
         int reseved = 0 ;
@@ -54,50 +62,68 @@ public class VideoReceiverThread extends Thread {
 
             try {
                 udpSocket.receive(packet);
-                ByteBuffer bBuffer = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
-                if (bBuffer.remaining() >= 12) { // Ensure header exists (frameId, fragIndex, totalFrags)
-                    int currentFrameId = bBuffer.getInt();
-                    int fragmentIndex = bBuffer.getInt();
-                    int totalFragments = bBuffer.getInt();
-
-                    byte[] fragmentData = new byte[bBuffer.remaining()];
-                    bBuffer.get(fragmentData);
-
-                    frameMetadata.putIfAbsent(currentFrameId, totalFragments);
-                    frameBuffer.computeIfAbsent(currentFrameId, k -> new ConcurrentHashMap<>())
-                            .put(fragmentIndex, fragmentData);
-
-                    // Check if all fragments for the current frame are received
-                    if (frameBuffer.containsKey(currentFrameId) &&
-                            frameBuffer.get(currentFrameId).size() == frameMetadata.get(currentFrameId)) {
-
-                        // Only process if it's the next expected frame or a more recent one
-                        if (currentFrameId > lastDisplayedFrameId) {
-                            // Reassemble the full frame
-                            byte[] fullFrameBytes = reassembleFrame(currentFrameId);
-                            if (fullFrameBytes != null) {
-                                System.out.println("******   resved video "+ (++reseved)) ;
-                                displayFrame(fullFrameBytes);
-                                lastDisplayedFrameId = currentFrameId;
-                            }
-                        }
-                        // Clean up processed frame data to prevent memory leak
-                        frameBuffer.remove(currentFrameId);
-                        frameMetadata.remove(currentFrameId);
-                    }
-
-                    // Simple cleanup for old frames (basic jitter buffer management)
-                    frameBuffer.keySet().removeIf(id -> id < lastDisplayedFrameId - 5); // Remove very old frames
-                    frameMetadata.keySet().removeIf(id -> id < lastDisplayedFrameId - 5);
-
+                ClientMetrics.get().addBytesIn(Channel.VIDEO_UDP, packet.getLength());
+                byte[] fullFrameBytes = acceptPacket(packet.getData(), packet.getLength());
+                if (fullFrameBytes != null) {
+                    FRAME_LOG.debug("Received video frame %d", ++reseved);
+                    displayFrame(fullFrameBytes);
                 }
             } catch (IOException e) {
                 if (!udpSocket.isClosed()) {
-                    System.err.println("Error receiving video packet: " + e.getMessage());
+                    ERROR_LOG.error("Error receiving video packet: %s", e.getMessage());
                 }
             }
         }
-        System.out.println("Video receiver thread stopped.");
+        Log.info("Video receiver thread stopped.");
+    }
+
+    /**
+     * Adds one received packet ([frameId][fragmentIndex][totalFragments][data...]) to the
+     * jitter buffer and reassembles its frame once all fragments have arrived.
+     *
+     * @param data   The packet buffer.
+     * @param length The number of valid bytes in the buffer.
+     * @return The full frame bytes if this packet completed a frame newer than the last
+     *         displayed one, otherwise null.
+     */
+    public byte[] acceptPacket(byte[] data, int length) {
+        ByteBuffer bBuffer = ByteBuffer.wrap(data, 0, length);
+        if (bBuffer.remaining() < 12) { // Ensure header exists (frameId, fragIndex, totalFrags)
+            return null;
+        }
+        int currentFrameId = bBuffer.getInt();
+        int fragmentIndex = bBuffer.getInt();
+        int totalFragments = bBuffer.getInt();
+
+        byte[] fragmentData = new byte[bBuffer.remaining()];
+        bBuffer.get(fragmentData);
+
+        frameMetadata.putIfAbsent(currentFrameId, totalFragments);
+        frameBuffer.computeIfAbsent(currentFrameId, k -> new ConcurrentHashMap<>())
+                .put(fragmentIndex, fragmentData);
+
+        byte[] fullFrameBytes = null;
+        // Check if all fragments for the current frame are received
+        if (frameBuffer.containsKey(currentFrameId) &&
+                frameBuffer.get(currentFrameId).size() == frameMetadata.get(currentFrameId)) {
+
+            // Only process if it's the next expected frame or a more recent one
+            if (currentFrameId > lastDisplayedFrameId) {
+                // Reassemble the full frame
+                fullFrameBytes = reassembleFrame(currentFrameId);
+                if (fullFrameBytes != null) {
+                    lastDisplayedFrameId = currentFrameId;
+                }
+            }
+            // Clean up processed frame data to prevent memory leak
+            frameBuffer.remove(currentFrameId);
+            frameMetadata.remove(currentFrameId);
+        }
+
+        // Simple cleanup for old frames (basic jitter buffer management)
+        frameBuffer.keySet().removeIf(id -> id < lastDisplayedFrameId - 5); // Remove very old frames
+        frameMetadata.keySet().removeIf(id -> id < lastDisplayedFrameId - 5);
+        return fullFrameBytes;
     }
 
     private byte[] reassembleFrame(int frameId) {
@@ -154,7 +180,7 @@ public class VideoReceiverThread extends Thread {
             encodedMat.release(); // Release resources
             frame.release(); // Release resources
         } catch (Exception e) {
-            System.err.println("Error displaying video frame: " + e.getMessage());
+            ERROR_LOG.error("Error displaying video frame: %s", e.getMessage());
             // e.printStackTrace(); // Uncomment for detailed debugging
         }
     }
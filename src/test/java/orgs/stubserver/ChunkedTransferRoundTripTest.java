@@ -0,0 +1,249 @@
+package orgs.stubserver;
+
+import orgs.transfer.ChunkedTransfer;
+import orgs.transfer.ResumableTransfer;
+import orgs.transfer.TransferDigest;
+import orgs.transfer.TransferJournal;
+import orgs.transfer.ZeroCopy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips of the ChunkedTransfer protocol against StubChatServer's file port, through a
+ * proxy that damages one byte of the first chunk (the receiver must answer NAK and get the
+ * chunk again) and drops the first connection part way through the second chunk.
+ */
+class ChunkedTransferRoundTripTest {
+
+    private static final int SIZE = 3 * ChunkedTransfer.CHUNK_SIZE + ChunkedTransfer.CHUNK_SIZE / 2;
+    // Inside the data of the first chunk, past the first line and the chunk header
+    private static final long DAMAGE_AT = 1000;
+    // The first chunk twice and half of the second: only the first one is committed
+    private static final long DROP_AFTER = 2L * ChunkedTransfer.CHUNK_SIZE + ChunkedTransfer.CHUNK_SIZE / 2;
+
+    @TempDir
+    Path directory;
+
+    private StubChatServer server;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubChatServer(0, 0).start();
+        content = new byte[SIZE];
+        new Random(35).nextBytes(content);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void chunkedUploadResendsDamagedChunkAndResumesAfterDrop() throws Exception {
+        PendingTransfer transfer = PendingTransfer.upload(SIZE, sha256(content));
+        String transferId = server.registerTransfer(transfer);
+        Path file = directory.resolve("upload.bin");
+        Files.write(file, content);
+
+        try (FaultyProxy proxy = new FaultyProxy(server.getFilePort(), true, DROP_AFTER)) {
+            ResumableTransfer resumable = new ResumableTransfer(proxy::connect,
+                    new TransferJournal(directory.resolve("journal")), ResumableTransfer.DEFAULT_MAX_ATTEMPTS);
+            String status = resumable.upload(transferId, file, committed -> { });
+
+            assertEquals(TransferDigest.successLine(sha256(content)), status);
+            assertArrayEquals(content, transfer.getReceived().get(5, TimeUnit.SECONDS));
+            assertEquals(2, proxy.getConnections());
+            assertTrue(proxy.getReplies(0).contains("NAK 0\n"), proxy.getReplies(0));
+            // The second connection continues after the committed chunk instead of starting over
+            assertTrue(proxy.getReplies(1).startsWith(ChunkedTransfer.offsetLine(ChunkedTransfer.CHUNK_SIZE) + "\n"),
+                    proxy.getReplies(1));
+        }
+    }
+
+    @Test
+    void chunkedDownloadResendsDamagedChunkAndResumesAfterDrop() throws Exception {
+        String transferId = server.registerTransfer(PendingTransfer.download(content));
+        Path target = directory.resolve("download.bin");
+
+        try (FaultyProxy proxy = new FaultyProxy(server.getFilePort(), false, DROP_AFTER)) {
+            ResumableTransfer resumable = new ResumableTransfer(proxy::connect,
+                    new TransferJournal(directory.resolve("journal")), ResumableTransfer.DEFAULT_MAX_ATTEMPTS);
+            String sha256 = resumable.download(transferId, ResumableTransfer.mediaKey(1), target, SIZE,
+                    sha256(content), committed -> { }, null);
+
+            assertEquals(sha256(content), sha256);
+            assertArrayEquals(content, Files.readAllBytes(target));
+            assertEquals(2, proxy.getConnections());
+            assertTrue(proxy.getReplies(0).contains("NAK 0\n"), proxy.getReplies(0));
+            assertTrue(proxy.getReplies(1).startsWith(ChunkedTransfer.resumeLine(transferId, ChunkedTransfer.CHUNK_SIZE) + "\n"),
+                    proxy.getReplies(1));
+        }
+    }
+
+    @Test
+    void streamResendsDamagedChunk() throws Exception {
+        PendingTransfer transfer = PendingTransfer.upload(-1, sha256(content));
+        String transferId = server.registerTransfer(transfer);
+
+        try (FaultyProxy proxy = new FaultyProxy(server.getFilePort(), true, Long.MAX_VALUE);
+             SocketChannel channel = proxy.connect()) {
+            ZeroCopy.writeLine(channel, ChunkedTransfer.streamLine(transferId));
+            TransferDigest digest = new TransferDigest();
+            long sent = ChunkedTransfer.sendStream(channel, channel, Channels.newChannel(new ByteArrayInputStream(content)),
+                    digest, committed -> { });
+
+            assertEquals(SIZE, sent);
+            assertEquals(TransferDigest.successLine(digest.finish()), ZeroCopy.readLine(channel));
+            assertArrayEquals(content, transfer.getReceived().get(5, TimeUnit.SECONDS));
+            assertTrue(proxy.getReplies(0).contains("NAK 0\n"), proxy.getReplies(0));
+        }
+    }
+
+    @Test
+    void streamFailsAfterDropAndCannotBeResumed() throws Exception {
+        PendingTransfer transfer = PendingTransfer.upload(-1, sha256(content));
+        String transferId = server.registerTransfer(transfer);
+
+        try (FaultyProxy proxy = new FaultyProxy(server.getFilePort(), true, DROP_AFTER)) {
+            try (SocketChannel channel = proxy.connect()) {
+                ZeroCopy.writeLine(channel, ChunkedTransfer.streamLine(transferId));
+                assertThrows(IOException.class, () -> ChunkedTransfer.sendStream(channel, channel,
+                        Channels.newChannel(new ByteArrayInputStream(content)), null, committed -> { }));
+            }
+            // A stream is read once, so the server gives up on it rather than wait for a reconnect
+            assertThrows(ExecutionException.class, () -> transfer.getReceived().get(5, TimeUnit.SECONDS));
+            try (SocketChannel channel = proxy.connect()) {
+                ZeroCopy.writeLine(channel, ChunkedTransfer.streamLine(transferId));
+                assertEquals(ChunkedTransfer.UNKNOWN_TRANSFER_ID, ZeroCopy.readLine(channel));
+            }
+        }
+    }
+
+    private static String sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+
+    /**
+     * Forwards connections to the file port. On the first connection it flips the byte at
+     * DAMAGE_AT of the data direction and closes both sides once dropAfter bytes have gone that
+     * way; later connections pass unchanged. The other direction, which carries the OFFSET or
+     * RESUME line and the ACK/NAK lines, is recorded per connection.
+     */
+    private static final class FaultyProxy implements AutoCloseable {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final int filePort;
+        private final boolean upload;
+        private final long dropAfter;
+        private final List<StringBuffer> replies = new CopyOnWriteArrayList<>();
+
+        /**
+         * @param upload True if the data goes from client to server.
+         */
+        FaultyProxy(int filePort, boolean upload, long dropAfter) throws IOException {
+            this.filePort = filePort;
+            this.upload = upload;
+            this.dropAfter = dropAfter;
+            Thread acceptor = new Thread(this::accept, "FaultyProxy");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        SocketChannel connect() throws IOException {
+            return SocketChannel.open(new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()));
+        }
+
+        int getConnections() {
+            return replies.size();
+        }
+
+        String getReplies(int connection) {
+            return replies.get(connection).toString();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    Socket upstream = new Socket("127.0.0.1", filePort);
+                    boolean first = replies.isEmpty();
+                    StringBuffer recorded = new StringBuffer();
+                    replies.add(recorded);
+                    Socket from = upload ? client : upstream;
+                    Socket to = upload ? upstream : client;
+                    pump(from, to, first, null, client, upstream);
+                    pump(to, from, false, recorded, client, upstream);
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void pump(Socket from, Socket to, boolean faulty, StringBuffer recorded, Socket... both) {
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                long position = 0;
+                try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        if (faulty && DAMAGE_AT >= position && DAMAGE_AT < position + n) {
+                            buffer[(int) (DAMAGE_AT - position)] ^= 0x5a;
+                        }
+                        if (faulty && position + n >= dropAfter) {
+                            out.write(buffer, 0, (int) (dropAfter - position));
+                            out.flush();
+                            break;
+                        }
+                        if (recorded != null) {
+                            recorded.append(new String(buffer, 0, n, StandardCharsets.ISO_8859_1));
+                        }
+                        out.write(buffer, 0, n);
+                        out.flush();
+                        position += n;
+                    }
+                } catch (IOException e) {
+                    // The other side closed
+                }
+                for (Socket socket : both) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Already closed
+                    }
+                }
+            }, "FaultyProxy-pump");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
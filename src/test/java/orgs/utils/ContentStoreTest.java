@@ -0,0 +1,149 @@
+package orgs.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The journal replay, reference counts and compaction of ContentStore.
+ */
+class ContentStoreTest {
+
+    private static final byte[] PHOTO = "photo bytes".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VOICE = "voice note bytes".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private final AtomicFileWriter writer = new AtomicFileWriter(2, AtomicFileWriter.Fsync.NONE);
+
+    @Test
+    void replayCutsTornLastLine() throws IOException {
+        String photo;
+        String voice;
+        try (ContentStore store = new ContentStore(directory, writer)) {
+            photo = store.put(new ByteArrayInputStream(PHOTO), "uploads/images/a.jpg");
+            voice = store.put(new ByteArrayInputStream(VOICE), "uploads/audio/b.ogg");
+        }
+        Path journal = directory.resolve(ContentStore.JOURNAL_NAME);
+        long complete = Files.size(journal);
+        // A crash in the middle of appending the next line
+        Files.write(journal, ("+\t" + photo.substring(0, 10)).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ContentStore reopened = new ContentStore(directory, writer)) {
+            assertEquals(complete, Files.size(journal));
+            assertEquals(2, reopened.getEntryCount());
+            assertEquals(reopened.blobPath(photo), reopened.resolve("uploads/images/a.jpg"));
+            assertEquals(reopened.blobPath(voice), reopened.resolve("uploads/audio/b.ogg"));
+            // Lines appended after the cut are whole again
+            reopened.put(new ByteArrayInputStream(PHOTO), "uploads/images/c.jpg");
+        }
+        try (ContentStore again = new ContentStore(directory, writer)) {
+            assertEquals(3, again.getEntryCount());
+            assertEquals(2, again.getRefCount(photo));
+            assertArrayEquals(PHOTO, Files.readAllBytes(again.resolve("uploads/images/c.jpg")));
+        }
+    }
+
+    @Test
+    void refCountsFollowPutsAndReleases() throws IOException {
+        String hash;
+        try (ContentStore store = new ContentStore(directory, writer)) {
+            hash = store.put(new ByteArrayInputStream(PHOTO), "a");
+            assertEquals(hash, store.put(new ByteArrayInputStream(PHOTO), "b"));
+            assertEquals(2, store.getRefCount(hash));
+            assertEquals(1, store.getBlobCount());
+
+            assertTrue(store.release("a"));
+            assertFalse(store.release("a"));
+            assertEquals(1, store.getRefCount(hash));
+            assertNull(store.resolve("a"));
+            assertEquals(0, store.compact().getBlobsDeleted());
+            assertArrayEquals(PHOTO, Files.readAllBytes(store.resolve("b")));
+
+            assertTrue(store.release("b"));
+            assertEquals(0, store.getRefCount(hash));
+            assertEquals(0, store.getBlobCount());
+            assertTrue(Files.exists(store.blobPath(hash)), "Released blobs stay until compaction");
+            assertEquals(1, store.compact().getBlobsDeleted());
+            assertFalse(Files.exists(store.blobPath(hash)));
+        }
+        // The released entries do not come back from the rewritten journal
+        try (ContentStore reopened = new ContentStore(directory, writer)) {
+            assertEquals(0, reopened.getEntryCount());
+        }
+    }
+
+    @Test
+    void replayReleasesEntryWithTab() throws IOException {
+        String hash;
+        try (ContentStore store = new ContentStore(directory, writer)) {
+            hash = store.put(new ByteArrayInputStream(PHOTO), "uploads/a\tb.jpg");
+            assertTrue(store.release("uploads/a\tb.jpg"));
+        }
+        try (ContentStore reopened = new ContentStore(directory, writer)) {
+            assertNull(reopened.resolve("uploads/a\tb.jpg"));
+            assertEquals(0, reopened.getEntryCount());
+            assertEquals(0, reopened.getRefCount(hash));
+            assertEquals(1, reopened.compact().getBlobsDeleted());
+        }
+    }
+
+    @Test
+    void compactionKeepsBlobOfConcurrentPut() throws Exception {
+        try (ContentStore store = new ContentStore(directory, writer)) {
+            compactConcurrentlyWithPuts(store);
+        }
+    }
+
+    @Test
+    void closeStopsCompactionAndReleasesJournal() throws IOException {
+        ContentStore store = new ContentStore(directory, writer);
+        store.put(new ByteArrayInputStream(PHOTO), "a");
+        store.startCompaction(60);
+        store.close();
+        assertThrows(IOException.class, () -> store.put(new ByteArrayInputStream(VOICE), "b"));
+        assertThrows(IOException.class, store::compact);
+
+        try (ContentStore reopened = new ContentStore(directory, writer)) {
+            assertEquals(1, reopened.getEntryCount());
+            assertNull(reopened.resolve("b"));
+        }
+    }
+
+    private static void compactConcurrentlyWithPuts(ContentStore store) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(2);
+        for (int i = 0; i < 300; i++) {
+            // An unreferenced blob, which compaction deletes unless the put below maps to it first
+            store.put(new ByteArrayInputStream(PHOTO), "old/" + i);
+            store.release("old/" + i);
+            String entry = "new/" + i;
+            CompletableFuture<String> put = CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                    return store.put(new ByteArrayInputStream(PHOTO), entry);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            start.await();
+            store.compact();
+            put.join();
+
+            Path blob = store.resolve(entry);
+            assertTrue(Files.exists(blob), "Blob of " + entry + " deleted by compaction");
+            assertArrayEquals(PHOTO, Files.readAllBytes(blob));
+            store.release(entry);
+        }
+    }
+}